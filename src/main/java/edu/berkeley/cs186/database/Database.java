@@ -7,6 +7,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 import edu.berkeley.cs186.database.common.ByteBuffer;
@@ -17,8 +18,12 @@ import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.BloomFilter;
+import edu.berkeley.cs186.database.index.HashIndex;
+import edu.berkeley.cs186.database.index.Index;
 import edu.berkeley.cs186.database.io.*;
 import edu.berkeley.cs186.database.memory.*;
+import edu.berkeley.cs186.database.query.PlanCache;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.QueryPlanException;
 import edu.berkeley.cs186.database.query.SortOperator;
@@ -33,6 +38,9 @@ public class Database implements AutoCloseable {
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
     private static final int MAX_SCHEMA_SIZE = 4005; // a wonderful number pulled out of nowhere
+    // Fill factor of the leaves of bulk loaded B+ trees, which leaves room for later inserts.
+    private static final float BULK_LOAD_FILL_FACTOR = 0.75f;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30; // how long close waits for executor tasks
 
     // information_schema.tables, manages all tables in the database
     private Table tableInfo;
@@ -40,8 +48,8 @@ public class Database implements AutoCloseable {
     private Table indexInfo;
     // table name to table object mapping
     private final ConcurrentMap<String, Table> tableLookup;
-    // index name to bplustree object mapping (index name is: "table,col")
-    private final ConcurrentMap<String, BPlusTree> indexLookup;
+    // index name to index object mapping (index name is: "table,col")
+    private final ConcurrentMap<String, Index> indexLookup;
     // table name to record id of entry in tableInfo
     private final ConcurrentMap<String, RecordId> tableInfoLookup;
     // index name to record id of entry in indexInfo
@@ -67,6 +75,8 @@ public class Database implements AutoCloseable {
     private final Transaction secondaryInitTransaction;
     // thread pool for background tasks
     private final ExecutorService executor;
+    // plans of prepared queries, dropped whenever a table or index is created or dropped
+    private final PlanCache planCache;
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
@@ -144,6 +154,7 @@ public class Database implements AutoCloseable {
         tableInfoLookup = new ConcurrentHashMap<>();
         indexInfoLookup = new ConcurrentHashMap<>();
         this.executor = new ThreadPool();
+        this.planCache = new PlanCache();
 
         if (useRecoveryManager) {
             recoveryManager = new ARIESRecoveryManager(lockManager.databaseContext(),
@@ -286,6 +297,49 @@ public class Database implements AutoCloseable {
         indexInfo.setFullPageRecords();
         tableLookup.put(INDEX_INFO_TABLE_NAME, indexInfo);
         tableIndices.put(INDEX_INFO_TABLE_NAME, Collections.emptyList());
+        this.upgradeIndexInfo(indexInfoHeapFile, indexInfoContext);
+    }
+
+    /**
+     * Brings the records of information_schema.indices of a database created
+     * before its index_kind and filter_page_num columns were added up to its
+     * current schema (see getIndexInfoSchema): those indices are B+ trees
+     * without Bloom filters. The columns were added at the end, so an
+     * upgraded record starts with the old one, and the schema recorded in
+     * information_schema.tables is only updated once every record is; an
+     * upgrade that was interrupted is simply done again.
+     */
+    private void upgradeIndexInfo(HeapFile indexInfoHeapFile, LockContext indexInfoContext) {
+        Schema schema = getIndexInfoSchema();
+        Iterator<RecordId> iter = tableInfo.ridIterator();
+        while (iter.hasNext()) {
+            RecordId tableInfoRid = iter.next();
+            TableInfoRecord record = new TableInfoRecord(tableInfo.getRecord(tableInfoRid));
+            if (!record.tableName.equals(INDEX_INFO_TABLE_NAME)) {
+                continue;
+            }
+            int numOldColumns = record.schema.getFieldNames().size();
+            if (numOldColumns >= schema.getFieldNames().size()) {
+                return;
+            }
+            // the values of the new columns for the old indices
+            List<DataBox> defaults = Arrays.asList(new IntDataBox(Index.Kind.BPLUS_TREE.ordinal()),
+                                                   new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM));
+            int numOldDefaults = numOldColumns - (schema.getFieldNames().size() - defaults.size());
+            Table oldIndexInfo = new Table(INDEX_INFO_TABLE_NAME, record.schema, indexInfoHeapFile,
+                                           indexInfoContext);
+            oldIndexInfo.setFullPageRecords();
+            Iterator<RecordId> rids = oldIndexInfo.ridIterator();
+            while (rids.hasNext()) {
+                RecordId rid = rids.next();
+                List<DataBox> values = new ArrayList<>(oldIndexInfo.getRecord(rid).getValues());
+                values.addAll(defaults.subList(numOldDefaults, defaults.size()));
+                indexInfo.updateRecord(values, rid);
+            }
+            record.schema = schema;
+            tableInfo.updateRecord(record.toDataBox(), tableInfoRid);
+            return;
+        }
     }
 
     // load tables from information_schema.tables
@@ -337,6 +391,7 @@ public class Database implements AutoCloseable {
                     HeapFile heapFile = new PageDirectory(bufferManager, record.partNum, record.pageNum, (short) 0,
                                                           tableContext);
                     Table table = new Table(record.tableName, record.schema, heapFile, tableContext);
+                    table.setStatisticsExecutor(executor);
                     tableLookup.put(record.tableName, table);
 
                     // sync on lock manager to ensure that multiple jobs don't
@@ -391,15 +446,19 @@ public class Database implements AutoCloseable {
             BPlusTreeMetadata metadata = parseIndexMetadata(indexInfo.getRecord(recordId));
             if (metadata == null) {
                 indexInfo.deleteRecord(recordId);
-                return;
+                continue;
             }
 
+            // index metadata does not prefix table names, but table metadata does
+            String prefixedTableName = prefixUserTableName(metadata.getTableName());
             loadingProgress.register();
             executor.execute(() -> {
-                RecordId tableMetadataRid = tableInfoLookup.get(metadata.getTableName());
+                RecordId tableMetadataRid = tableInfoLookup.get(prefixedTableName);
                 LockContext tableMetadataContext = tableInfoContext.childContext(tableMetadataRid.getPageNum());
                 tableMetadataContext.acquire(secondaryTC, LockType.S); // S(metadata)
-                LockContext tableContext = getTableContext(metadata.getTableName());
+                // the table itself may not have been loaded yet, so get its partition from its metadata
+                int tablePartNum = getTableMetadata(prefixedTableName).partNum;
+                LockContext tableContext = getTableContext(metadata.getTableName(), tablePartNum);
                 tableContext.acquire(secondaryTC, LockType.S); // S(table)
 
                 loadingProgress.arriveAndAwaitAdvance();
@@ -408,14 +467,14 @@ public class Database implements AutoCloseable {
                 LockContext indexContext = getIndexContext(indexName, metadata.getPartNum());
 
                 try {
-                    BPlusTree tree = new BPlusTree(bufferManager, metadata, indexContext);
-                    if (!tableIndices.containsKey(metadata.getTableName())) {
+                    Index index = loadIndex(metadata, indexContext);
+                    if (!tableIndices.containsKey(prefixedTableName)) {
                         // the list only needs to be synchronized while indices are being loaded, as multiple
                         // indices may attempt to add themselves to the list at the same time
-                        tableIndices.put(metadata.getTableName(), Collections.synchronizedList(new ArrayList<>()));
+                        tableIndices.put(prefixedTableName, Collections.synchronizedList(new ArrayList<>()));
                     }
-                    tableIndices.get(metadata.getTableName()).add(indexName);
-                    indexLookup.put(indexName, tree);
+                    tableIndices.get(prefixedTableName).add(indexName);
+                    indexLookup.put(indexName, index);
                     indexInfoLookup.put(indexName, recordId);
 
                     synchronized (loadingProgress) {
@@ -429,6 +488,16 @@ public class Database implements AutoCloseable {
         loadingProgress.arriveAndAwaitAdvance(); // start index loading
     }
 
+    // construct the index object described by metadata
+    private Index loadIndex(BPlusTreeMetadata metadata, LockContext indexContext) {
+        if (metadata.getKind() == Index.Kind.HASH) {
+            return new HashIndex(bufferManager, metadata, indexContext);
+        }
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, indexContext);
+        tree.setPrefetchExecutor(executor);
+        return tree;
+    }
+
     // wait until setup has finished
     public void waitSetupFinished() {
         while (!loadingProgress.isTerminated()) {
@@ -444,7 +513,9 @@ public class Database implements AutoCloseable {
     }
 
     /**
-     * Close this database.
+     * Close this database. Executor tasks still running after
+     * CLOSE_TIMEOUT_SECONDS are interrupted, and if they do not stop, a
+     * DatabaseException is thrown.
      */
     @Override
     public synchronized void close() {
@@ -455,8 +526,32 @@ public class Database implements AutoCloseable {
         // wait for all transactions to terminate
         this.waitAllTransactions();
 
-        // finish executor tasks
+        // finish the re-analyses of tables, which read pages, and executor tasks
+        for (Table table : this.tableLookup.values()) {
+            table.awaitStatistics();
+        }
         this.executor.shutdown();
+        // index prefetches (see BPlusTree::setPrefetchExecutor) may still be
+        // reading pages into the buffer pool
+        boolean terminated;
+        try {
+            terminated = this.executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!terminated) {
+                // interrupt the tasks still running, and give them a moment to stop
+                this.executor.shutdownNow();
+                terminated = this.executor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            terminated = this.executor.isTerminated();
+        }
+        if (!terminated) {
+            // the buffer pool and disk are left open rather than closed under
+            // the tasks still reading pages into them
+            throw new DatabaseException("Executor tasks did not stop within " +
+                                        CLOSE_TIMEOUT_SECONDS + " seconds of closing the database.");
+        }
 
         this.bufferManager.evictAll();
 
@@ -519,9 +614,10 @@ public class Database implements AutoCloseable {
     private Schema getIndexInfoSchema() {
         return new Schema(
                    Arrays.asList("table_name", "col_name", "order", "part_num", "root_page_num", "key_schema_typeid",
-                                 "key_schema_typesize", "height"),
+                                 "key_schema_typesize", "height", "index_kind", "filter_page_num"),
                    Arrays.asList(Type.stringType(32), Type.stringType(32), Type.intType(), Type.intType(),
-                                 Type.longType(), Type.intType(), Type.intType(), Type.intType())
+                                 Type.longType(), Type.intType(), Type.intType(), Type.intType(), Type.intType(),
+                                 Type.longType())
                );
     }
 
@@ -574,13 +670,16 @@ public class Database implements AutoCloseable {
         int partNum = values.get(3).getInt();
         long rootPageNum = values.get(4).getLong();
         int height = values.get(7).getInt();
+        Index.Kind kind = Index.Kind.values()[values.get(8).getInt()];
+        long filterPageNum = values.get(9).getLong();
 
         if (partNum < 0) {
             return null;
         }
 
         Type keySchema = new Type(TypeId.values()[values.get(5).getInt()], values.get(6).getInt());
-        return new BPlusTreeMetadata(tableName, colName, keySchema, order, partNum, rootPageNum, height);
+        return new BPlusTreeMetadata(tableName, colName, keySchema, order, partNum, rootPageNum, height,
+                                     kind, filterPageNum);
     }
 
     // get the lock context for information_schema.tables
@@ -676,7 +775,9 @@ public class Database implements AutoCloseable {
                             new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM),
                             new IntDataBox(TypeId.INT.ordinal()),
                             new IntDataBox(4),
-                            new IntDataBox(-1)
+                            new IntDataBox(-1),
+                            new IntDataBox(Index.Kind.BPLUS_TREE.ordinal()),
+                            new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM)
                         ));
             });
         }
@@ -749,12 +850,20 @@ public class Database implements AutoCloseable {
         Map<String, String> aliases;
         Map<String, Table> tempTables;
         long tempTableCounter;
+        int degreeOfParallelism;
+        // the workers started by runWorker that have not finished yet, and
+        // whether close was called (see close)
+        Set<CompletableFuture<Void>> workers;
+        volatile boolean closing;
 
         private TransactionContextImpl(long tNum) {
             this.transNum = tNum;
             this.aliases = new HashMap<>();
             this.tempTables = new HashMap<>();
             this.tempTableCounter = 0;
+            this.degreeOfParallelism = 1;
+            this.workers = ConcurrentHashMap.newKeySet();
+            this.closing = false;
         }
 
         @Override
@@ -767,6 +876,45 @@ public class Database implements AutoCloseable {
             return Database.this.getWorkMem();
         }
 
+        @Override
+        public int getDegreeOfParallelism() {
+            return degreeOfParallelism;
+        }
+
+        @Override
+        public void setDegreeOfParallelism(int degreeOfParallelism) {
+            if (degreeOfParallelism < 1) {
+                throw new IllegalArgumentException("degree of parallelism must be at least 1");
+            }
+            this.degreeOfParallelism = degreeOfParallelism;
+        }
+
+        @Override
+        public <T> CompletableFuture<T> runWorker(Supplier<T> work) {
+            // not supplyAsync: its tasks are Futures that never complete as
+            // such, and ThreadPool::afterExecute waits on every Future it runs
+            CompletableFuture<T> future = new CompletableFuture<>();
+            CompletableFuture<Void> finished = new CompletableFuture<>();
+            workers.add(finished);
+            executor.execute(() -> {
+                TransactionContext.setTransaction(this);
+                try {
+                    if (closing) {
+                        future.cancel(false);
+                    } else {
+                        future.complete(work.get());
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    TransactionContext.unsetTransaction();
+                    workers.remove(finished);
+                    finished.complete(null);
+                }
+            });
+            return future;
+        }
+
         @Override
         public String createTempTable(Schema schema) {
             String tempTableName = "tempTable" + tempTableCounter++;
@@ -846,7 +994,9 @@ public class Database implements AutoCloseable {
                                        new LongDataBox(metadata.getRootPageNum()),
                                        new IntDataBox(metadata.getKeySchema().getTypeId().ordinal()),
                                        new IntDataBox(metadata.getKeySchema().getSizeInBytes()),
-                                       new IntDataBox(metadata.getHeight())
+                                       new IntDataBox(metadata.getHeight()),
+                                       new IntDataBox(metadata.getKind().ordinal()),
+                                       new LongDataBox(metadata.getFilterPageNum())
                                    ), indexInfoLookup.get(metadata.getName()));
         }
 
@@ -856,8 +1006,12 @@ public class Database implements AutoCloseable {
 
             Table tab = getTable(tableName);
             try {
-                Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
-                return new RecordIterator(tab, index.getSecond().scanAll());
+                Pair<String, Index> index = resolveIndexFromName(tableName, columnName);
+                if (index.getSecond() instanceof BPlusTree) {
+                    return new RecordIterator(tab, ((BPlusTree) index.getSecond()).scanAll());
+                }
+                // hash indices are unordered, so we sort instead
+                throw new DatabaseException("index " + index.getFirst() + " is not ordered");
             } catch (DatabaseException e1) {
                 int offset = getTable(tableName).getSchema().getFieldNames().indexOf(columnName);
                 try {
@@ -874,14 +1028,47 @@ public class Database implements AutoCloseable {
             LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
 
             Table tab = getTable(tableName);
-            Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
-            return new RecordIterator(tab, index.getSecond().scanGreaterEqual(startValue));
+            Pair<String, Index> index = resolveIndexFromName(tableName, columnName);
+            if (!(index.getSecond() instanceof BPlusTree)) {
+                throw new DatabaseException("index " + index.getFirst() + " does not support range scans");
+            }
+            return new RecordIterator(tab, ((BPlusTree) index.getSecond()).scanGreaterEqual(startValue));
+        }
+
+        @Override
+        public Iterator<RecordId> scanIndex(String tableName, String columnName,
+                                            PredicateOperator predicate, DataBox value) {
+            LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
+
+            Pair<String, Index> index = resolveIndexFromName(tableName, columnName);
+            if (predicate == PredicateOperator.EQUALS) {
+                return index.getSecond().scanEqual(value);
+            }
+            if (!(index.getSecond() instanceof BPlusTree)) {
+                throw new DatabaseException("index " + index.getFirst() + " does not support range scans");
+            }
+            BPlusTree tree = (BPlusTree) index.getSecond();
+            switch (predicate) {
+            case LESS_THAN:
+                return tree.scanRange(Optional.empty(), false, Optional.of(value), false);
+            case LESS_THAN_EQUALS:
+                return tree.scanRange(Optional.empty(), false, Optional.of(value), true);
+            case GREATER_THAN:
+                return tree.scanRange(Optional.of(value), false, Optional.empty(), false);
+            case GREATER_THAN_EQUALS:
+                return tree.scanRange(Optional.of(value), true, Optional.empty(), false);
+            default:
+                throw new DatabaseException("cannot scan index " + index.getFirst() + " for " + predicate);
+            }
         }
 
         @Override
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
+            if (filteredOut(tableName, columnName, key)) {
+                return Collections.emptyIterator();
+            }
             Table tab = getTable(tableName);
-            Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
+            Pair<String, Index> index = resolveIndexFromName(tableName, columnName);
             return new RecordIterator(tab, index.getSecond().scanEqual(key));
         }
 
@@ -903,7 +1090,10 @@ public class Database implements AutoCloseable {
 
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
-            Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
+            if (filteredOut(tableName, columnName, key)) {
+                return false;
+            }
+            Pair<String, Index> index = resolveIndexFromName(tableName, columnName);
             return index.getSecond().get(key).isPresent();
         }
 
@@ -955,9 +1145,9 @@ public class Database implements AutoCloseable {
             for (String indexName : tableIndices.get(tab.getName())) {
                 String column = indexName.split(",")[1];
                 int i = colNames.indexOf(column);
-                BPlusTree tree = resolveIndexFromName(tableName, column).getSecond();
-                tree.remove(oldValues.get(i));
-                tree.put(values.get(i), rid);
+                Index index = resolveIndexFromName(tableName, column).getSecond();
+                index.remove(oldValues.get(i));
+                index.put(values.get(i), rid);
             }
             return rid;
         }
@@ -1026,6 +1216,16 @@ public class Database implements AutoCloseable {
             return getTable(tableName).getStats();
         }
 
+        @Override
+        public PlanCache getPlanCache() {
+            return planCache;
+        }
+
+        @Override
+        public BufferManager getBufferManager() {
+            return bufferManager;
+        }
+
         @Override
         public int getNumDataPages(String tableName) {
             return getTable(tableName).getNumDataPages();
@@ -1056,8 +1256,24 @@ public class Database implements AutoCloseable {
             return resolveIndexMetadataFromName(tableName, columnName).getSecond().getHeight();
         }
 
+        @Override
+        public Index.Kind getIndexKind(String tableName, String columnName) {
+            return resolveIndexMetadataFromName(tableName, columnName).getSecond().getKind();
+        }
+
+        @Override
+        public Optional<BloomFilter> getBloomFilter(String tableName, String columnName) {
+            return resolveIndexFromName(tableName, columnName).getSecond().getBloomFilter();
+        }
+
         @Override
         public void close() {
+            // the workers still running read pages covered by the locks of
+            // the transaction, so they finish first; the others never start
+            closing = true;
+            for (CompletableFuture<Void> worker : workers) {
+                worker.join();
+            }
             try {
                 List<Lock> allLocks = lockManager.getLocks(this);
                 for (int i=allLocks.size()-1; i>=0; i--) {
@@ -1079,8 +1295,8 @@ public class Database implements AutoCloseable {
             return "Transaction Context for Transaction " + transNum;
         }
 
-        private Pair<String, BPlusTreeMetadata> resolveIndexMetadataFromName(String tableName,
-                String columnName) {
+        // name of the index on tableName.columnName, which may use aliases and a qualified column name
+        private String resolveIndexName(String tableName, String columnName) {
             if (aliases.containsKey(tableName)) {
                 tableName = aliases.get(tableName);
             }
@@ -1095,18 +1311,40 @@ public class Database implements AutoCloseable {
             if (tableName.startsWith("tables.")) {
                 tableName = tableName.substring(tableName.indexOf(".") + 1);
             }
-            String indexName = tableName + "," + columnName;
+            return tableName + "," + columnName;
+        }
+
+        private Pair<String, BPlusTreeMetadata> resolveIndexMetadataFromName(String tableName,
+                String columnName) {
+            String indexName = resolveIndexName(tableName, columnName);
 
             lockIndexMetadata(indexName, LockType.S);
 
-            BPlusTreeMetadata metadata = getIndexMetadata(tableName, columnName);
+            String[] parts = indexName.split(",", 2);
+            BPlusTreeMetadata metadata = getIndexMetadata(parts[0], parts[1]);
             if (metadata == null) {
                 throw new DatabaseException("no index with name " + indexName);
             }
             return new Pair<>(indexName, metadata);
         }
 
-        private Pair<String, BPlusTree> resolveIndexFromName(String tableName,
+        // Returns whether the Bloom filter of the index on tableName.columnName
+        // rules key out. Unlike resolving the index through its metadata, this
+        // reads no pages, so looking up a key that the filter rules out costs no
+        // I/O at all. Returns false if there is no such index or filter, and
+        // leaves it to the caller to report a missing index.
+        private boolean filteredOut(String tableName, String columnName, DataBox key) {
+            String indexName = resolveIndexName(tableName, columnName);
+            lockIndexMetadata(indexName, LockType.S);
+            Index index = indexLookup.get(indexName);
+            if (index == null) {
+                return false;
+            }
+            Optional<BloomFilter> filter = index.getBloomFilter();
+            return filter.isPresent() && !filter.get().mightContain(key);
+        }
+
+        private Pair<String, Index> resolveIndexFromName(String tableName,
                 String columnName) {
             String indexName = resolveIndexMetadataFromName(tableName, columnName).getFirst();
             return new Pair<>(indexName, Database.this.indexLookup.get(indexName));
@@ -1222,9 +1460,11 @@ public class Database implements AutoCloseable {
                 LockContext tableContext = getTableContext(prefixedTableName, record.partNum);
                 HeapFile heapFile = new PageDirectory(bufferManager, record.partNum, record.pageNum,
                                                       (short) 0, tableContext);
-                tableLookup.put(prefixedTableName, new Table(prefixedTableName, s,
-                                heapFile, tableContext));
+                Table table = new Table(prefixedTableName, s, heapFile, tableContext);
+                table.setStatisticsExecutor(executor);
+                tableLookup.put(prefixedTableName, table);
                 tableIndices.put(prefixedTableName, new ArrayList<>());
+                planCache.invalidateAll();
             } finally {
                 TransactionContext.unsetTransaction();
             }
@@ -1259,6 +1499,7 @@ public class Database implements AutoCloseable {
                 tableIndices.remove(prefixedTableName);
                 tableLookup.remove(prefixedTableName);
                 bufferManager.freePart(record.partNum);
+                planCache.invalidateAll();
             } finally {
                 TransactionContext.unsetTransaction();
             }
@@ -1284,6 +1525,41 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            createIndex(tableName, columnName, Index.Kind.BPLUS_TREE, bulkLoad);
+        }
+
+        @Override
+        public void createHashIndex(String tableName, String columnName) {
+            createIndex(tableName, columnName, Index.Kind.HASH, false);
+        }
+
+        @Override
+        public void createBloomFilter(String tableName, String columnName) {
+            String prefixedTableName = prefixUserTableName(tableName);
+            String indexName = tableName + "," + columnName;
+            TransactionContext.setTransaction(transactionContext);
+            try {
+                lockIndexMetadata(indexName, LockType.X);
+
+                BPlusTreeMetadata metadata = getIndexMetadata(tableName, columnName);
+                if (metadata == null) {
+                    throw new DatabaseException("no index on " + tableName + "(" + columnName + ")");
+                }
+                LockUtil.ensureSufficientLockHeld(getIndexContext(indexName), LockType.X);
+
+                Table table = tableLookup.get(prefixedTableName);
+                int columnIndex = table.getSchema().getFieldNames().indexOf(columnName);
+                // leave room for the table to double before the false positive rate climbs
+                BloomFilter filter = indexLookup.get(indexName).createBloomFilter(2 * table.getNumRecords());
+                for (Record record : (Iterable<Record>) table::iterator) {
+                    filter.add(record.getValues().get(columnIndex));
+                }
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+        }
+
+        private void createIndex(String tableName, String columnName, Index.Kind kind, boolean bulkLoad) {
             if (tableName.contains(".") && !tableName.startsWith("tables.")) {
                 throw new IllegalArgumentException("name of table may not contain '.'");
             }
@@ -1316,7 +1592,10 @@ public class Database implements AutoCloseable {
                     throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
                 }
 
-                int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
+                // hash indices have no order, and a lookup always reads a single bucket
+                // page (see BPlusTreeMetadata)
+                boolean hash = kind == Index.Kind.HASH;
+                int order = hash ? 0 : BPlusTree.maxDynamicOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
                 List<DataBox> values = Arrays.asList(
                                            new StringDataBox(tableName, 32),
                                            new StringDataBox(columnName, 32),
@@ -1325,32 +1604,70 @@ public class Database implements AutoCloseable {
                                            new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM),
                                            new IntDataBox(colType.getTypeId().ordinal()),
                                            new IntDataBox(colType.getSizeInBytes()),
-                                           new IntDataBox(-1)
+                                           new IntDataBox(hash ? 0 : -1),
+                                           new IntDataBox(kind.ordinal()),
+                                           new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM)
                                        );
                 indexInfo.updateRecord(values, indexInfoLookup.get(indexName));
                 metadata = parseIndexMetadata(new Record(values));
                 assert (metadata != null);
 
                 LockContext indexContext = getIndexContext(indexName, metadata.getPartNum());
-                indexLookup.put(indexName, new BPlusTree(bufferManager, metadata, indexContext));
+                indexLookup.put(indexName, loadIndex(metadata, indexContext));
                 tableIndices.get(prefixedTableName).add(indexName);
 
                 // load data into index
                 Table table = tableLookup.get(prefixedTableName);
-                BPlusTree tree = indexLookup.get(indexName);
-                if (bulkLoad) {
-                    throw new UnsupportedOperationException("not implemented");
+                Index index = indexLookup.get(indexName);
+                if (bulkLoad && !hash) {
+                    bulkLoadIndex(table, columnIndex, colType, (BPlusTree) index);
                 } else {
                     for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
                         Record record = table.getRecord(rid);
-                        tree.put(record.getValues().get(columnIndex), rid);
+                        index.put(record.getValues().get(columnIndex), rid);
                     }
                 }
+                planCache.invalidateAll();
             } finally {
                 TransactionContext.unsetTransaction();
             }
         }
 
+        /**
+         * Loads the (key, record id) pairs of column columnIndex of table into
+         * the empty B+ tree tree: they are written to a temporary table of
+         * (key, page number, entry number) records, which is sorted by key
+         * with SortOperator (using replacement selection) and bulk loaded
+         * bottom up.
+         */
+        private void bulkLoadIndex(Table table, int columnIndex, Type colType, BPlusTree tree) {
+            Schema entrySchema = new Schema(Arrays.asList("key", "pageNum", "entryNum"),
+                                            Arrays.asList(colType, Type.longType(), Type.intType()));
+            String entryTable = transactionContext.createTempTable(entrySchema);
+            for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
+                DataBox key = table.getRecord(rid).getValues().get(columnIndex);
+                transactionContext.addRecord(entryTable, Arrays.asList(key, new LongDataBox(rid.getPageNum()),
+                                             new IntDataBox(rid.getEntryNum())));
+            }
+
+            // keys are often inserted in nearly sorted order, which replacement selection exploits
+            Iterator<Record> sorted = new SortOperator(transactionContext, entryTable,
+                    Comparator.comparing((Record r) -> r.getValues().get(0)), true).iterator();
+            tree.bulkLoad(new Iterator<Pair<DataBox, RecordId>>() {
+                @Override
+                public boolean hasNext() {
+                    return sorted.hasNext();
+                }
+
+                @Override
+                public Pair<DataBox, RecordId> next() {
+                    List<DataBox> values = sorted.next().getValues();
+                    RecordId rid = new RecordId(values.get(1).getLong(), (short) values.get(2).getInt());
+                    return new Pair<>(values.get(0), rid);
+                }
+            }, BULK_LOAD_FILL_FACTOR);
+        }
+
         @Override
         public void dropIndex(String tableName, String columnName) {
             String prefixedTableName = prefixUserTableName(tableName);
@@ -1373,11 +1690,14 @@ public class Database implements AutoCloseable {
                                            new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM),
                                            new IntDataBox(TypeId.INT.ordinal()),
                                            new IntDataBox(4),
-                                           new IntDataBox(-1)
+                                           new IntDataBox(-1),
+                                           new IntDataBox(Index.Kind.BPLUS_TREE.ordinal()),
+                                           new LongDataBox(DiskSpaceManager.INVALID_PAGE_NUM)
                                        ), indexInfoLookup.get(indexName));
 
                 bufferManager.freePart(metadata.getPartNum());
                 indexLookup.remove(indexName);
+                planCache.invalidateAll();
             } finally {
                 TransactionContext.unsetTransaction();
             }
@@ -1506,6 +1826,11 @@ public class Database implements AutoCloseable {
             return transactionContext.getTreeHeight(tableName, columnName);
         }
 
+        @Override
+        public void setDegreeOfParallelism(int degreeOfParallelism) {
+            transactionContext.setDegreeOfParallelism(degreeOfParallelism);
+        }
+
         @Override
         public TransactionContext getTransactionContext() {
             return transactionContext;
@@ -82,6 +82,15 @@ public interface Transaction extends AutoCloseable {
     @Override
     void close();
 
+    /**
+     * Lets queries of this transaction run on up to degreeOfParallelism
+     * threads at once: scans read disjoint ranges of pages of a table in
+     * parallel, and hash joins and hash aggregation partition their input
+     * among that many workers. The default of 1 runs queries serially.
+     * @param degreeOfParallelism number of threads, at least 1
+     */
+    void setDegreeOfParallelism(int degreeOfParallelism);
+
     // DDL //////////////////////////////////////////////////////////////////
 
     /**
@@ -123,6 +132,33 @@ public interface Transaction extends AutoCloseable {
      */
     void createIndex(String tableName, String columnName, boolean bulkLoad);
 
+    /**
+     * Creates a hash index. Equivalent to
+     *      CREATE INDEX tableName_columnName ON tableName USING HASH (columnName)
+     * in postgres.
+     *
+     * Hash indices answer equality lookups by reading a single page, but do not
+     * support range scans. A column may have either a B+ tree or a hash index,
+     * not both.
+     *
+     * @param tableName name of table to create index for
+     * @param columnName name of column to create index on
+     */
+    void createHashIndex(String tableName, String columnName);
+
+    /**
+     * Builds a Bloom filter over the keys of the index on tableName.columnName,
+     * replacing the one it had, if any. Lookups of keys that the filter rules
+     * out then return nothing without reading any page of the index or the
+     * table, which is what most lookups from a join whose values mostly have
+     * no match do. The filter is sized for twice the current number of
+     * records in the table; build it again once the table has grown past that.
+     *
+     * @param tableName name of table the index is on
+     * @param columnName name of column the index is on
+     */
+    void createBloomFilter(String tableName, String columnName);
+
     /**
      * Drops an index. Equivalent to
      *      DROP INDEX tableName_columnName
@@ -3,8 +3,12 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.index.BloomFilter;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.Index;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.query.PlanCache;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -15,7 +19,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 /**
@@ -72,6 +79,30 @@ public interface TransactionContext extends AutoCloseable {
 
     int getWorkMemSize();
 
+    /**
+     * @return the number of threads a query of this transaction may run on at
+     * once (1, the default, runs every query on the transaction's own thread)
+     */
+    int getDegreeOfParallelism();
+
+    /**
+     * Sets the number of threads a query of this transaction may run on at once.
+     * @param degreeOfParallelism number of threads, at least 1
+     */
+    void setDegreeOfParallelism(int degreeOfParallelism);
+
+    /**
+     * Runs work on a worker thread of the database, as this transaction (see
+     * TransactionContext::getTransaction). The worker may read pages covered
+     * by locks the transaction already holds, but should not acquire locks or
+     * create temp tables, which are only done on the transaction's own thread.
+     * Closing the transaction waits for the workers that are still running,
+     * and cancels those that have not started yet.
+     * @param work the work to run
+     * @return a future of the result of work
+     */
+    <T> CompletableFuture<T> runWorker(Supplier<T> work);
+
     @Override
     void close();
 
@@ -123,6 +154,15 @@ public interface TransactionContext extends AutoCloseable {
 
     Iterator<Record> lookupKey(String tableName, String columnName, DataBox key);
 
+    /**
+     * Returns the record ids of the records of tableName whose value of
+     * columnName satisfies `predicate value`, using the index on columnName.
+     * Record ids are returned in ascending order of that value, except that a
+     * hash index only supports EQUALS.
+     */
+    Iterator<RecordId> scanIndex(String tableName, String columnName, PredicateOperator predicate,
+                                 DataBox value);
+
     BacktrackingIterator<Record> getRecordIterator(String tableName);
 
     BacktrackingIterator<Page> getPageIterator(String tableName);
@@ -174,6 +214,18 @@ public interface TransactionContext extends AutoCloseable {
      */
     TableStats getStats(String tableName);
 
+    /**
+     * @return the cache of the plans of prepared queries, shared by every
+     * transaction of the database
+     */
+    PlanCache getPlanCache();
+
+    /**
+     * @return the buffer manager of the database, whose counters of page
+     * fetches and IOs EXPLAIN ANALYZE reads (see QueryPlan#explainAnalyze)
+     */
+    BufferManager getBufferManager();
+
     /**
      * @param tableName name of table
      * @return number of data pages used by the table
@@ -212,6 +264,21 @@ public interface TransactionContext extends AutoCloseable {
      */
     int getTreeHeight(String tableName, String columnName);
 
+    /**
+     * @param tableName name of table
+     * @param columnName name of column
+     * @return the kind of index on the column (a B+ tree or a hash index)
+     */
+    Index.Kind getIndexKind(String tableName, String columnName);
+
+    /**
+     * @param tableName name of table
+     * @param columnName name of column
+     * @return the Bloom filter over the keys of the index on tableName.columnName,
+     * if it has one (see Transaction#createBloomFilter)
+     */
+    Optional<BloomFilter> getBloomFilter(String tableName, String columnName);
+
     // Synchronization //////////////////////////////////////////////////////
 
     /**
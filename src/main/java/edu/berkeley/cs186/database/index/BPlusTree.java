@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.FileWriter;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
@@ -50,7 +52,7 @@ import edu.berkeley.cs186.database.table.RecordId;
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
  */
-public class BPlusTree {
+public class BPlusTree implements Index {
     // Buffer manager
     private BufferManager bufferManager;
 
@@ -63,6 +65,12 @@ public class BPlusTree {
     // lock context for the B+ tree
     private LockContext lockContext;
 
+    // executor that scans prefetch leaves on, or null to not prefetch
+    private Executor prefetchExecutor;
+
+    // Bloom filter over the keys of the tree, or null if it has none
+    private BloomFilter filter;
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Construct a new B+ tree with metadata `metadata` and lock context `lockContext`.
@@ -72,7 +80,8 @@ public class BPlusTree {
      * If the specified order is so large that a single node cannot fit on a
      * single page, then a BPlusTree exception is thrown. If you want to have
      * maximally full B+ tree nodes, then use the BPlusTree.maxOrder function
-     * to get the appropriate order.
+     * to get the appropriate order (or BPlusTree.maxDynamicOrder for keys
+     * that are stored compressed).
      *
      * We additionally write a row to the information_schema.indices table with metadata about
      * the B+ tree:
@@ -97,7 +106,8 @@ public class BPlusTree {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        int maxOrder = BPlusTree.maxDynamicOrder(BufferManager.EFFECTIVE_PAGE_SIZE,
+                       metadata.getKeySchema());
         if (metadata.getOrder() > maxOrder) {
             String msg = String.format(
                              "You cannot construct a B+ tree with order %d greater than the " +
@@ -120,9 +130,19 @@ public class BPlusTree {
             Optional<Long> rightSibling = Optional.empty();
             this.updateRoot(new LeafNode(this.metadata, bufferManager, keys, rids, rightSibling, lockContext));
         }
+
+        if (this.metadata.getFilterPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
+            this.filter = BloomFilter.load(bufferManager, lockContext, metadata.getKeySchema(),
+                                           this.metadata.getFilterPageNum());
+        }
     }
 
     // Core API ////////////////////////////////////////////////////////////////
+    @Override
+    public Kind getKind() {
+        return Kind.BPLUS_TREE;
+    }
+
     /**
      * Returns the value associated with `key`.
      *
@@ -135,12 +155,16 @@ public class BPlusTree {
      *   tree.get(key);                 // Optional.of(rid)
      *   tree.get(new IntDataBox(100)); // Optional.empty()
      */
+    @Override
     public Optional<RecordId> get(DataBox key) {
         typecheck(key);
-        // TODO(proj2): implement
         LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
 
-        return Optional.empty();
+        // a key the filter rules out is not in any leaf, so don't descend to one
+        if (filter != null && !filter.mightContain(key)) {
+            return Optional.empty();
+        }
+        return root.get(key).getKey(key);
     }
 
     /**
@@ -150,6 +174,7 @@ public class BPlusTree {
      * Optional.of(rid) for some rid, then scanEqual(k) returns an iterator
      * over rid.
      */
+    @Override
     public Iterator<RecordId> scanEqual(DataBox key) {
         typecheck(key);
         LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
@@ -190,10 +215,10 @@ public class BPlusTree {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanAll() {
-        // TODO(proj2): Return a BPlusTreeIterator.
         LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
 
-        return Collections.emptyIterator();
+        LeafNode leaf = root.getLeftmostLeaf();
+        return new BPlusTreeIterator(leaf, 0, Optional.empty(), false);
     }
 
     /**
@@ -221,10 +246,47 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanGreaterEqual(DataBox key) {
         typecheck(key);
-        // TODO(proj2): Return a BPlusTreeIterator.
         LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
 
-        return Collections.emptyIterator();
+        return scanRange(Optional.of(key), true, Optional.empty(), false);
+    }
+
+    /**
+     * Returns an iterator over the RecordIds stored in the B+ tree whose keys
+     * lie between `low` and `high`, in ascending order of their keys. Each
+     * bound is included in the range if the flag that follows it is set, and
+     * an empty bound leaves that side of the range open. Like scanAll, the
+     * iterator reads leaves lazily, and stops reading them as soon as it
+     * reaches a key past `high`.
+     *
+     *   // Insert some values into a tree.
+     *   tree.put(new IntDataBox(2), new RecordId(2, (short) 2));
+     *   tree.put(new IntDataBox(5), new RecordId(5, (short) 5));
+     *   tree.put(new IntDataBox(4), new RecordId(4, (short) 4));
+     *   tree.put(new IntDataBox(1), new RecordId(1, (short) 1));
+     *   tree.put(new IntDataBox(3), new RecordId(3, (short) 3));
+     *
+     *   // 2 < key <= 4
+     *   Iterator<RecordId> iter = tree.scanRange(Optional.of(new IntDataBox(2)), false,
+     *                                            Optional.of(new IntDataBox(4)), true);
+     *   iter.next(); // RecordId(3, 3)
+     *   iter.next(); // RecordId(4, 4)
+     *   iter.next(); // NoSuchElementException
+     */
+    public Iterator<RecordId> scanRange(Optional<DataBox> low, boolean lowInclusive,
+                                        Optional<DataBox> high, boolean highInclusive) {
+        low.ifPresent(this::typecheck);
+        high.ifPresent(this::typecheck);
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
+
+        if (!low.isPresent()) {
+            return new BPlusTreeIterator(root.getLeftmostLeaf(), 0, high, highInclusive);
+        }
+        DataBox key = low.get();
+        LeafNode leaf = root.get(key);
+        int index = lowInclusive ? InnerNode.numLessThan(key, leaf.getKeys())
+                    : InnerNode.numLessThanEqual(key, leaf.getKeys());
+        return new BPlusTreeIterator(leaf, index, high, highInclusive);
     }
 
     /**
@@ -236,12 +298,18 @@ public class BPlusTree {
      *   tree.put(key, rid); // Success :)
      *   tree.put(key, rid); // BPlusTreeException :(
      */
+    @Override
     public void put(DataBox key, RecordId rid) {
         typecheck(key);
-        // TODO(proj2): implement
         LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
 
-        return;
+        Optional<Pair<DataBox, Long>> split = root.put(key, rid);
+        if (split.isPresent()) {
+            splitRoot(split.get());
+        }
+        if (filter != null) {
+            filter.add(key);
+        }
     }
 
     /**
@@ -260,12 +328,38 @@ public class BPlusTree {
      *
      * The behavior of this method should be similar to that of InnerNode's
      * bulkLoad (see comments in BPlusNode.bulkLoad).
+     *
+     * If the tree has a Bloom filter, it is rebuilt from the loaded keys.
      */
     public void bulkLoad(Iterator<Pair<DataBox, RecordId>> data, float fillFactor) {
-        // TODO(proj2): implement
-        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
 
-        return;
+        if (scanAll().hasNext()) {
+            throw new BPlusTreeException("You cannot bulk load into a non-empty B+ tree.");
+        }
+        if (filter != null) {
+            filter.clear();
+            Iterator<Pair<DataBox, RecordId>> source = data;
+            data = new Iterator<Pair<DataBox, RecordId>>() {
+                @Override
+                public boolean hasNext() {
+                    return source.hasNext();
+                }
+
+                @Override
+                public Pair<DataBox, RecordId> next() {
+                    Pair<DataBox, RecordId> entry = source.next();
+                    filter.add(entry.getFirst());
+                    return entry;
+                }
+            };
+        }
+        while (data.hasNext()) {
+            Optional<Pair<DataBox, Long>> split = root.bulkLoad(data, fillFactor);
+            if (split.isPresent()) {
+                splitRoot(split.get());
+            }
+        }
     }
 
     /**
@@ -279,12 +373,12 @@ public class BPlusTree {
      *   tree.remove(key);
      *   tree.get(key); // Optional.empty()
      */
+    @Override
     public void remove(DataBox key) {
         typecheck(key);
-        // TODO(proj2): implement
         LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
 
-        return;
+        root.remove(key);
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -360,7 +454,64 @@ public class BPlusTree {
         return Math.min(leafOrder, innerOrder);
     }
 
+    /**
+     * Returns the order to use for a B+ tree with keys of type keySchema.
+     *
+     * Keys that are stored compressed (see KeyCompression) take up a varying
+     * number of bytes, so nodes holding them split once they no longer fit on
+     * their page rather than once they hold 2d keys. For such keys, the order
+     * returned here is the number of the shortest possible entries that fit on
+     * a page, which leaves it to the size of the actual keys to decide how
+     * many of them a node holds. For all other keys, this is just maxOrder.
+     */
+    public static int maxDynamicOrder(short pageSize, Type keySchema) {
+        if (!KeyCompression.isCompressible(keySchema)) {
+            return maxOrder(pageSize, keySchema);
+        }
+        // The shortest leaf entry is a key that shares all its bytes with the
+        // previous key (two lengths and a record id), and the shortest inner
+        // entry is a one byte separator (a length, the byte and a child pointer).
+        int leafEntrySize = 2 * KeyCompression.LENGTH_SIZE + RecordId.getSizeInBytes();
+        int innerEntrySize = KeyCompression.LENGTH_SIZE + 1 + Long.BYTES;
+        int leafOrder = (pageSize - 13) / leafEntrySize / 2;
+        int innerOrder = (pageSize - 13) / innerEntrySize / 2;
+        return Math.min(leafOrder, innerOrder);
+    }
+
+    /**
+     * Makes scans over this tree read the next leaf into the buffer pool on
+     * `executor` while the current leaf is still being scanned, so that a
+     * range scan rarely waits on a leaf read. Pass null to stop prefetching
+     * (the default).
+     */
+    public void setPrefetchExecutor(Executor executor) {
+        this.prefetchExecutor = executor;
+    }
+
+    @Override
+    public BloomFilter createBloomFilter(long expectedKeys) {
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
+
+        if (filter != null) {
+            filter.free();
+        }
+        filter = BloomFilter.create(bufferManager, lockContext, metadata.getPartNum(),
+                                    metadata.getKeySchema(), expectedKeys);
+        metadata.setFilterPageNum(filter.getHeaderPageNum());
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            transaction.updateIndexMetadata(metadata);
+        }
+        return filter;
+    }
+
+    @Override
+    public Optional<BloomFilter> getBloomFilter() {
+        return Optional.ofNullable(filter);
+    }
+
     /** Returns the partition number that the B+ tree resides on. */
+    @Override
     public int getPartNum() {
         return metadata.getPartNum();
     }
@@ -377,6 +528,19 @@ public class BPlusTree {
         }
     }
 
+    /**
+     * Replaces the root with a new inner node after the root split into
+     * itself and the node on page split.getSecond().
+     */
+    private void splitRoot(Pair<DataBox, Long> split) {
+        List<DataBox> keys = new ArrayList<>();
+        List<Long> children = new ArrayList<>();
+        keys.add(split.getFirst());
+        children.add(root.getPage().getPageNum());
+        children.add(split.getSecond());
+        updateRoot(new InnerNode(metadata, bufferManager, keys, children, lockContext));
+    }
+
     private void typecheck(DataBox key) {
         Type t = metadata.getKeySchema();
         if (!key.type().equals(t)) {
@@ -387,20 +551,77 @@ public class BPlusTree {
 
     // Iterator ////////////////////////////////////////////////////////////////
     private class BPlusTreeIterator implements Iterator<RecordId> {
-        // TODO(proj2): Add whatever fields and constructors you want here.
+        // The leaf we are currently scanning, and the index in that leaf of
+        // the next record id to return. Leaves to the right of leaf are only
+        // read once we run out of record ids in leaf, but the next one is
+        // prefetched as soon as we start scanning leaf.
+        private LeafNode leaf;
+        private int index;
+
+        // The largest key to return, and whether it is included; see scanRange.
+        private Optional<DataBox> high;
+        private boolean highInclusive;
+
+        BPlusTreeIterator(LeafNode leaf, int index, Optional<DataBox> high, boolean highInclusive) {
+            this.leaf = leaf;
+            this.index = index;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            prefetchSibling();
+        }
 
         @Override
         public boolean hasNext() {
-            // TODO(proj2): implement
-
-            return false;
+            while (index >= leaf.getKeys().size()) {
+                Optional<LeafNode> sibling = leaf.getRightSibling();
+                if (!sibling.isPresent()) {
+                    return false;
+                }
+                leaf = sibling.get();
+                index = 0;
+                prefetchSibling();
+            }
+            return inRange(leaf.getKeys().get(index));
         }
 
         @Override
         public RecordId next() {
-            // TODO(proj2): implement
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return leaf.getRids().get(index++);
+        }
+
+        private boolean inRange(DataBox key) {
+            if (!high.isPresent()) {
+                return true;
+            }
+            int cmp = key.compareTo(high.get());
+            return cmp < 0 || (highInclusive && cmp == 0);
+        }
 
-            throw new NoSuchElementException();
+        // Reads the right sibling of leaf into the buffer pool in the
+        // background, unless the scan will stop within leaf anyway.
+        private void prefetchSibling() {
+            Optional<Long> sibling = leaf.getRightSiblingPageNum();
+            List<DataBox> keys = leaf.getKeys();
+            if (prefetchExecutor == null || !sibling.isPresent() ||
+                    (!keys.isEmpty() && !inRange(keys.get(keys.size() - 1)))) {
+                return;
+            }
+            long pageNum = sibling.get();
+            try {
+                prefetchExecutor.execute(() -> {
+                    try {
+                        bufferManager.fetchPage(lockContext, pageNum, false).unpin();
+                    } catch (RuntimeException e) {
+                        // a prefetch is only a hint: the page may have been
+                        // freed, or the database closed, in the meantime
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // executor is shutting down; skip the prefetch
+            }
         }
     }
 }
@@ -1,8 +1,12 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
 
-/** Metadata about a B+ tree. */
+/**
+ * Metadata about an index. Despite the name, this describes hash indices
+ * (see HashIndex) as well as B+ trees; `kind` says which one an index is.
+ */
 public class BPlusTreeMetadata {
     // Table for which this B+ tree is for
     private final String tableName;
@@ -31,8 +35,29 @@ public class BPlusTreeMetadata {
     // The height of this tree.
     private int height;
 
+    // The access method of this index. For a hash index, rootPageNum is the
+    // page holding its directory, the order is unused, and the height is
+    // always 0 since a lookup reads a single bucket page, just like looking
+    // up a key in a B+ tree whose root is a leaf.
+    private final Index.Kind kind;
+
+    // The page number of the header page of the index's Bloom filter (see
+    // BloomFilter), or INVALID_PAGE_NUM if the index has none.
+    private long filterPageNum;
+
     public BPlusTreeMetadata(String tableName, String colName, Type keySchema, int order, int partNum,
                              long rootPageNum, int height) {
+        this(tableName, colName, keySchema, order, partNum, rootPageNum, height, Index.Kind.BPLUS_TREE);
+    }
+
+    public BPlusTreeMetadata(String tableName, String colName, Type keySchema, int order, int partNum,
+                             long rootPageNum, int height, Index.Kind kind) {
+        this(tableName, colName, keySchema, order, partNum, rootPageNum, height, kind,
+             DiskSpaceManager.INVALID_PAGE_NUM);
+    }
+
+    public BPlusTreeMetadata(String tableName, String colName, Type keySchema, int order, int partNum,
+                             long rootPageNum, int height, Index.Kind kind, long filterPageNum) {
         this.tableName = tableName;
         this.colName = colName;
         this.keySchema = keySchema;
@@ -40,6 +65,8 @@ public class BPlusTreeMetadata {
         this.partNum = partNum;
         this.rootPageNum = rootPageNum;
         this.height = height;
+        this.kind = kind;
+        this.filterPageNum = filterPageNum;
     }
 
     public BPlusTreeMetadata(String tableName, String colName) {
@@ -85,4 +112,16 @@ public class BPlusTreeMetadata {
     void incrementHeight() {
         ++height;
     }
+
+    public Index.Kind getKind() {
+        return kind;
+    }
+
+    public long getFilterPageNum() {
+        return filterPageNum;
+    }
+
+    void setFilterPageNum(long filterPageNum) {
+        this.filterPageNum = filterPageNum;
+    }
 }
@@ -0,0 +1,258 @@
+package edu.berkeley.cs186.database.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockType;
+import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+/**
+ * A persistent Bloom filter over the keys of an index.
+ *
+ *   BloomFilter filter = BloomFilter.create(bufferManager, lockContext, partNum, keySchema, 1000);
+ *   filter.add(new IntDataBox(42));
+ *   filter.mightContain(new IntDataBox(42)); // true
+ *   filter.mightContain(new IntDataBox(43)); // false (most likely)
+ *
+ * A filter is an array of m bits, of which every key sets k (chosen by double
+ * hashing), so mightContain never returns false for a key that was added, and
+ * returns true for a key that was not with probability about
+ * (1 - e^(-kn/m))^k after n keys were added. Keys cannot be removed, so an
+ * index whose keys are deleted only sees its false positive rate go up.
+ *
+ * The bits are kept in memory, so asking the filter about a key reads no
+ * pages. They are also stored on pages of the index's partition, and add
+ * writes through every byte it changes. The header page (whose page number is
+ * recorded in the index's metadata) holds the number of hash functions k
+ * (4 bytes), the number n of bit pages (4 bytes) and then the page numbers
+ * (8 bytes each) of the n pages holding the bits in order.
+ */
+public class BloomFilter {
+    // Number of bits per expected key. 10 bits per key with k = 7 gives a
+    // false positive rate of about 1%.
+    static final int BITS_PER_KEY = 10;
+
+    // Bloom filters never use more than this many hash functions.
+    private static final int MAX_HASHES = 16;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+    // The most bit pages whose page numbers fit on the header page.
+    private static final int MAX_PAGES = (BufferManager.EFFECTIVE_PAGE_SIZE - HEADER_SIZE) / Long.BYTES;
+
+    private BufferManager bufferManager;
+    private LockContext lockContext;
+    private Type keySchema;
+
+    private long headerPageNum;
+    private int numHashes;
+    private long[] pageNums;
+
+    // The in-memory copy of the bits, of length pageNums.length * EFFECTIVE_PAGE_SIZE.
+    private byte[] bits;
+
+    private BloomFilter(BufferManager bufferManager, LockContext lockContext, Type keySchema) {
+        this.bufferManager = bufferManager;
+        this.lockContext = lockContext;
+        this.keySchema = keySchema;
+    }
+
+    /**
+     * Creates an empty Bloom filter on partition partNum, sized so that about
+     * 1% of lookups of absent keys are false positives once expectedKeys keys
+     * are added (but no smaller than one page, or larger than the header page
+     * can describe).
+     */
+    public static BloomFilter create(BufferManager bufferManager, LockContext lockContext, int partNum,
+                                     Type keySchema, long expectedKeys) {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+
+        int bitsPerPage = BufferManager.EFFECTIVE_PAGE_SIZE * Byte.SIZE;
+        long numBits = Math.max(1, expectedKeys) * BITS_PER_KEY;
+        int numPages = (int) Math.max(1, Math.min(MAX_PAGES, (numBits + bitsPerPage - 1) / bitsPerPage));
+        double bitsPerKey = (double) numPages * bitsPerPage / Math.max(1, expectedKeys);
+
+        BloomFilter filter = new BloomFilter(bufferManager, lockContext, keySchema);
+        filter.numHashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+        filter.headerPageNum = newPageNum(bufferManager, lockContext, partNum);
+        filter.pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            filter.pageNums[i] = newPageNum(bufferManager, lockContext, partNum);
+        }
+        filter.bits = new byte[numPages * BufferManager.EFFECTIVE_PAGE_SIZE];
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + numPages * Long.BYTES);
+        header.putInt(filter.numHashes);
+        header.putInt(numPages);
+        for (long pageNum : filter.pageNums) {
+            header.putLong(pageNum);
+        }
+        filter.writeBytes(filter.headerPageNum, 0, header.array(), 0, header.capacity());
+        filter.writeBits(0, filter.bits.length);
+        return filter;
+    }
+
+    /** Loads the Bloom filter whose header is on page headerPageNum. */
+    public static BloomFilter load(BufferManager bufferManager, LockContext lockContext, Type keySchema,
+                                   long headerPageNum) {
+        BloomFilter filter = new BloomFilter(bufferManager, lockContext, keySchema);
+        filter.headerPageNum = headerPageNum;
+
+        Page header = bufferManager.fetchPage(lockContext, headerPageNum, false);
+        try {
+            Buffer buf = header.getBuffer();
+            filter.numHashes = buf.getInt();
+            filter.pageNums = new long[buf.getInt()];
+            for (int i = 0; i < filter.pageNums.length; ++i) {
+                filter.pageNums[i] = buf.getLong();
+            }
+        } finally {
+            header.unpin();
+        }
+
+        filter.bits = new byte[filter.pageNums.length * BufferManager.EFFECTIVE_PAGE_SIZE];
+        for (int i = 0; i < filter.pageNums.length; ++i) {
+            byte[] bytes = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            Page page = bufferManager.fetchPage(lockContext, filter.pageNums[i], false);
+            try {
+                page.getBuffer().get(bytes);
+            } finally {
+                page.unpin();
+            }
+            System.arraycopy(bytes, 0, filter.bits, i * bytes.length, bytes.length);
+        }
+        return filter;
+    }
+
+    /** Adds key to the filter. */
+    public void add(DataBox key) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+
+        long h = hash(key);
+        for (int i = 0; i < numHashes; ++i) {
+            int bit = bitIndex(h, i);
+            byte mask = (byte) (1 << (bit & 7));
+            int offset = bit >>> 3;
+            if ((bits[offset] & mask) == 0) {
+                bits[offset] |= mask;
+                writeBits(offset, 1);
+            }
+        }
+    }
+
+    /**
+     * Returns false if key was definitely never added to the filter, and true
+     * if it may have been. Reads no pages.
+     */
+    public boolean mightContain(DataBox key) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+
+        long h = hash(key);
+        for (int i = 0; i < numHashes; ++i) {
+            int bit = bitIndex(h, i);
+            if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Removes every key from the filter. */
+    public void clear() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+
+        Arrays.fill(bits, (byte) 0);
+        writeBits(0, bits.length);
+    }
+
+    /** Frees every page of the filter. The filter must not be used afterwards. */
+    public void free() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+
+        for (long pageNum : pageNums) {
+            bufferManager.freePage(bufferManager.fetchPage(lockContext, pageNum, false));
+        }
+        bufferManager.freePage(bufferManager.fetchPage(lockContext, headerPageNum, false));
+    }
+
+    /** Returns the page number of the header page of the filter. */
+    public long getHeaderPageNum() {
+        return headerPageNum;
+    }
+
+    /** Returns the number of bits of the filter. */
+    public int getNumBits() {
+        return bits.length * Byte.SIZE;
+    }
+
+    /** Returns the number of bits each key sets. */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * Returns a 64-bit hash of key, whose two halves are used as the two hash
+     * functions of double hashing. As in HashIndex, DataBox hash codes need
+     * to be mixed first; this is the finalizer of MurmurHash3's 64-bit variant.
+     */
+    private static long hash(DataBox key) {
+        long h = key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // The bit that the i-th hash function maps a key with hash h to.
+    private int bitIndex(long h, int i) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        return Math.floorMod(h1 + i * h2, bits.length * Byte.SIZE);
+    }
+
+    // Writes bits[offset, offset + length) back to the bit pages.
+    private void writeBits(int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int page = offset / BufferManager.EFFECTIVE_PAGE_SIZE;
+            int pageOffset = offset % BufferManager.EFFECTIVE_PAGE_SIZE;
+            int n = Math.min(end - offset, BufferManager.EFFECTIVE_PAGE_SIZE - pageOffset);
+            writeBytes(pageNums[page], pageOffset, bits, offset, n);
+            offset += n;
+        }
+    }
+
+    private void writeBytes(long pageNum, int pageOffset, byte[] src, int offset, int length) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum, false);
+        try {
+            // Buffer.put(byte[], int, int) takes an offset into the page, not into src
+            page.getBuffer().put(Arrays.copyOfRange(src, offset, offset + length), pageOffset, length);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private static long newPageNum(BufferManager bufferManager, LockContext lockContext, int partNum) {
+        Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
+        page.unpin();
+        return page.getPageNum();
+    }
+
+    private void typecheck(DataBox key) {
+        if (!key.type().equals(keySchema)) {
+            String msg = String.format("DataBox %s is not of type %s", key, keySchema);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+}
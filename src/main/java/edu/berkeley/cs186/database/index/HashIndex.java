@@ -0,0 +1,484 @@
+package edu.berkeley.cs186.database.index;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockType;
+import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.table.RecordId;
+
+/**
+ * A persistent extendible hash index.
+ *
+ *   HashIndex index = new HashIndex(bufferManager, metadata, lockContext);
+ *   index.put(new IntDataBox(42), new RecordId(0, (short) 0));
+ *   index.get(new IntDataBox(42)); // Optional.of(RecordId(0, 0))
+ *   index.get(new IntDataBox(43)); // Optional.empty()
+ *
+ * Keys are hashed into buckets through a directory of 2^g entries, where g is
+ * the global depth of the index: a key whose hash ends in the g bits i is
+ * stored in the bucket that directory entry i points to. Every bucket has a
+ * local depth l <= g, and all the 2^(g - l) directory entries that end in the
+ * same l bits point to it. When a bucket no longer fits on its page, it is
+ * split in two on bit l of the hash, doubling the directory first if l == g.
+ * Splitting cannot separate keys whose hashes collide, so once a bucket's local
+ * depth reaches MAX_DEPTH it grows a chain of overflow pages instead.
+ *
+ * The directory is read when the index is loaded and kept in memory (much like
+ * the root of a B+ tree), so looking up a key reads a single bucket page no
+ * matter how many keys the index holds. The price is that keys are not kept
+ * in any order, so hash indices cannot be used for range scans.
+ *
+ * Every page of a hash index lives on the index's own partition. The page
+ * metadata.getRootPageNum() holds the global depth followed by the page
+ * numbers of the directory pages, which in turn hold the directory entries
+ * (page numbers of buckets) in order. See Bucket for how buckets are stored.
+ */
+public class HashIndex implements Index {
+    // The deepest the directory may grow. 2^16 entries fill 130 directory pages.
+    static final int MAX_DEPTH = 16;
+
+    // Number of directory entries stored on a single directory page.
+    private static final int ENTRIES_PER_PAGE = BufferManager.EFFECTIVE_PAGE_SIZE / Long.BYTES;
+
+    // Buffer manager
+    private BufferManager bufferManager;
+
+    // Index metadata
+    private BPlusTreeMetadata metadata;
+
+    // lock context for the index
+    private LockContext lockContext;
+
+    // The global depth of the directory, and the directory itself: the page
+    // number of the bucket for each of the 2^globalDepth hash suffixes.
+    private int globalDepth;
+    private List<Long> directory;
+
+    // The page numbers of the pages the directory is stored on.
+    private List<Long> directoryPages;
+
+    // Bloom filter over the keys of the index, or null if it has none.
+    private BloomFilter filter;
+
+    // Constructors ////////////////////////////////////////////////////////////
+    /**
+     * Construct a new hash index with metadata `metadata` and lock context
+     * `lockContext`. If metadata.getRootPageNum() is INVALID_PAGE_NUM, an empty
+     * index is created and its directory page is written back to the metadata.
+     * Otherwise, the index stored on the metadata's partition is loaded.
+     */
+    public HashIndex(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext) {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+        lockContext.disableChildLocks();
+
+        this.bufferManager = bufferManager;
+        this.lockContext = lockContext;
+        this.metadata = metadata;
+        this.directoryPages = new ArrayList<>();
+
+        if (metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
+            readDirectory();
+        } else {
+            Page header = bufferManager.fetchNewPage(lockContext, metadata.getPartNum(), false);
+            header.unpin();
+            Bucket bucket = new Bucket(newPageNum(), 0);
+            writeBucket(bucket);
+
+            this.globalDepth = 0;
+            this.directory = new ArrayList<>();
+            this.directory.add(bucket.pageNum);
+            metadata.setRootPageNum(header.getPageNum());
+            writeDirectory(allDirectoryPages());
+
+            TransactionContext transaction = TransactionContext.getTransaction();
+            if (transaction != null) {
+                transaction.updateIndexMetadata(metadata);
+            }
+        }
+
+        if (metadata.getFilterPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
+            this.filter = BloomFilter.load(bufferManager, lockContext, metadata.getKeySchema(),
+                                           metadata.getFilterPageNum());
+        }
+    }
+
+    // Core API ////////////////////////////////////////////////////////////////
+    @Override
+    public Kind getKind() {
+        return Kind.HASH;
+    }
+
+    @Override
+    public Optional<RecordId> get(DataBox key) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
+
+        if (filter != null && !filter.mightContain(key)) {
+            return Optional.empty();
+        }
+        Bucket bucket = readBucket(bucketPageNum(hash(key)));
+        int index = bucket.keys.indexOf(key);
+        return index == -1 ? Optional.empty() : Optional.of(bucket.rids.get(index));
+    }
+
+    @Override
+    public Iterator<RecordId> scanEqual(DataBox key) {
+        Optional<RecordId> rid = get(key);
+        if (rid.isPresent()) {
+            return Collections.singletonList(rid.get()).iterator();
+        }
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public void put(DataBox key, RecordId rid) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
+
+        int hash = hash(key);
+        Bucket bucket = readBucket(bucketPageNum(hash));
+        if (bucket.keys.contains(key)) {
+            String msg = String.format("Duplicate key %s inserted into a hash index.", key);
+            throw new HashIndexException(msg);
+        }
+        bucket.keys.add(key);
+        bucket.rids.add(rid);
+
+        // Keep splitting the bucket the key belongs to until it fits on a page.
+        // Usually one split is enough, but if (almost) all of the bucket's keys
+        // agree on the bit we split on, one of the halves may still overflow.
+        Set<Integer> dirtyDirectoryPages = new HashSet<>();
+        while (!bucket.fitsOnPage() && bucket.localDepth < MAX_DEPTH) {
+            Bucket image = split(bucket, dirtyDirectoryPages);
+            if ((hash & (1 << (image.localDepth - 1))) != 0) {
+                writeBucket(bucket);
+                bucket = image;
+            } else {
+                writeBucket(image);
+            }
+        }
+        writeBucket(bucket);
+        writeDirectory(dirtyDirectoryPages);
+        if (filter != null) {
+            filter.add(key);
+        }
+    }
+
+    @Override
+    public void remove(DataBox key) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
+
+        // Like B+ trees, hash indices do not shrink when keys are removed.
+        Bucket bucket = readBucket(bucketPageNum(hash(key)));
+        int index = bucket.keys.indexOf(key);
+        if (index != -1) {
+            bucket.keys.remove(index);
+            bucket.rids.remove(index);
+            writeBucket(bucket);
+        }
+    }
+
+    @Override
+    public BloomFilter createBloomFilter(long expectedKeys) {
+        LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.X);
+
+        if (filter != null) {
+            filter.free();
+        }
+        filter = BloomFilter.create(bufferManager, lockContext, metadata.getPartNum(),
+                                    metadata.getKeySchema(), expectedKeys);
+        metadata.setFilterPageNum(filter.getHeaderPageNum());
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            transaction.updateIndexMetadata(metadata);
+        }
+        return filter;
+    }
+
+    @Override
+    public Optional<BloomFilter> getBloomFilter() {
+        return Optional.ofNullable(filter);
+    }
+
+    @Override
+    public int getPartNum() {
+        return metadata.getPartNum();
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * DataBox hash codes are often poorly spread over their low bits (an
+     * IntDataBox hashes to its value), which are exactly the bits the
+     * directory uses, so we mix them first.
+     */
+    static int hash(DataBox key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private long bucketPageNum(int hash) {
+        return directory.get(hash & ((1 << globalDepth) - 1));
+    }
+
+    /**
+     * Splits `bucket` on bit bucket.localDepth of the hash, moving the entries
+     * with that bit set into a new bucket (its split image) that is returned.
+     * Neither bucket is written; the directory is updated in memory and the
+     * directory pages that changed are added to dirtyDirectoryPages.
+     */
+    private Bucket split(Bucket bucket, Set<Integer> dirtyDirectoryPages) {
+        if (bucket.localDepth == globalDepth) {
+            directory.addAll(new ArrayList<>(directory));
+            ++globalDepth;
+            dirtyDirectoryPages.addAll(allDirectoryPages());
+        }
+
+        int bit = 1 << bucket.localDepth;
+        ++bucket.localDepth;
+        Bucket image = new Bucket(newPageNum(), bucket.localDepth);
+
+        List<DataBox> keys = bucket.keys;
+        List<RecordId> rids = bucket.rids;
+        bucket.keys = new ArrayList<>();
+        bucket.rids = new ArrayList<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            Bucket target = (hash(keys.get(i)) & bit) != 0 ? image : bucket;
+            target.keys.add(keys.get(i));
+            target.rids.add(rids.get(i));
+        }
+
+        for (int i = 0; i < directory.size(); ++i) {
+            if (directory.get(i) == bucket.pageNum && (i & bit) != 0) {
+                directory.set(i, image.pageNum);
+                dirtyDirectoryPages.add(i / ENTRIES_PER_PAGE);
+            }
+        }
+        return image;
+    }
+
+    private long newPageNum() {
+        Page page = bufferManager.fetchNewPage(lockContext, metadata.getPartNum(), false);
+        page.unpin();
+        return page.getPageNum();
+    }
+
+    private Set<Integer> allDirectoryPages() {
+        Set<Integer> pages = new HashSet<>();
+        for (int i = 0; i * ENTRIES_PER_PAGE < directory.size(); ++i) {
+            pages.add(i);
+        }
+        return pages;
+    }
+
+    /** Loads the global depth and the directory from disk. */
+    private void readDirectory() {
+        Page header = bufferManager.fetchPage(lockContext, metadata.getRootPageNum(), false);
+        try {
+            Buffer buf = header.getBuffer();
+            globalDepth = buf.getInt();
+            int numPages = buf.getInt();
+            for (int i = 0; i < numPages; ++i) {
+                directoryPages.add(buf.getLong());
+            }
+        } finally {
+            header.unpin();
+        }
+
+        int size = 1 << globalDepth;
+        directory = new ArrayList<>(size);
+        for (long pageNum : directoryPages) {
+            Page page = bufferManager.fetchPage(lockContext, pageNum, false);
+            try {
+                Buffer buf = page.getBuffer();
+                for (int i = 0; i < ENTRIES_PER_PAGE && directory.size() < size; ++i) {
+                    directory.add(buf.getLong());
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    /**
+     * Writes the directory pages with the given indices (allocating any that
+     * do not exist yet), followed by the header page.
+     */
+    private void writeDirectory(Set<Integer> dirtyPages) {
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+        while (directoryPages.size() * ENTRIES_PER_PAGE < directory.size()) {
+            directoryPages.add(newPageNum());
+        }
+        for (int p : dirtyPages) {
+            int from = p * ENTRIES_PER_PAGE;
+            int to = Math.min(from + ENTRIES_PER_PAGE, directory.size());
+            ByteBuffer bytes = ByteBuffer.allocate(Long.BYTES * (to - from));
+            for (int i = from; i < to; ++i) {
+                bytes.putLong(directory.get(i));
+            }
+            writePage(directoryPages.get(p), bytes.array());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES * directoryPages.size());
+        header.putInt(globalDepth);
+        header.putInt(directoryPages.size());
+        for (long pageNum : directoryPages) {
+            header.putLong(pageNum);
+        }
+        writePage(metadata.getRootPageNum(), header.array());
+    }
+
+    private void writePage(long pageNum, byte[] bytes) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum, false);
+        try {
+            page.getBuffer().put(bytes);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /** Reads the bucket whose first page is `pageNum`, overflow pages and all. */
+    private Bucket readBucket(long pageNum) {
+        Type keySchema = metadata.getKeySchema();
+        Bucket bucket = null;
+        long next = pageNum;
+        while (next != DiskSpaceManager.INVALID_PAGE_NUM) {
+            Page page = bufferManager.fetchPage(lockContext, next, false);
+            try {
+                Buffer buf = page.getBuffer();
+                int localDepth = buf.getInt();
+                if (bucket == null) {
+                    bucket = new Bucket(pageNum, localDepth);
+                } else {
+                    bucket.overflowPages.add(next);
+                }
+                next = buf.getLong();
+                int n = buf.getInt();
+                for (int i = 0; i < n; ++i) {
+                    bucket.keys.add(KeyCompression.readInnerKey(buf, keySchema));
+                    bucket.rids.add(RecordId.fromBytes(buf));
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Writes `bucket` to its page, spilling over onto as many overflow pages
+     * as needed and freeing overflow pages it no longer needs.
+     */
+    private void writeBucket(Bucket bucket) {
+        Type keySchema = metadata.getKeySchema();
+        List<Long> pages = new ArrayList<>();
+        pages.add(bucket.pageNum);
+        pages.addAll(bucket.overflowPages);
+
+        // Split the entries into runs that each fit on a page.
+        List<Integer> runStarts = new ArrayList<>();
+        runStarts.add(0);
+        int used = Bucket.HEADER_SIZE;
+        for (int i = 0; i < bucket.keys.size(); ++i) {
+            int size = bucket.entrySize(i);
+            if (used + size > BufferManager.EFFECTIVE_PAGE_SIZE) {
+                runStarts.add(i);
+                used = Bucket.HEADER_SIZE;
+            }
+            used += size;
+        }
+        runStarts.add(bucket.keys.size());
+
+        int numPages = runStarts.size() - 1;
+        while (pages.size() < numPages) {
+            pages.add(newPageNum());
+        }
+        while (pages.size() > numPages) {
+            long pageNum = pages.remove(pages.size() - 1);
+            bufferManager.freePage(bufferManager.fetchPage(lockContext, pageNum, false));
+        }
+        bucket.overflowPages = new ArrayList<>(pages.subList(1, pages.size()));
+
+        for (int p = 0; p < numPages; ++p) {
+            int from = runStarts.get(p);
+            int to = runStarts.get(p + 1);
+            int size = Bucket.HEADER_SIZE;
+            for (int i = from; i < to; ++i) {
+                size += bucket.entrySize(i);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            buf.putInt(bucket.localDepth);
+            buf.putLong(p + 1 < numPages ? pages.get(p + 1) : DiskSpaceManager.INVALID_PAGE_NUM);
+            buf.putInt(to - from);
+            for (int i = from; i < to; ++i) {
+                KeyCompression.writeInnerKey(buf, bucket.keys.get(i), keySchema);
+                buf.put(bucket.rids.get(i).toBytes());
+            }
+            writePage(pages.get(p), buf.array());
+        }
+    }
+
+    private void typecheck(DataBox key) {
+        Type t = metadata.getKeySchema();
+        if (!key.type().equals(t)) {
+            String msg = String.format("DataBox %s is not of type %s", key, t);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    /**
+     * The in-memory copy of a bucket. A bucket is stored on its own page as
+     *
+     *   a. its local depth (4 bytes),
+     *   b. the page number (8 bytes) of its next overflow page, or
+     *      INVALID_PAGE_NUM if it has none,
+     *   c. the number n (4 bytes) of (key, rid) pairs on the page, and
+     *   d. the n (key, rid) pairs, with keys stored like the keys of a B+ tree
+     *      inner node (see KeyCompression).
+     *
+     * Overflow pages use the same layout.
+     */
+    private class Bucket {
+        static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+        private final long pageNum;
+        private int localDepth;
+        private List<DataBox> keys = new ArrayList<>();
+        private List<RecordId> rids = new ArrayList<>();
+        private List<Long> overflowPages = new ArrayList<>();
+
+        Bucket(long pageNum, int localDepth) {
+            this.pageNum = pageNum;
+            this.localDepth = localDepth;
+        }
+
+        int entrySize(int i) {
+            return KeyCompression.innerKeySize(keys.get(i), metadata.getKeySchema()) +
+                   RecordId.getSizeInBytes();
+        }
+
+        boolean fitsOnPage() {
+            int size = HEADER_SIZE;
+            for (int i = 0; i < keys.size(); ++i) {
+                size += entrySize(i);
+            }
+            return size <= BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package edu.berkeley.cs186.database.index;
+
+public class HashIndexException extends RuntimeException {
+    public HashIndexException(String message) {
+        super(message);
+    }
+}
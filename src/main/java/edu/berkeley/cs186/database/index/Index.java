@@ -0,0 +1,63 @@
+package edu.berkeley.cs186.database.index;
+
+import java.util.Iterator;
+import java.util.Optional;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.RecordId;
+
+/**
+ * A persistent index mapping the keys of a single column to the record ids of
+ * the records holding them. Keys are unique.
+ *
+ * Every index supports the equality lookups and updates below. Only B+ trees
+ * (see BPlusTree) keep their keys in order and support range scans; hash
+ * indices (see HashIndex) trade that away for lookups that read a single page
+ * no matter how large the table is.
+ */
+public interface Index {
+    /** The access methods an index can use. */
+    enum Kind {
+        BPLUS_TREE,
+        HASH
+    }
+
+    /** Returns which kind of index this is. */
+    Kind getKind();
+
+    /**
+     * Returns the record id associated with `key`, or Optional.empty() if
+     * `key` is not in the index.
+     */
+    Optional<RecordId> get(DataBox key);
+
+    /**
+     * Returns an iterator over the record id associated with `key`, which is
+     * empty if `key` is not in the index.
+     */
+    Iterator<RecordId> scanEqual(DataBox key);
+
+    /**
+     * Inserts a (key, rid) pair into the index. Throws an exception if `key`
+     * is already in the index.
+     */
+    void put(DataBox key, RecordId rid);
+
+    /** Deletes `key` (and its record id) from the index. */
+    void remove(DataBox key);
+
+    /**
+     * Attaches a new, empty Bloom filter sized for `expectedKeys` keys to the
+     * index, replacing (and freeing) the one it had, if any. From then on put
+     * adds every key it inserts to the filter, and get and scanEqual return
+     * nothing without reading a page for keys that the filter rules out. The
+     * caller must add the keys already in the index to the returned filter.
+     */
+    BloomFilter createBloomFilter(long expectedKeys);
+
+    /** Returns the Bloom filter of the index, if it has one. */
+    Optional<BloomFilter> getBloomFilter();
+
+    /** Returns the partition number that the index resides on. */
+    int getPartNum();
+}
@@ -78,43 +78,57 @@ class InnerNode extends BPlusNode {
     // See BPlusNode.get.
     @Override
     public LeafNode get(DataBox key) {
-        // TODO(proj2): implement
-
-        return null;
+        return getChild(numLessThanEqual(key, keys)).get(key);
     }
 
     // See BPlusNode.getLeftmostLeaf.
     @Override
     public LeafNode getLeftmostLeaf() {
         assert(children.size() > 0);
-        // TODO(proj2): implement
-
-        return null;
+        return getChild(0).getLeftmostLeaf();
     }
 
     // See BPlusNode.put.
     @Override
     public Optional<Pair<DataBox, Long>> put(DataBox key, RecordId rid) {
-        // TODO(proj2): implement
+        int index = numLessThanEqual(key, keys);
+        Optional<Pair<DataBox, Long>> childSplit = getChild(index).put(key, rid);
+        if (!childSplit.isPresent()) {
+            return Optional.empty();
+        }
 
-        return Optional.empty();
+        keys.add(index, childSplit.get().getFirst());
+        children.add(index + 1, childSplit.get().getSecond());
+        if (!overflows()) {
+            sync();
+            return Optional.empty();
+        }
+        return Optional.of(split(splitIndex()));
     }
 
     // See BPlusNode.bulkLoad.
     @Override
     public Optional<Pair<DataBox, Long>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
             float fillFactor) {
-        // TODO(proj2): implement
-
+        while (data.hasNext()) {
+            Optional<Pair<DataBox, Long>> childSplit =
+                getChild(children.size() - 1).bulkLoad(data, fillFactor);
+            if (childSplit.isPresent()) {
+                keys.add(childSplit.get().getFirst());
+                children.add(childSplit.get().getSecond());
+                if (overflows()) {
+                    return Optional.of(split(splitIndex()));
+                }
+            }
+        }
+        sync();
         return Optional.empty();
     }
 
     // See BPlusNode.remove.
     @Override
     public void remove(DataBox key) {
-        // TODO(proj2): implement
-
-        return;
+        getChild(numLessThanEqual(key, keys)).remove(key);
     }
 
     // Helpers ///////////////////////////////////////////////////////////////////
@@ -128,6 +142,59 @@ class InnerNode extends BPlusNode {
         return BPlusNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
     }
 
+    /**
+     * Returns whether this node holds more than it may: more than 2d keys or,
+     * since compressed keys vary in size, more than fits on its page.
+     */
+    private boolean overflows() {
+        if (keys.size() > 2 * metadata.getOrder()) {
+            return true;
+        }
+        return KeyCompression.isCompressible(metadata.getKeySchema()) &&
+               serializedSize() > BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
+    /**
+     * Returns the index of the key that an overflowing node pushes up when it
+     * splits. With fixed width keys, a node with 2d + 1 keys keeps d keys on
+     * either side of the middle one. With compressed keys, the key at the
+     * byte midpoint of the node is pushed up instead.
+     */
+    private int splitIndex() {
+        Type keySchema = metadata.getKeySchema();
+        if (!KeyCompression.isCompressible(keySchema) || keys.size() < 3) {
+            return keys.size() / 2;
+        }
+        int[] sizes = new int[keys.size()];
+        int total = 0;
+        for (int i = 0; i < keys.size(); ++i) {
+            sizes[i] = KeyCompression.innerKeySize(keys.get(i), keySchema) + Long.BYTES;
+            total += sizes[i];
+        }
+        int index = 0;
+        for (int used = 0; index < keys.size() - 2 && used + sizes[index] <= total / 2; ++index) {
+            used += sizes[index];
+        }
+        return Math.max(index, 1);
+    }
+
+    /**
+     * Splits this node around the key at `index`: the keys to its left stay
+     * here, the keys to its right move into a new node, and the key itself is
+     * returned along with the page number of the new node.
+     */
+    private Pair<DataBox, Long> split(int index) {
+        DataBox splitKey = keys.get(index);
+        List<DataBox> rightKeys = new ArrayList<>(keys.subList(index + 1, keys.size()));
+        List<Long> rightChildren = new ArrayList<>(children.subList(index + 1, children.size()));
+        keys = new ArrayList<>(keys.subList(0, index));
+        children = new ArrayList<>(children.subList(0, index + 1));
+
+        InnerNode right = new InnerNode(metadata, bufferManager, rightKeys, rightChildren, treeContext);
+        sync();
+        return new Pair<>(splitKey, right.getPage().getPageNum());
+    }
+
     private void sync() {
         page.pin();
         try {
@@ -312,19 +379,17 @@ class InnerNode extends BPlusNode {
         //
         // represent an inner node with one key (i.e. 1) and two children pointers
         // (i.e. page 3 and page 7).
+        //
+        // If keys are compressible (see KeyCompression), each key in c is
+        // instead written as its length (2 bytes) followed by the key without
+        // its null padding. Keys in inner nodes are separators, which are
+        // truncated to be as short as possible when they are created.
 
-        // All sizes are in bytes.
-        int isLeafSize = 1;
-        int numKeysSize = Integer.BYTES;
-        int keysSize = metadata.getKeySchema().getSizeInBytes() * keys.size();
-        int childrenSize = Long.BYTES * children.size();
-        int size = isLeafSize + numKeysSize + keysSize + childrenSize;
-
-        ByteBuffer buf = ByteBuffer.allocate(size);
+        ByteBuffer buf = ByteBuffer.allocate(serializedSize());
         buf.put((byte) 0);
         buf.putInt(keys.size());
         for (DataBox key : keys) {
-            buf.put(key.toBytes());
+            KeyCompression.writeInnerKey(buf, key, metadata.getKeySchema());
         }
         for (Long child : children) {
             buf.putLong(child);
@@ -332,6 +397,19 @@ class InnerNode extends BPlusNode {
         return buf.array();
     }
 
+    /** Returns the number of bytes toBytes produces. */
+    private int serializedSize() {
+        // All sizes are in bytes.
+        int isLeafSize = 1;
+        int numKeysSize = Integer.BYTES;
+        int keysSize = 0;
+        for (DataBox key : keys) {
+            keysSize += KeyCompression.innerKeySize(key, metadata.getKeySchema());
+        }
+        int childrenSize = Long.BYTES * children.size();
+        return isLeafSize + numKeysSize + keysSize + childrenSize;
+    }
+
     /**
      * Loads an inner node from page `pageNum`.
      */
@@ -340,13 +418,14 @@ class InnerNode extends BPlusNode {
         Page page = bufferManager.fetchPage(treeContext, pageNum, false);
         Buffer buf = page.getBuffer();
 
-        assert (buf.get() == (byte) 0);
+        byte isLeaf = buf.get();
+        assert (isLeaf == (byte) 0);
 
         List<DataBox> keys = new ArrayList<>();
         List<Long> children = new ArrayList<>();
         int n = buf.getInt();
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            keys.add(KeyCompression.readInnerKey(buf, metadata.getKeySchema()));
         }
         for (int i = 0; i < n + 1; ++i) {
             children.add(buf.getLong());
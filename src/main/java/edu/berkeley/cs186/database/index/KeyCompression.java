@@ -0,0 +1,158 @@
+package edu.berkeley.cs186.database.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * Helpers for storing variable-length keys compactly in B+ tree nodes.
+ *
+ * Only string keys are compressed. A string(m) key is always m bytes wide
+ * in a table, but most of those bytes are usually null padding, and
+ * neighbouring keys in a node tend to share a prefix (think of an index on
+ * emails or names). For these keys:
+ *
+ *   - inner nodes store only the shortest separator that still routes
+ *     lookups correctly (suffix truncation, see shortestSeparator), and
+ *   - leaf nodes store each key as the length of the prefix it shares with
+ *     the previous key followed by the remaining bytes (prefix compression).
+ *
+ * In both cases the trailing null padding is never written to disk. Since
+ * the number of keys that fit on a page now depends on the keys themselves,
+ * nodes holding compressible keys decide whether they overflow by the number
+ * of bytes they take up rather than only by their number of keys.
+ *
+ * Keys of every other type are fixed width and are serialized exactly as
+ * before.
+ */
+final class KeyCompression {
+    // Number of bytes used to store a length (of a key, or of a shared prefix).
+    static final int LENGTH_SIZE = Short.BYTES;
+
+    private KeyCompression() {}
+
+    /** Returns whether keys of type `keySchema` are stored compressed. */
+    static boolean isCompressible(Type keySchema) {
+        return keySchema.getTypeId() == TypeId.STRING;
+    }
+
+    /**
+     * Returns the bytes of `key` without its trailing null padding.
+     */
+    static byte[] trimmedBytes(DataBox key) {
+        byte[] bytes = key.toBytes();
+        int n = bytes.length;
+        while (n > 0 && bytes[n - 1] == 0) {
+            --n;
+        }
+        byte[] trimmed = new byte[n];
+        System.arraycopy(bytes, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    /**
+     * Rebuilds a full-width key of type `keySchema` from its trimmed bytes.
+     */
+    static DataBox fromTrimmedBytes(byte[] bytes, Type keySchema) {
+        String s = new String(bytes, Charset.forName("ascii"));
+        return new StringDataBox(s, keySchema.getSizeInBytes());
+    }
+
+    /**
+     * Returns the number of leading bytes that a and b have in common.
+     */
+    static int commonPrefixLength(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < n && a[i] == b[i]) {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Given the largest key `left` of a left node and the smallest key `right`
+     * of its right sibling (left < right), returns the shortest key s such
+     * that left < s <= right. Routing lookups with s is exactly as correct as
+     * routing them with right, but s is usually much shorter. For example,
+     * the shortest separator between "johnson" and "jones" is "jon".
+     *
+     * Keys that are not compressible are fixed width, so there is nothing to
+     * gain, and right is returned as is.
+     */
+    static DataBox shortestSeparator(DataBox left, DataBox right) {
+        Type t = right.type();
+        if (!isCompressible(t)) {
+            return right;
+        }
+        String r = right.getString();
+        for (int k = 1; k < r.length(); ++k) {
+            DataBox candidate = new StringDataBox(r.substring(0, k), t.getSizeInBytes());
+            if (candidate.compareTo(left) > 0) {
+                return candidate;
+            }
+        }
+        return right;
+    }
+
+    /** Number of bytes `key` takes up in an inner node. */
+    static int innerKeySize(DataBox key, Type keySchema) {
+        if (!isCompressible(keySchema)) {
+            return keySchema.getSizeInBytes();
+        }
+        return LENGTH_SIZE + trimmedBytes(key).length;
+    }
+
+    static void writeInnerKey(ByteBuffer buf, DataBox key, Type keySchema) {
+        if (!isCompressible(keySchema)) {
+            buf.put(key.toBytes());
+            return;
+        }
+        byte[] bytes = trimmedBytes(key);
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    static DataBox readInnerKey(Buffer buf, Type keySchema) {
+        if (!isCompressible(keySchema)) {
+            return DataBox.fromBytes(buf, keySchema);
+        }
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        return fromTrimmedBytes(bytes, keySchema);
+    }
+
+    /**
+     * Number of bytes `key` takes up in a leaf, given the trimmed bytes `prev`
+     * of the key stored right before it (or an empty array for the first key).
+     */
+    static int leafKeySize(byte[] prev, byte[] key) {
+        return 2 * LENGTH_SIZE + key.length - commonPrefixLength(prev, key);
+    }
+
+    static void writeLeafKey(ByteBuffer buf, byte[] prev, byte[] key) {
+        int shared = commonPrefixLength(prev, key);
+        buf.putShort((short) shared);
+        buf.putShort((short) (key.length - shared));
+        buf.put(key, shared, key.length - shared);
+    }
+
+    /**
+     * Reads a prefix compressed key written by writeLeafKey. Returns its
+     * trimmed bytes; see fromTrimmedBytes.
+     */
+    static byte[] readLeafKey(Buffer buf, byte[] prev) {
+        int shared = buf.getShort();
+        byte[] suffix = new byte[buf.getShort()];
+        buf.get(suffix);
+        byte[] key = new byte[shared + suffix.length];
+        System.arraycopy(prev, 0, key, 0, shared);
+        System.arraycopy(suffix, 0, key, shared, suffix.length);
+        return key;
+    }
+}
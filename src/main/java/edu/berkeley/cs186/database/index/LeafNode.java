@@ -140,42 +140,99 @@ class LeafNode extends BPlusNode {
     // See BPlusNode.get.
     @Override
     public LeafNode get(DataBox key) {
-        // TODO(proj2): implement
-
-        return null;
+        return this;
     }
 
     // See BPlusNode.getLeftmostLeaf.
     @Override
     public LeafNode getLeftmostLeaf() {
-        // TODO(proj2): implement
-
-        return null;
+        return this;
     }
 
     // See BPlusNode.put.
     @Override
     public Optional<Pair<DataBox, Long>> put(DataBox key, RecordId rid) {
-        // TODO(proj2): implement
+        if (keys.contains(key)) {
+            String msg = String.format("Duplicate key %s inserted into a B+ tree.", key);
+            throw new BPlusTreeException(msg);
+        }
+
+        int index = InnerNode.numLessThan(key, keys);
+        keys.add(index, key);
+        rids.add(index, rid);
 
-        return Optional.empty();
+        if (!overflows()) {
+            sync();
+            return Optional.empty();
+        }
+        return Optional.of(split(splitIndex()));
     }
 
     // See BPlusNode.bulkLoad.
     @Override
     public Optional<Pair<DataBox, Long>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
             float fillFactor) {
-        // TODO(proj2): implement
+        int maxEntries = (int) Math.ceil(2 * metadata.getOrder() * fillFactor);
+        int maxBytes = (int) (BufferManager.EFFECTIVE_PAGE_SIZE * fillFactor);
+        boolean compressible = KeyCompression.isCompressible(metadata.getKeySchema());
+
+        // For compressible keys we also stop once the leaf has used up
+        // fillFactor of the page, tracking its size incrementally rather than
+        // re-serializing the leaf on every record.
+        int size = compressible ? serializedSize() : 0;
+        byte[] prev = keys.isEmpty()
+                      ? new byte[0]
+                      : KeyCompression.trimmedBytes(keys.get(keys.size() - 1));
+        Pair<DataBox, RecordId> overflow = null;
+        while (data.hasNext() && keys.size() < maxEntries) {
+            Pair<DataBox, RecordId> pair = data.next();
+            if (compressible) {
+                byte[] bytes = KeyCompression.trimmedBytes(pair.getFirst());
+                int entrySize = KeyCompression.leafKeySize(prev, bytes) + RecordId.getSizeInBytes();
+                if (!keys.isEmpty() && size + entrySize > maxBytes) {
+                    overflow = pair;
+                    break;
+                }
+                size += entrySize;
+                prev = bytes;
+            }
+            keys.add(pair.getFirst());
+            rids.add(pair.getSecond());
+        }
+        if (overflow == null && data.hasNext()) {
+            overflow = data.next();
+        }
+
+        if (overflow == null) {
+            sync();
+            return Optional.empty();
+        }
+
+        // The overflowing record starts a new right sibling holding only it.
+        List<DataBox> rightKeys = new ArrayList<>();
+        List<RecordId> rightRids = new ArrayList<>();
+        rightKeys.add(overflow.getFirst());
+        rightRids.add(overflow.getSecond());
+        LeafNode right = new LeafNode(metadata, bufferManager, rightKeys, rightRids, rightSibling,
+                                      treeContext);
+        rightSibling = Optional.of(right.getPage().getPageNum());
+        sync();
 
-        return Optional.empty();
+        DataBox splitKey = KeyCompression.shortestSeparator(keys.get(keys.size() - 1),
+                           overflow.getFirst());
+        return Optional.of(new Pair<>(splitKey, right.getPage().getPageNum()));
     }
 
     // See BPlusNode.remove.
     @Override
     public void remove(DataBox key) {
-        // TODO(proj2): implement
-
-        return;
+        int index = keys.indexOf(key);
+        if (index == -1) {
+            return;
+        }
+        keys.remove(index);
+        rids.remove(index);
+        sync();
     }
 
     // Iterators /////////////////////////////////////////////////////////////////
@@ -219,6 +276,73 @@ class LeafNode extends BPlusNode {
         return Optional.of(LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
     }
 
+    /**
+     * Returns the page number of the right sibling of this leaf, if it has
+     * one, without reading the sibling.
+     */
+    Optional<Long> getRightSiblingPageNum() {
+        return rightSibling;
+    }
+
+    /**
+     * Returns whether this leaf holds more than it may. A leaf may hold at
+     * most 2d entries and, since compressed keys vary in size, must also fit
+     * on its page.
+     */
+    private boolean overflows() {
+        if (keys.size() > 2 * metadata.getOrder()) {
+            return true;
+        }
+        return KeyCompression.isCompressible(metadata.getKeySchema()) &&
+               serializedSize() > BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
+    /**
+     * Returns the number of entries an overflowing leaf keeps when it splits.
+     * With fixed width keys, a leaf with 2d + 1 entries keeps d of them. With
+     * compressed keys, the leaf keeps the entries that make up the first half
+     * of its bytes.
+     */
+    private int splitIndex() {
+        if (!KeyCompression.isCompressible(metadata.getKeySchema())) {
+            return keys.size() / 2;
+        }
+        int[] sizes = new int[keys.size()];
+        int total = 0;
+        byte[] prev = new byte[0];
+        for (int i = 0; i < keys.size(); ++i) {
+            byte[] bytes = KeyCompression.trimmedBytes(keys.get(i));
+            sizes[i] = KeyCompression.leafKeySize(prev, bytes) + RecordId.getSizeInBytes();
+            total += sizes[i];
+            prev = bytes;
+        }
+        int index = 0;
+        for (int used = 0; index < keys.size() - 1 && used + sizes[index] <= total / 2; ++index) {
+            used += sizes[index];
+        }
+        return Math.max(index, 1);
+    }
+
+    /**
+     * Moves the entries from `index` onwards into a new right sibling and
+     * returns the split key and page number of that sibling. The split key is
+     * the shortest key that separates the two leaves; for fixed width keys,
+     * that is just the first key of the right sibling.
+     */
+    private Pair<DataBox, Long> split(int index) {
+        List<DataBox> rightKeys = new ArrayList<>(keys.subList(index, keys.size()));
+        List<RecordId> rightRids = new ArrayList<>(rids.subList(index, rids.size()));
+        DataBox splitKey = KeyCompression.shortestSeparator(keys.get(index - 1), rightKeys.get(0));
+        keys = new ArrayList<>(keys.subList(0, index));
+        rids = new ArrayList<>(rids.subList(0, index));
+
+        LeafNode right = new LeafNode(metadata, bufferManager, rightKeys, rightRids, rightSibling,
+                                      treeContext);
+        rightSibling = Optional.of(right.getPage().getPageNum());
+        sync();
+        return new Pair<>(splitKey, right.getPage().getPageNum());
+    }
+
     /** Serializes this leaf to its page. */
     private void sync() {
         page.pin();
@@ -336,25 +460,54 @@ class LeafNode extends BPlusNode {
         //
         // represent a leaf node with sibling on page 4 and a single (key, rid)
         // pair with key 3 and page id (3, 1).
+        //
+        // If keys are compressible (see KeyCompression), each key in d is
+        // instead written as the length (2 bytes) of the prefix it shares with
+        // the previous key, the length (2 bytes) of the rest of the key, and
+        // the rest of the key without its null padding.
 
+        ByteBuffer buf = ByteBuffer.allocate(serializedSize());
+        buf.put((byte) 1);
+        buf.putLong(rightSibling.orElse(-1L));
+        buf.putInt(keys.size());
+        if (KeyCompression.isCompressible(metadata.getKeySchema())) {
+            byte[] prev = new byte[0];
+            for (int i = 0; i < keys.size(); ++i) {
+                byte[] key = KeyCompression.trimmedBytes(keys.get(i));
+                KeyCompression.writeLeafKey(buf, prev, key);
+                buf.put(rids.get(i).toBytes());
+                prev = key;
+            }
+        } else {
+            for (int i = 0; i < keys.size(); ++i) {
+                buf.put(keys.get(i).toBytes());
+                buf.put(rids.get(i).toBytes());
+            }
+        }
+        return buf.array();
+    }
+
+    /** Returns the number of bytes toBytes produces. */
+    private int serializedSize() {
         // All sizes are in bytes.
         int isLeafSize = 1;
         int siblingSize = Long.BYTES;
         int lenSize = Integer.BYTES;
-        int keySize = metadata.getKeySchema().getSizeInBytes();
         int ridSize = RecordId.getSizeInBytes();
-        int entriesSize = (keySize + ridSize) * keys.size();
-        int size = isLeafSize + siblingSize + lenSize + entriesSize;
-
-        ByteBuffer buf = ByteBuffer.allocate(size);
-        buf.put((byte) 1);
-        buf.putLong(rightSibling.orElse(-1L));
-        buf.putInt(keys.size());
-        for (int i = 0; i < keys.size(); ++i) {
-            buf.put(keys.get(i).toBytes());
-            buf.put(rids.get(i).toBytes());
+        int entriesSize;
+        if (KeyCompression.isCompressible(metadata.getKeySchema())) {
+            entriesSize = ridSize * keys.size();
+            byte[] prev = new byte[0];
+            for (DataBox k : keys) {
+                byte[] key = KeyCompression.trimmedBytes(k);
+                entriesSize += KeyCompression.leafKeySize(prev, key);
+                prev = key;
+            }
+        } else {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            entriesSize = (keySize + ridSize) * keys.size();
         }
-        return buf.array();
+        return isLeafSize + siblingSize + lenSize + entriesSize;
     }
 
     /**
@@ -362,9 +515,31 @@ class LeafNode extends BPlusNode {
      */
     public static LeafNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager,
                                      LockContext treeContext, long pageNum) {
-        // TODO(proj2): implement
-
-        return null;
+        Page page = bufferManager.fetchPage(treeContext, pageNum, false);
+        Buffer buf = page.getBuffer();
+
+        byte isLeaf = buf.get();
+        assert (isLeaf == (byte) 1);
+
+        long sibling = buf.getLong();
+        Optional<Long> rightSibling = sibling == -1L ? Optional.empty() : Optional.of(sibling);
+
+        Type keySchema = metadata.getKeySchema();
+        boolean compressible = KeyCompression.isCompressible(keySchema);
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        int n = buf.getInt();
+        byte[] prev = new byte[0];
+        for (int i = 0; i < n; ++i) {
+            if (compressible) {
+                prev = KeyCompression.readLeafKey(buf, prev);
+                keys.add(KeyCompression.fromTrimmedBytes(prev, keySchema));
+            } else {
+                keys.add(DataBox.fromBytes(buf, keySchema));
+            }
+            rids.add(RecordId.fromBytes(buf));
+        }
+        return new LeafNode(metadata, bufferManager, page, keys, rids, rightSibling, treeContext);
     }
 
     // Builtins //////////////////////////////////////////////////////////////////
@@ -101,4 +101,17 @@ public interface BufferManager extends AutoCloseable {
      * @return number of I/Os
      */
     long getNumIOs();
+
+    /**
+     * Get the number of pages fetched since the buffer manager was started, whether they were
+     * in memory already or had to be read. Like getNumIOs, only useful as a relative measure.
+     * @return number of page fetches
+     */
+    long getNumPageFetches();
+
+    /**
+     * Get the number of pages allocated since the buffer manager was started (see fetchNewPage).
+     * @return number of new pages
+     */
+    long getNumNewPages();
 }
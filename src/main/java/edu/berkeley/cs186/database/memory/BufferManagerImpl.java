@@ -44,6 +44,10 @@ public class BufferManagerImpl implements BufferManager {
     // Count of number of I/Os
     private long numIOs = 0;
 
+    // Count of page fetches (hits or not) and of new pages
+    private long numPageFetches = 0;
+    private long numNewPages = 0;
+
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
      * underlying byte array. Free frames use the index field to create a (singly) linked
@@ -381,6 +385,7 @@ public class BufferManagerImpl implements BufferManager {
             if (!this.diskSpaceManager.pageAllocated(pageNum)) {
                 throw new PageException("page " + pageNum + " not allocated");
             }
+            ++this.numPageFetches;
             if (this.pageToFrame.containsKey(pageNum)) {
                 newFrame = this.frames[this.pageToFrame.get(pageNum)];
                 newFrame.pin();
@@ -437,6 +442,7 @@ public class BufferManagerImpl implements BufferManager {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
         this.managerLock.lock();
         try {
+            ++this.numNewPages;
             return fetchPageFrame(pageNum, logPage);
         } finally {
             this.managerLock.unlock();
@@ -544,6 +550,16 @@ public class BufferManagerImpl implements BufferManager {
         return numIOs;
     }
 
+    @Override
+    public long getNumPageFetches() {
+        return numPageFetches;
+    }
+
+    @Override
+    public long getNumNewPages() {
+        return numNewPages;
+    }
+
     private void incrementIOs() {
         ++numIOs;
     }
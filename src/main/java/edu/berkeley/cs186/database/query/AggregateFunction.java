@@ -0,0 +1,271 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.LongDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * The aggregate functions a query can compute over each group (see
+ * GroupByOperator). Every group gets one Accumulator per aggregate, which is
+ * handed the value of the aggregated column of every record of the group,
+ * in a single pass:
+ *
+ *   Accumulator max = AggregateFunction.MAX.newAccumulator(Type.intType());
+ *   max.add(new IntDataBox(3));
+ *   max.add(new IntDataBox(7));
+ *   max.getResult(); // 7
+ *
+ * COUNT counts records (i.e. COUNT(*)) and is the only function without a
+ * column. COUNT_DISTINCT counts the distinct values of its column with a hash
+ * set, so its memory grows with the number of distinct values of each group.
+ * SUM and AVERAGE are only defined over numeric columns. SUM has the type of
+ * its column, and a SUM of integers that overflows an integer is an error.
+ */
+enum AggregateFunction {
+    COUNT,
+    COUNT_DISTINCT,
+    SUM,
+    AVERAGE,
+    MIN,
+    MAX;
+
+    /**
+     * The running state of one aggregate over one group.
+     */
+    interface Accumulator {
+        /** Adds the value of the aggregated column of a record of the group. */
+        void add(DataBox value);
+
+        /**
+         * Adds the value in row of column (null for COUNT), for vectorized
+         * aggregation. Unless overridden, the value is boxed and added.
+         */
+        default void add(ColumnVector column, int row) {
+            this.add(column == null ? null : column.get(row));
+        }
+
+        /** Returns the aggregate over all values added so far. */
+        DataBox getResult();
+    }
+
+    /** Returns whether the function aggregates a column. */
+    boolean hasColumn() {
+        return this != COUNT;
+    }
+
+    /**
+     * Returns the name of the output column of the function: countAgg,
+     * countDistinctAgg, sumAgg, averageAgg, minAgg or maxAgg.
+     */
+    String getColumnName() {
+        switch (this) {
+        case COUNT:
+            return "countAgg";
+        case COUNT_DISTINCT:
+            return "countDistinctAgg";
+        case SUM:
+            return "sumAgg";
+        case AVERAGE:
+            return "averageAgg";
+        case MIN:
+            return "minAgg";
+        default:
+            return "maxAgg";
+        }
+    }
+
+    /**
+     * Returns the type of the output column of the function over a column of
+     * type columnType (null for COUNT), or throws a QueryPlanException if the
+     * function is not defined over it.
+     */
+    Type getOutputType(Type columnType) {
+        switch (this) {
+        case COUNT:
+        case COUNT_DISTINCT:
+            return Type.intType();
+        case SUM:
+            checkNumeric(columnType);
+            return columnType;
+        case AVERAGE:
+            checkNumeric(columnType);
+            return Type.floatType();
+        default:
+            return columnType;
+        }
+    }
+
+    /** Returns a new accumulator over a column of type columnType (null for COUNT). */
+    Accumulator newAccumulator(Type columnType) {
+        switch (this) {
+        case COUNT:
+            return new CountAccumulator();
+        case COUNT_DISTINCT:
+            return new CountDistinctAccumulator();
+        case SUM:
+            return new SumAccumulator(columnType.getTypeId());
+        case AVERAGE:
+            return new AverageAccumulator();
+        case MIN:
+            return new ExtremumAccumulator(-1);
+        default:
+            return new ExtremumAccumulator(1);
+        }
+    }
+
+    private void checkNumeric(Type columnType) {
+        TypeId typeId = columnType.getTypeId();
+        if (typeId != TypeId.INT && typeId != TypeId.LONG && typeId != TypeId.FLOAT) {
+            throw new QueryPlanException("Cannot compute " + this + " over a non-numeric column.");
+        }
+    }
+
+    private static double numericValue(DataBox value) {
+        switch (value.type().getTypeId()) {
+        case FLOAT:
+            return value.getFloat();
+        case LONG:
+            return value.getLong();
+        default:
+            return value.getInt();
+        }
+    }
+
+    private static class CountAccumulator implements Accumulator {
+        private int count = 0;
+
+        @Override
+        public void add(DataBox value) {
+            ++this.count;
+        }
+
+        @Override
+        public void add(ColumnVector column, int row) {
+            ++this.count;
+        }
+
+        @Override
+        public DataBox getResult() {
+            return new IntDataBox(this.count);
+        }
+    }
+
+    private static class CountDistinctAccumulator implements Accumulator {
+        private Set<DataBox> values = new HashSet<>();
+
+        @Override
+        public void add(DataBox value) {
+            this.values.add(value);
+        }
+
+        @Override
+        public DataBox getResult() {
+            return new IntDataBox(this.values.size());
+        }
+    }
+
+    private static class SumAccumulator implements Accumulator {
+        private TypeId typeId;
+        // integer sums are kept exact, float sums in double precision
+        private long longSum = 0;
+        private double floatSum = 0;
+
+        private SumAccumulator(TypeId typeId) {
+            this.typeId = typeId;
+        }
+
+        @Override
+        public void add(DataBox value) {
+            if (this.typeId == TypeId.FLOAT) {
+                this.floatSum += value.getFloat();
+            } else {
+                this.longSum += this.typeId == TypeId.LONG ? value.getLong() : value.getInt();
+            }
+        }
+
+        @Override
+        public void add(ColumnVector column, int row) {
+            if (this.typeId == TypeId.FLOAT) {
+                this.floatSum += column.getFloat(row);
+            } else {
+                this.longSum += this.typeId == TypeId.LONG ? column.getLong(row) : column.getInt(row);
+            }
+        }
+
+        @Override
+        public DataBox getResult() {
+            switch (this.typeId) {
+            case FLOAT:
+                return new FloatDataBox((float) this.floatSum);
+            case LONG:
+                return new LongDataBox(this.longSum);
+            default:
+                try {
+                    return new IntDataBox(Math.toIntExact(this.longSum));
+                } catch (ArithmeticException e) {
+                    throw new QueryPlanException("SUM of an integer column overflows an integer.");
+                }
+            }
+        }
+    }
+
+    private static class AverageAccumulator implements Accumulator {
+        private double sum = 0;
+        private int count = 0;
+
+        @Override
+        public void add(DataBox value) {
+            this.sum += numericValue(value);
+            ++this.count;
+        }
+
+        @Override
+        public void add(ColumnVector column, int row) {
+            switch (column.getTypeId()) {
+            case FLOAT:
+                this.sum += column.getFloat(row);
+                break;
+            case LONG:
+                this.sum += column.getLong(row);
+                break;
+            default:
+                this.sum += column.getInt(row);
+                break;
+            }
+            ++this.count;
+        }
+
+        @Override
+        public DataBox getResult() {
+            return new FloatDataBox(this.count == 0 ? 0f : (float) (this.sum / this.count));
+        }
+    }
+
+    // MIN if sign is -1, MAX if it is 1
+    private static class ExtremumAccumulator implements Accumulator {
+        private int sign;
+        private DataBox extremum = null;
+
+        private ExtremumAccumulator(int sign) {
+            this.sign = sign;
+        }
+
+        @Override
+        public void add(DataBox value) {
+            if (this.extremum == null || Integer.signum(value.compareTo(this.extremum)) == this.sign) {
+                this.extremum = value;
+            }
+        }
+
+        @Override
+        public DataBox getResult() {
+            return this.extremum;
+        }
+    }
+}
@@ -30,13 +30,23 @@ class BNLJOperator extends JoinOperator {
     }
 
     @Override
-    public int estimateIOCost() {
+    public long estimateIOCost() {
         //This method implements the IO cost estimation of the Block Nested Loop Join
         int usableBuffers = numBuffers - 2;
         int numLeftPages = getLeftSource().getStats().getNumPages();
         int numRightPages = getRightSource().getStats().getNumPages();
-        return ((int) Math.ceil((double) numLeftPages / (double) usableBuffers)) * numRightPages +
-               numLeftPages;
+        long numBlocks = (numLeftPages + (long) usableBuffers - 1) / usableBuffers;
+        return Cost.saturatedAdd(Cost.saturatedMultiply(numBlocks, numRightPages), numLeftPages);
+    }
+
+    /**
+     * Every left record is compared with every right record, a block at a
+     * time.
+     */
+    @Override
+    protected Cost estimateLocalCost() {
+        return new Cost(this.getIOCost(), 0, (double) getLeftSource().getStats().getNumRecords() *
+                        getRightSource().getStats().getNumRecords());
     }
 
     /**
@@ -155,7 +165,7 @@ class BNLJOperator extends JoinOperator {
                     if (rightRecordIterator.hasNext()) { // See if the end of the page.
                         Record rightRec = rightRecordIterator.next();
                         DataBox leftJoinValue = this.leftRecord.getValues().get(BNLJOperator.this.getLeftColumnIndex());
-                        DataBox rightJoinValue = rightRec.getValues().get(BNLJOperator.this.getLeftColumnIndex());
+                        DataBox rightJoinValue = rightRec.getValues().get(BNLJOperator.this.getRightColumnIndex());
                         if (leftJoinValue.equals(rightJoinValue)) {
                             this.nextRecord = joinRecords(this.leftRecord, rightRec);
                         }
@@ -0,0 +1,126 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.LongDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * The values of one column of a RecordBatch. Integers, longs, floats and
+ * booleans are kept in an array of the primitive type, so that operators can
+ * work on them without a DataBox per value (e.g. getInt(row)); strings are
+ * kept as DataBoxes. get(row) boxes any value.
+ */
+class ColumnVector {
+    private Type type;
+    private int[] ints;
+    private long[] longs;
+    private float[] floats;
+    private boolean[] bools;
+    private DataBox[] values;
+
+    ColumnVector(Type type, int capacity) {
+        this.type = type;
+        switch (type.getTypeId()) {
+        case INT:
+            this.ints = new int[capacity];
+            break;
+        case LONG:
+            this.longs = new long[capacity];
+            break;
+        case FLOAT:
+            this.floats = new float[capacity];
+            break;
+        case BOOL:
+            this.bools = new boolean[capacity];
+            break;
+        default:
+            this.values = new DataBox[capacity];
+            break;
+        }
+    }
+
+    Type getType() {
+        return this.type;
+    }
+
+    TypeId getTypeId() {
+        return this.type.getTypeId();
+    }
+
+    int getInt(int row) {
+        return this.ints[row];
+    }
+
+    long getLong(int row) {
+        return this.longs[row];
+    }
+
+    float getFloat(int row) {
+        return this.floats[row];
+    }
+
+    boolean getBool(int row) {
+        return this.bools[row];
+    }
+
+    /** Returns the value of row as a DataBox. */
+    DataBox get(int row) {
+        switch (this.type.getTypeId()) {
+        case INT:
+            return new IntDataBox(this.ints[row]);
+        case LONG:
+            return new LongDataBox(this.longs[row]);
+        case FLOAT:
+            return new FloatDataBox(this.floats[row]);
+        case BOOL:
+            return new BoolDataBox(this.bools[row]);
+        default:
+            return this.values[row];
+        }
+    }
+
+    void set(int row, DataBox value) {
+        switch (this.type.getTypeId()) {
+        case INT:
+            this.ints[row] = value.getInt();
+            break;
+        case LONG:
+            this.longs[row] = value.getLong();
+            break;
+        case FLOAT:
+            this.floats[row] = value.getFloat();
+            break;
+        case BOOL:
+            this.bools[row] = value.getBool();
+            break;
+        default:
+            this.values[row] = value;
+            break;
+        }
+    }
+
+    /** Copies the value of row `from` of vector to row `to` of this vector. */
+    void copy(ColumnVector vector, int from, int to) {
+        switch (this.type.getTypeId()) {
+        case INT:
+            this.ints[to] = vector.ints[from];
+            break;
+        case LONG:
+            this.longs[to] = vector.longs[from];
+            break;
+        case FLOAT:
+            this.floats[to] = vector.floats[from];
+            break;
+        case BOOL:
+            this.bools[to] = vector.bools[from];
+            break;
+        default:
+            this.values[to] = vector.values[from];
+            break;
+        }
+    }
+}
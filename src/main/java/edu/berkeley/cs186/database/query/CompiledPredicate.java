@@ -0,0 +1,307 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.LongDataBox;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * A predicate `column operator value` (as in a SelectOperator), compiled
+ * once into a specialization for the type of value, so that records and
+ * batches are tested without dispatching on the operator or boxing any value.
+ *
+ * Integer and long predicates are reduced to a range [lo, hi] of the values
+ * that satisfy them (or, for NOT_EQUALS, that do not), e.g. `x < 5` to
+ * [MIN_VALUE, 4], and float predicates to a mask of the results of
+ * Float.compare that satisfy them (or, for EQUALS and NOT_EQUALS, to ==). Any other predicate, or a value of a
+ * different type than the column, is tested on DataBoxes as before: with
+ * equals for EQUALS and NOT_EQUALS, and with compareTo otherwise.
+ */
+abstract class CompiledPredicate {
+    private int columnIndex;
+    private Generic generic;
+
+    private CompiledPredicate(int columnIndex, PredicateOperator operator, DataBox value) {
+        this.columnIndex = columnIndex;
+        this.generic = this instanceof Generic ? (Generic) this : new Generic(columnIndex, operator, value);
+    }
+
+    /**
+     * Compiles the predicate `column columnIndex operator value`.
+     */
+    static CompiledPredicate compile(int columnIndex, PredicateOperator operator, DataBox value) {
+        switch (value.type().getTypeId()) {
+        case INT: {
+            int v = value.getInt();
+            switch (operator) {
+            case EQUALS:
+                return new IntRange(columnIndex, operator, value, v, v, false);
+            case NOT_EQUALS:
+                return new IntRange(columnIndex, operator, value, v, v, true);
+            case LESS_THAN:
+                // x < MIN_VALUE is never true
+                return v == Integer.MIN_VALUE ? new IntRange(columnIndex, operator, value, 1, 0, false)
+                       : new IntRange(columnIndex, operator, value, Integer.MIN_VALUE, v - 1, false);
+            case LESS_THAN_EQUALS:
+                return new IntRange(columnIndex, operator, value, Integer.MIN_VALUE, v, false);
+            case GREATER_THAN:
+                return v == Integer.MAX_VALUE ? new IntRange(columnIndex, operator, value, 1, 0, false)
+                       : new IntRange(columnIndex, operator, value, v + 1, Integer.MAX_VALUE, false);
+            default:
+                return new IntRange(columnIndex, operator, value, v, Integer.MAX_VALUE, false);
+            }
+        }
+        case LONG: {
+            long v = value.getLong();
+            switch (operator) {
+            case EQUALS:
+                return new LongRange(columnIndex, operator, value, v, v, false);
+            case NOT_EQUALS:
+                return new LongRange(columnIndex, operator, value, v, v, true);
+            case LESS_THAN:
+                return v == Long.MIN_VALUE ? new LongRange(columnIndex, operator, value, 1, 0, false)
+                       : new LongRange(columnIndex, operator, value, Long.MIN_VALUE, v - 1, false);
+            case LESS_THAN_EQUALS:
+                return new LongRange(columnIndex, operator, value, Long.MIN_VALUE, v, false);
+            case GREATER_THAN:
+                return v == Long.MAX_VALUE ? new LongRange(columnIndex, operator, value, 1, 0, false)
+                       : new LongRange(columnIndex, operator, value, v + 1, Long.MAX_VALUE, false);
+            default:
+                return new LongRange(columnIndex, operator, value, v, Long.MAX_VALUE, false);
+            }
+        }
+        case FLOAT:
+            return new FloatCompare(columnIndex, operator, value);
+        default:
+            return new Generic(columnIndex, operator, value);
+        }
+    }
+
+    /**
+     * Returns whether record satisfies the predicate.
+     */
+    boolean test(Record record) {
+        return this.test(record.getValues().get(this.columnIndex));
+    }
+
+    /**
+     * Returns the batch of the rows of batch that satisfy the predicate.
+     */
+    RecordBatch select(RecordBatch batch) {
+        ColumnVector column = batch.getColumn(this.columnIndex);
+        int[] selection = new int[batch.size()];
+        int numSelected = this.accepts(column.getTypeId()) ? this.select(batch, column, selection)
+                          : this.generic.select(batch, column, selection);
+        return batch.withSelection(selection, numSelected);
+    }
+
+    // whether value, the value of the column of a record, satisfies the predicate
+    abstract boolean test(DataBox value);
+
+    // whether this specialization can read a column of type typeId
+    abstract boolean accepts(TypeId typeId);
+
+    // puts the rows of batch whose value of column satisfies the predicate in
+    // selection, in order, and returns their number
+    abstract int select(RecordBatch batch, ColumnVector column, int[] selection);
+
+    // x in [lo, hi] (or not, if negate) for an integer x
+    private static class IntRange extends CompiledPredicate {
+        private final int lo;
+        private final int hi;
+        private final boolean negate;
+
+        private IntRange(int columnIndex, PredicateOperator operator, DataBox value, int lo, int hi,
+                         boolean negate) {
+            super(columnIndex, operator, value);
+            this.lo = lo;
+            this.hi = hi;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean test(DataBox value) {
+            if (!(value instanceof IntDataBox)) {
+                return super.generic.test(value);
+            }
+            int x = value.getInt();
+            return (x >= this.lo && x <= this.hi) != this.negate;
+        }
+
+        @Override
+        boolean accepts(TypeId typeId) {
+            return typeId == TypeId.INT;
+        }
+
+        @Override
+        int select(RecordBatch batch, ColumnVector column, int[] selection) {
+            int lo = this.lo;
+            int hi = this.hi;
+            boolean negate = this.negate;
+            int numSelected = 0;
+            for (int i = 0; i < batch.size(); ++i) {
+                int row = batch.getRow(i);
+                int x = column.getInt(row);
+                if ((x >= lo && x <= hi) != negate) {
+                    selection[numSelected++] = row;
+                }
+            }
+            return numSelected;
+        }
+    }
+
+    // x in [lo, hi] (or not, if negate) for a long x
+    private static class LongRange extends CompiledPredicate {
+        private final long lo;
+        private final long hi;
+        private final boolean negate;
+
+        private LongRange(int columnIndex, PredicateOperator operator, DataBox value, long lo, long hi,
+                          boolean negate) {
+            super(columnIndex, operator, value);
+            this.lo = lo;
+            this.hi = hi;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean test(DataBox value) {
+            if (!(value instanceof LongDataBox)) {
+                return super.generic.test(value);
+            }
+            long x = value.getLong();
+            return (x >= this.lo && x <= this.hi) != this.negate;
+        }
+
+        @Override
+        boolean accepts(TypeId typeId) {
+            return typeId == TypeId.LONG;
+        }
+
+        @Override
+        int select(RecordBatch batch, ColumnVector column, int[] selection) {
+            long lo = this.lo;
+            long hi = this.hi;
+            boolean negate = this.negate;
+            int numSelected = 0;
+            for (int i = 0; i < batch.size(); ++i) {
+                int row = batch.getRow(i);
+                long x = column.getLong(row);
+                if ((x >= lo && x <= hi) != negate) {
+                    selection[numSelected++] = row;
+                }
+            }
+            return numSelected;
+        }
+    }
+
+    // bit signum(Float.compare(x, value)) + 1 of mask is set for a float x
+    // that satisfies an ordering predicate; EQUALS and NOT_EQUALS compare
+    // with == instead, as FloatDataBox::equals does (so -0.0 equals 0.0, and
+    // NaN equals nothing, not even itself), and a mask of 0
+    private static class FloatCompare extends CompiledPredicate {
+        private final float value;
+        private final int mask;
+        private final boolean negate;
+
+        private FloatCompare(int columnIndex, PredicateOperator operator, DataBox value) {
+            super(columnIndex, operator, value);
+            this.value = value.getFloat();
+            this.negate = operator == PredicateOperator.NOT_EQUALS;
+            switch (operator) {
+            case EQUALS:
+            case NOT_EQUALS:
+                this.mask = 0;
+                break;
+            case LESS_THAN:
+                this.mask = 0b001;
+                break;
+            case LESS_THAN_EQUALS:
+                this.mask = 0b011;
+                break;
+            case GREATER_THAN:
+                this.mask = 0b100;
+                break;
+            default:
+                this.mask = 0b110;
+                break;
+            }
+        }
+
+        private boolean satisfies(float x) {
+            if (this.mask == 0) {
+                return (x == this.value) != this.negate;
+            }
+            return (this.mask & (1 << (Integer.signum(Float.compare(x, this.value)) + 1))) != 0;
+        }
+
+        @Override
+        boolean test(DataBox value) {
+            if (!(value instanceof FloatDataBox)) {
+                return super.generic.test(value);
+            }
+            return this.satisfies(value.getFloat());
+        }
+
+        @Override
+        boolean accepts(TypeId typeId) {
+            return typeId == TypeId.FLOAT;
+        }
+
+        @Override
+        int select(RecordBatch batch, ColumnVector column, int[] selection) {
+            int numSelected = 0;
+            for (int i = 0; i < batch.size(); ++i) {
+                int row = batch.getRow(i);
+                if (this.satisfies(column.getFloat(row))) {
+                    selection[numSelected++] = row;
+                }
+            }
+            return numSelected;
+        }
+    }
+
+    // any other predicate, tested on DataBoxes
+    private static class Generic extends CompiledPredicate {
+        private final PredicateOperator operator;
+        private final DataBox value;
+
+        private Generic(int columnIndex, PredicateOperator operator, DataBox value) {
+            super(columnIndex, operator, value);
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(DataBox value) {
+            switch (this.operator) {
+            case EQUALS:
+                return value.equals(this.value);
+            case NOT_EQUALS:
+                return !value.equals(this.value);
+            default:
+                return this.operator.evaluate(value, this.value);
+            }
+        }
+
+        @Override
+        boolean accepts(TypeId typeId) {
+            return true;
+        }
+
+        @Override
+        int select(RecordBatch batch, ColumnVector column, int[] selection) {
+            int numSelected = 0;
+            for (int i = 0; i < batch.size(); ++i) {
+                int row = batch.getRow(i);
+                if (this.test(column.get(row))) {
+                    selection[numSelected++] = row;
+                }
+            }
+            return numSelected;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Comparator;
+
+/**
+ * The estimated cost of executing a query plan (see QueryOperator::getCost),
+ * split into
+ *
+ *   - the pages read or written sequentially, e.g. by a scan of a table or
+ *     a pass of an external sort;
+ *   - the pages read at random, e.g. the heap pages fetched by an index
+ *     scan, or the index lookups of an index nested loop join; and
+ *   - the records processed (compared, hashed, copied, ...) in memory.
+ *
+ * On a spinning disk, a random page read costs about RANDOM_PAGE_COST
+ * sequential ones (a seek instead of a read-ahead). Plans are compared (see
+ * ordering) by their IO cost for a given cost of a random read, and only
+ * then by the records they process: an IO is orders of magnitude slower than
+ * processing a record, so CPU only decides between plans that do the same
+ * IOs, e.g. a join that compares every pair of records and one that hashes
+ * them. total() weighs all three into a single number, processing a record
+ * costing CPU_RECORD_COST of a sequential read.
+ */
+public final class Cost {
+    public static final double SEQ_PAGE_COST = 1.0;
+    public static final double RANDOM_PAGE_COST = 4.0;
+    public static final double CPU_RECORD_COST = 0.01;
+
+    public static final Cost ZERO = new Cost(0, 0, 0);
+
+    private final long seqIOs;
+    private final long randomIOs;
+    private final double cpuRecords;
+
+    public Cost(long seqIOs, long randomIOs, double cpuRecords) {
+        this.seqIOs = seqIOs;
+        this.randomIOs = randomIOs;
+        this.cpuRecords = cpuRecords;
+    }
+
+    public long getSeqIOs() {
+        return this.seqIOs;
+    }
+
+    public long getRandomIOs() {
+        return this.randomIOs;
+    }
+
+    public long getIOs() {
+        return saturatedAdd(this.seqIOs, this.randomIOs);
+    }
+
+    public double getCPURecords() {
+        return this.cpuRecords;
+    }
+
+    /**
+     * Returns the cost of the IOs in units of sequential page reads, if a
+     * random page read costs randomPageCost of them.
+     */
+    public double getIOCost(double randomPageCost) {
+        return this.seqIOs * SEQ_PAGE_COST + this.randomIOs * randomPageCost;
+    }
+
+    /**
+     * Returns the cost in units of sequential page reads.
+     */
+    public double total() {
+        return this.seqIOs * SEQ_PAGE_COST + this.randomIOs * RANDOM_PAGE_COST + this.cpuRecords * CPU_RECORD_COST;
+    }
+
+    /**
+     * Returns the cost of doing both this and other.
+     */
+    public Cost plus(Cost other) {
+        return new Cost(saturatedAdd(this.seqIOs, other.seqIOs), saturatedAdd(this.randomIOs, other.randomIOs),
+                        this.cpuRecords + other.cpuRecords);
+    }
+
+    /**
+     * Returns the order of costs by their IO cost (see getIOCost), and then
+     * by the records they process.
+     */
+    public static Comparator<Cost> ordering(double randomPageCost) {
+        return Comparator.<Cost>comparingDouble(cost -> cost.getIOCost(randomPageCost))
+               .thenComparingDouble(Cost::getCPURecords);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Cost)) {
+            return false;
+        }
+        Cost other = (Cost) o;
+        return this.seqIOs == other.seqIOs && this.randomIOs == other.randomIOs
+               && Double.compare(this.cpuRecords, other.cpuRecords) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.seqIOs) * 31 * 31 + Long.hashCode(this.randomIOs) * 31
+               + Double.hashCode(this.cpuRecords);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f (seq IOs: %d, random IOs: %d, records: %.0f)", this.total(), this.seqIOs,
+                             this.randomIOs, this.cpuRecords);
+    }
+
+    // a + b for non-negative a and b, or Long.MAX_VALUE if that overflows
+    static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    // a * b for non-negative a and b, or Long.MAX_VALUE if that overflows
+    static long saturatedMultiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) {
+            return Long.MAX_VALUE;
+        }
+        return a * b;
+    }
+}
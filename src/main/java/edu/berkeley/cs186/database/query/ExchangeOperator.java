@@ -0,0 +1,300 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.HashFunc;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Runs a scan of a table, along with the selections and projections above it
+ * (see isParallelScan), on several worker threads at once (see
+ * TransactionContext::runWorker), and gathers the batches of the workers
+ * back into one stream.
+ *
+ * The data pages of the table are split into morsels of MORSEL_PAGES pages,
+ * each of which one worker scans and runs through the selections and
+ * projections. Up to numWorkers morsels are in flight at once, and their
+ * batches are returned in the order of the morsels, i.e. in the same order as
+ * a serial scan. Workers never run more than numWorkers morsels ahead, so a
+ * consumer that stops early (e.g. a LimitOperator) leaves at most that many
+ * morsels running behind it, which the transaction waits for when it closes
+ * (see TransactionContext::runWorker), before releasing its lock on the table.
+ *
+ * Locks and temp tables are bound to the transaction's own thread, so the
+ * lock on the table is acquired there before any worker starts, and the
+ * workers only read pages it covers.
+ *
+ * Hash joins and hash aggregation instead use repartition, which has every
+ * worker split the batches of its morsel by the hash of a column, so that the
+ * records of each partition can be joined or aggregated by a worker of its
+ * own.
+ */
+class ExchangeOperator extends QueryOperator {
+    // Number of data pages a worker scans at a time.
+    static final int MORSEL_PAGES = 8;
+
+    private TransactionContext transaction;
+    private int numWorkers;
+
+    /**
+     * Creates an exchange that runs source, a parallel scan (see
+     * isParallelScan), on numWorkers workers.
+     */
+    ExchangeOperator(QueryOperator source, TransactionContext transaction, int numWorkers) {
+        super(OperatorType.EXCHANGE, source);
+        if (!isParallelScan(source)) {
+            throw new QueryPlanException("Only a scan of a table with selections and projections above it " +
+                                         "can run on several workers.");
+        }
+        this.transaction = transaction;
+        this.numWorkers = numWorkers;
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        return this.getSource().getOutputSchema();
+    }
+
+    int getNumWorkers() {
+        return this.numWorkers;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return RecordBatch.toRecords(this.batchIterator());
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    Iterator<RecordBatch> batchIterator() {
+        Iterator<List<RecordBatch>> morsels = new MorselIterator<>(this.getSource(), this.transaction,
+                this.numWorkers, batches -> {
+                    List<RecordBatch> list = new ArrayList<>();
+                    batches.forEachRemaining(list::add);
+                    return list;
+                });
+        return new Iterator<RecordBatch>() {
+            private Iterator<RecordBatch> morsel = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!this.morsel.hasNext() && morsels.hasNext()) {
+                    this.morsel = morsels.next().iterator();
+                }
+                return this.morsel.hasNext();
+            }
+
+            @Override
+            public RecordBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.morsel.next();
+            }
+        };
+    }
+
+    @Override
+    public String str() {
+        return "type: " + this.getType() +
+               "\nworkers: " + this.numWorkers;
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().getStats();
+    }
+
+    /**
+     * The workers read the same pages a serial scan would.
+     */
+    @Override
+    public long estimateIOCost() {
+        return this.getSource().getIOCost();
+    }
+
+    /**
+     * Returns whether operator is a sequential scan of a table, with only
+     * pipelined operators (see QueryOperator::isPipelined) above it, which
+     * can be run on any range of the data pages of the table.
+     */
+    static boolean isParallelScan(QueryOperator operator) {
+        while (operator.isPipelined()) {
+            operator = operator.getSource();
+        }
+        return operator.isSequentialScan();
+    }
+
+    /**
+     * Returns the records of source split into numPartitions partitions by
+     * the hash of column columnIndex: every element of the iterator is a
+     * list of the batches of each partition, of some of the records of
+     * source.
+     *
+     * If source is an exchange or a parallel scan and numWorkers is more than
+     * 1, numWorkers workers read and split the records of source, a morsel
+     * at a time; otherwise, source is read and split on this thread, a batch
+     * at a time.
+     */
+    static Iterator<List<List<RecordBatch>>> repartition(QueryOperator source, TransactionContext transaction,
+                                                         int columnIndex, int numPartitions, int numWorkers) {
+        if (source.getType() == OperatorType.EXCHANGE) {
+            numWorkers = Math.max(numWorkers, ((ExchangeOperator) source).getNumWorkers());
+            source = source.getSource();
+        }
+        if (numWorkers > 1 && isParallelScan(source)) {
+            return new MorselIterator<>(source, transaction, numWorkers,
+                                        batches -> partition(batches, columnIndex, numPartitions));
+        }
+        Iterator<RecordBatch> batches = source.batches();
+        return new Iterator<List<List<RecordBatch>>>() {
+            @Override
+            public boolean hasNext() {
+                return batches.hasNext();
+            }
+
+            @Override
+            public List<List<RecordBatch>> next() {
+                return partition(Collections.singletonList(batches.next()).iterator(), columnIndex,
+                                 numPartitions);
+            }
+        };
+    }
+
+    /**
+     * Copies the records of batches into the batches of numPartitions
+     * partitions, by the hash of column columnIndex.
+     */
+    static List<List<RecordBatch>> partition(Iterator<RecordBatch> batches, int columnIndex,
+                                             int numPartitions) {
+        Function<DataBox, Integer> hashFunc = HashFunc.getHashFunction(1);
+        List<List<RecordBatch>> partitions = new ArrayList<>();
+        for (int i = 0; i < numPartitions; ++i) {
+            partitions.add(new ArrayList<>());
+        }
+        while (batches.hasNext()) {
+            RecordBatch batch = batches.next();
+            int numColumns = batch.getSchema().getFieldNames().size();
+            ColumnVector column = batch.getColumn(columnIndex);
+            for (int i = 0; i < batch.size(); ++i) {
+                int row = batch.getRow(i);
+                List<RecordBatch> partition = partitions.get(Math.floorMod(hashFunc.apply(column.get(row)),
+                                                             numPartitions));
+                if (partition.isEmpty() || partition.get(partition.size() - 1).isFull()) {
+                    partition.add(new RecordBatch(batch.getSchema()));
+                }
+                RecordBatch out = partition.get(partition.size() - 1);
+                int outRow = out.addRow();
+                for (int j = 0; j < numColumns; ++j) {
+                    out.copyValue(j, outRow, batch.getColumn(j), row);
+                }
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Waits for future to complete, and returns its result, or throws the
+     * exception the worker threw.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs work over the batches of each morsel of scan, a parallel scan, on
+     * up to numWorkers workers at once, and returns the results in the order
+     * of the morsels. The next morsel is only started once the result of an
+     * earlier one is taken.
+     */
+    private static class MorselIterator<T> implements Iterator<T> {
+        private QueryOperator pipeline;
+        private SequentialScanOperator scan;
+        private TransactionContext transaction;
+        private Function<Iterator<RecordBatch>, T> work;
+        private List<Long> pageNums;
+        private int nextPage;
+        private Deque<CompletableFuture<T>> inFlight;
+
+        private MorselIterator(QueryOperator pipeline, TransactionContext transaction, int numWorkers,
+                               Function<Iterator<RecordBatch>, T> work) {
+            this.pipeline = pipeline;
+            QueryOperator scan = pipeline;
+            while (scan.isPipelined()) {
+                scan = scan.getSource();
+            }
+            this.scan = (SequentialScanOperator) scan;
+            this.transaction = transaction;
+            this.work = work;
+            // acquires the lock on the table, on this thread
+            this.pageNums = transaction.getTable(this.scan.getTableName()).getDataPageNums();
+            this.nextPage = 0;
+            this.inFlight = new ArrayDeque<>();
+            for (int i = 0; i < numWorkers; ++i) {
+                this.startNextMorsel();
+            }
+        }
+
+        private void startNextMorsel() {
+            if (this.nextPage == this.pageNums.size()) {
+                return;
+            }
+            List<Long> morsel = this.pageNums.subList(this.nextPage,
+                                Math.min(this.nextPage + MORSEL_PAGES, this.pageNums.size()));
+            this.nextPage += morsel.size();
+            this.inFlight.add(this.transaction.runWorker(() -> this.work.apply(this.run(morsel))));
+        }
+
+        // the batches of the pipeline over the records of morsel
+        private Iterator<RecordBatch> run(List<Long> morsel) {
+            Deque<QueryOperator> stages = new ArrayDeque<>();
+            for (QueryOperator op = this.pipeline; op != this.scan; op = op.getSource()) {
+                stages.push(op);
+            }
+            Iterator<RecordBatch> batches = this.scan.batchIterator(morsel);
+            for (QueryOperator stage : stages) {
+                batches = stage.batchIterator(batches);
+            }
+            return batches;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.inFlight.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = join(this.inFlight.poll());
+            this.startNextMorsel();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,787 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.HashFunc;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.index.BloomFilter;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.HashPartition;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+
+/**
+ * Grace Hash Join: partitions both relations on a hash of the join column
+ * into B-1 partitions (see HashPartition), then joins each pair of matching
+ * partitions by building an in-memory hash table on the side that fits in
+ * B-2 pages and probing it with the records of the other side.
+ *
+ * Unlike GraceHashJoin, the join records are produced lazily by the
+ * iterator, one partition at a time, so the output of the join is never held
+ * in memory. A partition neither side of which fits in B-2 pages is
+ * partitioned again with the hash function of the next pass. After
+ * MAX_PASSES passes (i.e. when the partition is mostly a single join value,
+ * which no hash function can split), it is instead joined by building hash
+ * tables on B-2 pages of the smaller side at a time, and probing each of them
+ * with all of the other side.
+ *
+ * In hybrid mode, the first pass keeps part of the smaller relation (the
+ * build side) in memory instead of writing all of it to partitions: a
+ * fraction of the HYBRID_BUCKETS buckets the join values hash to are
+ * resident, and their build records go straight into a hash table that fills
+ * the memory not needed by the spilled partitions. Probe records of resident
+ * buckets are joined as soon as they are read, and only the other buckets are
+ * written to partitions and joined like in Grace hash join. If the build side
+ * fits in B-2 pages, nothing is written at all; as it grows, a growing
+ * fraction spills, down to the cost of Grace hash join. If the resident
+ * buckets turn out to hold more build records than fit (the statistics of the
+ * build side were off), the rest of them go to an overflow partition, which
+ * the probe records of those buckets are also written to.
+ *
+ * When hybrid mode keeps all of the build side in memory, the operator is
+ * vectorized: the probe side is read in batches (see RecordBatch), and the
+ * join records are assembled column by column into output batches. If the
+ * transaction also has a degree of parallelism of more than 1, both sides
+ * are repartitioned on the join column among that many workers (see
+ * ExchangeOperator::repartition), each of which builds and probes the hash
+ * table of its own partition.
+ */
+class GHJOperator extends JoinOperator {
+    // Partitions are not split again after this many passes.
+    static final int MAX_PASSES = 5;
+
+    // Number of buckets the first pass of hybrid mode hashes join values to.
+    static final int HYBRID_BUCKETS = 1024;
+
+    protected int numBuffers;
+
+    // whether to keep part of the build side in memory during the first pass
+    private boolean hybrid;
+
+    private int numWorkers;
+
+    GHJOperator(QueryOperator leftSource,
+                QueryOperator rightSource,
+                String leftColumnName,
+                String rightColumnName,
+                TransactionContext transaction) {
+        this(leftSource, rightSource, leftColumnName, rightColumnName, transaction, false);
+    }
+
+    /**
+     * A hash join operator, which runs in hybrid mode (see above) if hybrid
+     * is true.
+     */
+    GHJOperator(QueryOperator leftSource,
+                QueryOperator rightSource,
+                String leftColumnName,
+                String rightColumnName,
+                TransactionContext transaction,
+                boolean hybrid) {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.GHJ);
+
+        this.numBuffers = Math.max(3, transaction.getWorkMemSize());
+        this.hybrid = hybrid;
+        this.numWorkers = transaction.getDegreeOfParallelism();
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new GHJIterator();
+    }
+
+    boolean isHybrid() {
+        return this.hybrid;
+    }
+
+    @Override
+    public String str() {
+        return super.str() + (this.hybrid ? "\nhybrid: true" : "") +
+               (this.runsInParallel() ? "\nworkers: " + this.numWorkers : "");
+    }
+
+    /**
+     * Returns whether hybrid mode keeps the whole build side in memory, so
+     * that the probe side can be read in batches.
+     */
+    @Override
+    public boolean isVectorized() {
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        int numRightPages = getRightSource().getStats().getNumPages();
+        return this.hybrid && numSpilledPartitions(Math.min(numLeftPages, numRightPages)) == 0;
+    }
+
+    // whether both sides are joined by several workers
+    boolean runsInParallel() {
+        return this.numWorkers > 1 && this.isVectorized();
+    }
+
+    @Override
+    Iterator<RecordBatch> batchIterator() {
+        if (this.runsInParallel()) {
+            return new ParallelGHJBatchIterator();
+        }
+        return this.isVectorized() ? new GHJBatchIterator() : super.batchIterator();
+    }
+
+    /**
+     * Every partitioning pass reads and writes both relations, and the
+     * build and probe phase reads them once more: 3(M + N) I/Os if one pass
+     * makes the partitions of the smaller relation fit in B-2 pages, and
+     * 2(M + N) more for every extra pass. This assumes join values are spread
+     * evenly across partitions.
+     *
+     * In hybrid mode, only the fraction of both relations that spills is
+     * written and read back, so the first pass costs (M + N)(1 + 2f) for a
+     * fraction f of spilled buckets.
+     */
+    @Override
+    public long estimateIOCost() {
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        int numRightPages = getRightSource().getStats().getNumPages();
+        int buildPages = Math.min(numLeftPages, numRightPages);
+        long graceCost = (2L * numPasses(buildPages) + 1) * ((long) numLeftPages + numRightPages);
+        if (!this.hybrid) {
+            return graceCost;
+        }
+        int numSpilled = numSpilledPartitions(buildPages);
+        if (numSpilled >= numBuffers - 1) {
+            return graceCost;
+        }
+        double spilledFraction = 1 - residentFraction(buildPages, numSpilled);
+        return (long) Math.ceil(((double) numLeftPages + numRightPages) * (1 + 2 * spilledFraction));
+    }
+
+    /**
+     * Returns how many partitions the first pass of hybrid mode spills to
+     * when the build side has buildPages pages: the fewest partitions that
+     * each fit in B-2 pages, given that each of them takes a page of memory
+     * away from the resident hash table (which also leaves a page for input).
+     * This is 0 if the whole build side fits in memory, and B-1 (i.e. Grace
+     * hash join) if no hash table fits next to the partitions it needs.
+     */
+    private int numSpilledPartitions(int buildPages) {
+        if (buildPages <= numBuffers - 2) {
+            return 0;
+        }
+        for (int spilled = 1; numBuffers - 2 - spilled >= 1; ++spilled) {
+            int residentPages = numBuffers - 2 - spilled;
+            if (buildPages - residentPages <= spilled * (numBuffers - 2)) {
+                return spilled;
+            }
+        }
+        return numBuffers - 1;
+    }
+
+    // fraction of the build side that stays in memory with numSpilled spilled partitions
+    private double residentFraction(int buildPages, int numSpilled) {
+        if (numSpilled == 0) {
+            return 1.0;
+        }
+        return Math.min(1.0, (double) (numBuffers - 2 - numSpilled) / Math.max(1, buildPages));
+    }
+
+    // number of partitioning passes after which a relation of numPages pages
+    // is split into partitions of at most B-2 pages
+    private int numPasses(int numPages) {
+        int passes = 1;
+        double partitionPages = (double) numPages / (numBuffers - 1);
+        while (partitionPages > numBuffers - 2 && passes < MAX_PASSES) {
+            partitionPages /= numBuffers - 1;
+            ++passes;
+        }
+        return passes;
+    }
+
+    // number of records of schema that fit in B-2 pages
+    private int buildCapacity(Schema schema) {
+        int recordsPerPage = Table.computeNumRecordsPerPage(BufferManager.EFFECTIVE_PAGE_SIZE, schema);
+        return (numBuffers - 2) * Math.max(1, recordsPerPage);
+    }
+
+    /**
+     * Partitions records (of the left relation if left is true) into
+     * partitions, with the hash function of pass `pass`.
+     */
+    private void partition(HashPartition[] partitions, Iterator<Record> records, boolean left, int pass) {
+        Function<DataBox, Integer> hashFunc = HashFunc.getHashFunction(pass);
+        int columnIndex = left ? getLeftColumnIndex() : getRightColumnIndex();
+        while (records.hasNext()) {
+            Record record = records.next();
+            int hash = hashFunc.apply(record.getValues().get(columnIndex));
+            addRecord(partitions[Math.floorMod(hash, partitions.length)], record, left);
+        }
+    }
+
+    private static void addRecord(HashPartition partition, Record record, boolean left) {
+        if (left) {
+            partition.addLeftRecord(record);
+        } else {
+            partition.addRightRecord(record);
+        }
+    }
+
+    private HashPartition[] createPartitions(int numPartitions) {
+        HashPartition[] partitions = new HashPartition[numPartitions];
+        for (int i = 0; i < numPartitions; ++i) {
+            partitions[i] = new HashPartition(getTransaction(), getLeftSource().getOutputSchema(),
+                                              getRightSource().getOutputSchema());
+        }
+        return partitions;
+    }
+
+    // Left records that the right join filter rules out cannot join with
+    // anything, so they need not be partitioned at all.
+    private Iterator<Record> filteredLeftIterator() {
+        Iterator<Record> records = getLeftSource().records();
+        Optional<BloomFilter> filter = getRightJoinFilter();
+        if (!filter.isPresent()) {
+            return records;
+        }
+        int leftIndex = getLeftColumnIndex();
+        return new Iterator<Record>() {
+            private Record next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && records.hasNext()) {
+                    Record r = records.next();
+                    if (filter.get().mightContain(r.getValues().get(leftIndex))) {
+                        next = r;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Record r = next;
+                next = null;
+                return r;
+            }
+        };
+    }
+
+    /**
+     * The batch iterator of a hybrid join whose build side fits in memory:
+     * builds a hash table on the build side, and probes it with the rows of
+     * each batch of the probe side. If the build side turns out not to fit
+     * (its statistics were off), it falls back to batching the records of
+     * GHJIterator, which reads the build side again.
+     */
+    private class GHJBatchIterator implements Iterator<RecordBatch> {
+        private Iterator<RecordBatch> fallback;
+
+        private boolean buildRight;
+        private int probeColumnIndex;
+        private Map<DataBox, List<Record>> hashTable;
+        private Iterator<RecordBatch> probeBatches;
+
+        // the probe batch being joined, the position of the next of its rows
+        // to look up, and the matches of the row before it not yet joined
+        private RecordBatch probeBatch;
+        private int probePosition;
+        private List<Record> matches;
+        private int matchPosition;
+
+        private GHJBatchIterator() {
+            int numLeftPages = getLeftSource().getStats().getNumPages();
+            int numRightPages = getRightSource().getStats().getNumPages();
+            this.buildRight = numRightPages < numLeftPages;
+            QueryOperator buildSource = this.buildRight ? getRightSource() : getLeftSource();
+            int buildColumnIndex = this.buildRight ? getRightColumnIndex() : getLeftColumnIndex();
+            this.probeColumnIndex = this.buildRight ? getLeftColumnIndex() : getRightColumnIndex();
+
+            int capacity = buildCapacity(buildSource.getOutputSchema());
+            this.hashTable = new HashMap<>();
+            Iterator<Record> buildRecords = this.buildRight ? buildSource.records() : filteredLeftIterator();
+            for (int numRecords = 0; buildRecords.hasNext(); ++numRecords) {
+                if (numRecords == capacity) {
+                    this.hashTable = null;
+                    this.fallback = RecordBatch.fromRecords(getOutputSchema(), new GHJIterator());
+                    return;
+                }
+                Record record = buildRecords.next();
+                this.hashTable.computeIfAbsent(record.getValues().get(buildColumnIndex),
+                                               k -> new ArrayList<>()).add(record);
+            }
+            this.probeBatches = (this.buildRight ? getLeftSource() : getRightSource()).batches();
+            this.matches = Collections.emptyList();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.fallback != null) {
+                return this.fallback.hasNext();
+            }
+            while (this.matchPosition == this.matches.size()) {
+                if (this.probeBatch != null && this.probePosition < this.probeBatch.size()) {
+                    int row = this.probeBatch.getRow(this.probePosition++);
+                    List<Record> matches = this.hashTable.get(
+                                               this.probeBatch.getColumn(this.probeColumnIndex).get(row));
+                    this.matches = matches == null ? Collections.emptyList() : matches;
+                    this.matchPosition = 0;
+                } else if (this.probeBatches.hasNext()) {
+                    this.probeBatch = this.probeBatches.next();
+                    this.probePosition = 0;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public RecordBatch next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (this.fallback != null) {
+                return this.fallback.next();
+            }
+            RecordBatch batch = new RecordBatch(getOutputSchema());
+            while (!batch.isFull() && this.hasNext()) {
+                addJoinRow(batch, this.probeBatch, this.probeBatch.getRow(this.probePosition - 1),
+                           this.matches.get(this.matchPosition++), this.buildRight);
+            }
+            return batch;
+        }
+    }
+
+    // Appends the join record of the probe record in probeRow of probeBatch
+    // and buildRecord (a record of the right relation if buildRight) to batch.
+    private void addJoinRow(RecordBatch batch, RecordBatch probeBatch, int probeRow, Record buildRecord,
+                            boolean buildRight) {
+        int numLeftColumns = getLeftSource().getOutputSchema().getFieldNames().size();
+        int numProbeColumns = probeBatch.getSchema().getFieldNames().size();
+        int probeOffset = buildRight ? 0 : numLeftColumns;
+        int buildOffset = buildRight ? numLeftColumns : 0;
+        List<DataBox> buildValues = buildRecord.getValues();
+        int row = batch.addRow();
+        for (int i = 0; i < numProbeColumns; ++i) {
+            batch.copyValue(probeOffset + i, row, probeBatch.getColumn(i), probeRow);
+        }
+        for (int i = 0; i < buildValues.size(); ++i) {
+            batch.setValue(buildOffset + i, row, buildValues.get(i));
+        }
+    }
+
+    /**
+     * The batch iterator of a hybrid join whose build side fits in memory,
+     * on numWorkers workers. The build side is repartitioned on the join
+     * column, and the i-th worker adds the build records of the i-th
+     * partition of every chunk to the i-th hash table. Then the probe side is
+     * repartitioned the same way, and the probe records of the i-th
+     * partition of every chunk are looked up in the i-th hash table, which
+     * no longer changes. Join batches are returned in the order of the probe
+     * chunks, with up to 2 * numWorkers partitions of chunks being probed
+     * ahead. Like GHJBatchIterator, it falls back to batching the records of
+     * GHJIterator if the build side turns out not to fit.
+     */
+    private class ParallelGHJBatchIterator implements Iterator<RecordBatch> {
+        private Iterator<RecordBatch> fallback;
+
+        private boolean buildRight;
+        private int probeColumnIndex;
+        private List<Map<DataBox, List<Record>>> hashTables;
+        private Iterator<List<List<RecordBatch>>> probeChunks;
+        private Deque<CompletableFuture<List<RecordBatch>>> inFlight;
+        private Iterator<RecordBatch> output;
+
+        private ParallelGHJBatchIterator() {
+            int numLeftPages = getLeftSource().getStats().getNumPages();
+            int numRightPages = getRightSource().getStats().getNumPages();
+            this.buildRight = numRightPages < numLeftPages;
+            QueryOperator buildSource = this.buildRight ? getRightSource() : getLeftSource();
+            int buildColumnIndex = this.buildRight ? getRightColumnIndex() : getLeftColumnIndex();
+            this.probeColumnIndex = this.buildRight ? getLeftColumnIndex() : getRightColumnIndex();
+            // Unlike GHJBatchIterator, left build records are not checked
+            // against the right join filter, which takes a lock on its first
+            // lookup and so could not be used by the workers. They only
+            // take up room in the hash tables, since they match no probe record.
+
+            int capacity = buildCapacity(buildSource.getOutputSchema());
+            AtomicInteger numBuilt = new AtomicInteger();
+            this.hashTables = new ArrayList<>();
+            for (int i = 0; i < numWorkers; ++i) {
+                this.hashTables.add(new HashMap<>());
+            }
+            Iterator<List<List<RecordBatch>>> buildChunks = ExchangeOperator.repartition(buildSource,
+                    getTransaction(), buildColumnIndex, numWorkers, numWorkers);
+            Deque<CompletableFuture<Void>> building = new ArrayDeque<>();
+            while (buildChunks.hasNext() && numBuilt.get() <= capacity) {
+                List<List<RecordBatch>> chunk = buildChunks.next();
+                for (int i = 0; i < numWorkers; ++i) {
+                    Map<DataBox, List<Record>> hashTable = this.hashTables.get(i);
+                    List<RecordBatch> batches = chunk.get(i);
+                    if (batches.isEmpty()) {
+                        continue;
+                    }
+                    building.add(getTransaction().runWorker(() -> {
+                        // chunks of the same partition are added one at a time
+                        synchronized (hashTable) {
+                            for (RecordBatch batch : batches) {
+                                ColumnVector column = batch.getColumn(buildColumnIndex);
+                                for (int j = 0; j < batch.size(); ++j) {
+                                    int row = batch.getRow(j);
+                                    hashTable.computeIfAbsent(column.get(row), k -> new ArrayList<>())
+                                    .add(batch.getRecord(row));
+                                    numBuilt.incrementAndGet();
+                                }
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                while (building.size() > 2 * numWorkers) {
+                    ExchangeOperator.join(building.poll());
+                }
+            }
+            while (!building.isEmpty()) {
+                ExchangeOperator.join(building.poll());
+            }
+            if (numBuilt.get() > capacity) {
+                this.hashTables = null;
+                this.fallback = RecordBatch.fromRecords(getOutputSchema(), new GHJIterator());
+                return;
+            }
+            this.probeChunks = ExchangeOperator.repartition(this.buildRight ? getLeftSource() : getRightSource(),
+                               getTransaction(), this.probeColumnIndex, numWorkers, numWorkers);
+            this.inFlight = new ArrayDeque<>();
+            this.output = Collections.emptyIterator();
+        }
+
+        // Starts probing the partitions of the next probe chunks, until
+        // 2 * numWorkers partitions are being probed.
+        private void startProbes() {
+            while (this.inFlight.size() < 2 * numWorkers && this.probeChunks.hasNext()) {
+                List<List<RecordBatch>> chunk = this.probeChunks.next();
+                for (int i = 0; i < numWorkers; ++i) {
+                    Map<DataBox, List<Record>> hashTable = this.hashTables.get(i);
+                    List<RecordBatch> batches = chunk.get(i);
+                    if (batches.isEmpty() || hashTable.isEmpty()) {
+                        continue;
+                    }
+                    this.inFlight.add(getTransaction().runWorker(() -> this.probe(hashTable, batches)));
+                }
+            }
+        }
+
+        // the join batches of the probe records of batches, looked up in hashTable
+        private List<RecordBatch> probe(Map<DataBox, List<Record>> hashTable, List<RecordBatch> batches) {
+            List<RecordBatch> joined = new ArrayList<>();
+            RecordBatch out = new RecordBatch(getOutputSchema());
+            for (RecordBatch batch : batches) {
+                ColumnVector column = batch.getColumn(this.probeColumnIndex);
+                for (int j = 0; j < batch.size(); ++j) {
+                    int row = batch.getRow(j);
+                    List<Record> matches = hashTable.get(column.get(row));
+                    if (matches == null) {
+                        continue;
+                    }
+                    for (Record match : matches) {
+                        if (out.isFull()) {
+                            joined.add(out);
+                            out = new RecordBatch(getOutputSchema());
+                        }
+                        addJoinRow(out, batch, row, match, this.buildRight);
+                    }
+                }
+            }
+            if (out.size() > 0) {
+                joined.add(out);
+            }
+            return joined;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.fallback != null) {
+                return this.fallback.hasNext();
+            }
+            while (!this.output.hasNext()) {
+                this.startProbes();
+                if (this.inFlight.isEmpty()) {
+                    return false;
+                }
+                this.output = ExchangeOperator.join(this.inFlight.poll()).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public RecordBatch next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.fallback != null ? this.fallback.next() : this.output.next();
+        }
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     * Partitions that still have to be joined are kept on a stack, along with
+     * the pass that produced them; the partition on top is joined (or
+     * partitioned again) once the previous one has been completely joined.
+     */
+    private class GHJIterator implements Iterator<Record> {
+        private Deque<Pair<HashPartition, Integer>> pendingPartitions;
+
+        // The partition being joined: the records of its build side that are
+        // not yet in a hash table, and whether the probe side is the left one.
+        private HashPartition partition;
+        private Iterator<Record> buildRecords;
+        private boolean probeFirst;
+        private int buildColumnIndex;
+        private int probeColumnIndex;
+        private int buildCapacity;
+
+        // The hash table on (part of) the build side, the probe records not
+        // yet looked up in it, and the build records matching the current
+        // probe record.
+        private Map<DataBox, List<Record>> hashTable;
+        private Iterator<Record> probeRecords;
+        private Record probeRecord;
+        private Iterator<Record> matches;
+
+        private Record nextRecord;
+
+        private GHJIterator() {
+            this.pendingPartitions = new ArrayDeque<>();
+            this.buildRecords = Collections.emptyIterator();
+            this.probeRecords = Collections.emptyIterator();
+            this.matches = Collections.emptyIterator();
+            this.hashTable = new HashMap<>();
+            this.nextRecord = null;
+            this.start();
+        }
+
+        // Partitions both relations and pushes the partitions on the stack.
+        private void start() {
+            if (GHJOperator.this.hybrid) {
+                int numLeftPages = getLeftSource().getStats().getNumPages();
+                int numRightPages = getRightSource().getStats().getNumPages();
+                int numSpilled = numSpilledPartitions(Math.min(numLeftPages, numRightPages));
+                if (numSpilled < numBuffers - 1) {
+                    this.startHybrid(numRightPages < numLeftPages, numSpilled);
+                    return;
+                }
+            }
+            HashPartition[] partitions = createPartitions(numBuffers - 1);
+            partition(partitions, filteredLeftIterator(), true, 1);
+            partition(partitions, getRightSource().records(), false, 1);
+            for (HashPartition p : partitions) {
+                this.pendingPartitions.push(new Pair<>(p, 1));
+            }
+        }
+
+        /**
+         * Runs the first pass of hybrid mode: builds the resident hash table,
+         * writes the other build records to numSpilled partitions (pushed on
+         * the stack), and sets up the probe side to be read through the
+         * resident hash table by fetchNextRecord.
+         */
+        private void startHybrid(boolean buildRight, int numSpilled) {
+            QueryOperator buildSource = buildRight ? getRightSource() : getLeftSource();
+            int buildPages = buildSource.getStats().getNumPages();
+            int residentBuckets = (int) Math.ceil(HYBRID_BUCKETS * residentFraction(buildPages, numSpilled));
+            int residentCapacity = numSpilled == 0 ? buildCapacity(buildSource.getOutputSchema())
+                                   : buildCapacity(buildSource.getOutputSchema()) / (numBuffers - 2)
+                                     * (numBuffers - 2 - numSpilled);
+            Function<DataBox, Integer> hashFunc = HashFunc.getHashFunction(1);
+
+            HashPartition[] spilled = createPartitions(numSpilled);
+            HashPartition overflow = null;
+            this.probeFirst = buildRight;
+            this.buildColumnIndex = buildRight ? getRightColumnIndex() : getLeftColumnIndex();
+            this.probeColumnIndex = buildRight ? getLeftColumnIndex() : getRightColumnIndex();
+
+            Iterator<Record> buildRecords = buildRight ? getRightSource().records() : filteredLeftIterator();
+            int numResident = 0;
+            while (buildRecords.hasNext()) {
+                Record record = buildRecords.next();
+                DataBox key = record.getValues().get(this.buildColumnIndex);
+                int bucket = Math.floorMod(hashFunc.apply(key), HYBRID_BUCKETS);
+                if (bucket >= residentBuckets) {
+                    addRecord(spilled[bucket % numSpilled], record, !buildRight);
+                } else if (numResident < residentCapacity) {
+                    this.hashTable.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+                    ++numResident;
+                } else {
+                    if (overflow == null) {
+                        overflow = createPartitions(1)[0];
+                    }
+                    addRecord(overflow, record, !buildRight);
+                }
+            }
+            for (HashPartition p : spilled) {
+                this.pendingPartitions.push(new Pair<>(p, 1));
+            }
+            if (overflow != null) {
+                this.pendingPartitions.push(new Pair<>(overflow, 1));
+            }
+
+            // Probe records of spilled buckets are written to their partition,
+            // and never make it to fetchNextRecord.
+            Iterator<Record> probeSource = buildRight ? filteredLeftIterator() : getRightSource().records();
+            HashPartition probeOverflow = overflow;
+            this.probeRecords = new Iterator<Record>() {
+                private Record next = null;
+
+                @Override
+                public boolean hasNext() {
+                    while (this.next == null && probeSource.hasNext()) {
+                        Record record = probeSource.next();
+                        DataBox key = record.getValues().get(GHJIterator.this.probeColumnIndex);
+                        int bucket = Math.floorMod(hashFunc.apply(key), HYBRID_BUCKETS);
+                        if (bucket >= residentBuckets) {
+                            addRecord(spilled[bucket % numSpilled], record, buildRight);
+                            continue;
+                        }
+                        if (probeOverflow != null) {
+                            addRecord(probeOverflow, record, buildRight);
+                        }
+                        this.next = record;
+                    }
+                    return this.next != null;
+                }
+
+                @Override
+                public Record next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Record r = this.next;
+                    this.next = null;
+                    return r;
+                }
+            };
+        }
+
+        /**
+         * Starts joining partition, or partitions it again if neither of its
+         * sides fits in B-2 pages and it has not reached MAX_PASSES passes.
+         */
+        private void startPartition(HashPartition partition, int pass) {
+            int numLeftPages = partition.getNumLeftPages();
+            int numRightPages = partition.getNumRightPages();
+            if (numLeftPages == 0 || numRightPages == 0) {
+                return;
+            }
+            if (Math.min(numLeftPages, numRightPages) > numBuffers - 2 && pass < MAX_PASSES) {
+                HashPartition[] partitions = createPartitions(numBuffers - 1);
+                GHJOperator.this.partition(partitions, partition.getLeftIterator(), true, pass + 1);
+                GHJOperator.this.partition(partitions, partition.getRightIterator(), false, pass + 1);
+                for (HashPartition p : partitions) {
+                    this.pendingPartitions.push(new Pair<>(p, pass + 1));
+                }
+                return;
+            }
+
+            this.partition = partition;
+            this.probeFirst = numRightPages < numLeftPages;
+            if (this.probeFirst) {
+                this.buildRecords = partition.getRightIterator();
+                this.buildColumnIndex = getRightColumnIndex();
+                this.probeColumnIndex = getLeftColumnIndex();
+                this.buildCapacity = buildCapacity(getRightSource().getOutputSchema());
+            } else {
+                this.buildRecords = partition.getLeftIterator();
+                this.buildColumnIndex = getLeftColumnIndex();
+                this.probeColumnIndex = getRightColumnIndex();
+                this.buildCapacity = buildCapacity(getLeftSource().getOutputSchema());
+            }
+        }
+
+        /**
+         * Builds a hash table on the next B-2 pages of build records of the
+         * current partition, and starts probing it with the probe side.
+         */
+        private void buildNextTable() {
+            this.hashTable.clear();
+            int numRecords = 0;
+            while (numRecords < this.buildCapacity && this.buildRecords.hasNext()) {
+                Record record = this.buildRecords.next();
+                DataBox key = record.getValues().get(this.buildColumnIndex);
+                this.hashTable.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+                ++numRecords;
+            }
+            this.probeRecords = this.probeFirst ? this.partition.getLeftIterator()
+                                : this.partition.getRightIterator();
+        }
+
+        /**
+         * Pre-fetches what will be the next record, and puts it in this.nextRecord.
+         */
+        private void fetchNextRecord() {
+            while (!this.matches.hasNext()) {
+                if (this.probeRecords.hasNext()) {
+                    this.probeRecord = this.probeRecords.next();
+                    List<Record> records = this.hashTable.get(this.probeRecord.getValues().get(this.probeColumnIndex));
+                    this.matches = records == null ? Collections.emptyIterator() : records.iterator();
+                } else if (this.buildRecords.hasNext()) {
+                    this.buildNextTable();
+                } else if (!this.pendingPartitions.isEmpty()) {
+                    this.hashTable.clear();
+                    Pair<HashPartition, Integer> next = this.pendingPartitions.pop();
+                    this.startPartition(next.getFirst(), next.getSecond());
+                } else {
+                    this.nextRecord = null;
+                    return;
+                }
+            }
+            Record buildRecord = this.matches.next();
+            Record left = this.probeFirst ? this.probeRecord : buildRecord;
+            Record right = this.probeFirst ? buildRecord : this.probeRecord;
+            List<DataBox> values = new ArrayList<>(left.getValues());
+            values.addAll(right.getValues());
+            this.nextRecord = new Record(values);
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            if (this.nextRecord == null) {
+                this.fetchNextRecord();
+            }
+            return this.nextRecord != null;
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record r = this.nextRecord;
+            this.nextRecord = null;
+            return r;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
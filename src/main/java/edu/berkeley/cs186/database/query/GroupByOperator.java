@@ -1,42 +1,73 @@
 package edu.berkeley.cs186.database.query;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.ArrayList;
+import java.util.List;
 
 import edu.berkeley.cs186.database.TransactionContext;
-import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
-import edu.berkeley.cs186.database.table.MarkerRecord;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.Histogram;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
-class GroupByOperator extends QueryOperator {
-    private int groupByColumnIndex;
+/**
+ * Base class of the operators that group the records of their source by the
+ * value of one column, and return one record per group: the value of the
+ * column, followed by the aggregates of the group in the order they were
+ * given (see AggregateFunction for their column names; if a function is
+ * computed more than once, its later columns are numbered, e.g. sumAgg2).
+ *
+ * If the grouping column is null, all records of the source form a single
+ * group, and the operator returns a record of just the aggregates (or no
+ * record if the source is empty).
+ *
+ * HashGroupByOperator keeps the running aggregates of each group in a hash
+ * table, and SortGroupByOperator reads its source in order of the grouping
+ * column and aggregates one group at a time.
+ */
+abstract class GroupByOperator extends QueryOperator {
+    protected TransactionContext transaction;
+    protected int numBuffers;
+
     private String groupByColumn;
-    private TransactionContext transaction;
+    private int groupByColumnIndex;
+    private List<AggregateFunction> functions;
+    private List<String> aggregateColumns;
+    // the index and type of the column of each aggregate (-1 and null for COUNT)
+    private List<Integer> aggregateColumnIndices;
+    private List<Type> aggregateColumnTypes;
 
     /**
-     * Create a new GroupByOperator that pulls from source and groups by groupByColumn.
+     * Create a new GroupByOperator that pulls from source, groups by
+     * groupByColumn, and computes the function functions[i] over the column
+     * aggregateColumns[i] of each group (null for COUNT).
      *
      * @param source the source operator of this operator
      * @param transaction the transaction containing this operator
-     * @param groupByColumn the column to group on
+     * @param groupByColumn the column to group on, or null for a single group
+     * @param functions the aggregates to compute
+     * @param aggregateColumns the columns to aggregate
      */
     GroupByOperator(QueryOperator source,
                     TransactionContext transaction,
-                    String groupByColumn) {
-        super(OperatorType.GROUPBY, source);
-        Schema sourceSchema = this.getSource().getOutputSchema();
+                    String groupByColumn,
+                    List<AggregateFunction> functions,
+                    List<String> aggregateColumns) {
+        super(OperatorType.GROUPBY);
+        if (functions.size() != aggregateColumns.size()) {
+            throw new QueryPlanException("Every aggregate function needs one (possibly null) column.");
+        }
         this.transaction = transaction;
-        this.groupByColumn = this.checkSchemaForColumn(sourceSchema, groupByColumn);
-
-        this.groupByColumnIndex = sourceSchema.getFieldNames().indexOf(this.groupByColumn);
+        this.numBuffers = Math.max(3, transaction.getWorkMemSize());
+        this.groupByColumn = groupByColumn;
+        this.groupByColumnIndex = -1;
+        this.functions = new ArrayList<>(functions);
+        this.aggregateColumns = new ArrayList<>(aggregateColumns);
 
-        this.stats = this.estimateStats();
-        this.cost = this.estimateIOCost();
+        this.setSource(source);
     }
 
     @Override
@@ -45,111 +76,176 @@ class GroupByOperator extends QueryOperator {
     }
 
     @Override
-    public Iterator<Record> iterator() {
-        return new GroupByIterator();
+    protected Schema computeSchema() {
+        Schema sourceSchema = this.getSource().getOutputSchema();
+        List<String> sourceColumnNames = sourceSchema.getFieldNames();
+        List<Type> sourceColumnTypes = sourceSchema.getFieldTypes();
+        List<String> columns = new ArrayList<>();
+        List<Type> columnTypes = new ArrayList<>();
+
+        if (this.groupByColumn != null) {
+            this.groupByColumn = this.checkSchemaForColumn(sourceSchema, this.groupByColumn);
+            this.groupByColumnIndex = sourceColumnNames.indexOf(this.groupByColumn);
+            columns.add(this.groupByColumn);
+            columnTypes.add(sourceColumnTypes.get(this.groupByColumnIndex));
+        }
+
+        this.aggregateColumnIndices = new ArrayList<>();
+        this.aggregateColumnTypes = new ArrayList<>();
+        for (int i = 0; i < this.functions.size(); ++i) {
+            AggregateFunction function = this.functions.get(i);
+            String column = this.aggregateColumns.get(i);
+            if (function.hasColumn() != (column != null)) {
+                throw new QueryPlanException(function + " needs " + (function.hasColumn() ? "a" : "no") + " column.");
+            }
+            int index = -1;
+            Type type = null;
+            if (column != null) {
+                column = this.checkSchemaForColumn(sourceSchema, column);
+                this.aggregateColumns.set(i, column);
+                index = sourceColumnNames.indexOf(column);
+                type = sourceColumnTypes.get(index);
+            }
+            this.aggregateColumnIndices.add(index);
+            this.aggregateColumnTypes.add(type);
+
+            String name = function.getColumnName();
+            for (int n = 2; columns.contains(name); ++n) {
+                name = function.getColumnName() + n;
+            }
+            columns.add(name);
+            columnTypes.add(function.getOutputType(type));
+        }
+        return new Schema(columns, columnTypes);
     }
 
-    @Override
-    protected Schema computeSchema() {
-        return this.getSource().getOutputSchema();
+    String getGroupByColumn() {
+        return this.groupByColumn;
+    }
+
+    int getGroupByColumnIndex() {
+        return this.groupByColumnIndex;
+    }
+
+    /**
+     * Returns the names of the output columns of the aggregates, in order.
+     */
+    List<String> getAggregateColumnNames() {
+        List<String> names = this.getOutputSchema().getFieldNames();
+        return names.subList(names.size() - this.functions.size(), names.size());
+    }
+
+    /**
+     * Returns the value of the grouping column of record, or null if all
+     * records form a single group.
+     */
+    DataBox getGroupKey(Record record) {
+        return this.groupByColumnIndex == -1 ? null : record.getValues().get(this.groupByColumnIndex);
+    }
+
+    /**
+     * Returns the value of the grouping column in row of batch, or null if
+     * all records form a single group.
+     */
+    DataBox getGroupKey(RecordBatch batch, int row) {
+        return this.groupByColumnIndex == -1 ? null : batch.getColumn(this.groupByColumnIndex).get(row);
     }
 
     @Override
     public String str() {
+        String aggregates = "";
+        for (int i = 0; i < this.functions.size(); ++i) {
+            String column = this.aggregateColumns.get(i);
+            aggregates += (i == 0 ? "" : ", ") + this.functions.get(i) + "(" + (column == null ? "*" : column) + ")";
+        }
         return "type: " + this.getType() +
-               "\ncolumn: " + this.groupByColumn;
+               (this.groupByColumn == null ? "" : "\ncolumn: " + this.groupByColumn) +
+               (aggregates.isEmpty() ? "" : "\naggregates: " + aggregates);
     }
 
     /**
-     * Estimates the table statistics for the result of executing this query operator.
+     * Estimates the number of groups: the number of distinct values of the
+     * grouping column if a histogram on it was built, and the number of
+     * records of the source otherwise.
+     */
+    long estimateNumGroups() {
+        if (this.groupByColumnIndex == -1) {
+            return 1;
+        }
+        TableStats sourceStats = this.getSource().getStats();
+        long numRecords = sourceStats.getNumRecords();
+        List<Histogram> histograms = sourceStats.getHistograms();
+        if (this.groupByColumnIndex < histograms.size()) {
+            int numDistinct = histograms.get(this.groupByColumnIndex).getNumDistinct();
+            if (numDistinct > 0) {
+                return Math.min(numDistinct, numRecords);
+            }
+        }
+        return numRecords;
+    }
+
+    /**
+     * Returns the number of groups whose aggregates fit in the B-2 buffers
+     * left after one input and one output buffer.
+     */
+    int groupCapacity() {
+        int recordsPerPage = Table.computeNumRecordsPerPage(BufferManager.EFFECTIVE_PAGE_SIZE,
+                                                            this.getOutputSchema());
+        return (this.numBuffers - 2) * Math.max(1, recordsPerPage);
+    }
+
+    /**
+     * Estimates the table statistics for the result of executing this query
+     * operator: one record per group (see estimateNumGroups).
      *
      * @return estimated TableStats
      */
     @Override
     public TableStats estimateStats() {
-        return this.getSource().getStats();
-    }
-
-    @Override
-    public int estimateIOCost() {
-        return this.getSource().getIOCost();
+        return this.getSource().getStats().copyWithGroupBy(this.groupByColumnIndex, this.getOutputSchema(),
+                                                           this.estimateNumGroups());
     }
 
     /**
-     * An implementation of Iterator that provides an iterator interface for this operator.
-     * Returns a marker record between the records of different groups, e.g.
-     * [group 1 record] [group 1 record] [marker record] [group 2 record] ...
+     * The running aggregates of one group: one accumulator per aggregate.
      */
-    private class GroupByIterator implements Iterator<Record> {
-        private MarkerRecord markerRecord;
-        private Map<String, String> hashGroupTempTables;
-        private int currCount;
-        private Iterator<String> keyIter;
-        private Iterator<Record> rIter;
-
-        private GroupByIterator() {
-            Iterator<Record> sourceIterator = GroupByOperator.this.getSource().iterator();
-            this.markerRecord = MarkerRecord.getMarker();
-            this.hashGroupTempTables = new HashMap<>();
-            this.currCount = 0;
-            this.rIter = null;
-            while (sourceIterator.hasNext()) {
-                Record record = sourceIterator.next();
-                DataBox groupByColumn = record.getValues().get(GroupByOperator.this.groupByColumnIndex);
-                String tableName;
-                if (!this.hashGroupTempTables.containsKey(groupByColumn.toString())) {
-                    tableName = GroupByOperator.this.transaction.createTempTable(
-                                    GroupByOperator.this.getSource().getOutputSchema());
-                    this.hashGroupTempTables.put(groupByColumn.toString(), tableName);
-                } else {
-                    tableName = this.hashGroupTempTables.get(groupByColumn.toString());
-                }
-                GroupByOperator.this.transaction.addRecord(tableName, record.getValues());
+    class Aggregates {
+        private List<AggregateFunction.Accumulator> accumulators;
+
+        Aggregates() {
+            this.accumulators = new ArrayList<>();
+            for (int i = 0; i < functions.size(); ++i) {
+                this.accumulators.add(functions.get(i).newAccumulator(aggregateColumnTypes.get(i)));
             }
-            this.keyIter = hashGroupTempTables.keySet().iterator();
         }
 
-        /**
-         * Checks if there are more record(s) to yield
-         *
-         * @return true if this iterator has another record to yield, otherwise false
-         */
-        @Override
-        public boolean hasNext() {
-            return this.keyIter.hasNext() || (this.rIter != null && this.rIter.hasNext());
+        // Adds record, a record of the source, to the group.
+        void add(Record record) {
+            List<DataBox> values = record.getValues();
+            for (int i = 0; i < this.accumulators.size(); ++i) {
+                int index = aggregateColumnIndices.get(i);
+                this.accumulators.get(i).add(index == -1 ? null : values.get(index));
+            }
         }
 
-        /**
-         * Yields the next record of this iterator.
-         *
-         * @return the next Record
-         * @throws NoSuchElementException if there are no more Records to yield
-         */
-        @Override
-        public Record next() {
-            while (this.hasNext()) {
-                if (this.rIter != null && this.rIter.hasNext()) {
-                    return this.rIter.next();
-                } else if (this.keyIter.hasNext()) {
-                    String key = this.keyIter.next();
-                    String tableName = this.hashGroupTempTables.get(key);
-                    Iterator<Record> prevIter = this.rIter;
-                    try {
-                        this.rIter = GroupByOperator.this.transaction.getRecordIterator(tableName);
-                    } catch (DatabaseException de) {
-                        throw new NoSuchElementException();
-                    }
-                    if (prevIter != null && ++this.currCount < this.hashGroupTempTables.size()) {
-                        return markerRecord;
-                    }
-                }
+        // Adds the record in row of batch, a batch of the source, to the group.
+        void add(RecordBatch batch, int row) {
+            for (int i = 0; i < this.accumulators.size(); ++i) {
+                int index = aggregateColumnIndices.get(i);
+                this.accumulators.get(i).add(index == -1 ? null : batch.getColumn(index), row);
             }
-            throw new NoSuchElementException();
         }
 
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
+        // Returns the output record of the group whose grouping column is key.
+        Record toRecord(DataBox key) {
+            List<DataBox> values = new ArrayList<>();
+            if (groupByColumnIndex != -1) {
+                values.add(key);
+            }
+            for (AggregateFunction.Accumulator accumulator : this.accumulators) {
+                values.add(accumulator.getResult());
+            }
+            return new Record(values);
         }
     }
 }
@@ -0,0 +1,249 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.HashFunc;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * Hash aggregation. The running aggregates of every group are kept in a hash
+ * table of at most groupCapacity() groups (B-2 pages worth of output records).
+ * Once the table is full, records of groups that are not in it are written to
+ * one of B-1 partitions by the hash of their grouping column instead, while
+ * the groups in the table keep aggregating. After the groups in the table are
+ * returned, each partition is aggregated the same way, with the hash function
+ * of the next pass, which spreads the groups of a partition over new
+ * partitions if they do not all fit either.
+ *
+ * If all groups fit in memory, the source is read once and nothing is
+ * written.
+ *
+ * The source is read in batches (see RecordBatch), so the aggregates of a
+ * vectorized source are computed from its column vectors.
+ *
+ * If the transaction has a degree of parallelism of more than 1 and the
+ * estimated groups fit in memory, the source is repartitioned on the grouping
+ * column among that many workers (see ExchangeOperator::repartition), each of
+ * which aggregates the groups of its partition in a hash table of its own.
+ * Since only the transaction's own thread can create the temp tables of
+ * partitions, nothing is spilled in this case: if the estimate was off, the
+ * hash tables grow past groupCapacity() instead.
+ */
+class HashGroupByOperator extends GroupByOperator {
+    // After this many passes, the hash table grows past groupCapacity()
+    // instead of spilling, since the hash functions do not split the groups.
+    static final int MAX_PASSES = 5;
+
+    private int numWorkers;
+
+    HashGroupByOperator(QueryOperator source,
+                        TransactionContext transaction,
+                        String groupByColumn,
+                        List<AggregateFunction> functions,
+                        List<String> aggregateColumns) {
+        super(source, transaction, groupByColumn, functions, aggregateColumns);
+        this.numWorkers = transaction.getDegreeOfParallelism();
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new HashGroupByIterator();
+    }
+
+    @Override
+    public String str() {
+        return super.str() + "\nmethod: hash" + (this.runsInParallel() ? "\nworkers: " + this.numWorkers : "");
+    }
+
+    // whether the groups are aggregated by several workers
+    boolean runsInParallel() {
+        return this.numWorkers > 1 && this.getGroupByColumnIndex() != -1
+               && this.estimateNumGroups() <= this.groupCapacity();
+    }
+
+    /**
+     * If the estimated number of groups fits in memory, the cost is that of
+     * the source. Otherwise, the records of the groups that do not fit are
+     * written and read back once per pass, until the groups of each
+     * partition (assuming they spread evenly) fit.
+     */
+    @Override
+    public long estimateIOCost() {
+        long numGroups = this.estimateNumGroups();
+        int capacity = this.groupCapacity();
+        long sourceCost = this.getSource().getIOCost();
+        if (numGroups <= capacity) {
+            return sourceCost;
+        }
+        double spilledFraction = 1 - (double) capacity / numGroups;
+        int numPasses = 1;
+        for (double groups = (double) (numGroups - capacity) / (this.numBuffers - 1);
+                groups > capacity && numPasses < MAX_PASSES - 1; groups /= this.numBuffers - 1) {
+            ++numPasses;
+        }
+        int numPages = this.getSource().getStats().getNumPages();
+        return Cost.saturatedAdd(sourceCost, (long) Math.ceil(2 * numPasses * spilledFraction * numPages));
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class HashGroupByIterator implements Iterator<Record> {
+        // Partitions (names of temp tables) to aggregate after the current
+        // hash table, with the pass they were written in.
+        private Deque<Pair<String, Integer>> pendingPartitions;
+        private Iterator<Map.Entry<DataBox, Aggregates>> groups;
+
+        private HashGroupByIterator() {
+            this.pendingPartitions = new ArrayDeque<>();
+            this.groups = HashGroupByOperator.this.runsInParallel() ? this.aggregateInParallel()
+                          : this.aggregate(HashGroupByOperator.this.getSource().batches(), 0);
+        }
+
+        /**
+         * Aggregates the source on numWorkers workers, the i-th of which
+         * aggregates the records of the i-th partition of every repartitioned
+         * chunk of the source into the i-th hash table. Returns the groups
+         * of all hash tables.
+         */
+        private Iterator<Map.Entry<DataBox, Aggregates>> aggregateInParallel() {
+            int numWorkers = HashGroupByOperator.this.numWorkers;
+            TransactionContext transaction = HashGroupByOperator.this.transaction;
+            List<Map<DataBox, Aggregates>> tables = new ArrayList<>();
+            for (int i = 0; i < numWorkers; ++i) {
+                tables.add(new HashMap<>());
+            }
+            Iterator<List<List<RecordBatch>>> chunks = ExchangeOperator.repartition(
+                        HashGroupByOperator.this.getSource(), transaction,
+                        HashGroupByOperator.this.getGroupByColumnIndex(), numWorkers, numWorkers);
+            Deque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+            while (chunks.hasNext()) {
+                List<List<RecordBatch>> chunk = chunks.next();
+                for (int i = 0; i < numWorkers; ++i) {
+                    Map<DataBox, Aggregates> table = tables.get(i);
+                    List<RecordBatch> batches = chunk.get(i);
+                    if (batches.isEmpty()) {
+                        continue;
+                    }
+                    inFlight.add(transaction.runWorker(() -> {
+                        // chunks of the same partition are aggregated one at a time
+                        synchronized (table) {
+                            for (RecordBatch batch : batches) {
+                                for (int j = 0; j < batch.size(); ++j) {
+                                    int row = batch.getRow(j);
+                                    table.computeIfAbsent(HashGroupByOperator.this.getGroupKey(batch, row),
+                                                          k -> new Aggregates()).add(batch, row);
+                                }
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                while (inFlight.size() > 2 * numWorkers) {
+                    ExchangeOperator.join(inFlight.poll());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                ExchangeOperator.join(inFlight.poll());
+            }
+            List<Map.Entry<DataBox, Aggregates>> groups = new ArrayList<>();
+            for (Map<DataBox, Aggregates> table : tables) {
+                groups.addAll(table.entrySet());
+            }
+            return groups.iterator();
+        }
+
+        /**
+         * Aggregates records into a hash table, writing the records of the
+         * groups that do not fit to new partitions, which are pushed on the
+         * stack. pass is the pass records were partitioned in (0 for the
+         * source). Returns the groups in the table.
+         */
+        private Iterator<Map.Entry<DataBox, Aggregates>> aggregate(Iterator<RecordBatch> batches, int pass) {
+            int capacity = pass + 1 >= MAX_PASSES ? Integer.MAX_VALUE : HashGroupByOperator.this.groupCapacity();
+            Map<DataBox, Aggregates> table = new HashMap<>();
+            String[] partitions = null;
+            Function<DataBox, Integer> hashFunc = HashFunc.getHashFunction(pass + 1);
+
+            while (batches.hasNext()) {
+                RecordBatch batch = batches.next();
+                for (int i = 0; i < batch.size(); ++i) {
+                    int row = batch.getRow(i);
+                    DataBox key = HashGroupByOperator.this.getGroupKey(batch, row);
+                    Aggregates group = table.get(key);
+                    if (group == null && table.size() < capacity) {
+                        group = new Aggregates();
+                        table.put(key, group);
+                    }
+                    if (group != null) {
+                        group.add(batch, row);
+                        continue;
+                    }
+                    if (partitions == null) {
+                        partitions = new String[HashGroupByOperator.this.numBuffers - 1];
+                    }
+                    int partitionNum = Math.floorMod(hashFunc.apply(key), partitions.length);
+                    if (partitions[partitionNum] == null) {
+                        partitions[partitionNum] = HashGroupByOperator.this.transaction.createTempTable(
+                                                       HashGroupByOperator.this.getSource().getOutputSchema());
+                    }
+                    HashGroupByOperator.this.transaction.addRecord(partitions[partitionNum],
+                            batch.getRecord(row).getValues());
+                }
+            }
+            if (partitions != null) {
+                for (String partition : partitions) {
+                    if (partition != null) {
+                        this.pendingPartitions.push(new Pair<>(partition, pass + 1));
+                    }
+                }
+            }
+            return table.entrySet().iterator();
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            while (!this.groups.hasNext() && !this.pendingPartitions.isEmpty()) {
+                Pair<String, Integer> partition = this.pendingPartitions.pop();
+                Iterator<Record> records = HashGroupByOperator.this.transaction.getRecordIterator(
+                                               partition.getFirst());
+                this.groups = this.aggregate(RecordBatch.fromRecords(
+                        HashGroupByOperator.this.getSource().getOutputSchema(), records), partition.getSecond());
+            }
+            return this.groups.hasNext();
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<DataBox, Aggregates> group = this.groups.next();
+            return group.getValue().toRecord(group.getKey());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
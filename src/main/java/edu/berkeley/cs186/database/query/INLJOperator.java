@@ -0,0 +1,273 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.index.Index;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+
+/**
+ * Index Nested Loop Join: for each record of the left (outer) relation, looks
+ * up the records of the right (inner) relation with an equal join value in an
+ * index on the right join column, instead of scanning the right relation.
+ *
+ * The right source must be an access of a single table (a sequential or index
+ * scan, possibly under selections) with an index on the join column; see
+ * canProbe. The selections of the right source are applied to the records
+ * the index returns, but the right source itself is never executed.
+ *
+ * Left records are read a block at a time (B-2 pages, like BNLJ) and each
+ * block is probed in order of its join values, so equal values are probed
+ * once and neighbouring values walk the same index pages. The results of the
+ * last few probes are also cached across blocks.
+ */
+class INLJOperator extends JoinOperator {
+    // Number of distinct join values whose probe results are cached.
+    static final int PROBE_CACHE_SIZE = 256;
+
+    private String rightTableName;
+    private String rightIndexColumnName;
+
+    INLJOperator(QueryOperator leftSource,
+                 QueryOperator rightSource,
+                 String leftColumnName,
+                 String rightColumnName,
+                 TransactionContext transaction) {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.INLJ);
+
+        if (!canProbe(transaction, leftSource, leftColumnName, rightSource, rightColumnName)) {
+            throw new QueryPlanException("INLJ requires an index on " + rightColumnName +
+                                         " of a single table, of the same type as " + leftColumnName + ".");
+        }
+        this.rightTableName = getBaseTableName(rightSource);
+        this.rightIndexColumnName = unqualified(this.getRightColumnName());
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    /**
+     * Returns whether an INLJ can join leftSource and rightSource on
+     * leftColumnName = rightColumnName, i.e. whether rightSource accesses a
+     * single table that has an index on rightColumnName, and the values of
+     * leftColumnName can be looked up in that index as is.
+     */
+    static boolean canProbe(TransactionContext transaction,
+                            QueryOperator leftSource,
+                            String leftColumnName,
+                            QueryOperator rightSource,
+                            String rightColumnName) {
+        String tableName = getBaseTableName(rightSource);
+        if (tableName == null || !transaction.indexExists(tableName, unqualified(rightColumnName))) {
+            return false;
+        }
+        return columnType(leftSource, leftColumnName).equals(columnType(rightSource, rightColumnName));
+    }
+
+    private static Type columnType(QueryOperator op, String columnName) {
+        Schema schema = op.getOutputSchema();
+        columnName = op.checkSchemaForColumn(schema, columnName);
+        return schema.getFieldTypes().get(schema.getFieldNames().indexOf(columnName));
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new INLJIterator();
+    }
+
+    /**
+     * Each left record costs one probe, which reads every level of a B+ tree
+     * (one bucket page for a hash index), and, since index keys are unique, at
+     * most one heap page of the right table.
+     */
+    @Override
+    public long estimateIOCost() {
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        return Cost.saturatedAdd(this.estimateProbeIOs(), numLeftPages);
+    }
+
+    // the I/Os of looking up every left record in the index, and fetching
+    // the matching heap page
+    private long estimateProbeIOs() {
+        long numLeftRecords = getLeftSource().getStats().getNumRecords();
+
+        TransactionContext transaction = getTransaction();
+        int probeIOs;
+        if (transaction.getIndexKind(this.rightTableName, this.rightIndexColumnName) == Index.Kind.HASH) {
+            probeIOs = 1;
+        } else {
+            probeIOs = transaction.getTreeHeight(this.rightTableName, this.rightIndexColumnName) + 1;
+        }
+        return Cost.saturatedMultiply(numLeftRecords, probeIOs + 1);
+    }
+
+    /**
+     * The left relation is read sequentially, but every probe of the index
+     * (and fetch of a matching record) reads pages at random.
+     */
+    @Override
+    protected Cost estimateLocalCost() {
+        return new Cost(getLeftSource().getStats().getNumPages(), this.estimateProbeIOs(),
+                        getLeftSource().getStats().getNumRecords() + this.getStats().getNumRecords());
+    }
+
+    /**
+     * The right source is never executed: its table is read through the
+     * index instead.
+     */
+    @Override
+    public Cost getCost() {
+        return this.estimateLocalCost().plus(getLeftSource().getCost());
+    }
+
+    // Returns whether a right record satisfies the selections of the right source.
+    private boolean matchesRightSource(Record record) {
+        QueryOperator op = getRightSource();
+        while (op.isSelect()) {
+            if (!((SelectOperator) op).matches(record)) {
+                return false;
+            }
+            op = op.getSource();
+        }
+        return !op.isIndexScan() || ((IndexScanOperator) op).matches(record);
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     * Unlike the other joins, this does not subclass JoinIterator: the left
+     * source is read once, so it need not be materialized, and the right
+     * source is never read at all.
+     */
+    private class INLJIterator implements Iterator<Record> {
+        private Iterator<Record> leftIterator;
+        // Number of left records probed together.
+        private int blockSize;
+        // The current block of left records, sorted on their join value.
+        private Iterator<Record> leftBlockIterator;
+        // The current left record and the right records it joins with.
+        private Record leftRecord;
+        private Iterator<Record> rightMatchIterator;
+        // Probe results of recently probed join values, least recently used first.
+        private LinkedHashMap<DataBox, List<Record>> probeCache;
+        private Record nextRecord;
+
+        private INLJIterator() {
+            this.leftIterator = INLJOperator.this.getLeftSource().records();
+            int recordsPerPage = Table.computeNumRecordsPerPage(BufferManager.EFFECTIVE_PAGE_SIZE,
+                                 INLJOperator.this.getLeftSource().getOutputSchema());
+            int numBuffers = INLJOperator.this.getTransaction().getWorkMemSize();
+            this.blockSize = Math.max(1, numBuffers - 2) * Math.max(1, recordsPerPage);
+            this.leftBlockIterator = Collections.emptyIterator();
+            this.rightMatchIterator = Collections.emptyIterator();
+            this.probeCache = new LinkedHashMap<DataBox, List<Record>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DataBox, List<Record>> eldest) {
+                    return size() > PROBE_CACHE_SIZE;
+                }
+            };
+            this.nextRecord = null;
+        }
+
+        /**
+         * Reads the next block of left records and sorts it on the join value.
+         *
+         * @return false if there are no more left records
+         */
+        private boolean fetchNextLeftBlock() {
+            if (!this.leftIterator.hasNext()) {
+                return false;
+            }
+            int leftIndex = INLJOperator.this.getLeftColumnIndex();
+            List<Record> block = new ArrayList<>();
+            while (block.size() < this.blockSize && this.leftIterator.hasNext()) {
+                block.add(this.leftIterator.next());
+            }
+            block.sort(Comparator.comparing((Record r) -> r.getValues().get(leftIndex)));
+            this.leftBlockIterator = block.iterator();
+            return true;
+        }
+
+        /**
+         * Returns the records of the right source whose join value is key.
+         */
+        private List<Record> probe(DataBox key) {
+            List<Record> matches = this.probeCache.get(key);
+            if (matches != null) {
+                return matches;
+            }
+            matches = new ArrayList<>();
+            Iterator<Record> iter = INLJOperator.this.getTransaction().lookupKey(
+                                        INLJOperator.this.rightTableName,
+                                        INLJOperator.this.rightIndexColumnName,
+                                        key);
+            while (iter.hasNext()) {
+                Record r = iter.next();
+                if (INLJOperator.this.matchesRightSource(r)) {
+                    matches.add(r);
+                }
+            }
+            this.probeCache.put(key, matches);
+            return matches;
+        }
+
+        /**
+         * Pre-fetches what will be the next record, and puts it in this.nextRecord.
+         */
+        private void fetchNextRecord() {
+            while (!this.rightMatchIterator.hasNext()) {
+                if (!this.leftBlockIterator.hasNext() && !this.fetchNextLeftBlock()) {
+                    this.nextRecord = null;
+                    return;
+                }
+                if (!this.leftBlockIterator.hasNext()) {
+                    continue;
+                }
+                this.leftRecord = this.leftBlockIterator.next();
+                DataBox key = this.leftRecord.getValues().get(INLJOperator.this.getLeftColumnIndex());
+                this.rightMatchIterator = this.probe(key).iterator();
+            }
+            List<DataBox> values = new ArrayList<>(this.leftRecord.getValues());
+            values.addAll(this.rightMatchIterator.next().getValues());
+            this.nextRecord = new Record(values);
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            if (this.nextRecord == null) {
+                this.fetchNextRecord();
+            }
+            return this.nextRecord != null;
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record r = this.nextRecord;
+            this.nextRecord = null;
+            return r;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
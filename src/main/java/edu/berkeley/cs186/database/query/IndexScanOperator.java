@@ -4,12 +4,17 @@ import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
-import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.Index;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 class IndexScanOperator extends QueryOperator {
@@ -18,11 +23,12 @@ class IndexScanOperator extends QueryOperator {
     private String columnName;
     private PredicateOperator predicate;
     private DataBox value;
+    private boolean ordered;
 
     private int columnIndex;
 
     /**
-     * An index scan operator.
+     * An index scan operator that returns records in order of the indexed column.
      *
      * @param transaction the transaction containing this operator
      * @param tableName the table to iterate over
@@ -33,12 +39,33 @@ class IndexScanOperator extends QueryOperator {
                       String columnName,
                       PredicateOperator predicate,
                       DataBox value) {
+        this(transaction, tableName, columnName, predicate, value, true);
+    }
+
+    /**
+     * An index scan operator. If ordered is false, records may be returned in
+     * any order, which lets a range scan fetch the records it matches in
+     * batches sorted by page (like a bitmap heap scan), so that a batch reads
+     * every heap page at most once instead of once per matching record.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param columnName the name of the column the index is on
+     * @param ordered whether records must be returned in order of the indexed column
+     */
+    IndexScanOperator(TransactionContext transaction,
+                      String tableName,
+                      String columnName,
+                      PredicateOperator predicate,
+                      DataBox value,
+                      boolean ordered) {
         super(OperatorType.INDEXSCAN);
         this.tableName = tableName;
         this.transaction = transaction;
         this.columnName = columnName;
         this.predicate = predicate;
         this.value = value;
+        this.ordered = ordered;
         this.setOutputSchema(this.computeSchema());
         columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
         this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
@@ -52,13 +79,36 @@ class IndexScanOperator extends QueryOperator {
         return true;
     }
 
+    @Override
+    public boolean isSortedOn(String column) {
+        String indexColumn = this.getOutputSchema().getFieldNames().get(this.columnIndex);
+        return !this.isBatched() && this.checkColumnNameEquality(indexColumn, column);
+    }
+
     @Override
     public String str() {
         return "type: " + this.getType() +
                "\ntable: " + this.tableName +
                "\ncolumn: " + this.columnName +
                "\noperator: " + this.predicate +
-               "\nvalue: " + this.value;
+               "\nvalue: " + this.value +
+               (this.ordered ? "" : "\nordered: false");
+    }
+
+    /**
+     * Returns the name of the table that the index scan is on
+     *
+     * @return tableName
+     */
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    /**
+     * Returns whether record, a record of the scanned table, satisfies the predicate of the scan.
+     */
+    boolean matches(Record record) {
+        return this.predicate.evaluate(record.getValues().get(this.columnIndex), this.value);
     }
 
     /**
@@ -70,6 +120,14 @@ class IndexScanOperator extends QueryOperator {
         return this.columnName;
     }
 
+    /**
+     * Returns whether records are returned in order of the indexed column
+     * (see the constructor).
+     */
+    boolean isOrdered() {
+        return this.ordered;
+    }
+
     /**
      * Estimates the table statistics for the result of executing this query operator.
      *
@@ -95,23 +153,70 @@ class IndexScanOperator extends QueryOperator {
      * @return estimate IO cost
      */
     @Override
-    public int estimateIOCost() {
-        int height = transaction.getTreeHeight(tableName, columnName);
-        int order = transaction.getTreeOrder(tableName, columnName);
+    public long estimateIOCost() {
         TableStats tableStats = transaction.getStats(tableName);
 
         int count = tableStats.getHistograms().get(columnIndex).copyWithPredicate(predicate,
                     value).getCount();
+        if (transaction.getIndexKind(tableName, columnName) == Index.Kind.HASH) {
+            // a hash index keeps its directory in memory, so a lookup reads one bucket page
+            return 1 + count;
+        }
+
+        int height = transaction.getTreeHeight(tableName, columnName);
+        int order = transaction.getTreeOrder(tableName, columnName);
         // 2 * order entries/leaf node, but leaf nodes are 50-100% full; we use a fill factor of
         // 75% as a rough estimate
-        return (int) (height + Math.ceil(count / (1.5 * order)) + count);
+        int leafIOs = (int) Math.ceil(count / (1.5 * order));
+        if (!this.isBatched()) {
+            return height + leafIOs + count;
+        }
+        // each batch reads a heap page at most once, and only the pages that
+        // hold one of its records
+        int batchSize = this.batchSize();
+        int numPages = tableStats.getNumPages();
+        return height + leafIOs + (count / batchSize) * expectedPages(batchSize, numPages)
+               + expectedPages(count % batchSize, numPages);
+    }
+
+    // The expected number of pages, of numPages, that hold one of numRecords
+    // records spread over them at random (Cardenas' formula).
+    private static long expectedPages(int numRecords, int numPages) {
+        if (numPages <= 1) {
+            return Math.min(numRecords, numPages);
+        }
+        return (long) Math.ceil(numPages * (1 - Math.pow(1 - 1.0 / numPages, numRecords)));
+    }
+
+    /**
+     * The pages of the index and the heap pages of the matching records are
+     * read at random (in batched mode, in page order, but skipping the pages
+     * without a match).
+     */
+    @Override
+    protected Cost estimateLocalCost() {
+        return new Cost(0, this.getIOCost(), this.getStats().getNumRecords());
     }
 
     @Override
     public Iterator<Record> iterator() {
+        if (this.isBatched()) {
+            return new BatchedIndexScanIterator();
+        }
         return new IndexScanIterator();
     }
 
+    // an equality scan matches at most one record, so there is nothing to batch
+    private boolean isBatched() {
+        return !this.ordered && this.predicate != PredicateOperator.EQUALS;
+    }
+
+    // number of record ids that fit in the work memory
+    private int batchSize() {
+        int perPage = BufferManager.EFFECTIVE_PAGE_SIZE / RecordId.getSizeInBytes();
+        return Math.max(1, this.transaction.getWorkMemSize()) * perPage;
+    }
+
     @Override
     public Schema computeSchema() {
         try {
@@ -223,4 +328,51 @@ class IndexScanOperator extends QueryOperator {
             throw new UnsupportedOperationException();
         }
     }
+
+    /**
+     * An iterator that reads the record ids matched by the index a batch at
+     * a time, and fetches the records of a batch in page order.
+     */
+    private class BatchedIndexScanIterator implements Iterator<Record> {
+        private Iterator<RecordId> ridIterator;
+        private Iterator<RecordId> batchIterator;
+
+        private BatchedIndexScanIterator() {
+            this.ridIterator = IndexScanOperator.this.transaction.scanIndex(
+                                   IndexScanOperator.this.tableName,
+                                   IndexScanOperator.this.columnName,
+                                   IndexScanOperator.this.predicate,
+                                   IndexScanOperator.this.value);
+            this.batchIterator = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!this.batchIterator.hasNext() && this.ridIterator.hasNext()) {
+                int batchSize = IndexScanOperator.this.batchSize();
+                List<RecordId> batch = new ArrayList<>();
+                while (batch.size() < batchSize && this.ridIterator.hasNext()) {
+                    batch.add(this.ridIterator.next());
+                }
+                // record ids compare by page number first
+                Collections.sort(batch);
+                this.batchIterator = batch.iterator();
+            }
+            return this.batchIterator.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return IndexScanOperator.this.transaction.getRecord(IndexScanOperator.this.tableName,
+                    this.batchIterator.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
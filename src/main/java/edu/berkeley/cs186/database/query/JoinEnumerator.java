@@ -0,0 +1,354 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+
+import edu.berkeley.cs186.database.TransactionContext;
+
+/**
+ * Finds the cheapest plans that join the tables of a query (see
+ * QueryPlan::execute):
+ *
+ *   JoinEnumerator enumerator = new JoinEnumerator(transaction, ordering, interestingOrders);
+ *   enumerator.addTable("a", accessOfA, orderedAccessesOfA);
+ *   enumerator.addTable("b", accessOfB, orderedAccessesOfB);
+ *   enumerator.addJoin("a", "a.id", "b", "b.id");
+ *   enumerator.enumerate(JoinEnumerator.DEFAULT_GREEDY_THRESHOLD); // plans of a and b joined
+ *
+ * Sets of tables are bitsets of the tables in the order they were added, and
+ * the plans found for each connected set of the join graph are memoized, so
+ * that every larger set builds on them without planning them again. Of the
+ * plans of a set, only the cheapest survives, and the cheapest in order of
+ * each interesting column (see QueryOperator::isSortedOn): every other plan
+ * of the set costs more than one of them and has no order they lack.
+ *
+ * Up to the greedy threshold, the search is exhaustive, by dynamic
+ * programming over every pair of disjoint connected sets that a join
+ * predicate connects (DPccp: Moerkotte and Neumann, "Analysis of Two
+ * Existing and One New Dynamic Programming Algorithm for the Generation of
+ * Optimal Bushy Join Trees without Cross Products"). Each such pair is
+ * generated exactly once, so that the work grows with the number of plans
+ * that can be built rather than with every subset of the tables, and either
+ * side may be a join itself (a bushy plan). Above the threshold, joins are
+ * chosen greedily: the cheapest join of two of the current plans, until a
+ * single plan is left.
+ *
+ * A join takes the side with the left column of its predicate as its left
+ * input, and is priced as every type of join (see allJoinTypes).
+ */
+class JoinEnumerator {
+    // The most tables that are joined exhaustively by default.
+    static final int DEFAULT_GREEDY_THRESHOLD = 10;
+
+    private TransactionContext transaction;
+    private Comparator<Cost> ordering;
+    private List<String> interestingOrders;
+
+    private List<String> tableNames;
+    private List<JoinPredicate> predicates;
+    // neighbors[i] is the set of tables that table i shares a predicate with
+    private long[] neighbors;
+
+    // The cheapest plan of each set of tables, the cost it is compared by
+    // (see joinSets), and the cheapest plans of the set in order of each
+    // interesting column.
+    private Map<Long, QueryOperator> bestPlans;
+    private Map<Long, Cost> bestCosts;
+    private Map<Long, Map<String, QueryOperator>> sortedPlans;
+
+    private static class JoinPredicate {
+        private int leftTable;
+        private String leftColumn;
+        private int rightTable;
+        private String rightColumn;
+
+        private JoinPredicate(int leftTable, String leftColumn, int rightTable, String rightColumn) {
+            this.leftTable = leftTable;
+            this.leftColumn = leftColumn;
+            this.rightTable = rightTable;
+            this.rightColumn = rightColumn;
+        }
+    }
+
+    /**
+     * Creates an enumerator of the joins of tables read within transaction,
+     * that compares plans by ordering and keeps the cheapest plans in order
+     * of each of interestingOrders.
+     */
+    JoinEnumerator(TransactionContext transaction, Comparator<Cost> ordering, List<String> interestingOrders) {
+        this.transaction = transaction;
+        this.ordering = ordering;
+        this.interestingOrders = new ArrayList<>(interestingOrders);
+        this.tableNames = new ArrayList<>();
+        this.predicates = new ArrayList<>();
+        this.neighbors = new long[0];
+        this.bestPlans = new HashMap<>();
+        this.bestCosts = new HashMap<>();
+        this.sortedPlans = new HashMap<>();
+    }
+
+    /**
+     * Adds a table to join, read by minOp, its cheapest access, or by any of
+     * orderedAccesses, which return its records in some interesting order.
+     */
+    void addTable(String tableName, QueryOperator minOp, List<QueryOperator> orderedAccesses) {
+        if (this.tableNames.size() == Long.SIZE) {
+            throw new QueryPlanException("Cannot join more than " + Long.SIZE + " tables.");
+        }
+        long table = 1L << this.tableNames.size();
+        this.tableNames.add(tableName);
+        this.neighbors = Arrays.copyOf(this.neighbors, this.tableNames.size());
+        this.bestPlans.put(table, minOp);
+        this.bestCosts.put(table, minOp.getCost());
+        this.addSortedPlan(table, minOp);
+        for (QueryOperator op : orderedAccesses) {
+            this.addSortedPlan(table, op);
+        }
+    }
+
+    /**
+     * Adds the join predicate leftTable.leftColumn = rightTable.rightColumn,
+     * between two tables added before.
+     */
+    void addJoin(String leftTable, String leftColumn, String rightTable, String rightColumn) {
+        int left = this.tableNames.indexOf(leftTable);
+        int right = this.tableNames.indexOf(rightTable);
+        if (left == -1 || right == -1) {
+            throw new QueryPlanException("Join predicate " + leftTable + "." + leftColumn + " = " +
+                                         rightTable + "." + rightColumn + " is not between two joined tables.");
+        }
+        this.predicates.add(new JoinPredicate(left, leftColumn, right, rightColumn));
+        this.neighbors[left] |= 1L << right;
+        this.neighbors[right] |= 1L << left;
+    }
+
+    /**
+     * Joins all the tables, exhaustively if there are at most greedyThreshold
+     * of them and greedily otherwise, and returns the plans that join them:
+     * the cheapest plan first, and then the cheapest plans in each
+     * interesting order.
+     */
+    List<QueryOperator> enumerate(int greedyThreshold) {
+        long allTables = this.tableNames.size() == Long.SIZE ? -1L : (1L << this.tableNames.size()) - 1;
+        if (this.tableNames.size() <= greedyThreshold) {
+            this.enumerateExhaustively();
+        } else {
+            this.enumerateGreedily();
+        }
+        if (!this.bestPlans.containsKey(allTables)) {
+            throw new QueryPlanException("The join predicates do not connect all the tables of the query.");
+        }
+        return this.candidatePlans(allTables);
+    }
+
+    /**
+     * Plans every pair of sets that DPccp generates, smaller pairs first, so
+     * that the plans of both sets of a pair are complete before they are
+     * joined.
+     */
+    private void enumerateExhaustively() {
+        List<long[]> pairs = new ArrayList<>();
+        for (int i = this.tableNames.size() - 1; i >= 0; --i) {
+            long table = 1L << i;
+            this.emitConnectedSet(table, pairs);
+            this.enumerateConnectedSets(table, upTo(i), pairs);
+        }
+        pairs.sort(Comparator.comparingInt(pair -> Long.bitCount(pair[0] | pair[1])));
+        for (long[] pair : pairs) {
+            this.joinSets(pair[0], pair[1]);
+        }
+    }
+
+    // Generates the connected sets that grow set by tables not in excluded,
+    // and the pairs of each.
+    private void enumerateConnectedSets(long set, long excluded, List<long[]> pairs) {
+        long neighborhood = this.neighborhood(set) & ~excluded;
+        for (long subset = neighborhood; subset != 0; subset = (subset - 1) & neighborhood) {
+            this.emitConnectedSet(set | subset, pairs);
+        }
+        for (long subset = neighborhood; subset != 0; subset = (subset - 1) & neighborhood) {
+            this.enumerateConnectedSets(set | subset, excluded | neighborhood, pairs);
+        }
+    }
+
+    // Generates the pairs of set and a connected set of tables that come
+    // after the first table of set, and are not in it.
+    private void emitConnectedSet(long set, List<long[]> pairs) {
+        long excluded = set | upTo(Long.numberOfTrailingZeros(set));
+        long neighborhood = this.neighborhood(set) & ~excluded;
+        for (int i = Long.SIZE - 1 - Long.numberOfLeadingZeros(neighborhood); i >= 0; --i) {
+            long table = 1L << i;
+            if ((neighborhood & table) != 0) {
+                pairs.add(new long[] {set, table});
+                this.enumerateComplements(set, table, excluded | (upTo(i) & neighborhood), pairs);
+            }
+        }
+    }
+
+    // Generates the pairs of set and the connected sets that grow complement
+    // by tables not in excluded.
+    private void enumerateComplements(long set, long complement, long excluded, List<long[]> pairs) {
+        long neighborhood = this.neighborhood(complement) & ~excluded;
+        for (long subset = neighborhood; subset != 0; subset = (subset - 1) & neighborhood) {
+            pairs.add(new long[] {set, complement | subset});
+        }
+        for (long subset = neighborhood; subset != 0; subset = (subset - 1) & neighborhood) {
+            this.enumerateComplements(set, complement | subset, excluded | neighborhood, pairs);
+        }
+    }
+
+    /**
+     * Starts from a plan of each table, and joins the two plans whose join is
+     * cheapest until a single plan is left. The joins of two plans are
+     * memoized, so that each pair is planned once however many times it is
+     * compared.
+     */
+    private void enumerateGreedily() {
+        List<Long> sets = new ArrayList<>();
+        for (int i = 0; i < this.tableNames.size(); ++i) {
+            sets.add(1L << i);
+        }
+        while (sets.size() > 1) {
+            int minI = -1;
+            int minJ = -1;
+            for (int i = 0; i < sets.size(); ++i) {
+                for (int j = i + 1; j < sets.size(); ++j) {
+                    long set = sets.get(i) | sets.get(j);
+                    if ((this.neighborhood(sets.get(i)) & sets.get(j)) == 0) {
+                        continue;
+                    }
+                    if (!this.bestPlans.containsKey(set)) {
+                        this.joinSets(sets.get(i), sets.get(j));
+                    }
+                    if (minI == -1 || this.ordering.compare(this.bestCosts.get(set),
+                            this.bestCosts.get(sets.get(minI) | sets.get(minJ))) < 0) {
+                        minI = i;
+                        minJ = j;
+                    }
+                }
+            }
+            if (minI == -1) {
+                return;
+            }
+            long set = sets.get(minI) | sets.get(minJ);
+            sets.remove(minJ);
+            sets.set(minI, set);
+        }
+    }
+
+    /**
+     * Prices every type of join (see allJoinTypes) of the plans of set and
+     * other on each predicate between them, and keeps the cheapest plans of
+     * their union. Each side is either the cheapest plan of its tables or one
+     * of their cheapest plans in an interesting order, so that e.g. a
+     * sort-merge join can reuse the order of an index scan or of another
+     * sort-merge join on the same column. Plans are compared by the cost of
+     * the whole plan, which includes that of its inputs, so that a plan in
+     * order is only used where its order saves more than it costs.
+     */
+    private void joinSets(long set, long other) {
+        long union = set | other;
+        for (JoinPredicate predicate : this.predicates) {
+            long leftTable = 1L << predicate.leftTable;
+            long rightTable = 1L << predicate.rightTable;
+            long left;
+            long right;
+            if ((set & leftTable) != 0 && (other & rightTable) != 0) {
+                left = set;
+                right = other;
+            } else if ((other & leftTable) != 0 && (set & rightTable) != 0) {
+                left = other;
+                right = set;
+            } else {
+                continue;
+            }
+            List<QueryOperator> leftOps = this.candidatePlans(left);
+            List<QueryOperator> rightOps = this.candidatePlans(right);
+            for (int l = 0; l < leftOps.size(); l++) {
+                for (int r = 0; r < rightOps.size(); r++) {
+                    for (QueryOperator join : this.allJoinTypes(leftOps.get(l), rightOps.get(r),
+                            predicate.leftColumn, predicate.rightColumn)) {
+                        Cost cost = join.getCost();
+                        if (!this.bestPlans.containsKey(union) ||
+                                this.ordering.compare(cost, this.bestCosts.get(union)) < 0) {
+                            this.bestPlans.put(union, join);
+                            this.bestCosts.put(union, cost);
+                        }
+                        this.addSortedPlan(union, join);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Given a join condition between an outer relation represented by leftOp
+     * and an inner relation represented by rightOp, returns a join operator
+     * for every type of join in JoinOperator.JoinType that can join them.
+     * The original four come first, so that they win ties.
+     *
+     * @return the join QueryOperators between the input operators
+     */
+    private List<QueryOperator> allJoinTypes(QueryOperator leftOp,
+                                             QueryOperator rightOp,
+                                             String leftColumn,
+                                             String rightColumn) {
+        List<QueryOperator> allJoins = new ArrayList<>();
+        allJoins.add(new SNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new GHJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction, true));
+        if (INLJOperator.canProbe(this.transaction, leftOp, leftColumn, rightOp, rightColumn)) {
+            allJoins.add(new INLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        }
+        allJoins.add(new PNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new GHJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction, false));
+        allJoins.add(new SortMergeOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        return allJoins;
+    }
+
+    /**
+     * Keeps op, a plan of set, as the plan of set in order of each
+     * interesting column it is sorted on, if it is the cheapest such plan so
+     * far.
+     */
+    private void addSortedPlan(long set, QueryOperator op) {
+        Map<String, QueryOperator> plans = this.sortedPlans.computeIfAbsent(set, k -> new LinkedHashMap<>());
+        for (String column : this.interestingOrders) {
+            if (op.isSortedOn(column)) {
+                QueryOperator sortedOp = plans.get(column);
+                if (sortedOp == null || this.ordering.compare(op.getCost(), sortedOp.getCost()) < 0) {
+                    plans.put(column, op);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the plans of set to build on: its cheapest plan, and then its
+     * cheapest plans in each interesting order.
+     */
+    private List<QueryOperator> candidatePlans(long set) {
+        List<QueryOperator> plans = new ArrayList<>();
+        plans.add(this.bestPlans.get(set));
+        for (QueryOperator op : this.sortedPlans.getOrDefault(set, Collections.emptyMap()).values()) {
+            if (!plans.contains(op)) {
+                plans.add(op);
+            }
+        }
+        return plans;
+    }
+
+    // the tables that share a predicate with a table of set, and are not in it
+    private long neighborhood(long set) {
+        long neighborhood = 0;
+        for (long rest = set; rest != 0; rest &= rest - 1) {
+            neighborhood |= this.neighbors[Long.numberOfTrailingZeros(rest)];
+        }
+        return neighborhood & ~set;
+    }
+
+    // the set of tables 0 to i
+    private static long upTo(int i) {
+        return i == Long.SIZE - 1 ? -1L : (1L << (i + 1)) - 1;
+    }
+
+}
@@ -0,0 +1,107 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.table.MarkerRecord;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Drops the records of its source whose value of a join column is not in a
+ * filter of the values of that column on the other side of the join (see
+ * JoinKeyFilter), i.e. that cannot join with anything. The filter is pushed
+ * down into the larger input of a join by QueryPlan (see
+ * QueryPlan::setJoinFilterPushdown), so that the records it drops are not
+ * materialized, partitioned, sorted or joined on their way up.
+ */
+class JoinFilterOperator extends QueryOperator {
+    private String columnName;
+    private int columnIndex;
+    private JoinKeyFilter filter;
+
+    /**
+     * @param source the source of this operator
+     * @param columnName the name of the join column in the schema of source
+     * @param filter the values of the join column on the other side of the join
+     */
+    JoinFilterOperator(QueryOperator source, String columnName, JoinKeyFilter filter) {
+        super(OperatorType.JOIN_FILTER, source);
+        this.columnName = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
+        this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+        this.filter = filter;
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    public boolean isSortedOn(String column) {
+        return this.getSource().isSortedOn(column);
+    }
+
+    @Override
+    public Schema computeSchema() {
+        return this.getSource().getOutputSchema();
+    }
+
+    @Override
+    public String str() {
+        return "type: " + this.getType() +
+               "\ncolumn: " + this.columnName +
+               "\nkeys: " + (this.filter.isExact() ? "exact" : "bloom");
+    }
+
+    /**
+     * The filter is added once the joins are planned, so the operators above
+     * it were estimated without it; so is this one.
+     */
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().getStats();
+    }
+
+    @Override
+    public long estimateIOCost() {
+        return this.getSource().getIOCost();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new JoinFilterIterator();
+    }
+
+    private class JoinFilterIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private Record nextRecord;
+
+        private JoinFilterIterator() {
+            this.sourceIterator = JoinFilterOperator.this.getSource().records();
+            this.nextRecord = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextRecord == null && this.sourceIterator.hasNext()) {
+                Record r = this.sourceIterator.next();
+                if (r == MarkerRecord.getMarker() ||
+                        JoinFilterOperator.this.filter.mightContain(
+                            r.getValues().get(JoinFilterOperator.this.columnIndex))) {
+                    this.nextRecord = r;
+                }
+            }
+            return this.nextRecord != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record r = this.nextRecord;
+            this.nextRecord = null;
+            return r;
+        }
+    }
+}
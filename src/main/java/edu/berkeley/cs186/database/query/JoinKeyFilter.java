@@ -0,0 +1,115 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * The values of the join column of one input of a join, by which the other
+ * input is filtered before it is joined (see JoinFilterOperator):
+ *
+ *   JoinKeyFilter filter = new JoinKeyFilter(100);
+ *   filter.add(new IntDataBox(42));
+ *   filter.mightContain(new IntDataBox(42)); // true
+ *   filter.mightContain(new IntDataBox(43)); // false (most likely)
+ *
+ * A filter holds its keys exactly, in a hash set, until more than
+ * MAX_EXACT_KEYS distinct keys are added, whatever the number of keys it
+ * was expected to get. It then turns into an in-memory Bloom filter of
+ * BITS_PER_KEY bits per key (the expected number of keys, or twice
+ * MAX_EXACT_KEYS if more), with the same double hashing as the persistent
+ * Bloom filters of indices (see BloomFilter), so that mightContain returns
+ * true for about 1% of the keys that were not added. Either way, it never
+ * returns false for a key that was added.
+ */
+class JoinKeyFilter {
+    static final int MAX_EXACT_KEYS = 4096;
+    private static final int BITS_PER_KEY = 10;
+    // optimal for BITS_PER_KEY: round(ln(2) * BITS_PER_KEY)
+    private static final int NUM_HASHES = 7;
+
+    private long expectedKeys;
+    // the keys, or null once this is a Bloom filter
+    private Set<DataBox> keys = new HashSet<>();
+    private BitSet bits;
+    private int numBits;
+
+    /**
+     * Creates an empty filter, whose Bloom filter (if it needs one) is sized
+     * for expectedKeys keys.
+     */
+    JoinKeyFilter(long expectedKeys) {
+        this.expectedKeys = expectedKeys;
+    }
+
+    void add(DataBox key) {
+        if (this.keys != null) {
+            if (this.keys.add(key) && this.keys.size() > MAX_EXACT_KEYS) {
+                this.toBloomFilter();
+            }
+            return;
+        }
+        this.addHash(key);
+    }
+
+    // Moves the keys of the hash set into a Bloom filter.
+    private void toBloomFilter() {
+        long numKeys = Math.max(this.expectedKeys, 2L * MAX_EXACT_KEYS);
+        this.numBits = (int) Math.min(Integer.MAX_VALUE, numKeys * BITS_PER_KEY);
+        this.bits = new BitSet(this.numBits);
+        Set<DataBox> keys = this.keys;
+        this.keys = null;
+        for (DataBox key : keys) {
+            this.addHash(key);
+        }
+    }
+
+    private void addHash(DataBox key) {
+        long h = hash(key);
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            this.bits.set(this.bitIndex(h, i));
+        }
+    }
+
+    /**
+     * Returns false if key was never added, and true if it was (or, for a
+     * Bloom filter, may have been).
+     */
+    boolean mightContain(DataBox key) {
+        if (this.keys != null) {
+            return this.keys.contains(key);
+        }
+        long h = hash(key);
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            if (!this.bits.get(this.bitIndex(h, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns whether this filter holds its keys exactly. */
+    boolean isExact() {
+        return this.keys != null;
+    }
+
+    // DataBox hash codes need to be mixed first (see BloomFilter::hash).
+    private static long hash(DataBox key) {
+        long h = key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // The bit that the i-th hash function maps a key with hash h to.
+    private int bitIndex(long h, int i) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        return Math.floorMod(h1 + i * h2, this.numBits);
+    }
+}
@@ -1,13 +1,16 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.index.BloomFilter;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -19,7 +22,9 @@ abstract class JoinOperator extends QueryOperator {
         SNLJ,
         PNLJ,
         BNLJ,
-        SORTMERGE
+        SORTMERGE,
+        INLJ,
+        GHJ
     }
 
     JoinType joinType;
@@ -70,6 +75,11 @@ abstract class JoinOperator extends QueryOperator {
                                      "getRightSource and getLeftSource and the corresponding set methods.");
     }
 
+    @Override
+    List<QueryOperator> getSources() {
+        return Arrays.asList(this.leftSource, this.rightSource);
+    }
+
     QueryOperator getLeftSource() {
         return this.leftSource;
     }
@@ -109,7 +119,7 @@ abstract class JoinOperator extends QueryOperator {
 
     @Override
     public String toString() {
-        String r = this.str();
+        String r = this.describe();
         if (this.leftSource != null) {
             r += "\n" + ("(left)\n" + this.leftSource.toString()).replaceAll("(?m)^", "\t");
         }
@@ -138,7 +148,22 @@ abstract class JoinOperator extends QueryOperator {
     }
 
     @Override
-    public abstract int estimateIOCost();
+    public abstract long estimateIOCost();
+
+    /**
+     * By default, the IOs of estimateIOCost are sequential, and every record
+     * of either source, and of the result, is processed once.
+     */
+    @Override
+    protected Cost estimateLocalCost() {
+        return new Cost(this.getIOCost(), 0, this.leftSource.getStats().getNumRecords() +
+                        this.rightSource.getStats().getNumRecords() + this.getStats().getNumRecords());
+    }
+
+    @Override
+    public Cost getCost() {
+        return this.estimateLocalCost().plus(this.leftSource.getCost()).plus(this.rightSource.getCost());
+    }
 
     public Schema getSchema(String tableName) {
         return this.transaction.getSchema(tableName);
@@ -205,10 +230,54 @@ abstract class JoinOperator extends QueryOperator {
         return this.joinType;
     }
 
+    /**
+     * Returns the Bloom filter over the values of the right join column, if
+     * the right source reads a single table whose index on that column has one
+     * (see Transaction#createBloomFilter), and the join columns have the same
+     * type. The filter holds every value of the column in the table, so a left
+     * record whose join value the filter rules out joins with no right record.
+     */
+    Optional<BloomFilter> getRightJoinFilter() {
+        String tableName = getBaseTableName(this.rightSource);
+        String columnName = unqualified(this.rightColumnName);
+        if (tableName == null || !this.transaction.indexExists(tableName, columnName)) {
+            return Optional.empty();
+        }
+        Type leftType = this.leftSource.getOutputSchema().getFieldTypes().get(this.leftColumnIndex);
+        Type rightType = this.rightSource.getOutputSchema().getFieldTypes().get(this.rightColumnIndex);
+        if (!leftType.equals(rightType)) {
+            return Optional.empty();
+        }
+        return this.transaction.getBloomFilter(tableName, columnName);
+    }
+
+    // Returns the table a chain of selections over a sequential or index scan
+    // reads, or null if op is anything else.
+    static String getBaseTableName(QueryOperator op) {
+        while (op.isSelect()) {
+            op = op.getSource();
+        }
+        if (op.isSequentialScan()) {
+            return ((SequentialScanOperator) op).getTableName();
+        }
+        if (op.isIndexScan()) {
+            return ((IndexScanOperator) op).getTableName();
+        }
+        return null;
+    }
+
+    static String unqualified(String columnName) {
+        return columnName.substring(columnName.lastIndexOf('.') + 1);
+    }
+
     /**
      * All iterators for subclasses of JoinOperator should subclass from
      * JoinIterator; JoinIterator handles creating temporary tables out of the left and right
      * input operators.
+     *
+     * When the left source has to be materialized anyway, left records that
+     * the right join filter (see getRightJoinFilter) rules out are dropped
+     * before they are written, since they cannot join with anything.
      */
     protected abstract class JoinIterator implements Iterator<Record> {
         private String leftTableName;
@@ -220,9 +289,14 @@ abstract class JoinOperator extends QueryOperator {
             } else {
                 this.leftTableName = JoinOperator.this.createTempTable(
                                          JoinOperator.this.getLeftSource().getOutputSchema());
-                Iterator<Record> leftIter = JoinOperator.this.getLeftSource().iterator();
+                Optional<BloomFilter> filter = JoinOperator.this.getRightJoinFilter();
+                int leftIndex = JoinOperator.this.getLeftColumnIndex();
+                Iterator<Record> leftIter = JoinOperator.this.getLeftSource().records();
                 while (leftIter.hasNext()) {
-                    JoinOperator.this.addRecord(this.leftTableName, leftIter.next().getValues());
+                    List<DataBox> values = leftIter.next().getValues();
+                    if (!filter.isPresent() || filter.get().mightContain(values.get(leftIndex))) {
+                        JoinOperator.this.addRecord(this.leftTableName, values);
+                    }
                 }
             }
             if (JoinOperator.this.getRightSource().isSequentialScan()) {
@@ -230,7 +304,7 @@ abstract class JoinOperator extends QueryOperator {
             } else {
                 this.rightTableName = JoinOperator.this.createTempTable(
                                           JoinOperator.this.getRightSource().getOutputSchema());
-                Iterator<Record> rightIter = JoinOperator.this.getRightSource().iterator();
+                Iterator<Record> rightIter = JoinOperator.this.getRightSource().records();
                 while (rightIter.hasNext()) {
                     JoinOperator.this.addRecord(this.rightTableName, rightIter.next().getValues());
                 }
@@ -0,0 +1,115 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Returns the first limit records of its source (LIMIT limit). The source is
+ * pulled lazily and no further, so a scan below stops reading pages once
+ * limit records have been returned.
+ */
+class LimitOperator extends QueryOperator {
+    private int limit;
+
+    /**
+     * Creates a new LimitOperator that returns the first limit records of source.
+     *
+     * @param source the source operator of this operator
+     * @param limit the maximum number of records to return
+     */
+    LimitOperator(QueryOperator source, int limit) {
+        super(OperatorType.LIMIT, source);
+        this.limit = limit;
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        return this.getSource().getOutputSchema();
+    }
+
+    @Override
+    public boolean isSortedOn(String column) {
+        return this.getSource().isSortedOn(column);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new LimitIterator();
+    }
+
+    @Override
+    public String str() {
+        return "type: " + this.getType() +
+               "\nlimit: " + this.limit;
+    }
+
+    /**
+     * Estimates the table statistics for the result of executing this query operator.
+     *
+     * @return estimated TableStats
+     */
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().getStats().copyWithLimit(this.limit);
+    }
+
+    /**
+     * The cost of the source, which is an upper bound: a source that streams
+     * its records stops early.
+     */
+    @Override
+    public long estimateIOCost() {
+        return this.getSource().getIOCost();
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class LimitIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private int numReturned;
+
+        private LimitIterator() {
+            // a limit of 0 never pulls from the source
+            this.sourceIterator = LimitOperator.this.limit > 0 ? LimitOperator.this.getSource().records() : null;
+            this.numReturned = 0;
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            return this.numReturned < LimitOperator.this.limit && this.sourceIterator.hasNext();
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ++this.numReturned;
+            return this.sourceIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
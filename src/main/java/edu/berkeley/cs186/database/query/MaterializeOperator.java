@@ -1,9 +1,13 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.StatisticsCollector;
 
 class MaterializeOperator extends SequentialScanOperator {
     /**
@@ -14,17 +18,60 @@ class MaterializeOperator extends SequentialScanOperator {
      */
     MaterializeOperator(QueryOperator source,
                         TransactionContext transaction) {
-        super(OperatorType.MATERIALIZE, transaction, materialize(source, transaction));
+        this(source, transaction, 0);
     }
 
-    private static String materialize(QueryOperator source, TransactionContext transaction) {
+    /**
+     * Same as above, except that if buckets is positive, the temporary table
+     * is also analyzed (see TableStats::refreshHistograms), with histograms
+     * of buckets buckets, so that the estimates of the operators above it
+     * start from exact statistics. The first pass of the analysis is made as
+     * the table is written, and the second reads it back.
+     */
+    MaterializeOperator(QueryOperator source,
+                        TransactionContext transaction,
+                        int buckets) {
+        super(OperatorType.MATERIALIZE, transaction, materialize(source, transaction, buckets));
+    }
+
+    private static String materialize(QueryOperator source, TransactionContext transaction, int buckets) {
         String materializedTableName = transaction.createTempTable(source.getOutputSchema());
-        for (Record record : source) {
+        StatisticsCollector collector = buckets > 0
+                                        ? new StatisticsCollector(source.getOutputSchema(), buckets) : null;
+        Iterator<Record> records = source.records();
+        while (records.hasNext()) {
+            Record record = records.next();
             transaction.addRecord(materializedTableName, record.getValues());
+            if (collector != null) {
+                collector.add(record);
+            }
+        }
+        if (collector != null) {
+            // the first pass was the one above, and the second reads the
+            // records back from the temporary table
+            collector.beginSecondPass();
+            transaction.getStats(materializedTableName).refreshHistograms(
+                collector, transaction.getTable(materializedTableName)::pageRecordsIterator);
         }
         return materializedTableName;
     }
 
+    /**
+     * Columns of the source that are qualified already (e.g. by the table of
+     * a scan) keep their names, so that the operators above still find them;
+     * others are qualified by the name of the temporary table.
+     */
+    @Override
+    public Schema computeSchema() {
+        Schema schema = super.computeSchema();
+        List<String> columnNames = new ArrayList<>();
+        for (String columnName : schema.getFieldNames()) {
+            String sourceName = columnName.substring(this.getTableName().length() + 1);
+            columnNames.add(sourceName.contains(".") ? sourceName : columnName);
+        }
+        return new Schema(columnNames, schema.getFieldTypes());
+    }
+
     @Override
     public String str() {
         return "type: " + this.getType();
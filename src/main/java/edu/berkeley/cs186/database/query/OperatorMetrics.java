@@ -0,0 +1,135 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import edu.berkeley.cs186.database.memory.BufferManager;
+
+/**
+ * What an operator of a query run under EXPLAIN ANALYZE (see
+ * QueryPlan::explainAnalyze) actually did: how many times its records were
+ * pulled (loops), how many records it returned over all of them, and the
+ * time spent, pages fetched from the buffer manager, IOs done, and new pages
+ * (i.e. of temp tables: spilled runs, partitions or materialized inputs)
+ * allocated while it ran.
+ *
+ * Every operator counts the work done within the calls its parent makes to
+ * its iterator (see QueryOperator::records), including the work its sources
+ * did for it; an operator's own share is that minus the share of its
+ * sources (see describe). This relies on the counters of the buffer manager,
+ * which are shared by the whole database: work done meanwhile by other
+ * transactions is counted too. Some of the work is not done by an operator
+ * of its own:
+ *
+ *   - a join reads the table of a sequential scan below it directly, so the
+ *     scan is never run, and its pages are counted by the join;
+ *   - the workers of an ExchangeOperator run the scan and the pipelined
+ *     operators above it, whose work is counted by the exchange.
+ */
+class OperatorMetrics {
+    private final BufferManager bufferManager;
+
+    private long loops;
+    private long rows;
+    // including the sources of the operator
+    private long nanos;
+    private long pageFetches;
+    private long ios;
+    private long newPages;
+
+    OperatorMetrics(BufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+    }
+
+    /**
+     * Returns the iterator that open returns, counting a loop, the work done
+     * by open and by every call to the iterator, and the rows of the
+     * elements it returns, numRows(element) each.
+     */
+    <T> Iterator<T> track(Supplier<Iterator<T>> open, ToIntFunction<T> numRows) {
+        ++this.loops;
+        Iterator<T> iterator = this.measure(open);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return OperatorMetrics.this.measure(iterator::hasNext);
+            }
+
+            @Override
+            public T next() {
+                T next = OperatorMetrics.this.measure(iterator::next);
+                OperatorMetrics.this.rows += numRows.applyAsInt(next);
+                return next;
+            }
+        };
+    }
+
+    private <T> T measure(Supplier<T> work) {
+        long start = System.nanoTime();
+        long pageFetches = this.bufferManager.getNumPageFetches();
+        long ios = this.bufferManager.getNumIOs();
+        long newPages = this.bufferManager.getNumNewPages();
+        try {
+            return work.get();
+        } finally {
+            this.nanos += System.nanoTime() - start;
+            this.pageFetches += this.bufferManager.getNumPageFetches() - pageFetches;
+            this.ios += this.bufferManager.getNumIOs() - ios;
+            this.newPages += this.bufferManager.getNumNewPages() - newPages;
+        }
+    }
+
+    long getLoops() {
+        return this.loops;
+    }
+
+    long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the page fetches of operator, the operator of these metrics,
+     * without those of its sources.
+     */
+    long getSelfPageFetches(QueryOperator operator) {
+        long pageFetches = this.pageFetches;
+        for (QueryOperator source : operator.getSources()) {
+            if (source.getMetrics() != null) {
+                pageFetches -= source.getMetrics().pageFetches;
+            }
+        }
+        return Math.max(pageFetches, 0);
+    }
+
+    /**
+     * Describes the estimates of operator, the operator of these metrics,
+     * next to what it actually did. Rows and time include all loops; time
+     * includes the sources of operator, and the rest does not.
+     */
+    String describe(QueryOperator operator) {
+        String estimated = "estimated: rows=" + operator.getStats().getNumRecords() +
+                           ", page reads=" + operator.estimateLocalCost().getIOs();
+        if (this.loops == 0) {
+            return estimated + "\nactual: " + (operator.isSequentialScan() ? "read by the operator above"
+                                               : "never executed");
+        }
+        long selfNanos = this.nanos;
+        long selfIOs = this.ios;
+        long selfNewPages = this.newPages;
+        for (QueryOperator source : operator.getSources()) {
+            OperatorMetrics metrics = source.getMetrics();
+            if (metrics != null) {
+                selfNanos -= metrics.nanos;
+                selfIOs -= metrics.ios;
+                selfNewPages -= metrics.newPages;
+            }
+        }
+        return estimated + "\nactual: rows=" + this.rows +
+               ", loops=" + this.loops +
+               ", page fetches=" + this.getSelfPageFetches(operator) +
+               ", IOs=" + Math.max(selfIOs, 0) +
+               ", temp pages=" + Math.max(selfNewPages, 0) +
+               String.format(", time=%.3f ms (self %.3f ms)", this.nanos / 1e6, Math.max(selfNanos, 0) / 1e6);
+    }
+}
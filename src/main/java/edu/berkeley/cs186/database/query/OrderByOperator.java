@@ -0,0 +1,124 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Returns the records of its source in ascending or descending order of one
+ * column (ORDER BY column [DESC]). If the source already returns its records
+ * in ascending order of the column (see QueryOperator::isSortedOn), they are
+ * passed through as they are read; otherwise the source is written to a
+ * temporary table and sorted with an external merge sort (see SortOperator).
+ */
+class OrderByOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private String column;
+    private int columnIndex;
+    private boolean ascending;
+    private int numBuffers;
+
+    /**
+     * Creates a new OrderByOperator that returns the records of source in
+     * order of column.
+     *
+     * @param source the source operator of this operator
+     * @param transaction the transaction containing this operator
+     * @param column the column to order by
+     * @param ascending whether to return the smallest value of column first
+     */
+    OrderByOperator(QueryOperator source,
+                    TransactionContext transaction,
+                    String column,
+                    boolean ascending) {
+        super(OperatorType.SORT);
+        this.transaction = transaction;
+        this.column = column;
+        this.ascending = ascending;
+        this.numBuffers = Math.max(3, transaction.getWorkMemSize());
+
+        this.setSource(source);
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        Schema sourceSchema = this.getSource().getOutputSchema();
+        this.column = this.checkSchemaForColumn(sourceSchema, this.column);
+        this.columnIndex = sourceSchema.getFieldNames().indexOf(this.column);
+        return sourceSchema;
+    }
+
+    @Override
+    public boolean isSortedOn(String column) {
+        return this.ascending && this.checkColumnNameEquality(this.column, column);
+    }
+
+    // whether the source needs to be sorted first
+    boolean needsSort() {
+        return !(this.ascending && this.getSource().isSortedOn(this.column));
+    }
+
+    /**
+     * Returns the comparator of the records of the source in the order of
+     * this operator.
+     */
+    Comparator<Record> getComparator() {
+        int index = this.columnIndex;
+        Comparator<Record> comparator = Comparator.comparing(r -> r.getValues().get(index));
+        return this.ascending ? comparator : comparator.reversed();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        if (!this.needsSort()) {
+            return this.getSource().records();
+        }
+        Iterator<Record> records = this.getSource().records();
+        if (!records.hasNext()) {
+            return records;
+        }
+        String tableName = this.transaction.createTempTable(this.getOutputSchema());
+        while (records.hasNext()) {
+            this.transaction.addRecord(tableName, records.next().getValues());
+        }
+        return new SortOperator(this.transaction, tableName, this.getComparator()).iterator();
+    }
+
+    @Override
+    public String str() {
+        return "type: " + this.getType() +
+               "\ncolumn: " + this.column +
+               (this.ascending ? "" : "\ndescending: true");
+    }
+
+    /**
+     * Estimates the table statistics for the result of executing this query operator.
+     *
+     * @return estimated TableStats
+     */
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().getStats();
+    }
+
+    /**
+     * The cost of the source, plus, if it needs to be sorted, writing it to
+     * a temporary table (N I/Os) and sorting it.
+     */
+    @Override
+    public long estimateIOCost() {
+        long sourceCost = this.getSource().getIOCost();
+        if (!this.needsSort()) {
+            return sourceCost;
+        }
+        int numPages = this.getSource().getStats().getNumPages();
+        return Cost.saturatedAdd(sourceCost, numPages + SortOperator.estimateIOCost(numPages, this.numBuffers));
+    }
+}
@@ -16,5 +16,6 @@ class PNLJOperator extends BNLJOperator {
 
         joinType = JoinType.PNLJ;
         numBuffers = 3;
+        this.cost = this.estimateIOCost();
     }
 }
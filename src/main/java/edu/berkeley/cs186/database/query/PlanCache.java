@@ -0,0 +1,154 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A cache of the plans of prepared queries (see QueryPlan::execute(List)),
+ * shared by all the transactions of a database. A plan is cached under the
+ * shape of its query (see QueryPlan::shape): its tables, joins and
+ * predicates, without the values bound to its parameters, and everything
+ * else the optimizer looks at. Running a query of the same shape again, with
+ * the same or other values, reuses the plan instead of searching the access
+ * paths and join orders again. The operators of the plan are still built,
+ * and their statistics and IO cost estimated, on every run.
+ *
+ * A cached plan goes out of date when
+ *
+ *   - a table or an index is created or dropped (see invalidateAll), which
+ *     may make other plans possible, or this one impossible;
+ *   - a table it reads is analyzed again (see TableStats::getNumAnalyses);
+ *   - the number of records of a table it reads drifts as far from what it
+ *     was when the query was planned as it takes statistics to go stale
+ *     (see TableStats::isStale).
+ *
+ * Out of date plans are dropped when they are next looked up, and the query
+ * is planned again. Past capacity, the least recently used plan is evicted.
+ */
+public class PlanCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    // shape of a query to its plan, least recently used first
+    private final LinkedHashMap<String, CachedPlan> plans;
+    private long numHits;
+    private long numMisses;
+
+    /**
+     * A plan of the joins (and the accesses and selections below them) of a
+     * query, made within a transaction that may since have finished: it is
+     * only a template, from which QueryPlan builds the same operators within
+     * the transaction that runs the query, with the values bound to it.
+     */
+    static class CachedPlan {
+        final QueryOperator plan;
+        // the select (an index into the select lists of the query) that each
+        // select and index scan operator of plan applies
+        final Map<QueryOperator, Integer> selectIndices;
+        // the number of analyses and records of each table read by the plan
+        // when it was made
+        private final Map<String, Long> numAnalyses;
+        private final Map<String, Long> numRecords;
+
+        CachedPlan(QueryOperator plan, Map<QueryOperator, Integer> selectIndices,
+                   Collection<String> tableNames, TransactionContext transaction) {
+            this.plan = plan;
+            this.selectIndices = selectIndices;
+            this.numAnalyses = new HashMap<>();
+            this.numRecords = new HashMap<>();
+            for (String tableName : tableNames) {
+                TableStats stats = transaction.getStats(tableName);
+                this.numAnalyses.put(tableName, stats.getNumAnalyses());
+                this.numRecords.put(tableName, stats.getNumRecords());
+            }
+        }
+
+        private boolean isUpToDate(TransactionContext transaction) {
+            for (Map.Entry<String, Long> entry : this.numRecords.entrySet()) {
+                TableStats stats = transaction.getStats(entry.getKey());
+                long planned = entry.getValue();
+                long drift = Math.abs(stats.getNumRecords() - planned);
+                if (stats.getNumAnalyses() != this.numAnalyses.get(entry.getKey())
+                        || drift >= Math.max(TableStats.MIN_STALE_MODIFICATIONS,
+                                             TableStats.DEFAULT_STALENESS_THRESHOLD * planned)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public PlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache of at most capacity plans.
+     */
+    public PlanCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("plan cache must hold at least one plan");
+        }
+        this.capacity = capacity;
+        this.plans = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the plan cached for queries of shape, or null if there is none
+     * or it went out of date, as seen from transaction.
+     */
+    synchronized CachedPlan get(String shape, TransactionContext transaction) {
+        CachedPlan plan = this.plans.get(shape);
+        if (plan != null && !plan.isUpToDate(transaction)) {
+            this.plans.remove(shape);
+            plan = null;
+        }
+        if (plan == null) {
+            ++this.numMisses;
+        } else {
+            ++this.numHits;
+        }
+        return plan;
+    }
+
+    /**
+     * Caches plan for queries of shape.
+     */
+    synchronized void put(String shape, CachedPlan plan) {
+        this.plans.put(shape, plan);
+        Iterator<String> shapes = this.plans.keySet().iterator();
+        while (this.plans.size() > this.capacity) {
+            shapes.next();
+            shapes.remove();
+        }
+    }
+
+    /**
+     * Drops every cached plan. Called whenever a table or index is created
+     * or dropped.
+     */
+    public synchronized void invalidateAll() {
+        this.plans.clear();
+    }
+
+    public synchronized int size() {
+        return this.plans.size();
+    }
+
+    /**
+     * Returns the number of lookups that found an up to date plan.
+     */
+    public synchronized long getNumHits() {
+        return this.numHits;
+    }
+
+    /**
+     * Returns the number of lookups that did not, after which the query was
+     * planned from scratch.
+     */
+    public synchronized long getNumMisses() {
+        return this.numMisses;
+    }
+}
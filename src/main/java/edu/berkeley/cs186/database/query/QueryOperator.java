@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -13,7 +14,10 @@ public abstract class QueryOperator implements Iterable<Record> {
     private QueryOperator destination;
     private Schema operatorSchema;
     protected TableStats stats;
-    protected int cost;
+    protected long cost;
+    // What this operator did, if the query runs under EXPLAIN ANALYZE (see
+    // QueryPlan::explainAnalyze), or null.
+    private OperatorMetrics metrics;
 
     public enum OperatorType {
         JOIN,
@@ -23,6 +27,10 @@ public abstract class QueryOperator implements Iterable<Record> {
         SEQSCAN,
         INDEXSCAN,
         MATERIALIZE,
+        SORT,
+        LIMIT,
+        EXCHANGE,
+        JOIN_FILTER,
     }
 
     private OperatorType type;
@@ -69,6 +77,14 @@ public abstract class QueryOperator implements Iterable<Record> {
         return this.type.equals(OperatorType.INDEXSCAN);
     }
 
+    /**
+     * Returns whether the records of this operator are returned in order of
+     * column.
+     */
+    public boolean isSortedOn(String column) {
+        return false;
+    }
+
     public QueryOperator getSource() {
         return this.source;
     }
@@ -86,6 +102,21 @@ public abstract class QueryOperator implements Iterable<Record> {
         this.destination = destination;
     }
 
+    /**
+     * Returns the operators this operator reads the records of.
+     */
+    List<QueryOperator> getSources() {
+        return this.source == null ? Collections.emptyList() : Collections.singletonList(this.source);
+    }
+
+    OperatorMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    void setMetrics(OperatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     Schema getOutputSchema() {
         return this.operatorSchema;
     }
@@ -97,11 +128,67 @@ public abstract class QueryOperator implements Iterable<Record> {
     protected abstract Schema computeSchema();
 
     public Iterator<Record> execute() {
-        return iterator();
+        // a pipeline of vectorized operators runs a batch at a time, and only
+        // the records of the root's batches are materialized
+        return this.isVectorized() ? RecordBatch.toRecords(this.batches()) : this.records();
+    }
+
+    /**
+     * Returns the records of this operator (see iterator()). Operators pull
+     * the records of their sources through this, so that their metrics are
+     * kept under EXPLAIN ANALYZE.
+     */
+    Iterator<Record> records() {
+        return this.metrics == null ? this.iterator() : this.metrics.track(this::iterator, record -> 1);
+    }
+
+    /**
+     * Returns the batches of this operator (see batchIterator()), as records
+     * does.
+     */
+    Iterator<RecordBatch> batches() {
+        return this.metrics == null ? this.batchIterator() : this.metrics.track(this::batchIterator,
+                RecordBatch::size);
     }
 
     public abstract Iterator<Record> iterator();
 
+    /**
+     * Returns whether this operator implements batchIterator itself, rather
+     * than batching the records of iterator().
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Returns the records of this operator in batches (see RecordBatch), in
+     * the same order as iterator(). Vectorized operators override this to
+     * pull batches from their source and work on whole columns at a time.
+     */
+    Iterator<RecordBatch> batchIterator() {
+        return RecordBatch.fromRecords(this.getOutputSchema(), this.iterator());
+    }
+
+    /**
+     * Returns whether this operator works on each batch of its source on its
+     * own (see batchIterator(Iterator)), so that it can run on any part of
+     * the batches of its source, e.g. on the pages one worker of an
+     * ExchangeOperator scans.
+     */
+    boolean isPipelined() {
+        return false;
+    }
+
+    /**
+     * Returns the batches of this operator that come from sourceBatches,
+     * some of the batches of its source. Only pipelined operators implement
+     * this.
+     */
+    Iterator<RecordBatch> batchIterator(Iterator<RecordBatch> sourceBatches) {
+        throw new UnsupportedOperationException(this.getType() + " is not pipelined");
+    }
+
     /**
      * Utility method that checks to see if a column is found in a schema using dot notation.
      *
@@ -154,8 +241,16 @@ public abstract class QueryOperator implements Iterable<Record> {
         return "type: " + this.getType();
     }
 
+    /**
+     * Returns str(), and under EXPLAIN ANALYZE, the estimates of this
+     * operator next to what it actually did (see OperatorMetrics).
+     */
+    String describe() {
+        return this.metrics == null ? this.str() : this.str() + "\n" + this.metrics.describe(this);
+    }
+
     public String toString() {
-        String r = this.str();
+        String r = this.describe();
         if (this.source != null) {
             r += "\n" + this.source.toString().replaceAll("(?m)^", "\t");
         }
@@ -174,13 +269,36 @@ public abstract class QueryOperator implements Iterable<Record> {
      *
      * @return estimated number of IO's performed
      */
-    public abstract int estimateIOCost();
+    public abstract long estimateIOCost();
+
+    /**
+     * Estimates the cost of executing this query operator alone, without its
+     * source(s) (see getCost). By default, its IOs (see estimateIOCost, which
+     * includes those of the source) are sequential, and every record of the
+     * source (or of the table, without one) is processed once.
+     */
+    protected Cost estimateLocalCost() {
+        if (this.source == null) {
+            return new Cost(this.getIOCost(), 0, this.getStats().getNumRecords());
+        }
+        return new Cost(Math.max(this.getIOCost() - this.source.getIOCost(), 0), 0,
+                        this.source.getStats().getNumRecords());
+    }
+
+    /**
+     * Estimates the cost of executing this query operator and its source(s),
+     * in sequential IOs, random IOs and records processed (see Cost).
+     */
+    public Cost getCost() {
+        Cost cost = this.estimateLocalCost();
+        return this.source == null ? cost : cost.plus(this.source.getCost());
+    }
 
     public TableStats getStats() {
         return this.stats;
     }
 
-    public int getIOCost() {
+    public long getIOCost() {
         return this.cost;
     }
 }
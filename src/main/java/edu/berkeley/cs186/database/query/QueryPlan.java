@@ -5,8 +5,11 @@ import java.util.*;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.index.Index;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 
 /**
  * QueryPlan provides a set of functions to generate simple queries. Calling the methods corresponding
@@ -14,6 +17,13 @@ import edu.berkeley.cs186.database.table.Schema;
  * a QueryPlan DAG.
  */
 public class QueryPlan {
+    // Buckets of the histograms of the temp tables of adaptive joins.
+    private static final int ADAPTIVE_HISTOGRAM_BUCKETS = 10;
+    // A join filters its larger input by its smaller one only if the smaller
+    // one is estimated to return at most this fraction of the records of
+    // the larger one (see pushDownJoinFilters).
+    private static final double JOIN_FILTER_MAX_RATIO = 0.5;
+
     private TransactionContext transaction;
     private QueryOperator finalOperator;
     private String startTableName;
@@ -24,12 +34,36 @@ public class QueryPlan {
     private List<String> selectColumnNames;
     private List<PredicateOperator> selectOperators;
     private List<DataBox> selectDataBoxes;
+    // The selects whose values are parameters of the query, in the order
+    // they are bound (see selectParameter).
+    private List<Integer> parameters;
+    // The select (by index into the select lists) that each select and index
+    // scan operator made for the query applies, so that a cached plan can be
+    // rebuilt with other values (see instantiate).
+    private Map<QueryOperator, Integer> selectIndices;
     private List<String> projectColumns;
     private Map<String, String> aliases;
     private String groupByColumn;
-    private boolean hasCount;
-    private String averageColumnName;
-    private String sumColumnName;
+    // The aggregates to compute, in order, and the columns they aggregate
+    // (null for COUNT). See aggregate().
+    private List<AggregateFunction> aggregateFunctions;
+    private List<String> aggregateColumnNames;
+    private String orderByColumn;
+    private boolean orderByAscending;
+    // -1 if there is no limit
+    private int limit;
+    // The cost of a random page read, in sequential ones, when comparing
+    // plans (see Cost::ordering).
+    private double randomPageCost;
+    // Above this many tables, joins are ordered greedily (see JoinEnumerator).
+    private int greedyThreshold;
+    // The factor by which the records of a table access must be off from
+    // the estimate for the joins to be planned again (see adaptJoins), or -1
+    // if they are never planned again.
+    private double replanThreshold;
+    // Whether the larger input of each join is filtered by the join values
+    // of the smaller one (see pushDownJoinFilters).
+    private boolean joinFilterPushdown;
 
     /**
      * Creates a new QueryPlan within transaction. The base table is startTableName.
@@ -62,16 +96,25 @@ public class QueryPlan {
         this.selectColumnNames = new ArrayList<>();
         this.selectOperators = new ArrayList<>();
         this.selectDataBoxes = new ArrayList<>();
+        this.parameters = new ArrayList<>();
+        this.selectIndices = new IdentityHashMap<>();
 
         this.aliases = new HashMap<>();
         this.aliases.put(aliasTableName, startTableName);
 
-        this.hasCount = false;
-        this.averageColumnName = null;
-        this.sumColumnName = null;
+        this.aggregateFunctions = new ArrayList<>();
+        this.aggregateColumnNames = new ArrayList<>();
 
         this.groupByColumn = null;
 
+        this.orderByColumn = null;
+        this.orderByAscending = true;
+        this.limit = -1;
+        this.randomPageCost = Cost.SEQ_PAGE_COST;
+        this.greedyThreshold = JoinEnumerator.DEFAULT_GREEDY_THRESHOLD;
+        this.replanThreshold = -1;
+        this.joinFilterPushdown = false;
+
         this.finalOperator = null;
 
         this.transaction.setAliasMap(this.aliases);
@@ -114,6 +157,19 @@ public class QueryPlan {
         this.selectDataBoxes.add(value);
     }
 
+    /**
+     * Add a select operator on a parameter of the query, whose value is only
+     * bound when the query is run (see execute(List)). Parameters are bound
+     * in the order they were added.
+     *
+     * @param column the column to specify the predicate on
+     * @param comparison the comparator
+     */
+    public void selectParameter(String column, PredicateOperator comparison) {
+        this.parameters.add(this.selectColumnNames.size());
+        this.select(column, comparison, null);
+    }
+
     /**
      * Set the group by column for this query.
      *
@@ -123,29 +179,168 @@ public class QueryPlan {
         this.groupByColumn = column;
     }
 
+    /**
+     * Order the records of this query by column, in ascending order. The
+     * column can be any column of the records before projection, including
+     * the aggregates of a GROUP BY (e.g. countAgg).
+     *
+     * @param column the column to order by
+     */
+    public void orderBy(String column) {
+        this.orderBy(column, true);
+    }
+
+    /**
+     * Order the records of this query by column.
+     *
+     * @param column the column to order by
+     * @param ascending whether the smallest value of column comes first
+     */
+    public void orderBy(String column, boolean ascending) {
+        this.orderByColumn = column;
+        this.orderByAscending = ascending;
+    }
+
+    /**
+     * Only return the first n records of this query (in the order of
+     * orderBy, if any).
+     *
+     * @param n the maximum number of records to return
+     */
+    public void limit(int n) {
+        if (n < 0) {
+            throw new QueryPlanException("Cannot limit a query to a negative number of records.");
+        }
+        this.limit = n;
+    }
+
+    /**
+     * Sets the cost of a random page read, relative to a sequential one, that
+     * plans are compared with. By default, every IO costs the same, e.g. for
+     * an SSD; Cost.RANDOM_PAGE_COST models a spinning disk, on which index
+     * scans and index nested loop joins must read several times fewer pages
+     * than scans to win.
+     *
+     * @param randomPageCost the cost of a random page read
+     */
+    public void setRandomPageCost(double randomPageCost) {
+        if (randomPageCost < 0) {
+            throw new QueryPlanException("The cost of a random page read cannot be negative.");
+        }
+        this.randomPageCost = randomPageCost;
+    }
+
+    /**
+     * Sets the most tables that are joined by an exhaustive search of the
+     * join orders (see JoinEnumerator). The search finds the cheapest plan,
+     * but its work grows exponentially with the tables; with more tables,
+     * the cheapest join of two plans is made until all tables are joined.
+     *
+     * @param numTables the most tables to join exhaustively
+     */
+    public void setGreedyThreshold(int numTables) {
+        if (numTables < 0) {
+            throw new QueryPlanException("Cannot join a negative number of tables exhaustively.");
+        }
+        this.greedyThreshold = numTables;
+    }
+
+    /**
+     * Makes the joins of the query adaptive: before they run, the accesses
+     * of the tables with selections are run into temp tables, and if the
+     * records of any of them are more than ratio times more or fewer than
+     * estimated, the joins are planned again with the actual records (see
+     * adaptJoins). This costs writing the selected records out, and saves
+     * e.g. a nested loop join over a selection that was estimated to return
+     * a handful of records but returns most of its table.
+     *
+     * @param ratio how far off an estimate may be before the joins are planned again
+     */
+    public void setReplanThreshold(double ratio) {
+        if (ratio < 1) {
+            throw new QueryPlanException("Estimates cannot be off by a factor of less than 1.");
+        }
+        this.replanThreshold = ratio;
+    }
+
+    /**
+     * Filters the larger input of each join of the query by the values of
+     * the join column in the smaller one, if the smaller one is estimated to
+     * return at most JOIN_FILTER_MAX_RATIO times as many records (see
+     * pushDownJoinFilters). The filter is pushed down to
+     * the access of the table of the join column, below the other joins of
+     * the larger input, so that the records it drops are never joined,
+     * materialized or partitioned. This costs running the smaller input
+     * before the join (into a temp table, unless it reads a single table),
+     * and saves e.g. reading most of a large table through several joins
+     * when a selection leaves a few records of a small one.
+     *
+     * @param enabled whether join filters are pushed down
+     */
+    public void setJoinFilterPushdown(boolean enabled) {
+        this.joinFilterPushdown = enabled;
+    }
+
     /**
      * Add a count aggregate to this query. Only can specify count(*).
      */
     public void count() {
-        this.hasCount = true;
+        this.aggregate(AggregateFunction.COUNT, null);
+    }
+
+    /**
+     * Add a count of the distinct values of column.
+     *
+     * @param column the column whose distinct values to count
+     */
+    public void countDistinct(String column) {
+        this.aggregate(AggregateFunction.COUNT_DISTINCT, column);
     }
 
     /**
-     * Add an average on column. Can only average over integer or float columns.
+     * Add an average on column. Can only average over numeric columns.
      *
      * @param column the column to average
      */
     public void average(String column) {
-        this.averageColumnName = column;
+        this.aggregate(AggregateFunction.AVERAGE, column);
     }
 
     /**
-     * Add a sum on column. Can only sum integer or float columns
+     * Add a sum on column. Can only sum numeric columns
      *
      * @param column the column to sum
      */
     public void sum(String column) {
-        this.sumColumnName = column;
+        this.aggregate(AggregateFunction.SUM, column);
+    }
+
+    /**
+     * Add a minimum of column.
+     *
+     * @param column the column to take the minimum of
+     */
+    public void min(String column) {
+        this.aggregate(AggregateFunction.MIN, column);
+    }
+
+    /**
+     * Add a maximum of column.
+     *
+     * @param column the column to take the maximum of
+     */
+    public void max(String column) {
+        this.aggregate(AggregateFunction.MAX, column);
+    }
+
+    /**
+     * Adds an aggregate to the query. Any number of aggregates can be added,
+     * and all of them are computed in a single pass over the input. They are
+     * returned after the projected columns, in the order they were added.
+     */
+    private void aggregate(AggregateFunction function, String column) {
+        this.aggregateFunctions.add(function);
+        this.aggregateColumnNames.add(column);
     }
 
     /**
@@ -193,11 +388,13 @@ public class QueryPlan {
 
     /**
      * Generates a naive QueryPlan in which all joins are at the bottom of the DAG followed by all select
-     * predicates, an optional group by operator, and a set of projects (in that order).
+     * predicates, an optional group by operator, an optional order by and limit, and a set of projects
+     * (in that order).
      *
      * @return an iterator of records that is the result of this query
      */
     public Iterator<Record> executeNaive() {
+        this.checkNoParameters();
         this.transaction.setAliasMap(this.aliases);
         try {
             String indexColumn = this.checkIndexEligible();
@@ -211,6 +408,7 @@ public class QueryPlan {
                 this.addJoins();
                 this.addSelects();
                 this.addGroupBy();
+                this.addOrderByAndLimit();
                 this.addProjects();
             }
 
@@ -226,42 +424,395 @@ public class QueryPlan {
      * @return an iterator of records that is the result of this query
      */
     public Iterator<Record> execute() {
+        this.checkNoParameters();
+        this.finalOperator = this.pushDownJoinFilters(this.adaptJoins(this.minCostJoins()));
+        this.finish();
+        return this.finalOperator.execute();
+    }
+
+    /**
+     * Runs the query to the end, as execute() would, and returns its plan
+     * (see QueryOperator::toString) with the estimates of each operator next
+     * to what it actually did: the records it returned, and the time, page
+     * fetches, IOs and temp pages it took (see OperatorMetrics).
+     *
+     * @return the plan of this query, with the metrics of its operators
+     */
+    public String explainAnalyze() {
+        this.checkNoParameters();
+        this.finalOperator = this.pushDownJoinFilters(this.adaptJoins(this.minCostJoins()));
+        this.finish();
+        this.addMetrics(this.finalOperator);
+        Iterator<Record> records = this.finalOperator.execute();
+        while (records.hasNext()) {
+            records.next();
+        }
+        return this.finalOperator.toString();
+    }
+
+    private void addMetrics(QueryOperator operator) {
+        operator.setMetrics(new OperatorMetrics(this.transaction.getBufferManager()));
+        for (QueryOperator source : operator.getSources()) {
+            this.addMetrics(source);
+        }
+    }
+
+    /**
+     * Runs the query as a prepared statement: binds parameters to the
+     * parameters of the query (see selectParameter), in order, and runs the
+     * plan cached for queries of its shape (see PlanCache), if there is an up
+     * to date one. Otherwise, the query is planned as by execute(), and the
+     * plan is cached for the next time, which skips the search of access
+     * paths and join orders. A cache hit does not skip estimation: the
+     * operators of the cached plan are built again for the values bound, and
+     * their constructors estimate their statistics and IO cost, as
+     * adaptJoins and join filters use them. The plan of a query with
+     * parameters is chosen without knowing their values: the selectivity of
+     * their predicates is estimated from the value bound the first time.
+     *
+     * @param parameters the values of the parameters of the query
+     * @return an iterator of records that is the result of this query
+     */
+    public Iterator<Record> execute(List<DataBox> parameters) {
+        if (parameters.size() != this.parameters.size()) {
+            throw new QueryPlanException("Query has " + this.parameters.size() + " parameters, but " +
+                                         parameters.size() + " values were given.");
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            this.selectDataBoxes.set(this.parameters.get(i), parameters.get(i));
+        }
+
+        PlanCache cache = this.transaction.getPlanCache();
+        String shape = this.shape();
+        PlanCache.CachedPlan cachedPlan = cache.get(shape, this.transaction);
+        if (cachedPlan != null) {
+            this.finalOperator = this.instantiate(cachedPlan.plan, cachedPlan.selectIndices);
+        } else {
+            this.finalOperator = this.minCostJoins();
+            cache.put(shape, new PlanCache.CachedPlan(this.finalOperator, new IdentityHashMap<>(this.selectIndices),
+                      new HashSet<>(this.aliases.values()), this.transaction));
+        }
+        this.finalOperator = this.pushDownJoinFilters(this.adaptJoins(this.finalOperator));
+        this.finish();
+        return this.finalOperator.execute();
+    }
+
+    private void checkNoParameters() {
+        if (!this.parameters.isEmpty()) {
+            throw new QueryPlanException("Cannot run a query with parameters without values for them.");
+        }
+    }
+
+    /**
+     * Returns the cheapest plan of the accesses and joins of the tables of
+     * the query.
+     */
+    private QueryOperator minCostJoins() {
+        return this.minCostJoins(Collections.emptyMap());
+    }
+
+    /**
+     * Same as minCostJoins(), except that the tables in accesses are read
+     * with the given operators.
+     */
+    private QueryOperator minCostJoins(Map<String, QueryOperator> accesses) {
 
         // Pass 1: Iterate through all single tables. For each single table, find
-        // the lowest cost QueryOperator to access that table. Construct a mapping
-        // of each table name to its lowest cost operator.
+        // the lowest cost QueryOperator to access that table, and the ordered
+        // index scans of the table that may save a sort later on.
 
-        // Pass i: On each pass, use the results from the previous pass to find the
-        // lowest cost joins with each single table. Repeat until all tables have
-        // been joined.
+        // Pass i: Use the results of pass 1 to find the lowest cost joins of
+        // each connected set of tables, until all tables have been joined
+        // (see JoinEnumerator).
 
         //(Next line edited by Hans, "select operators"->"Project".)
         // Get the lowest cost operator from the last pass, add GROUP BY and Project,
         // and return an iterator on the final operator
 
-        Map<Set, QueryOperator> p1Map = new HashMap<>();
-        // put the first table to p1Map.
-        Set<Object> firstSet = new HashSet<>();
-        firstSet.add(this.startTableName);
-        p1Map.put(firstSet, minCostSingleAccess(this.startTableName));
-
-        // put the rest of the tables to p1Map.
-        for (String t : this.joinTableNames) {
-            Set<Object> someSet = new HashSet<>();
-            someSet.add(t);
-            p1Map.put(someSet, minCostSingleAccess(t));
+        this.selectIndices.clear();
+        JoinEnumerator enumerator = new JoinEnumerator(this.transaction, Cost.ordering(this.randomPageCost),
+                this.interestingOrders());
+        List<String> tableNames = new ArrayList<>();
+        tableNames.add(this.startTableName);
+        tableNames.addAll(this.joinTableNames);
+        for (String t : tableNames) {
+            if (accesses.containsKey(t)) {
+                enumerator.addTable(t, accesses.get(t), Collections.emptyList());
+            } else {
+                enumerator.addTable(t, minCostSingleAccess(t), orderedAccesses(t));
+            }
         }
-
-        Map<Set, QueryOperator> execMap = p1Map;
-        while (execMap.size() > 1) {
-            execMap = minCostJoins(execMap, p1Map);
+        for (int i = 0; i < this.joinTableNames.size(); i++) {
+            String[] leftColNTabName = getJoinLeftColumnNameByIndex(i);
+            String[] rightColNTabName = getJoinRightColumnNameByIndex(i);
+            enumerator.addJoin(leftColNTabName[0], leftColNTabName[leftColNTabName.length - 1],
+                               rightColNTabName[0], rightColNTabName[rightColNTabName.length - 1]);
         }
-        this.finalOperator = minCostOperator(execMap);
 
+        return minCostOperator(enumerator.enumerate(this.greedyThreshold));
+    }
+
+    private void finish() {
+        this.refreshStaleStatistics();
+
+        this.addExchange();
         this.addGroupBy();
+        this.addOrderByAndLimit();
         this.addProjects();
+    }
 
-        return this.finalOperator.execute();
+    /**
+     * Runs the accesses of the tables of plan that have selections, whose
+     * estimates are the least reliable, into temp tables (see
+     * MaterializeOperator), which are analyzed as they are written. If the
+     * records of any of them are off from the estimate by more than
+     * replanThreshold (see setReplanThreshold), the joins are planned again
+     * over the temp tables, whose statistics are exact; otherwise plan reads
+     * the temp tables instead of running the accesses again. The right
+     * input of an index nested loop join is looked up in the index of its
+     * table rather than read, so it is left as it is.
+     *
+     * @return a plan of the joins of the query, or plan if the query is not
+     * adaptive or has no joins
+     */
+    private QueryOperator adaptJoins(QueryOperator plan) {
+        if (this.replanThreshold == -1 || this.joinTableNames.isEmpty()) {
+            return plan;
+        }
+        List<QueryOperator> accesses = new ArrayList<>();
+        this.collectAccesses(plan, accesses);
+
+        Map<QueryOperator, QueryOperator> materialized = new IdentityHashMap<>();
+        Map<String, QueryOperator> tables = new HashMap<>();
+        boolean replan = false;
+        for (QueryOperator access : accesses) {
+            QueryOperator temp = new MaterializeOperator(access, this.transaction, ADAPTIVE_HISTOGRAM_BUCKETS);
+            materialized.put(access, temp);
+            tables.put(JoinOperator.getBaseTableName(access), temp);
+            long estimated = access.getStats().getNumRecords();
+            long actual = temp.getStats().getNumRecords();
+            replan |= Math.max(estimated, actual) + 1 > this.replanThreshold * (Math.min(estimated, actual) + 1);
+        }
+        return replan ? this.minCostJoins(tables) : this.replaceAccesses(plan, materialized);
+    }
+
+    // Adds the accesses of tables below the joins of plan that have
+    // selections, except for the right inputs of index nested loop joins, to
+    // accesses.
+    private void collectAccesses(QueryOperator plan, List<QueryOperator> accesses) {
+        if (plan.isJoin()) {
+            JoinOperator join = (JoinOperator) plan;
+            this.collectAccesses(join.getLeftSource(), accesses);
+            if (join.getJoinType() != JoinOperator.JoinType.INLJ) {
+                this.collectAccesses(join.getRightSource(), accesses);
+            }
+        } else if (!plan.isSequentialScan()) {
+            accesses.add(plan);
+        }
+    }
+
+    // Returns plan, with the joins above the accesses in replacements built
+    // again over their replacements.
+    private QueryOperator replaceAccesses(QueryOperator plan, Map<QueryOperator, QueryOperator> replacements) {
+        if (replacements.containsKey(plan)) {
+            return replacements.get(plan);
+        }
+        if (!plan.isJoin()) {
+            return plan;
+        }
+        JoinOperator join = (JoinOperator) plan;
+        QueryOperator left = this.replaceAccesses(join.getLeftSource(), replacements);
+        QueryOperator right = this.replaceAccesses(join.getRightSource(), replacements);
+        if (left == join.getLeftSource() && right == join.getRightSource()) {
+            return plan;
+        }
+        return this.rebuildJoin(join, left, right);
+    }
+
+    /**
+     * Filters the larger input of every join of plan by the values of the
+     * join column in the smaller one (a semi-join reduction), if the smaller
+     * one is estimated to return at most JOIN_FILTER_MAX_RATIO times the
+     * records of the larger one (see setJoinFilterPushdown). The smaller
+     * input is run first, to collect its values into a JoinKeyFilter; unless
+     * it reads a single table, it is run into a temp table, which the join
+     * then reads. The filter goes down the larger input to the operator that
+     * first has the join column (see addJoinFilter). The right input of an
+     * index nested loop join is looked up in the index of its table rather
+     * than read, so such joins are left as they are.
+     *
+     * @return plan, with join filters if they are pushed down
+     */
+    private QueryOperator pushDownJoinFilters(QueryOperator plan) {
+        if (!this.joinFilterPushdown || !plan.isJoin()) {
+            return plan;
+        }
+        JoinOperator join = (JoinOperator) plan;
+        QueryOperator left = this.pushDownJoinFilters(join.getLeftSource());
+        QueryOperator right = this.pushDownJoinFilters(join.getRightSource());
+        String leftColumn = join.getLeftSource().getOutputSchema().getFieldNames().get(join.getLeftColumnIndex());
+        String rightColumn = join.getRightSource().getOutputSchema().getFieldNames().get(join.getRightColumnIndex());
+        Type leftType = join.getLeftSource().getOutputSchema().getFieldTypes().get(join.getLeftColumnIndex());
+        Type rightType = join.getRightSource().getOutputSchema().getFieldTypes().get(join.getRightColumnIndex());
+        if (join.getJoinType() != JoinOperator.JoinType.INLJ && leftType.equals(rightType)) {
+            long leftRecords = left.getStats().getNumRecords();
+            long rightRecords = right.getStats().getNumRecords();
+            if (leftRecords < rightRecords && leftRecords <= JOIN_FILTER_MAX_RATIO * rightRecords) {
+                left = this.readOnce(left);
+                right = this.addJoinFilter(right, rightColumn, this.buildJoinFilter(left, leftColumn));
+            } else if (rightRecords < leftRecords && rightRecords <= JOIN_FILTER_MAX_RATIO * leftRecords) {
+                right = this.readOnce(right);
+                left = this.addJoinFilter(left, leftColumn, this.buildJoinFilter(right, rightColumn));
+            }
+        }
+        if (left == join.getLeftSource() && right == join.getRightSource()) {
+            return plan;
+        }
+        return this.rebuildJoin(join, left, right);
+    }
+
+    // Returns input, or a temp table of its records if running it again
+    // would do more than read a single table.
+    private QueryOperator readOnce(QueryOperator input) {
+        if (JoinOperator.getBaseTableName(input) != null ||
+                input.getType() == QueryOperator.OperatorType.MATERIALIZE) {
+            return input;
+        }
+        return new MaterializeOperator(input, this.transaction);
+    }
+
+    // Returns a filter of the values of columnName in the records of input.
+    private JoinKeyFilter buildJoinFilter(QueryOperator input, String columnName) {
+        int columnIndex = input.getOutputSchema().getFieldNames().indexOf(columnName);
+        JoinKeyFilter filter = new JoinKeyFilter(input.getStats().getNumRecords());
+        Iterator<Record> records = input.records();
+        while (records.hasNext()) {
+            filter.add(records.next().getValues().get(columnIndex));
+        }
+        return filter;
+    }
+
+    /**
+     * Returns plan, with filter applied to columnName by the operator that
+     * first has the column: joins are rebuilt over the input the column
+     * comes from, down to the access of its table, or to the right input of
+     * an index nested loop join, above which the filter goes instead.
+     */
+    private QueryOperator addJoinFilter(QueryOperator plan, String columnName, JoinKeyFilter filter) {
+        if (plan.isJoin()) {
+            JoinOperator join = (JoinOperator) plan;
+            if (join.getLeftSource().getOutputSchema().getFieldNames().contains(columnName)) {
+                return this.rebuildJoin(join, this.addJoinFilter(join.getLeftSource(), columnName, filter),
+                                        join.getRightSource());
+            }
+            if (join.getJoinType() != JoinOperator.JoinType.INLJ) {
+                return this.rebuildJoin(join, join.getLeftSource(),
+                                        this.addJoinFilter(join.getRightSource(), columnName, filter));
+            }
+        }
+        return new JoinFilterOperator(plan, columnName, filter);
+    }
+
+    /**
+     * Returns the shape of the query: everything about it that the
+     * optimizer looks at, except for the values bound to its parameters.
+     * Queries of the same shape share their plan (see PlanCache).
+     */
+    private String shape() {
+        StringBuilder shape = new StringBuilder();
+        shape.append("FROM ").append(this.aliases.get(this.startTableName)).append(" AS ")
+             .append(this.startTableName);
+        for (int i = 0; i < this.joinTableNames.size(); i++) {
+            String alias = this.joinTableNames.get(i);
+            shape.append(" JOIN ").append(this.aliases.get(alias)).append(" AS ").append(alias)
+                 .append(" ON ").append(this.joinLeftColumnNames.get(i))
+                 .append(" = ").append(this.joinRightColumnNames.get(i));
+        }
+        for (int i = 0; i < this.selectColumnNames.size(); i++) {
+            shape.append(i == 0 ? " WHERE " : " AND ").append(this.selectColumnNames.get(i))
+                 .append(' ').append(this.selectOperators.get(i)).append(' ')
+                 .append(this.parameters.contains(i) ? "?" : this.selectDataBoxes.get(i));
+        }
+        if (this.groupByColumn != null) {
+            shape.append(" GROUP BY ").append(this.groupByColumn);
+        }
+        for (int i = 0; i < this.aggregateFunctions.size(); i++) {
+            shape.append(" AGGREGATE ").append(this.aggregateFunctions.get(i))
+                 .append('(').append(this.aggregateColumnNames.get(i)).append(')');
+        }
+        if (this.orderByColumn != null) {
+            shape.append(" ORDER BY ").append(this.orderByColumn).append(this.orderByAscending ? " ASC" : " DESC");
+        }
+        shape.append(" LIMIT ").append(this.limit)
+             .append(" PROJECT ").append(this.projectColumns)
+             .append(" RANDOM PAGE COST ").append(this.randomPageCost)
+             .append(" GREEDY THRESHOLD ").append(this.greedyThreshold)
+             .append(" WORK MEM ").append(this.transaction.getWorkMemSize())
+             .append(" WORKERS ").append(this.transaction.getDegreeOfParallelism());
+        return shape.toString();
+    }
+
+    /**
+     * Builds the operators of plan, a plan of the accesses and joins of a
+     * query of the same shape as this one (see PlanCache), within the
+     * transaction of this query and with the values of its selects.
+     * selectIndices maps the select and index scan operators of plan to the
+     * selects they apply. Each operator built estimates its statistics and
+     * IO cost again, for the values bound now; only the plan search is saved.
+     */
+    private QueryOperator instantiate(QueryOperator plan, Map<QueryOperator, Integer> selectIndices) {
+        if (plan.isSequentialScan()) {
+            return new SequentialScanOperator(this.transaction, ((SequentialScanOperator) plan).getTableName());
+        }
+        if (plan.isIndexScan()) {
+            IndexScanOperator indexScan = (IndexScanOperator) plan;
+            int i = selectIndices.get(plan);
+            QueryOperator op = new IndexScanOperator(this.transaction, indexScan.getTableName(),
+                    this.selectColumnNames.get(i), this.selectOperators.get(i), this.selectDataBoxes.get(i),
+                    indexScan.isOrdered());
+            this.selectIndices.put(op, i);
+            return op;
+        }
+        if (plan.isSelect()) {
+            int i = selectIndices.get(plan);
+            QueryOperator source = this.instantiate(plan.getSource(), selectIndices);
+            QueryOperator op = new SelectOperator(source, this.selectColumnNames.get(i),
+                                                  this.selectOperators.get(i), this.selectDataBoxes.get(i));
+            this.selectIndices.put(op, i);
+            return op;
+        }
+        if (!plan.isJoin()) {
+            throw new QueryPlanException("Cannot rebuild a plan with a " + plan.getType() + " operator.");
+        }
+        JoinOperator join = (JoinOperator) plan;
+        return this.rebuildJoin(join, this.instantiate(join.getLeftSource(), selectIndices),
+                                this.instantiate(join.getRightSource(), selectIndices));
+    }
+
+    /**
+     * Returns a join of the same type and columns as join, within the
+     * transaction of this query, of left and right.
+     */
+    private QueryOperator rebuildJoin(JoinOperator join, QueryOperator left, QueryOperator right) {
+        String leftColumn = join.getLeftColumnName();
+        String rightColumn = join.getRightColumnName();
+        switch (join.getJoinType()) {
+        case SNLJ:
+            return new SNLJOperator(left, right, leftColumn, rightColumn, this.transaction);
+        case PNLJ:
+            return new PNLJOperator(left, right, leftColumn, rightColumn, this.transaction);
+        case BNLJ:
+            return new BNLJOperator(left, right, leftColumn, rightColumn, this.transaction);
+        case SORTMERGE:
+            return new SortMergeOperator(left, right, leftColumn, rightColumn, this.transaction);
+        case INLJ:
+            return new INLJOperator(left, right, leftColumn, rightColumn, this.transaction);
+        case GHJ:
+            return new GHJOperator(left, right, leftColumn, rightColumn, this.transaction,
+                                   ((GHJOperator) join).isHybrid());
+        default:
+            throw new QueryPlanException("Cannot rebuild a " + join.getJoinType() + " join.");
+        }
     }
 
     /**
@@ -276,8 +827,7 @@ public class QueryPlan {
         for (int i = 0; i < this.selectColumnNames.size(); i++) {
             String column = this.selectColumnNames.get(i);
 
-            if (this.transaction.indexExists(table, column) &&
-                    this.selectOperators.get(i) != PredicateOperator.NOT_EQUALS) {
+            if (isIndexEligible(table, column, this.selectOperators.get(i))) {
                 selectIndices.add(i);
             }
         }
@@ -285,6 +835,20 @@ public class QueryPlan {
         return selectIndices;
     }
 
+    /**
+     * Returns whether an index scan over table.column can answer a SELECT
+     * predicate with the given operator: there must be an index on the column,
+     * and unless the predicate is an equality, the index must be ordered
+     * (i.e. a B+ tree rather than a hash index).
+     */
+    private boolean isIndexEligible(String table, String column, PredicateOperator operator) {
+        if (!this.transaction.indexExists(table, column) || operator == PredicateOperator.NOT_EQUALS) {
+            return false;
+        }
+        return operator == PredicateOperator.EQUALS ||
+               this.transaction.getIndexKind(table, column) == Index.Kind.BPLUS_TREE;
+    }
+
     /**
      * Gets all columns for which there exists an index for that table
      *
@@ -326,6 +890,7 @@ public class QueryPlan {
             try {
                 String colName = source.checkSchemaForColumn(source.getOutputSchema(), selectColumnNames.get(i));
                 source = new SelectOperator(source, colName, curPred, curValue);
+                this.selectIndices.put(source, i);
             } catch (QueryPlanException err) {
                 /* do nothing */
             }
@@ -361,18 +926,21 @@ public class QueryPlan {
         // 3. Push down SELECT predicates that apply to this table and that were not
         // used for an index scan
 
-        int minCost;
+        Comparator<Cost> ordering = Cost.ordering(this.randomPageCost);
+        Cost minCost;
         int indexScaned = -999;
 
         minOp = new SequentialScanOperator(this.transaction, table);
-        minCost = minOp.getIOCost();
+        minCost = minOp.getCost();
 
         List<Integer> allEligIndexCol = getEligibleIndexColumns(table);
         for (Integer index : allEligIndexCol) {
+            // nothing above a single access relies on the order of its output
             QueryOperator tempOp = new IndexScanOperator(this.transaction, table, this.selectColumnNames.get(index),
-                    this.selectOperators.get(index), this.selectDataBoxes.get(index));
-            int tempCost = tempOp.getIOCost();
-            if (tempCost < minCost) {
+                    this.selectOperators.get(index), this.selectDataBoxes.get(index), false);
+            this.selectIndices.put(tempOp, index);
+            Cost tempCost = tempOp.getCost();
+            if (ordering.compare(tempCost, minCost) < 0) {
                 indexScaned = index;
                 minOp = tempOp;
                 minCost = tempCost;
@@ -386,133 +954,71 @@ public class QueryPlan {
     }
 
     /**
-     * Given a join condition between an outer relation represented by leftOp
-     * and an inner relation represented by rightOp, find the lowest cost join
-     * operator out of all the possible join types in JoinOperator.JoinType.
-     *
-     * @return lowest cost join QueryOperator between the input operators
+     * Returns the ordered index scans of table that return its records in
+     * order of an interesting column, with the eligible selections pushed
+     * down. Index scans of an equality are ordered anyway, and chosen on
+     * their cost alone by minCostSingleAccess.
      */
-    private QueryOperator minCostJoinType(QueryOperator leftOp,
-                                          QueryOperator rightOp,
-                                          String leftColumn,
-                                          String rightColumn) {
-        QueryOperator minOp = null;
-
-        int minCost = Integer.MAX_VALUE;
-        List<QueryOperator> allJoins = new ArrayList<>();
-        allJoins.add(new SNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
-        allJoins.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
-
-        for (QueryOperator join : allJoins) {
-            int joinCost = join.estimateIOCost();
-            if (joinCost < minCost) {
-                minOp = join;
-                minCost = joinCost;
+    private List<QueryOperator> orderedAccesses(String table) {
+        List<QueryOperator> accesses = new ArrayList<>();
+        List<String> interestingOrders = this.interestingOrders();
+        for (Integer index : getEligibleIndexColumns(table)) {
+            String column = this.selectColumnNames.get(index);
+            if (this.selectOperators.get(index) == PredicateOperator.EQUALS) {
+                continue;
+            }
+            QueryOperator indexScan = new IndexScanOperator(this.transaction, table, column,
+                    this.selectOperators.get(index), this.selectDataBoxes.get(index), true);
+            this.selectIndices.put(indexScan, index);
+            for (String order : interestingOrders) {
+                if (indexScan.isSortedOn(order)) {
+                    accesses.add(addEligibleSelections(indexScan, index));
+                    break;
+                }
             }
         }
-        return minOp;
+        return accesses;
     }
 
     /**
-     * Iterate through all table sets in the previous pass of the search. For each
-     * table set, check each join predicate to see if there is a valid join
-     * condition with a new table. If so, check the cost of each type of join and
-     * keep the minimum cost join. Construct and return a mapping of each set of
-     * table names being joined to its lowest cost join operator. A join predicate
-     * is represented as elements of this.joinTableNames, this.joinLeftColumnNames,
-     * and this.joinRightColumnNames that correspond to the same index of these lists.
-     *
-     * @return a mapping of table names to a join QueryOperator
+     * Returns the columns whose order is interesting: the columns of the
+     * joins, which a sort-merge join merges without sorting the side that is
+     * in order already, the GROUP BY column, and the ORDER BY column if the
+     * order is ascending.
      */
-    Map<Set, QueryOperator> minCostJoins(Map<Set, QueryOperator> prevMap,
-                                         Map<Set, QueryOperator> pass1Map) {
-        Map<Set, QueryOperator> map = new HashMap<>();
-
-        //We provide a basic description of the logic you have to implement
-
-        //Input: prevMap (maps a set of tables to a query operator--the operator that joins the set)
-        //Input: pass1Map (each set is a singleton with one table and single table access query operator)
-
-        //FOR EACH set of tables in prevMap:
-
-        //FOR EACH join condition listed in the query
-
-        //get the left side and the right side (table name and column)
-
-        /*
-         * Case 1. Set contains left table but not right, use pass1Map to
-         * fetch the right operator to access the rightTable
-         *
-         * Case 2. Set contains right table but not left, use pass1Map to
-         * fetch the right operator to access the leftTable.
-         *
-         * Case 3. Set contains neither or both the left table or right table (continue loop)
-         *
-         * --- Then given the operator, use minCostJoinType to calculate the cheapest join with that
-         * and the previously joined tables.
-         */
-
-
-        for (Set<Object> tables : prevMap.keySet()) {
-
-            for (int i=0; i < joinTableNames.size(); i++) {
-                QueryOperator tempOp;
-                String[] leftColNTabName = getJoinLeftColumnNameByIndex(i);
-                String[] rightColNTabName = getJoinRightColumnNameByIndex(i);
-                Set<Object> newTableSet = new HashSet<>();
-
-                if (tables.contains(leftColNTabName[0]) && !tables.contains(rightColNTabName[0])) {
-                    Set<Object> someSet = new HashSet<>();
-                    someSet.add(rightColNTabName[0]);
-                    tempOp = minCostJoinType(prevMap.get(tables),
-                            pass1Map.get(someSet), leftColNTabName[1], rightColNTabName[1]);
-                    newTableSet.addAll(tables);
-                    newTableSet.add(rightColNTabName[0]);
-
-                } else if (!tables.contains(leftColNTabName[0]) && tables.contains(rightColNTabName[0])) {
-                    Set<Object> someSet = new HashSet<>();
-                    someSet.add(leftColNTabName[0]);
-                    tempOp = minCostJoinType(pass1Map.get(someSet),
-                            prevMap.get(tables), leftColNTabName[1], rightColNTabName[1]);
-                    newTableSet.addAll(tables);
-                    newTableSet.add(leftColNTabName[0]);
-
-                } else {
-                    continue;
-                }
-                int tempCost = tempOp.getIOCost();
-                if (!map.keySet().contains(newTableSet)) {
-                    map.put(newTableSet, tempOp);
-                } else {
-                    int minCost = map.get(newTableSet).getIOCost();
-                    if (minCost > tempCost) {
-                        map.put(newTableSet, tempOp);
-                    }
-                }
-            }
+    private List<String> interestingOrders() {
+        List<String> columns = new ArrayList<>(this.joinLeftColumnNames);
+        columns.addAll(this.joinRightColumnNames);
+        if (this.groupByColumn != null) {
+            columns.add(this.groupByColumn);
         }
-
-        return map;
+        if (this.orderByColumn != null && this.orderByAscending) {
+            columns.add(this.orderByColumn);
+        }
+        return columns;
     }
 
     /**
-     * Finds the lowest cost QueryOperator in the given mapping. A mapping is
-     * generated on each pass of the search algorithm, and relates a set of tables
-     * to the lowest cost QueryOperator accessing those tables. This method is
-     * called at the end of the search algorithm after all passes have been
-     * processed.
+     * Finds the lowest cost QueryOperator of plans, the plans that join all
+     * the tables of the query (see JoinEnumerator::enumerate), the cheapest
+     * first. This method is called at the end of the search algorithm after
+     * all passes have been processed.
      *
-     * @return a QueryOperator in the given mapping
+     * A plan in order of the GROUP BY or ORDER BY column is chosen over the
+     * cheapest plan if the sort it saves costs more than the difference.
+     *
+     * @return a QueryOperator of plans
      */
-    private QueryOperator minCostOperator(Map<Set, QueryOperator> map) {
+    private QueryOperator minCostOperator(List<QueryOperator> plans) {
         QueryOperator minOp = null;
-        QueryOperator newOp;
-        int minCost = Integer.MAX_VALUE;
-        int newCost;
-        for (Set tables : map.keySet()) {
-            newOp = map.get(tables);
-            newCost = newOp.getIOCost();
-            if (newCost < minCost) {
+        Cost minCost = null;
+        Comparator<Cost> ordering = Cost.ordering(this.randomPageCost);
+        for (QueryOperator newOp : plans) {
+            Cost newCost = newOp.getCost();
+            if (plans.size() > 1) {
+                newCost = newCost.plus(this.estimateFinishingCost(newOp));
+            }
+            if (minCost == null || ordering.compare(newCost, minCost) < 0) {
                 minOp = newOp;
                 minCost = newCost;
             }
@@ -520,16 +1026,39 @@ public class QueryPlan {
         return minOp;
     }
 
+    /**
+     * Estimates the cost of the GROUP BY (hash or sort, whichever is cheaper),
+     * or of the ORDER BY, of the query over plan: nothing for a sort if plan
+     * is in order of the column already.
+     */
+    private Cost estimateFinishingCost(QueryOperator plan) {
+        if (this.groupByColumn != null) {
+            Cost hashCost = new HashGroupByOperator(plan, this.transaction, this.groupByColumn,
+                    this.aggregateFunctions, this.aggregateColumnNames).estimateLocalCost();
+            Cost sortCost = new SortGroupByOperator(plan, this.transaction, this.groupByColumn,
+                    this.aggregateFunctions, this.aggregateColumnNames).estimateLocalCost();
+            return Cost.ordering(this.randomPageCost).compare(sortCost, hashCost) < 0 ? sortCost : hashCost;
+        }
+        if (!this.aggregateFunctions.isEmpty() || this.orderByColumn == null
+                || (this.orderByAscending && plan.isSortedOn(this.orderByColumn))) {
+            return Cost.ZERO;
+        }
+        if (this.limit != -1) {
+            return new TopNOperator(plan, this.transaction, this.orderByColumn, this.orderByAscending,
+                                    this.limit).estimateLocalCost();
+        }
+        return new OrderByOperator(plan, this.transaction, this.orderByColumn,
+                                   this.orderByAscending).estimateLocalCost();
+    }
+
     private String checkIndexEligible() {
         if (this.selectColumnNames.size() > 0
                 && this.groupByColumn == null
                 && this.joinTableNames.size() == 0) {
             int index = 0;
             for (String column : selectColumnNames) {
-                if (this.transaction.indexExists(this.startTableName, column)) {
-                    if (this.selectOperators.get(index) != PredicateOperator.NOT_EQUALS) {
-                        return column;
-                    }
+                if (isIndexEligible(this.startTableName, column, this.selectOperators.get(index))) {
+                    return column;
                 }
 
                 index++;
@@ -546,13 +1075,16 @@ public class QueryPlan {
 
         this.finalOperator = new IndexScanOperator(this.transaction, this.startTableName, indexColumn,
                 operator,
-                value);
+                value,
+                false);
 
         this.selectColumnNames.remove(selectIndex);
         this.selectOperators.remove(selectIndex);
         this.selectDataBoxes.remove(selectIndex);
 
         this.addSelects();
+        this.addGroupBy();
+        this.addOrderByAndLimit();
         this.addProjects();
     }
 
@@ -584,23 +1116,91 @@ public class QueryPlan {
         }
     }
 
-    private void addGroupBy() {
-        if (this.groupByColumn != null) {
-            if (this.projectColumns.size() > 2 || (this.projectColumns.size() == 1 &&
-                                                   !this.projectColumns.get(0).equals(this.groupByColumn))) {
-                throw new QueryPlanException("Can only project columns specified in the GROUP BY clause.");
+    /**
+     * Starts re-analyzing the tables of the query whose statistics went stale
+     * (see Table::refreshStatisticsIfStale) in the background, for the
+     * queries planned after this one. This query keeps the plan it has, made
+     * with the statistics kept up to date since the last analysis.
+     */
+    private void refreshStaleStatistics() {
+        List<String> tableNames = new ArrayList<>();
+        tableNames.add(this.startTableName);
+        tableNames.addAll(this.joinTableNames);
+        for (String tableName : tableNames) {
+            Table table = this.transaction.getTable(tableName);
+            if (table != null) {
+                table.refreshStatisticsIfStale();
             }
+        }
+    }
 
-            this.finalOperator = new GroupByOperator(this.finalOperator, this.transaction,
-                    this.groupByColumn);
+    // A scan of a single table (with its selections) runs on the workers of
+    // the transaction, if it has more than one; hash aggregation above it
+    // repartitions the scan among its workers instead of gathering it.
+    private void addExchange() {
+        int numWorkers = this.transaction.getDegreeOfParallelism();
+        if (numWorkers > 1 && ExchangeOperator.isParallelScan(this.finalOperator)) {
+            this.finalOperator = new ExchangeOperator(this.finalOperator, this.transaction, numWorkers);
+        }
+    }
+
+    private void addGroupBy() {
+        if (this.groupByColumn == null && this.aggregateFunctions.isEmpty()) {
+            return;
+        }
+        if (this.groupByColumn != null && (this.projectColumns.size() > 2 || (this.projectColumns.size() == 1 &&
+                                           !this.projectColumns.get(0).equals(this.groupByColumn)))) {
+            throw new QueryPlanException("Can only project columns specified in the GROUP BY clause.");
+        }
+
+        // Hash aggregation only costs more than reading the input once the
+        // estimated groups do not fit in memory, and sort aggregation
+        // only if the input is not sorted already. On a tie, sorted input
+        // (or a single group) is aggregated as it streams by, without a
+        // hash table.
+        GroupByOperator hashGroupBy = new HashGroupByOperator(this.finalOperator, this.transaction,
+                this.groupByColumn, this.aggregateFunctions, this.aggregateColumnNames);
+        SortGroupByOperator sortGroupBy = new SortGroupByOperator(this.finalOperator, this.transaction,
+                this.groupByColumn, this.aggregateFunctions, this.aggregateColumnNames);
+        int cmp = Cost.ordering(this.randomPageCost).compare(sortGroupBy.getCost(), hashGroupBy.getCost());
+        if (cmp < 0 || (cmp == 0 && !sortGroupBy.needsSort())) {
+            this.finalOperator = sortGroupBy;
+        } else {
+            this.finalOperator = hashGroupBy;
+        }
+    }
+
+    private void addOrderByAndLimit() {
+        // no sort is needed if the records are in order already, and with a
+        // limit, the top records are kept in a bounded heap instead
+        if (this.orderByColumn != null
+                && !(this.orderByAscending && this.finalOperator.isSortedOn(this.orderByColumn))) {
+            if (this.limit != -1) {
+                this.finalOperator = new TopNOperator(this.finalOperator, this.transaction, this.orderByColumn,
+                                                      this.orderByAscending, this.limit);
+                return;
+            }
+            this.finalOperator = new OrderByOperator(this.finalOperator, this.transaction, this.orderByColumn,
+                                                     this.orderByAscending);
+        }
+        if (this.limit != -1) {
+            this.finalOperator = new LimitOperator(this.finalOperator, this.limit);
         }
     }
 
     private void addProjects() {
-        if (!this.projectColumns.isEmpty() || this.hasCount || this.sumColumnName != null
-                || this.averageColumnName != null) {
-            this.finalOperator = new ProjectOperator(this.finalOperator, this.projectColumns,
-                    this.hasCount, this.averageColumnName, this.sumColumnName);
+        List<String> columns = new ArrayList<>(this.projectColumns);
+        // the group by operator (below any order by and limit) computed the aggregates already
+        QueryOperator groupBy = this.finalOperator;
+        while (groupBy.getType() == QueryOperator.OperatorType.SORT
+                || groupBy.getType() == QueryOperator.OperatorType.LIMIT) {
+            groupBy = groupBy.getSource();
+        }
+        if (groupBy.isGroupBy()) {
+            columns.addAll(((GroupByOperator) groupBy).getAggregateColumnNames());
+        }
+        if (!columns.isEmpty()) {
+            this.finalOperator = new ProjectOperator(this.finalOperator, columns);
         }
     }
 
@@ -0,0 +1,185 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * A batch of up to CAPACITY records of one schema, stored column by column
+ * (see ColumnVector), which vectorized operators pass to each other instead
+ * of one Record at a time (see QueryOperator::batchIterator).
+ *
+ * A batch has numRows rows, of which only those in its selection vector are
+ * part of it: a select operator only narrows the selection vector, and a
+ * project operator only picks columns, so neither copies any value. Rows are
+ * accessed through their position in the selection:
+ *
+ *   for (int i = 0; i < batch.size(); ++i) {
+ *       int row = batch.getRow(i);
+ *       int id = batch.getColumn(0).getInt(row);
+ *   }
+ */
+class RecordBatch {
+    static final int CAPACITY = 1024;
+
+    private Schema schema;
+    private ColumnVector[] columns;
+    private int numRows;
+    // the rows that are part of the batch, in order (null if all are)
+    private int[] selection;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch of records of schema, to be filled with addRecord.
+     */
+    RecordBatch(Schema schema) {
+        this.schema = schema;
+        this.columns = new ColumnVector[schema.getFieldTypes().size()];
+        for (int i = 0; i < this.columns.length; ++i) {
+            this.columns[i] = new ColumnVector(schema.getFieldTypes().get(i), CAPACITY);
+        }
+        this.numRows = 0;
+        this.selection = null;
+    }
+
+    private RecordBatch(Schema schema, ColumnVector[] columns, int numRows, int[] selection, int numSelected) {
+        this.schema = schema;
+        this.columns = columns;
+        this.numRows = numRows;
+        this.selection = selection;
+        this.numSelected = numSelected;
+    }
+
+    Schema getSchema() {
+        return this.schema;
+    }
+
+    /** Returns the number of records in the batch. */
+    int size() {
+        return this.selection == null ? this.numRows : this.numSelected;
+    }
+
+    /** Returns the row of the i-th record of the batch. */
+    int getRow(int i) {
+        return this.selection == null ? i : this.selection[i];
+    }
+
+    ColumnVector getColumn(int index) {
+        return this.columns[index];
+    }
+
+    boolean isFull() {
+        return this.numRows == CAPACITY;
+    }
+
+    /**
+     * Appends a row to a batch created with RecordBatch(Schema), and returns
+     * it; its values are set with setValue and copyValue.
+     */
+    int addRow() {
+        if (this.isFull() || this.selection != null) {
+            throw new IllegalStateException("cannot add a row to a full or filtered batch");
+        }
+        return this.numRows++;
+    }
+
+    void setValue(int column, int row, DataBox value) {
+        this.columns[column].set(row, value);
+    }
+
+    void copyValue(int column, int row, ColumnVector from, int fromRow) {
+        this.columns[column].copy(from, fromRow, row);
+    }
+
+    /** Appends a record with values values. */
+    void addRecord(List<DataBox> values) {
+        int row = this.addRow();
+        for (int i = 0; i < this.columns.length; ++i) {
+            this.columns[i].set(row, values.get(i));
+        }
+    }
+
+    /** Returns the record in row (not the row-th record of the batch). */
+    Record getRecord(int row) {
+        List<DataBox> values = new ArrayList<>(this.columns.length);
+        for (ColumnVector column : this.columns) {
+            values.add(column.get(row));
+        }
+        return new Record(values);
+    }
+
+    /**
+     * Returns the batch of the rows in selection (the first numSelected of
+     * which are used), which must be rows of this batch, in order.
+     */
+    RecordBatch withSelection(int[] selection, int numSelected) {
+        return new RecordBatch(this.schema, this.columns, this.numRows, selection, numSelected);
+    }
+
+    /**
+     * Returns the batch of columns indices of this batch, with schema schema.
+     */
+    RecordBatch project(List<Integer> indices, Schema schema) {
+        ColumnVector[] columns = new ColumnVector[indices.size()];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = this.columns[indices.get(i)];
+        }
+        return new RecordBatch(schema, columns, this.numRows, this.selection, this.numSelected);
+    }
+
+    /**
+     * Returns the records of records, of schema schema, in batches.
+     */
+    static Iterator<RecordBatch> fromRecords(Schema schema, Iterator<Record> records) {
+        return new Iterator<RecordBatch>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public RecordBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RecordBatch batch = new RecordBatch(schema);
+                while (!batch.isFull() && records.hasNext()) {
+                    batch.addRecord(records.next().getValues());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Returns the records of batches, one at a time.
+     */
+    static Iterator<Record> toRecords(Iterator<RecordBatch> batches) {
+        return new Iterator<Record>() {
+            private RecordBatch batch = null;
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                while ((this.batch == null || this.next == this.batch.size()) && batches.hasNext()) {
+                    this.batch = batches.next();
+                    this.next = 0;
+                }
+                return this.batch != null && this.next < this.batch.size();
+            }
+
+            @Override
+            public Record next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.batch.getRecord(this.batch.getRow(this.next++));
+            }
+        };
+    }
+}
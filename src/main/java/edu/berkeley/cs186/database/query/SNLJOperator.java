@@ -30,13 +30,22 @@ public class SNLJOperator extends JoinOperator {
     }
 
     @Override
-    public int estimateIOCost() {
-        int numLeftRecords = getLeftSource().getStats().getNumRecords();
+    public long estimateIOCost() {
+        long numLeftRecords = getLeftSource().getStats().getNumRecords();
 
         int numRightPages = getRightSource().getStats().getNumPages();
         int numLeftPages = getLeftSource().getStats().getNumPages();
 
-        return numLeftRecords * numRightPages + numLeftPages;
+        return Cost.saturatedAdd(Cost.saturatedMultiply(numLeftRecords, numRightPages), numLeftPages);
+    }
+
+    /**
+     * Every left record is compared with every right record.
+     */
+    @Override
+    protected Cost estimateLocalCost() {
+        return new Cost(this.getIOCost(), 0, (double) getLeftSource().getStats().getNumRecords() *
+                        getRightSource().getStats().getNumRecords());
     }
 
     /**
@@ -15,6 +15,7 @@ class SelectOperator extends QueryOperator {
     private String columnName;
     private PredicateOperator operator;
     private DataBox value;
+    private CompiledPredicate predicate;
 
     /**
      * Creates a new SelectOperator that pulls from source and only returns tuples for which the
@@ -35,6 +36,7 @@ class SelectOperator extends QueryOperator {
 
         this.columnName = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
         this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+        this.predicate = CompiledPredicate.compile(this.columnIndex, operator, value);
 
         this.stats = this.estimateStats();
         this.cost = this.estimateIOCost();
@@ -45,6 +47,11 @@ class SelectOperator extends QueryOperator {
         return true;
     }
 
+    @Override
+    public boolean isSortedOn(String column) {
+        return this.getSource().isSortedOn(column);
+    }
+
     @Override
     public Schema computeSchema() {
         return this.getSource().getOutputSchema();
@@ -72,13 +79,68 @@ class SelectOperator extends QueryOperator {
     }
 
     @Override
-    public int estimateIOCost() {
+    public long estimateIOCost() {
         return this.getSource().getIOCost();
     }
 
     @Override
     public Iterator<Record> iterator() { return new SelectIterator(); }
 
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    /**
+     * Narrows the selection vector of each batch of the source to the rows
+     * that satisfy the predicate (see CompiledPredicate). Batches with no
+     * such row are skipped.
+     */
+    @Override
+    Iterator<RecordBatch> batchIterator() {
+        return this.batchIterator(this.getSource().batches());
+    }
+
+    @Override
+    boolean isPipelined() {
+        return true;
+    }
+
+    @Override
+    Iterator<RecordBatch> batchIterator(Iterator<RecordBatch> batches) {
+        return new Iterator<RecordBatch>() {
+            private RecordBatch next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null && batches.hasNext()) {
+                    RecordBatch batch = SelectOperator.this.predicate.select(batches.next());
+                    if (batch.size() > 0) {
+                        this.next = batch;
+                    }
+                }
+                return this.next != null;
+            }
+
+            @Override
+            public RecordBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RecordBatch batch = this.next;
+                this.next = null;
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Returns whether record, a record of the source's schema, satisfies the predicate.
+     */
+    boolean matches(Record record) {
+        return this.predicate.test(record);
+    }
+
     /**
      * An implementation of Iterator that provides an iterator interface for this operator.
      */
@@ -88,7 +150,7 @@ class SelectOperator extends QueryOperator {
         private Record nextRecord;
 
         private SelectIterator() {
-            this.sourceIterator = SelectOperator.this.getSource().iterator();
+            this.sourceIterator = SelectOperator.this.getSource().records();
             this.markerRecord = MarkerRecord.getMarker();
             this.nextRecord = null;
         }
@@ -109,51 +171,9 @@ class SelectOperator extends QueryOperator {
                     this.nextRecord = r;
                     return true;
                 }
-                switch (SelectOperator.this.operator) {
-                case EQUALS:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case NOT_EQUALS:
-                    if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case LESS_THAN:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) < 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case LESS_THAN_EQUALS:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) < 0) {
-                        this.nextRecord = r;
-                        return true;
-                    } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case GREATER_THAN:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) > 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case GREATER_THAN_EQUALS:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) > 0) {
-                        this.nextRecord = r;
-                        return true;
-                    } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                default:
-                    break;
+                if (SelectOperator.this.predicate.test(r)) {
+                    this.nextRecord = r;
+                    return true;
                 }
             }
             return false;
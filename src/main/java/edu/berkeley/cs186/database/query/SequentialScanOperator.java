@@ -1,11 +1,15 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 class SequentialScanOperator extends QueryOperator {
@@ -52,6 +56,65 @@ class SequentialScanOperator extends QueryOperator {
         return this.transaction.getRecordIterator(tableName);
     }
 
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    /**
+     * Fills batches with the records of whole pages (see
+     * Table::pageRecordsIterator), rather than fetching a page per record.
+     */
+    @Override
+    Iterator<RecordBatch> batchIterator() {
+        return this.pageBatchIterator(this.transaction.getTable(this.tableName).pageRecordsIterator());
+    }
+
+    /**
+     * Returns the records of the data pages pageNums of the table in batches.
+     * The transaction must already hold a lock covering them (see
+     * Table::getDataPageNums), so that this can run on a worker thread.
+     */
+    Iterator<RecordBatch> batchIterator(List<Long> pageNums) {
+        Table table = this.transaction.getTable(this.tableName);
+        Iterator<Long> pageNumIterator = pageNums.iterator();
+        return this.pageBatchIterator(new Iterator<List<Record>>() {
+            @Override
+            public boolean hasNext() {
+                return pageNumIterator.hasNext();
+            }
+
+            @Override
+            public List<Record> next() {
+                return table.getPageRecords(pageNumIterator.next());
+            }
+        });
+    }
+
+    // batches the records of pages, each the records of one data page
+    private Iterator<RecordBatch> pageBatchIterator(Iterator<List<Record>> pages) {
+        Iterator<Record> records = new Iterator<Record>() {
+            private Iterator<Record> page = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!this.page.hasNext() && pages.hasNext()) {
+                    this.page = pages.next().iterator();
+                }
+                return this.page.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.page.next();
+            }
+        };
+        return RecordBatch.fromRecords(this.getOutputSchema(), records);
+    }
+
     @Override
     public Schema computeSchema() {
         try {
@@ -82,7 +145,7 @@ class SequentialScanOperator extends QueryOperator {
     }
 
     @Override
-    public int estimateIOCost() {
+    public long estimateIOCost() {
         try {
             return this.transaction.getNumDataPages(this.tableName);
         } catch (DatabaseException de) {
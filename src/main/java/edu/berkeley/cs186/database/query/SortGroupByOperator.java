@@ -0,0 +1,120 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * Sort-based aggregation: reads the source in order of the grouping column
+ * and aggregates one group at a time, so only the running aggregates of the
+ * current group are ever in memory. If the source already returns its records
+ * in order of the grouping column (see QueryOperator::isSortedOn), they are
+ * aggregated as they are read; otherwise the source is first sorted by an
+ * OrderByOperator.
+ */
+class SortGroupByOperator extends GroupByOperator {
+    SortGroupByOperator(QueryOperator source,
+                        TransactionContext transaction,
+                        String groupByColumn,
+                        List<AggregateFunction> functions,
+                        List<String> aggregateColumns) {
+        super(source, transaction, groupByColumn, functions, aggregateColumns);
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new SortGroupByIterator();
+    }
+
+    @Override
+    public String str() {
+        return super.str() + "\nmethod: sort";
+    }
+
+    // whether the source needs to be sorted first
+    boolean needsSort() {
+        // a single group needs no order
+        return this.getGroupByColumn() != null && !this.getSource().isSortedOn(this.getGroupByColumn());
+    }
+
+    /**
+     * The cost of the source, plus, if it needs to be sorted, writing it to
+     * a temporary table (N I/Os) and sorting it (see OrderByOperator).
+     */
+    @Override
+    public long estimateIOCost() {
+        long sourceCost = this.getSource().getIOCost();
+        if (!this.needsSort()) {
+            return sourceCost;
+        }
+        int numPages = this.getSource().getStats().getNumPages();
+        return Cost.saturatedAdd(sourceCost, numPages + SortOperator.estimateIOCost(numPages, this.numBuffers));
+    }
+
+    @Override
+    public boolean isSortedOn(String column) {
+        // groups are returned in order of the grouping column
+        return this.getGroupByColumn() != null && this.checkColumnNameEquality(this.getGroupByColumn(), column);
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class SortGroupByIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private Record nextSourceRecord;
+
+        private SortGroupByIterator() {
+            QueryOperator source = SortGroupByOperator.this.getSource();
+            this.sourceIterator = SortGroupByOperator.this.needsSort()
+                                  ? new OrderByOperator(source, SortGroupByOperator.this.transaction,
+                                                        SortGroupByOperator.this.getGroupByColumn(), true).iterator()
+                                  : source.records();
+            this.nextSourceRecord = this.sourceIterator.hasNext() ? this.sourceIterator.next() : null;
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            return this.nextSourceRecord != null;
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DataBox key = SortGroupByOperator.this.getGroupKey(this.nextSourceRecord);
+            Aggregates group = new Aggregates();
+            while (this.nextSourceRecord != null
+                    && Objects.equals(SortGroupByOperator.this.getGroupKey(this.nextSourceRecord), key)) {
+                group.add(this.nextSourceRecord);
+                this.nextSourceRecord = this.sourceIterator.hasNext() ? this.sourceIterator.next() : null;
+            }
+            return group.toRecord(key);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -7,13 +7,25 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
 
+/**
+ * Sort-merge join: both sides are sorted on their join columns, and merged.
+ * A side that is returned in order of its join column already (see
+ * QueryOperator::isSortedOn), e.g. by an ordered index scan or another
+ * sort-merge join on the same column, is merged as it is, so that a sort
+ * can be shared by a chain of joins on the same column and a GROUP BY or
+ * ORDER BY on it. The joined records are returned in order of the join
+ * columns.
+ */
 class SortMergeOperator extends JoinOperator {
+    private int numBuffers;
+
     SortMergeOperator(QueryOperator leftSource,
                       QueryOperator rightSource,
                       String leftColumnName,
                       String rightColumnName,
                       TransactionContext transaction) {
         super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.SORTMERGE);
+        this.numBuffers = Math.max(3, transaction.getWorkMemSize());
 
         this.stats = this.estimateStats();
         this.cost = this.estimateIOCost();
@@ -25,9 +37,38 @@ class SortMergeOperator extends JoinOperator {
     }
 
     @Override
-    public int estimateIOCost() {
-        //does nothing
-        return 0;
+    public boolean isSortedOn(String column) {
+        return this.checkColumnNameEquality(this.getLeftColumnName(), column)
+               || this.checkColumnNameEquality(this.getRightColumnName(), column);
+    }
+
+    // whether the left/right source needs to be sorted first
+    boolean needsLeftSort() {
+        return !this.getLeftSource().isSortedOn(this.getLeftColumnName());
+    }
+
+    boolean needsRightSort() {
+        return !this.getRightSource().isSortedOn(this.getRightColumnName());
+    }
+
+    /**
+     * Every side that is not sorted already is sorted (see
+     * SortOperator::estimateIOCost), and both are read once more to merge
+     * them: sort(M) + sort(N) + M + N I/Os, assuming the right records that
+     * join with each left record fit in memory.
+     */
+    @Override
+    public long estimateIOCost() {
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        int numRightPages = getRightSource().getStats().getNumPages();
+        long cost = (long) numLeftPages + numRightPages;
+        if (this.needsLeftSort()) {
+            cost += SortOperator.estimateIOCost(numLeftPages, this.numBuffers);
+        }
+        if (this.needsRightSort()) {
+            cost += SortOperator.estimateIOCost(numRightPages, this.numBuffers);
+        }
+        return cost;
     }
 
     /**
@@ -57,13 +98,20 @@ class SortMergeOperator extends JoinOperator {
 
         private SortMergeIterator() {
             super();
-            SortOperator leftSortOp = new SortOperator(SortMergeOperator.this.getTransaction(),
-                    this.getLeftTableName(), new LeftRecordComparator());
-            SortOperator rightSortOp = new SortOperator(SortMergeOperator.this.getTransaction(),
-                    this.getRightTableName(), new RightRecordComparator());
+            String leftTableName = this.getLeftTableName();
+            if (SortMergeOperator.this.needsLeftSort()) {
+                leftTableName = new SortOperator(SortMergeOperator.this.getTransaction(), leftTableName,
+                                                 new LeftRecordComparator()).sort();
+            }
+            String rightTableName = this.getRightTableName();
+            if (SortMergeOperator.this.needsRightSort()) {
+                rightTableName = new SortOperator(SortMergeOperator.this.getTransaction(), rightTableName,
+                                                  new RightRecordComparator()).sort();
+            }
 
-            this.leftIterator = SortMergeOperator.this.getRecordIterator(leftSortOp.sort());
-            this.rightIterator = SortMergeOperator.this.getRecordIterator(rightSortOp.sort());
+            // a sorted source is written to its temporary table in order
+            this.leftIterator = SortMergeOperator.this.getRecordIterator(leftTableName);
+            this.rightIterator = SortMergeOperator.this.getRecordIterator(rightTableName);
 
             this.leftRecord = leftIterator.hasNext() ? leftIterator.next() : null;
             this.rightRecord = rightIterator.hasNext() ? rightIterator.next() : null;
@@ -81,11 +129,6 @@ class SortMergeOperator extends JoinOperator {
         }
 
         private void advanceRight() {
-            if (!rightIterator.hasNext() && leftRecord != null) {
-                rightIterator.reset();
-                advanceLeft();
-                this.marked = false;
-            }
             this.rightRecord = rightIterator.hasNext() ? rightIterator.next() : null;
         }
 
@@ -94,25 +137,36 @@ class SortMergeOperator extends JoinOperator {
             this.marked = true;
         }
 
+        /**
+         * Joins the next left record with the run of right records of the
+         * same value, which starts at the mark: once the run ends, the right
+         * iterator goes back to the mark for the next left record, in case
+         * it has the same value.
+         */
         private void fetchNextRecord() {
             this.nextRecord = null;
             Comparator<Record> c = new leftRightComparator();
             while (!hasNext()) {
-                if (this.leftRecord == null) {
-                    throw new NoSuchElementException();
-                }
-
                 if (!this.marked) {
-                    while (c.compare(this.leftRecord, this.rightRecord) < 0) {
-                        advanceLeft();
+                    // find the next pair of records of the same value
+                    while (this.leftRecord != null && this.rightRecord != null) {
+                        int cmp = c.compare(this.leftRecord, this.rightRecord);
+                        if (cmp == 0) {
+                            break;
+                        }
+                        if (cmp < 0) {
+                            advanceLeft();
+                        } else {
+                            advanceRight();
+                        }
                     }
-                    while (c.compare(this.leftRecord, this.rightRecord) > 0) {
-                        advanceRight();
+                    if (this.leftRecord == null || this.rightRecord == null) {
+                        throw new NoSuchElementException();
                     }
                     this.mark();
                 }
 
-                if (c.compare(this.leftRecord, this.rightRecord) == 0) {
+                if (this.rightRecord != null && c.compare(this.leftRecord, this.rightRecord) == 0) {
                     this.nextRecord = this.joinRecords(this.leftRecord, this.rightRecord);
                     advanceRight();
                 } else {
@@ -4,14 +4,31 @@ import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
-import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.Table;
 
 import java.util.*;
 
+/**
+ * External merge sort of a table. Runs of numBuffers pages are sorted in
+ * memory (on all cores, with Arrays.parallelSort), and merged B-1 at a time
+ * with a loser tree until a single run is left.
+ *
+ * Pages are only ever read and written by the thread that calls sort():
+ * a transaction's locks and temporary tables belong to its thread, so the
+ * worker threads only compare records in memory.
+ *
+ * With replacement selection, initial runs are instead generated with a
+ * heap of the records of numBuffers - 1 pages (one page is left for the
+ * input): the smallest record that is not smaller than the last one written
+ * is appended to the current run. Runs of random input are about twice as
+ * long as memory, and input that is already nearly sorted produces few runs
+ * (a sorted input produces one), so fewer or no merge passes are needed.
+ * getNumRuns and getNumMergePasses report what the last sort did.
+ */
 public class SortOperator {
     private TransactionContext transaction;
     private String tableName;
@@ -19,14 +36,23 @@ public class SortOperator {
     private Schema operatorSchema;
     private int numBuffers;
     private String sortedTableName = null;
+    private boolean replacementSelection;
+    private int numRuns = 0;
+    private int numMergePasses = 0;
 
     public SortOperator(TransactionContext transaction, String tableName,
                         Comparator<Record> comparator) {
+        this(transaction, tableName, comparator, false);
+    }
+
+    public SortOperator(TransactionContext transaction, String tableName,
+                        Comparator<Record> comparator, boolean replacementSelection) {
         this.transaction = transaction;
         this.tableName = tableName;
         this.comparator = comparator;
         this.operatorSchema = this.computeSchema();
         this.numBuffers = this.transaction.getWorkMemSize();
+        this.replacementSelection = replacementSelection;
     }
 
     private Schema computeSchema() {
@@ -81,9 +107,10 @@ public class SortOperator {
             recs.add(r);
         }
 
-        recs.sort(this.comparator);
+        Record[] sorted = recs.toArray(new Record[0]);
+        Arrays.parallelSort(sorted, this.comparator);
         Run sortedRun = createRun();
-        sortedRun.addRecords(recs);
+        sortedRun.addRecords(Arrays.asList(sorted));
 
         return sortedRun;
     }
@@ -101,11 +128,10 @@ public class SortOperator {
 
     /**
      * Given a list of sorted runs, returns a NEW run that is the result
-     * of merging the input runs. You should use a Priority Queue (java.util.PriorityQueue)
-     * to determine which record should be should be added to the output run next.
-     * It is recommended that your Priority Queue hold Pair<Record, Integer> objects
-     * where a Pair (r, i) is the Record r with the smallest value you are
-     * sorting on currently unmerged from run i.
+     * of merging the input runs. A loser tree over the runs determines which
+     * record should be added to the output run next, with about log2(k)
+     * comparisons per record for k runs (a binary heap needs up to twice as
+     * many). Records that compare equal are taken from the earlier run first.
      */
     public Run mergeSortedRuns(List<Run> runs) {
         if (runs.isEmpty()) {
@@ -113,29 +139,93 @@ public class SortOperator {
         }
 
         List<Iterator<Record>> iters = new ArrayList<>();
-        PriorityQueue<Pair<Record, Integer>> pq = new PriorityQueue<>(new RecordPairComparator());
-        for (int i=0; i < runs.size(); i++) {
-            Run r = runs.get(i);
-            Iterator<Record> rIter = r.iterator();
-            iters.add(rIter);
-            if (rIter.hasNext()) {
-                pq.add(new Pair<>(rIter.next(), i));
-            }
+        for (Run r : runs) {
+            iters.add(r.iterator());
         }
+        LoserTree tree = new LoserTree(iters);
 
         Run mergedRun = createRun();
+        while (tree.hasNext()) {
+            mergedRun.addRecord(tree.next().getValues());
+        }
+        return mergedRun;
+    }
 
-        while (!pq.isEmpty()) {
-            Pair<Record, Integer> tempPair = pq.poll();
-            mergedRun.addRecord(tempPair.getFirst().getValues());
+    /**
+     * A loser tree (tournament tree) over k sorted iterators. Every internal
+     * node holds the iterator that lost the match played there, and the root
+     * the overall winner, whose record is the smallest head. After the winner
+     * advances, only the matches on the path from its leaf to the root are
+     * replayed.
+     */
+    private class LoserTree implements Iterator<Record> {
+        private List<Iterator<Record>> iterators;
+        private Record[] heads; // null once an iterator is exhausted
+        private int[] losers; // losers[0] is the winner; nodes 1..k-1 are internal
+        private int k;
+
+        private LoserTree(List<Iterator<Record>> iterators) {
+            this.iterators = iterators;
+            this.k = iterators.size();
+            this.heads = new Record[k];
+            this.losers = new int[k];
+            for (int i = 0; i < k; ++i) {
+                this.advance(i);
+            }
 
-            Iterator<Record> nextRunIter = iters.get(tempPair.getSecond());
-            if (nextRunIter.hasNext()) {
-                pq.add(new Pair<>(nextRunIter.next(), tempPair.getSecond()));
+            // leaves are nodes k..2k-1; play every match bottom up
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; ++i) {
+                winners[k + i] = i;
             }
-//            cont = checkContinue(runs);
+            for (int node = k - 1; node >= 1; --node) {
+                int a = winners[2 * node];
+                int b = winners[2 * node + 1];
+                winners[node] = this.beats(a, b) ? a : b;
+                this.losers[node] = this.beats(a, b) ? b : a;
+            }
+            this.losers[0] = k == 1 ? 0 : winners[1];
+        }
+
+        private void advance(int i) {
+            this.heads[i] = this.iterators.get(i).hasNext() ? this.iterators.get(i).next() : null;
+        }
+
+        // whether the head of iterator a comes before that of iterator b
+        private boolean beats(int a, int b) {
+            if (this.heads[a] == null) {
+                return false;
+            }
+            if (this.heads[b] == null) {
+                return true;
+            }
+            int cmp = SortOperator.this.comparator.compare(this.heads[a], this.heads[b]);
+            return cmp < 0 || (cmp == 0 && a < b);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.heads[this.losers[0]] != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int winner = this.losers[0];
+            Record record = this.heads[winner];
+            this.advance(winner);
+            for (int node = (winner + this.k) / 2; node > 0; node /= 2) {
+                if (this.beats(this.losers[node], winner)) {
+                    int loser = winner;
+                    winner = this.losers[node];
+                    this.losers[node] = loser;
+                }
+            }
+            this.losers[0] = winner;
+            return record;
         }
-        return mergedRun;
     }
 
     /**
@@ -152,45 +242,124 @@ public class SortOperator {
         List<Run> mergedRuns = new ArrayList<>();
         int bufferSize = this.numBuffers - 1;
 
-        while (!runs.isEmpty()) {
-            List<Run> runsForMerge = new ArrayList<>();
-            for (int i=0; i<bufferSize; i++) {
-                if (!runs.isEmpty()) {
-                    Run tempR = runs.remove(0);
-                    runsForMerge.add(tempR);
-                }
-            }
-            Run mergedR = mergeSortedRuns(runsForMerge);
-            mergedRuns.add(mergedR);
+        for (int i = 0; i < runs.size(); i += bufferSize) {
+            List<Run> runsForMerge = runs.subList(i, Math.min(runs.size(), i + bufferSize));
+            mergedRuns.add(mergeSortedRuns(runsForMerge));
         }
         return mergedRuns;
     }
 
+    /**
+     * Generates the sorted initial runs of the table by replacement
+     * selection (see the class comment). Returns an empty list if the table
+     * is empty.
+     */
+    public List<Run> replacementSelection() {
+        int recordsPerPage = Table.computeNumRecordsPerPage(BufferManager.EFFECTIVE_PAGE_SIZE,
+                                                            this.operatorSchema);
+        int heapCapacity = Math.max(1, (this.numBuffers - 1) * recordsPerPage);
+        // records of the current run come before those of the next one
+        PriorityQueue<HeapEntry> heap = new PriorityQueue<>(heapCapacity, (a, b) ->
+                a.run != b.run ? Integer.compare(a.run, b.run) : this.comparator.compare(a.record, b.record));
+
+        Iterator<Record> input = this.transaction.getRecordIterator(this.tableName);
+        while (heap.size() < heapCapacity && input.hasNext()) {
+            heap.add(new HeapEntry(0, input.next()));
+        }
+
+        List<Run> runs = new ArrayList<>();
+        Run run = null;
+        int runNumber = -1;
+        while (!heap.isEmpty()) {
+            HeapEntry smallest = heap.poll();
+            if (smallest.run != runNumber) {
+                runNumber = smallest.run;
+                run = createRun();
+                runs.add(run);
+            }
+            run.addRecord(smallest.record.getValues());
+            if (input.hasNext()) {
+                Record record = input.next();
+                // a record smaller than the one just written must wait for the next run
+                boolean fitsRun = this.comparator.compare(record, smallest.record) >= 0;
+                heap.add(new HeapEntry(fitsRun ? runNumber : runNumber + 1, record));
+            }
+        }
+        return runs;
+    }
+
+    private static class HeapEntry {
+        private int run;
+        private Record record;
+
+        private HeapEntry(int run, Record record) {
+            this.run = run;
+            this.record = record;
+        }
+    }
+
     /**
      * Does an external merge sort on the table with name tableName
      * using numBuffers.
      * Returns the name of the table that backs the final run.
      */
     public String sort() {
-        Iterator<Page> pageIter = this.transaction.getPageIterator(this.tableName);
         List<Run> allRuns = new ArrayList<>();
-
-        while (pageIter.hasNext()) {
-            BacktrackingIterator<Record> pageRecordIter =
-                    this.transaction.getBlockIterator(this.tableName, pageIter, this.numBuffers);
-            Run tempRun = createRunFromIterator(pageRecordIter);
-            Run sortedTempRun = sortRun(tempRun);
-            allRuns.add(sortedTempRun);
+        if (this.replacementSelection) {
+            allRuns = replacementSelection();
+        } else {
+            Iterator<Page> pageIter = this.transaction.getPageIterator(this.tableName);
+            while (pageIter.hasNext()) {
+                BacktrackingIterator<Record> pageRecordIter =
+                        this.transaction.getBlockIterator(this.tableName, pageIter, this.numBuffers);
+                Run tempRun = createRunFromIterator(pageRecordIter);
+                Run sortedTempRun = sortRun(tempRun);
+                allRuns.add(sortedTempRun);
+            }
+        }
+        this.numRuns = allRuns.size();
+        this.numMergePasses = 0;
+        if (allRuns.isEmpty()) {
+            return createRun().tableName();
         }
 
         while (allRuns.size() != 1) {
             allRuns = mergePass(allRuns);
+            ++this.numMergePasses;
         }
         Run finalRun = allRuns.remove(0);
 
         return finalRun.tableName();
     }
 
+    /**
+     * Estimates the I/Os of sorting a table of numPages pages with numBuffers
+     * buffers: 2N I/Os for each of the 1 + ceil(log_(B-1)(ceil(N/B))) passes.
+     */
+    public static long estimateIOCost(int numPages, int numBuffers) {
+        int numRuns = (int) ((numPages + (long) numBuffers - 1) / numBuffers);
+        int numPasses = 1;
+        for (int runs = numRuns; runs > 1; runs = (runs + numBuffers - 2) / (numBuffers - 1)) {
+            ++numPasses;
+        }
+        return 2L * numPasses * numPages;
+    }
+
+    /**
+     * Returns the number of initial runs generated by the last call to sort().
+     */
+    public int getNumRuns() {
+        return this.numRuns;
+    }
+
+    /**
+     * Returns the number of merge passes made by the last call to sort(), not
+     * counting the generation of the initial runs.
+     */
+    public int getNumMergePasses() {
+        return this.numMergePasses;
+    }
+
     public Iterator<Record> iterator() {
         if (sortedTableName == null) {
             sortedTableName = sort();
@@ -278,12 +447,5 @@ public class SortOperator {
             throw new UnsupportedOperationException("cannot get table name of input data run");
         }
     }
-
-    private class RecordPairComparator implements Comparator<Pair<Record, Integer>> {
-        @Override
-        public int compare(Pair<Record, Integer> o1, Pair<Record, Integer> o2) {
-            return SortOperator.this.comparator.compare(o1.getFirst(), o2.getFirst());
-        }
-    }
 }
 
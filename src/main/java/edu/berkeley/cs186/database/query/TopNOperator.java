@@ -0,0 +1,146 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Returns the first limit records of its source in order of one column
+ * (ORDER BY column [DESC] LIMIT limit).
+ *
+ * If limit records fit in the B-2 buffers left after one input and one
+ * output buffer, they are selected in a single pass over the source with a
+ * bounded heap whose top is the last of the records kept so far, and nothing
+ * is written to disk. Otherwise, the source is sorted (see OrderByOperator)
+ * and its first limit records are returned.
+ */
+class TopNOperator extends QueryOperator {
+    private OrderByOperator orderBy;
+    private int limit;
+    private int numBuffers;
+
+    /**
+     * Creates a new TopNOperator that returns the first limit records of
+     * source in order of column.
+     *
+     * @param source the source operator of this operator
+     * @param transaction the transaction containing this operator
+     * @param column the column to order by
+     * @param ascending whether to return the smallest value of column first
+     * @param limit the maximum number of records to return
+     */
+    TopNOperator(QueryOperator source,
+                 TransactionContext transaction,
+                 String column,
+                 boolean ascending,
+                 int limit) {
+        super(OperatorType.SORT, source);
+        this.orderBy = new OrderByOperator(source, transaction, column, ascending);
+        this.limit = limit;
+        this.numBuffers = Math.max(3, transaction.getWorkMemSize());
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        return this.getSource().getOutputSchema();
+    }
+
+    @Override
+    public boolean isSortedOn(String column) {
+        return this.orderBy.isSortedOn(column);
+    }
+
+    /**
+     * Returns whether the top limit records fit in memory.
+     */
+    boolean fitsInMemory() {
+        int recordsPerPage = Table.computeNumRecordsPerPage(BufferManager.EFFECTIVE_PAGE_SIZE,
+                                                            this.getOutputSchema());
+        return this.limit <= (long) (this.numBuffers - 2) * Math.max(1, recordsPerPage);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        if (!this.fitsInMemory()) {
+            return new LimitOperator(this.orderBy, this.limit).iterator();
+        }
+        if (this.limit == 0) {
+            return Collections.emptyIterator();
+        }
+
+        // the heap holds the best records seen so far, worst on top; ties are
+        // broken by arrival, so that equal records keep the order of the source
+        Comparator<Record> comparator = this.orderBy.getComparator();
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(this.limit, (a, b) -> {
+            int cmp = comparator.compare(b.record, a.record);
+            return cmp != 0 ? cmp : Long.compare(b.position, a.position);
+        });
+        long position = 0;
+        Iterator<Record> records = this.getSource().records();
+        while (records.hasNext()) {
+            Candidate candidate = new Candidate(records.next(), position++);
+            if (heap.size() < this.limit) {
+                heap.add(candidate);
+            } else if (comparator.compare(candidate.record, heap.peek().record) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        List<Record> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            top.add(heap.poll().record);
+        }
+        Collections.reverse(top);
+        return top.iterator();
+    }
+
+    private static class Candidate {
+        private Record record;
+        private long position;
+
+        private Candidate(Record record, long position) {
+            this.record = record;
+            this.position = position;
+        }
+    }
+
+    @Override
+    public String str() {
+        return this.orderBy.str() +
+               "\nlimit: " + this.limit +
+               (this.fitsInMemory() ? "" : "\nspills: true");
+    }
+
+    /**
+     * Estimates the table statistics for the result of executing this query operator.
+     *
+     * @return estimated TableStats
+     */
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().getStats().copyWithLimit(this.limit);
+    }
+
+    /**
+     * The cost of the source if the top records fit in memory, and that of
+     * sorting it otherwise.
+     */
+    @Override
+    public long estimateIOCost() {
+        return this.fitsInMemory() ? this.getSource().getIOCost() : this.orderBy.getIOCost();
+    }
+}
@@ -4,6 +4,8 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.util.List;
+
 /**
  * Interface for a heap file, which receives requests for pages with
  * a certain amount of space, and returns a page with enough space.
@@ -51,6 +53,13 @@ public interface HeapFile extends BacktrackingIterable<Page> {
     @Override
     BacktrackingIterator<Page> iterator();
 
+    /**
+     * Returns the page numbers of all allocated data pages, in the order of
+     * iterator(), without fetching the data pages themselves.
+     * @return page numbers of all allocated data pages
+     */
+    List<Long> getDataPageNums();
+
     /**
      * Returns estimate of number of data pages.
      * @return estimate of number of data pages
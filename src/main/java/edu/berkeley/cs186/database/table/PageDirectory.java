@@ -14,6 +14,8 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -157,6 +159,17 @@ public class PageDirectory implements HeapFile {
         return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
     }
 
+    @Override
+    public List<Long> getDataPageNums() {
+        List<Long> pageNums = new ArrayList<>();
+        HeaderPage headerPage = firstHeader;
+        while (headerPage != null) {
+            headerPage.addDataPageNums(pageNums);
+            headerPage = headerPage.nextPage;
+        }
+        return pageNums;
+    }
+
     @Override
     public int getNumDataPages() {
         int numDataPages = 0;
@@ -303,6 +316,23 @@ public class PageDirectory implements HeapFile {
             }
         }
 
+        // adds the page numbers of the data pages managed by this header page to pageNums
+        private void addDataPageNums(List<Long> pageNums) {
+            this.page.pin();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE);
+                for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    if (dpe.isValid()) {
+                        pageNums.add(dpe.pageNum);
+                    }
+                }
+            } finally {
+                this.page.unpin();
+            }
+        }
+
         // add a new header page
         private void addNewHeaderPage() {
             if (this.nextPage != null) {
@@ -1,9 +1,12 @@
 package edu.berkeley.cs186.database.table;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 
 import edu.berkeley.cs186.database.DatabaseException;
-import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.*;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
@@ -14,6 +17,7 @@ import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.table.stats.StatisticsCollector;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 /**
@@ -107,6 +111,14 @@ public class Table implements BacktrackingIterable<Record> {
     // Statistics about the contents of the database.
     private TableStats stats;
 
+    // The re-analysis of the table running in the background, if any (see
+    // refreshStatisticsIfStale).
+    private volatile CompletableFuture<Void> pendingStatistics = CompletableFuture.completedFuture(null);
+
+    // The executor that re-analyses of the table run on (see
+    // setStatisticsExecutor).
+    private Executor statisticsExecutor = ForkJoinPool.commonPool();
+
     // The number of records in the table.
     private long numRecords;
 
@@ -239,6 +251,118 @@ public class Table implements BacktrackingIterable<Record> {
         this.stats.refreshHistograms(buckets, this);
     }
 
+    /**
+     * Same as buildStatistics(buckets), except that the histograms are
+     * equi-depth histograms of a random sample of sampleSize records, scaled
+     * up to the whole table, and the distinct values of each column are
+     * estimated with a HyperLogLog sketch (see StatisticsCollector). Only the
+     * sample is kept in memory, so large tables can be analyzed cheaply.
+     */
+    public void buildStatistics(int buckets, int sampleSize) {
+        this.stats.refreshHistograms(new StatisticsCollector(this.schema, buckets, sampleSize, new Random()),
+                                     this::pageRecordsIterator);
+    }
+
+    /**
+     * Registers the columns firstColumn and secondColumn as correlated, so
+     * that buildStatistics also builds their joint statistics, with which
+     * equality predicates on both are estimated (see TableStats::addColumnGroup).
+     */
+    public void addColumnGroup(String firstColumn, String secondColumn) {
+        this.stats.addColumnGroup(this.findColumn(firstColumn), this.findColumn(secondColumn));
+    }
+
+    private int findColumn(String columnName) {
+        int index = this.schema.getFieldNames().indexOf(columnName);
+        if (index < 0) {
+            String msg = String.format("No column %s in table %s.", columnName, this.name);
+            throw new DatabaseException(msg);
+        }
+        return index;
+    }
+
+    /**
+     * Sets the executor that buildStatisticsInBackground runs on (the common
+     * fork-join pool by default).
+     */
+    public void setStatisticsExecutor(Executor executor) {
+        this.statisticsExecutor = executor;
+    }
+
+    /**
+     * Runs buildStatistics(buckets, sampleSize) on the statistics executor
+     * (see setStatisticsExecutor), outside of any transaction, and returns a
+     * future that completes once the new statistics are in place. No lock is
+     * acquired for it, neither by the background thread nor for the current
+     * transaction: the pages are read as they are, and records are only
+     * added, updated or deleted once it is done (see awaitStatistics).
+     */
+    public CompletableFuture<Void> buildStatisticsInBackground(int buckets, int sampleSize) {
+        return this.buildStatisticsInBackground(new StatisticsCollector(this.schema, buckets, sampleSize,
+                                                new Random()));
+    }
+
+    /**
+     * Re-analyzes the table in the background (see buildStatisticsInBackground),
+     * with the settings of its last analysis, if its statistics went stale
+     * (see TableStats::isStale) and it is not being re-analyzed already.
+     * Returns the future of the current re-analysis, if any. The caller
+     * (e.g. a query being planned) does not wait for it, and its transaction
+     * does not wait for it to commit.
+     */
+    public CompletableFuture<Void> refreshStatisticsIfStale() {
+        if (this.pendingStatistics.isDone() && this.stats.isStale()) {
+            this.pendingStatistics = this.buildStatisticsInBackground(this.stats.newCollector());
+        }
+        return this.pendingStatistics;
+    }
+
+    /**
+     * Waits for the current re-analysis of the table (see
+     * refreshStatisticsIfStale), if any, to finish. A re-analysis that
+     * failed (e.g. because the table was dropped meanwhile) is ignored.
+     */
+    public void awaitStatistics() {
+        if (!this.pendingStatistics.isDone()) {
+            this.pendingStatistics.handle((result, exception) -> null).join();
+        }
+    }
+
+    private CompletableFuture<Void> buildStatisticsInBackground(StatisticsCollector collector) {
+        // not runAsync: the database's ThreadPool waits on every Future it
+        // runs, and those of runAsync never complete as such
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Runnable work = () -> {
+            try {
+                List<Long> pageNums = this.heapFile.getDataPageNums();
+                this.stats.refreshHistograms(collector, () -> {
+                    Iterator<Long> pages = pageNums.iterator();
+                    return new Iterator<List<Record>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return pages.hasNext();
+                        }
+
+                        @Override
+                        public List<Record> next() {
+                            return getPageRecords(pages.next());
+                        }
+                    };
+                });
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        try {
+            this.statisticsExecutor.execute(work);
+        } catch (RejectedExecutionException e) {
+            // the database is closing
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     // Modifiers /////////////////////////////////////////////////////////////////
     private synchronized void insertRecord(Page page, int entryNum, Record record) {
         int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
@@ -255,6 +379,7 @@ public class Table implements BacktrackingIterable<Record> {
      */
     public synchronized RecordId addRecord(List<DataBox> values) {
         Record record = schema.verify(values);
+        this.awaitStatistics();
         Page page = heapFile.getPageWithSpace(schema.getSizeInBytes());
         try {
             // Find the first empty slot in the bitmap.
@@ -319,6 +444,7 @@ public class Table implements BacktrackingIterable<Record> {
         LockUtil.ensureSufficientLockHeld(lockContext.childContext(rid.getPageNum()), LockType.X);
 
         validateRecordId(rid);
+        this.awaitStatistics();
 
         Record newRecord = schema.verify(values);
         Record oldRecord = getRecord(rid);
@@ -344,6 +470,7 @@ public class Table implements BacktrackingIterable<Record> {
         LockUtil.ensureSufficientLockHeld(lockContext.childContext(rid.getPageNum()), LockType.X);
 
         validateRecordId(rid);
+        this.awaitStatistics();
 
         Page page = fetchPage(rid.getPageNum());
         try {
@@ -465,6 +592,75 @@ public class Table implements BacktrackingIterable<Record> {
         return new RecordIterator(this, ridIterator());
     }
 
+    /**
+     * Returns the records of the table one data page at a time, in the order
+     * of iterator(). Unlike iterator(), which fetches the page of every
+     * record, each page is fetched and deserialized once.
+     */
+    public Iterator<List<Record>> pageRecordsIterator() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+
+        BacktrackingIterator<Page> pages = heapFile.iterator();
+        return new Iterator<List<Record>>() {
+            @Override
+            public boolean hasNext() {
+                return pages.hasNext();
+            }
+
+            @Override
+            public List<Record> next() {
+                Page page = pages.next();
+                try {
+                    return getRecords(page);
+                } finally {
+                    page.unpin();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the page numbers of the data pages of the table, in the order
+     * of pageRecordsIterator(), so that disjoint ranges of them can be read
+     * with getPageRecords (e.g. by parallel scans).
+     */
+    public List<Long> getDataPageNums() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+
+        return heapFile.getDataPageNums();
+    }
+
+    /**
+     * Returns the records of the data page pageNum, in order. The caller must
+     * already hold a lock on the table that covers the page (see
+     * getDataPageNums), since none is acquired here.
+     */
+    public List<Record> getPageRecords(long pageNum) {
+        Page page = heapFile.getPage(pageNum);
+        try {
+            return getRecords(page);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // Deserializes the records of page, which must be pinned. This does not
+    // synchronize on the table: the records of a page cannot change while
+    // the transaction reading them holds a lock covering it, so pages can be
+    // deserialized by several threads at once.
+    private List<Record> getRecords(Page page) {
+        byte[] bitmap = getBitMap(page);
+        Buffer buf = page.getBuffer();
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage; ++i) {
+            if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
+                buf.position(bitmapSizeInBytes + i * schema.getSizeInBytes());
+                records.add(Record.fromBytes(buf, schema));
+            }
+        }
+        return records;
+    }
+
     private BacktrackingIterator<RecordId> blockRidIterator(Iterator<Page> pageIter, int maxPages) {
         Page[] block = new Page[maxPages];
         int numPages;
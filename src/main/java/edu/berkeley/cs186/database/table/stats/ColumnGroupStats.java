@@ -0,0 +1,147 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The joint statistics of a pair of columns of a table (see
+ * TableStats::addColumnGroup), which capture what the histograms of each
+ * column cannot: how the values of one column depend on the other. For
+ * example, in a table of addresses, the city follows from the zip code, so
+ *
+ *   SELECT * FROM addresses WHERE zip = 94720 AND city = 'Berkeley'
+ *
+ * returns all the records of the zip code, not the fraction of them that
+ * the histogram of the city predicts.
+ *
+ * These are most common value lists, of the (quantized, see Histogram)
+ * values of each column and of the pairs of values of both, with the
+ * fraction of the records analyzed (see StatisticsCollector::buildColumnGroup)
+ * that has each. Values that are not in a list share the records the list
+ * leaves out evenly.
+ */
+public class ColumnGroupStats {
+    // The number of values kept in each list.
+    public static final int MAX_COMMON_VALUES = 100;
+
+    private final int firstColumn;
+    private final int secondColumn;
+    private final CommonValues firstValues;
+    private final CommonValues secondValues;
+    private final CommonValues pairs;
+
+    /**
+     * Builds the statistics of columns firstColumn and secondColumn from the
+     * first numValues of firstValues and secondValues, the quantized values
+     * of each column of the same records.
+     */
+    ColumnGroupStats(int firstColumn, int secondColumn, float[] firstValues, float[] secondValues,
+                     int numValues) {
+        this.firstColumn = firstColumn;
+        this.secondColumn = secondColumn;
+        long[] firstKeys = new long[numValues];
+        long[] secondKeys = new long[numValues];
+        long[] pairKeys = new long[numValues];
+        for (int i = 0; i < numValues; ++i) {
+            firstKeys[i] = key(firstValues[i]);
+            secondKeys[i] = key(secondValues[i]);
+            pairKeys[i] = key(firstValues[i], secondValues[i]);
+        }
+        this.firstValues = new CommonValues(firstKeys);
+        this.secondValues = new CommonValues(secondKeys);
+        this.pairs = new CommonValues(pairKeys);
+    }
+
+    public int getFirstColumn() {
+        return firstColumn;
+    }
+
+    public int getSecondColumn() {
+        return secondColumn;
+    }
+
+    /**
+     * Returns the other column of the pair, if column is one of them, and -1
+     * otherwise.
+     */
+    public int getOtherColumn(int column) {
+        if (column == firstColumn) {
+            return secondColumn;
+        }
+        return column == secondColumn ? firstColumn : -1;
+    }
+
+    /** Returns the estimated fraction of the records where column has value. */
+    public float getFrequency(int column, float value) {
+        return (float) (column == firstColumn ? firstValues : secondValues).getFrequency(key(value));
+    }
+
+    /**
+     * Returns the estimated fraction of the records where column has value,
+     * among those where the other column of the pair has otherValue, i.e. the
+     * reduction factor of the predicate column = value on the records left by
+     * the predicate other = otherValue.
+     */
+    public float computeReductionFactor(int column, float value, float otherValue) {
+        int other = getOtherColumn(column);
+        if (other < 0) {
+            throw new IllegalArgumentException("column " + column + " is not in the group");
+        }
+        double otherFrequency = getFrequency(other, otherValue);
+        if (otherFrequency == 0) {
+            return 0;
+        }
+        double frequency = column == firstColumn ? pairs.getFrequency(key(value, otherValue))
+                           : pairs.getFrequency(key(otherValue, value));
+        return (float) Math.min(frequency / otherFrequency, 1);
+    }
+
+    private static long key(float value) {
+        // -0.0f and 0.0f are the same value
+        return Float.floatToIntBits(value + 0.0f);
+    }
+
+    private static long key(float first, float second) {
+        return key(first) << 32 | (key(second) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The MAX_COMMON_VALUES most common of a list of values (or pairs of
+     * values), with their frequencies.
+     */
+    private static class CommonValues {
+        private final Map<Long, Double> frequencies = new HashMap<>();
+        // the fraction of the values, and the number of distinct values, that
+        // are not in frequencies
+        private double otherFrequency;
+        private long numOtherDistinct;
+
+        CommonValues(long[] values) {
+            Map<Long, Integer> counts = new HashMap<>();
+            for (long value : values) {
+                counts.merge(value, 1, Integer::sum);
+            }
+            List<Map.Entry<Long, Integer>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+            long numCommon = 0;
+            for (int i = 0; i < Math.min(entries.size(), MAX_COMMON_VALUES); ++i) {
+                Map.Entry<Long, Integer> entry = entries.get(i);
+                frequencies.put(entry.getKey(), (double) entry.getValue() / values.length);
+                numCommon += entry.getValue();
+            }
+            this.numOtherDistinct = entries.size() - frequencies.size();
+            this.otherFrequency = values.length == 0 ? 0 : (double) (values.length - numCommon) / values.length;
+        }
+
+        double getFrequency(long value) {
+            Double frequency = frequencies.get(value);
+            if (frequency != null) {
+                return frequency;
+            }
+            return numOtherDistinct == 0 ? 0 : otherFrequency / numOtherDistinct;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import edu.berkeley.cs186.database.common.PredicateOperator;
@@ -57,6 +58,12 @@ public class Histogram {
     private float minValue;
     private float maxValue;
     private float width;    // The width of each bucket
+    // Whether the buckets hold (about) the same number of values each, rather
+    // than having the same width (see buildEquiDepth)
+    private boolean equiDepth;
+    // Whether the counts were scaled up from a sample (see scale), so that
+    // the buckets no longer know their distinct values
+    private boolean scaled;
 
     /*This constructor initialize an empty histogram object*/
     public Histogram() {
@@ -72,8 +79,9 @@ public class Histogram {
     }
 
     /*This is a copy constructor that generates a new histogram from a bucket list*/
-    private Histogram(Bucket<Float>[] buckets) {
+    private Histogram(Bucket<Float>[] buckets, boolean equiDepth) {
         this.buckets = buckets;
+        this.equiDepth = equiDepth;
         this.minValue = buckets[0].getStart();
         this.width = buckets[0].getEnd() - buckets[0].getStart();
         this.maxValue = buckets[this.buckets.length - 1].getEnd();
@@ -89,7 +97,7 @@ public class Histogram {
         return quantization(d);
     }
 
-    private float quantization(DataBox d) {
+    static float quantization(DataBox d) {
         switch (d.type().getTypeId()) {
         case BOOL:   { return (d.getBool()) ? 1.0f : 0.0f; }
         case INT:    { return (float) d.getInt(); }
@@ -113,46 +121,177 @@ public class Histogram {
      */
     public void buildHistogram(Table table, int attribute) {
         //1. first calculate the min and the max values
+        Iterator<Record> iter = table.iterator();
+        while (iter.hasNext()) {
+            this.extendRange(quantization(iter.next(), attribute));
+        }
 
-        //2. calculate the width of each bin
-
-        //3. create each bucket object
+        //2. calculate the width of each bin, and 3. create each bucket object
+        this.createEquiWidthBuckets();
 
         //4. populate the data using the increment(value) method
-
-        Iterator<Record> iter = table.iterator();
+        iter = table.iterator();
         while (iter.hasNext()) {
-            Record record = iter.next();
-            float quantizedValue = quantization(record, attribute);
-            this.minValue = Math.min(this.minValue, quantizedValue);
-            this.maxValue = Math.max(this.maxValue, quantizedValue);
+            this.addToEquiWidthBucket(quantization(iter.next(), attribute));
         }
+    }
 
-        this.width = (this.maxValue - this.minValue) / this.buckets.length;
+    /**
+     * Builds a fixed width histogram (see buildHistogram) of the first
+     * numValues quantized values of values.
+     */
+    void buildEquiWidth(float[] values, int numValues) {
+        for (int i = 0; i < numValues; ++i) {
+            this.extendRange(values[i]);
+        }
+        this.createEquiWidthBuckets();
+        for (int i = 0; i < numValues; ++i) {
+            this.addToEquiWidthBucket(values[i]);
+        }
+    }
 
+    // The three steps of building a fixed width histogram one value at a
+    // time (see buildHistogram): the range of the values is extended to
+    // every value, then the buckets are created, and then every value is
+    // added again, to its bucket.
+    void extendRange(float quantizedValue) {
+        this.minValue = Math.min(this.minValue, quantizedValue);
+        this.maxValue = Math.max(this.maxValue, quantizedValue);
+    }
+
+    void createEquiWidthBuckets() {
+        this.width = (this.maxValue - this.minValue) / this.buckets.length;
         for (int i = 0; i < this.buckets.length; i++) {
             buckets[i] = new Bucket<>(this.minValue + (i) * width, this.minValue + (i + 1) * width);
         }
+    }
 
-        iter = table.iterator();
-        while (iter.hasNext()) {
-            Record record = iter.next();
-            float quantizedValue = quantization(record, attribute);
+    void addToEquiWidthBucket(float quantizedValue) {
+        int bucketIndex;
 
-            int bucketIndex;
+        if (this.width == 0) {
+            bucketIndex = this.buckets.length - 1; //always put in the last bin
+        } else {
+            bucketIndex = (int) Math.floor((quantizedValue - this.minValue) / this.width);
+            bucketIndex = Math.max(0, bucketIndex);
+            bucketIndex = Math.min(bucketIndex, this.buckets.length - 1);
+        }
 
-            if (this.width == 0) {
-                bucketIndex = this.buckets.length - 1; //always put in the last bin
-            } else {
-                bucketIndex = (int) Math.floor((quantizedValue - this.minValue) / this.width);
-                bucketIndex = Math.max(0, bucketIndex);
-                bucketIndex = Math.min(bucketIndex, this.buckets.length - 1);
+        buckets[bucketIndex].increment(quantizedValue);
+    }
+
+    /**
+     * Builds an equi-depth histogram of the first numValues quantized values
+     * of values: walking the sorted values, each bucket takes an equal share
+     * of the values left to the buckets left, so that buckets hold about as
+     * many values as each other even when the values are skewed. A bucket
+     * never ends in the middle of a run of equal values, so a frequent value
+     * gets a bucket (almost) to itself, and a column with few distinct values
+     * gets fewer buckets. values is sorted in place.
+     */
+    void buildEquiDepth(float[] values, int numValues) {
+        if (numValues == 0) {
+            this.buildEquiWidth(values, numValues);
+            return;
+        }
+        Arrays.sort(values, 0, numValues);
+        float[] bounds = new float[this.buckets.length + 1];
+        int[] counts = new int[this.buckets.length];
+        int numBuckets = 0;
+        bounds[0] = values[0];
+        for (int start = 0; start < numValues; ++numBuckets) {
+            int bucketsLeft = this.buckets.length - numBuckets;
+            int end = start + (numValues - start + bucketsLeft - 1) / bucketsLeft;
+            while (end < numValues && values[end] == values[end - 1]) {
+                ++end;
             }
+            // the last bucket includes its end
+            bounds[numBuckets + 1] = end < numValues ? values[end] : values[numValues - 1];
+            counts[numBuckets] = end - start;
+            start = end;
+        }
+
+        this.equiDepth = true;
+        this.minValue = bounds[0];
+        this.maxValue = bounds[numBuckets];
+        this.width = (this.maxValue - this.minValue) / numBuckets;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Bucket<Float>[] buckets = new Bucket[numBuckets];
+        this.buckets = buckets;
+        for (int i = 0, start = 0; i < numBuckets; start += counts[i++]) {
+            this.buckets[i] = new Bucket<>(bounds[i], bounds[i + 1]);
+            for (int j = start; j < start + counts[i]; ++j) {
+                this.buckets[i].increment(values[j]);
+            }
+        }
+    }
 
-            buckets[bucketIndex].increment(quantizedValue);
+    /**
+     * Scales the counts of a histogram built from a sample of a column to
+     * the whole column: the count of each bucket is scaled up to numRecords
+     * records, and the distinct counts are scaled up to numDistinct distinct
+     * values in all, in proportion to the distinct values of each bucket in
+     * the sample.
+     */
+    void scale(long numRecords, long numDistinct) {
+        int sampleCount = this.getCount();
+        int sampleDistinct = this.getNumDistinct();
+        if (sampleCount == 0) {
+            return;
+        }
+        this.scaled = true;
+        double countScale = (double) numRecords / sampleCount;
+        double distinctScale = (double) numDistinct / sampleDistinct;
+        for (Bucket<Float> bucket : this.buckets) {
+            int count = (int) Math.round(bucket.getCount() * countScale);
+            int distinctCount = (int) Math.round(bucket.getDistinctCount() * distinctScale);
+            distinctCount = Math.min(Math.max(distinctCount, bucket.getCount() > 0 ? 1 : 0), count);
+            bucket.setCount(count);
+            bucket.setDistinctCount(distinctCount);
         }
     }
 
+    /**
+     * Adds the quantized value v, of a record inserted after the histogram
+     * was built, to the bucket whose range contains it (or to the first or
+     * last bucket, if it is out of range). A histogram built from all the
+     * values also counts v as distinct if it is new; one scaled from a
+     * sample only counts it.
+     */
+    void addValue(float v) {
+        Bucket<Float> bucket = this.buckets[this.findBucket(v)];
+        if (this.scaled) {
+            bucket.setCount(bucket.getCount() + 1);
+        } else {
+            bucket.increment(v);
+        }
+    }
+
+    /**
+     * Removes the quantized value v, of a deleted record, from its bucket
+     * (see addValue). Other records may still have the value, so the
+     * distinct count is left as is.
+     */
+    void removeValue(float v) {
+        Bucket<Float> bucket = this.buckets[this.findBucket(v)];
+        bucket.setCount(Math.max(0, bucket.getCount() - 1));
+    }
+
+    // the index of the last bucket that starts at or below v, or 0
+    private int findBucket(float v) {
+        int i = this.buckets.length - 1;
+        while (i > 0 && v < this.buckets[i].getStart()) {
+            --i;
+        }
+        return i;
+    }
+
+    // The width of bucket i. Equi-width histograms use the width they were
+    // built with, which (up to rounding) is the width of every bucket.
+    private float width(int i) {
+        return this.equiDepth ? this.buckets[i].getEnd() - this.buckets[i].getStart() : this.width;
+    }
+
     private int bucketIndex(float v) {
         if (Math.abs(v - maxValue) < 0.00001) { return buckets.length - 1; }
         return (int) Math.floor((v - minValue) / width);
@@ -348,7 +487,7 @@ public class Histogram {
 
         for (int i = 0; i < this.buckets.length; i++) {
             if (qvalue >= this.buckets[i].getStart() && qvalue < this.buckets[i].getEnd()) {
-                result[i] = (this.buckets[i].getEnd() - qvalue) / this.width;
+                result[i] = (this.buckets[i].getEnd() - qvalue) / this.width(i);
             } else if (qvalue < this.buckets[i].getStart()) {
                 result[i] = 1.0f;
             } else {
@@ -368,7 +507,7 @@ public class Histogram {
 
         for (int i = 0; i < this.buckets.length; i++) {
             if (qvalue >= this.buckets[i].getStart() && qvalue < this.buckets[i].getEnd()) {
-                result[i] = (qvalue - this.buckets[i].getStart()) / this.width;
+                result[i] = (qvalue - this.buckets[i].getStart()) / this.width(i);
             } else if (qvalue >= this.buckets[i].getEnd()) {
                 result[i] = 1.0f;
             } else {
@@ -427,11 +566,20 @@ public class Histogram {
             int newCount = (int) Math.round(reduction[i] * this.buckets[i].getCount());
             int newDistinctCount = (int) Math.round(reduction[i] * this.buckets[i].getDistinctCount());
 
-            newBuckets[i].setCount(newCount);
-            newBuckets[i].setDistinctCount(newDistinctCount);
+            newBuckets[i] = copyBucket(this.buckets[i], newCount, newDistinctCount);
         }
 
-        return new Histogram(newBuckets);
+        return new Histogram(newBuckets, this.equiDepth);
+    }
+
+    // A bucket of the same range as bucket, with the given counts. The
+    // buckets of a table's histogram are updated as records are written
+    // (see addValue), so a copy never shares them.
+    private static Bucket<Float> copyBucket(Bucket<Float> bucket, int count, int distinctCount) {
+        Bucket<Float> copy = new Bucket<>(bucket.getStart(), bucket.getEnd());
+        copy.setCount(count);
+        copy.setDistinctCount(distinctCount);
+        return copy;
     }
 
     //uniformly reduces the values across the board with the mean reduction assumes uncorrelated
@@ -442,10 +590,9 @@ public class Histogram {
             int newCount = (int) Math.round(reduction * this.buckets[i].getCount());
             int newDistinctCount = (int) Math.round(reduction * this.buckets[i].getDistinctCount());
 
-            newBuckets[i].setCount(newCount);
-            newBuckets[i].setDistinctCount(newDistinctCount);
+            newBuckets[i] = copyBucket(this.buckets[i], newCount, newDistinctCount);
         }
 
-        return new Histogram(newBuckets);
+        return new Histogram(newBuckets, this.equiDepth);
     }
 }
@@ -0,0 +1,100 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * A HyperLogLog sketch estimates the number of distinct values added to it in
+ * a fixed 2^precision bytes, however many values there are:
+ *
+ *   HyperLogLog sketch = new HyperLogLog(12);
+ *   for (...) {
+ *       sketch.add(value);
+ *   }
+ *   sketch.estimate(); // about the number of distinct values, +/- ~1.6%
+ *
+ * Every value is hashed to 64 bits. The first `precision` bits pick one of
+ * 2^precision registers, and the register keeps the largest number of leading
+ * zeros (plus one) seen in the rest of the hashes of its values. Since a hash
+ * starts with k zeros with probability 2^-(k+1), a register that saw n
+ * distinct values holds about log2(n), and the harmonic mean of the registers
+ * gives the estimate. The standard error is about 1.04/sqrt(2^precision).
+ */
+public class HyperLogLog {
+    static final int DEFAULT_PRECISION = 12;
+
+    private int precision;
+    private byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 4 and 16");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** Adds value to the sketch. */
+    public void add(DataBox value) {
+        switch (value.type().getTypeId()) {
+        case LONG:
+            this.addHash(hash(value.getLong()));
+            break;
+        default:
+            this.addHash(hash(value.hashCode()));
+            break;
+        }
+    }
+
+    void addHash(long hash) {
+        int register = (int) (hash >>> (64 - this.precision));
+        // the leading zeros of the rest of the hash, plus one (at most 64 - precision + 1)
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << this.precision), 64 - this.precision) + 1;
+        if (rank > this.registers[register]) {
+            this.registers[register] = (byte) rank;
+        }
+    }
+
+    /** Adds the values of other, a sketch of the same precision, to this sketch. */
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("cannot merge sketches of different precisions");
+        }
+        for (int i = 0; i < this.registers.length; ++i) {
+            this.registers[i] = (byte) Math.max(this.registers[i], other.registers[i]);
+        }
+    }
+
+    /** Returns an estimate of the number of distinct values added to the sketch. */
+    public long estimate() {
+        int m = this.registers.length;
+        double sum = 0;
+        int numZeros = 0;
+        for (byte register : this.registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                ++numZeros;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && numZeros > 0) {
+            // few values: count the empty registers instead (linear counting)
+            estimate = m * Math.log((double) m / numZeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // Spreads the bits of x over all 64 bits of the hash (the finalizer of MurmurHash3).
+    static long hash(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+}
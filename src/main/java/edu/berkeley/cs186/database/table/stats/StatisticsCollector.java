@@ -0,0 +1,236 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * Collects the statistics of every column of a table in one or two passes
+ * over its records (see TableStats::refreshHistograms):
+ *
+ *   StatisticsCollector collector = new StatisticsCollector(schema, 10, 10000, new Random());
+ *   for (Record record : ...) {
+ *       collector.add(record);
+ *   }
+ *   if (collector.beginSecondPass()) {
+ *       for (Record record : ...) {
+ *           collector.add(record);
+ *       }
+ *   }
+ *   collector.getNumRecords(); // the number of records added
+ *   collector.buildHistograms(); // one histogram per column
+ *   collector.buildColumnGroup(0, 1); // joint statistics of columns 0 and 1
+ *
+ * The quantized values (see Histogram) of a uniform random sample of
+ * sampleSize of the records are kept, by reservoir sampling: the first
+ * sampleSize records fill the sample, and the n-th record after them
+ * replaces a random record of the sample with probability sampleSize/n. A
+ * HyperLogLog sketch of every column counts the distinct values of all the
+ * records added.
+ *
+ * A sampling collector builds equi-depth histograms of the sample, scaled up
+ * to the number of records and the distinct values counted by the sketches.
+ * If there were no more records than fit in the sample, these are exact. A
+ * collector built without a sample size builds the same equi-width
+ * histograms as Histogram::buildHistogram, in the same two passes: the
+ * first finds the range of every column, and the second fills the buckets,
+ * so that only the buckets are kept in memory. Its sample, of at most
+ * GROUP_SAMPLE_SIZE records, is only used for the joint statistics of
+ * columns (see buildColumnGroup).
+ */
+public class StatisticsCollector {
+    // The size of the sample of a collector built without a sample size.
+    public static final int GROUP_SAMPLE_SIZE = 10000;
+
+    private int numBuckets;
+    private int sampleSize;
+    private boolean equiDepth;
+    private Random random;
+
+    private long numRecords;
+    // the quantized values of column i of the records of the sample are
+    // samples[i][0..numSampled)
+    private float[][] samples;
+    private int numSampled;
+    private List<HyperLogLog> sketches;
+    // the equi-width histograms of a collector built without a sample size,
+    // whose buckets are filled in the second pass
+    private List<Histogram> histograms;
+    private boolean secondPass;
+
+    /**
+     * Creates a collector of exact equi-width histograms of numBuckets
+     * buckets of the columns of schema.
+     */
+    public StatisticsCollector(Schema schema, int numBuckets) {
+        this(schema, numBuckets, GROUP_SAMPLE_SIZE, false, new Random());
+    }
+
+    /**
+     * Creates a collector of equi-depth histograms of numBuckets buckets of
+     * the columns of schema, from a sample of sampleSize records chosen with
+     * random.
+     */
+    public StatisticsCollector(Schema schema, int numBuckets, int sampleSize, Random random) {
+        this(schema, numBuckets, sampleSize, true, random);
+    }
+
+    private StatisticsCollector(Schema schema, int numBuckets, int sampleSize, boolean equiDepth,
+                                Random random) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("sample size must be at least 1");
+        }
+        int numColumns = schema.getFieldNames().size();
+        this.numBuckets = numBuckets;
+        this.sampleSize = sampleSize;
+        this.equiDepth = equiDepth;
+        this.random = random;
+        this.numRecords = 0;
+        this.samples = new float[numColumns][Math.min(sampleSize, 1024)];
+        this.numSampled = 0;
+        this.sketches = new ArrayList<>();
+        this.histograms = new ArrayList<>();
+        for (int i = 0; i < numColumns; ++i) {
+            if (equiDepth) {
+                this.sketches.add(new HyperLogLog());
+            } else {
+                this.histograms.add(new Histogram(numBuckets));
+            }
+        }
+        this.secondPass = false;
+    }
+
+    /**
+     * Returns a new collector with the same settings as this one, e.g. to
+     * collect the statistics of the table again.
+     */
+    public StatisticsCollector copySettings(Schema schema) {
+        return new StatisticsCollector(schema, this.numBuckets, this.sampleSize, this.equiDepth, this.random);
+    }
+
+    /**
+     * Adds record, a record of the table, to the statistics, in the current
+     * pass (see beginSecondPass).
+     */
+    public void add(Record record) {
+        List<DataBox> values = record.getValues();
+        if (this.secondPass) {
+            for (int i = 0; i < this.histograms.size(); ++i) {
+                this.histograms.get(i).addToEquiWidthBucket(Histogram.quantization(values.get(i)));
+            }
+            return;
+        }
+        ++this.numRecords;
+        for (int i = 0; i < this.sketches.size(); ++i) {
+            this.sketches.get(i).add(values.get(i));
+        }
+        for (int i = 0; i < this.histograms.size(); ++i) {
+            this.histograms.get(i).extendRange(Histogram.quantization(values.get(i)));
+        }
+
+        int slot;
+        if (this.numSampled < this.sampleSize) {
+            if (this.samples.length > 0 && this.numSampled == this.samples[0].length) {
+                int capacity = (int) Math.min((long) this.sampleSize, 2L * this.numSampled);
+                for (int i = 0; i < this.samples.length; ++i) {
+                    this.samples[i] = Arrays.copyOf(this.samples[i], capacity);
+                }
+            }
+            slot = this.numSampled++;
+        } else {
+            long j = (long) (this.random.nextDouble() * this.numRecords);
+            if (j >= this.sampleSize) {
+                return;
+            }
+            slot = (int) j;
+        }
+        for (int i = 0; i < this.samples.length; ++i) {
+            this.samples[i][slot] = Histogram.quantization(values.get(i));
+        }
+    }
+
+    /**
+     * Ends the first pass over the records, and returns whether every record
+     * must then be added again: a collector built without a sample size has
+     * only found the range of every column, and fills the buckets of its
+     * histograms in a second pass. Other collectors, and ones already in
+     * their second pass, return false.
+     */
+    public boolean beginSecondPass() {
+        if (this.equiDepth || this.secondPass) {
+            return false;
+        }
+        for (Histogram histogram : this.histograms) {
+            histogram.createEquiWidthBuckets();
+        }
+        this.secondPass = true;
+        return true;
+    }
+
+    /** Returns the number of records added (in the first pass). */
+    public long getNumRecords() {
+        return this.numRecords;
+    }
+
+    /** Returns the number of records in the sample. */
+    public int getNumSampled() {
+        return this.numSampled;
+    }
+
+    /**
+     * Returns an estimate of the number of distinct values of column i, or,
+     * without a sample size, the exact number counted by its histogram once
+     * the second pass is over.
+     */
+    public long getNumDistinct(int i) {
+        if (!this.equiDepth) {
+            if (!this.secondPass && this.numRecords > 0) {
+                throw new IllegalStateException("distinct values are only counted in the second pass " +
+                                                "(see beginSecondPass)");
+            }
+            return this.buildHistograms().get(i).getNumDistinct();
+        }
+        return this.sketches.get(i).estimate();
+    }
+
+    /**
+     * Builds the histogram of every column, in order. Without a sample size,
+     * these are the histograms filled by the second pass.
+     */
+    public List<Histogram> buildHistograms() {
+        if (!this.equiDepth) {
+            if (!this.secondPass && this.numRecords > 0) {
+                throw new IllegalStateException("the buckets are only filled in the second pass " +
+                                                "(see beginSecondPass)");
+            }
+            // no records, no second pass
+            this.beginSecondPass();
+            return this.histograms;
+        }
+        List<Histogram> histograms = new ArrayList<>();
+        for (int i = 0; i < this.samples.length; ++i) {
+            Histogram histogram = new Histogram(this.numBuckets);
+            // buildEquiDepth sorts the values, which leaves the sample intact
+            histogram.buildEquiDepth(Arrays.copyOf(this.samples[i], this.numSampled), this.numSampled);
+            if (this.numRecords > this.numSampled) {
+                histogram.scale(this.numRecords, this.getNumDistinct(i));
+            }
+            histograms.add(histogram);
+        }
+        return histograms;
+    }
+
+    /**
+     * Builds the joint statistics of columns i and j (see ColumnGroupStats)
+     * from the sample, i.e. from every record if there were no more than
+     * fit in it.
+     */
+    public ColumnGroupStats buildColumnGroup(int i, int j) {
+        return new ColumnGroupStats(i, j, this.samples[i], this.samples[j], this.numSampled);
+    }
+}
@@ -1,11 +1,16 @@
 package edu.berkeley.cs186.database.table.stats;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
@@ -43,12 +48,40 @@ import edu.berkeley.cs186.database.table.Table;
  *   stats.getNumRecords(); // Estimated number of records.
  *   stats.getNumPages();   // Estimated number of pages.
  *   stats.getHistograms(); // Histograms on each column.
+ *
+ * The histograms assume that the columns are independent. Pairs of columns
+ * that are not can be registered with addColumnGroup, and their joint
+ * statistics (see ColumnGroupStats) are then built by every analysis, and
+ * used to estimate an equality predicate on one column of a pair that
+ * follows another on the other column (see copyWithPredicate).
  */
 public class TableStats {
+    // The statistics of an analyzed table go stale (see isStale) once more
+    // than this fraction of the records it had when it was analyzed, and at
+    // least MIN_STALE_MODIFICATIONS records, were inserted, updated or deleted.
+    public static final float DEFAULT_STALENESS_THRESHOLD = 0.2f;
+    public static final int MIN_STALE_MODIFICATIONS = 50;
+
     private Schema tableSchema;
     private int numRecordsPerPage;
-    private int numRecords;
+    private long numRecords;
     private List<Histogram> histograms;
+    // The collector of the last analysis, or null if the histograms were
+    // never built, and the number of records then.
+    private StatisticsCollector lastCollector;
+    private long numRecordsAnalyzed;
+    // The number of records inserted, updated or deleted since.
+    private long numModifications;
+    // The number of times the table was analyzed.
+    private long numAnalyses;
+    private float stalenessThreshold = DEFAULT_STALENESS_THRESHOLD;
+    // The pairs of columns registered with addColumnGroup, and their joint
+    // statistics as of the last analysis.
+    private List<int[]> columnGroups = new ArrayList<>();
+    private List<ColumnGroupStats> columnGroupStats;
+    // The quantized values of the equality predicates applied to get these
+    // statistics (see copyWithPredicate), by column.
+    private Map<Integer, Float> equalities;
 
     /** Construct a TableStats for an empty table with schema `tableSchema`. */
     public TableStats(Schema tableSchema, int numRecordsPerPage) {
@@ -60,39 +93,179 @@ public class TableStats {
             Histogram h = new Histogram();
             this.histograms.add(h);
         }
+        this.columnGroupStats = Collections.emptyList();
+        this.equalities = Collections.emptyMap();
     }
 
-    private TableStats(Schema tableSchema, int numRecordsPerPage, int numRecords,
+    private TableStats(Schema tableSchema, int numRecordsPerPage, long numRecords,
                        List<Histogram> histograms) {
+        this(tableSchema, numRecordsPerPage, numRecords, histograms, Collections.emptyList(),
+             Collections.emptyMap());
+    }
+
+    private TableStats(Schema tableSchema, int numRecordsPerPage, long numRecords,
+                       List<Histogram> histograms, List<ColumnGroupStats> columnGroupStats,
+                       Map<Integer, Float> equalities) {
         this.tableSchema = tableSchema;
         this.numRecordsPerPage = numRecordsPerPage;
         this.numRecords = numRecords;
         this.histograms = histograms;
+        this.columnGroupStats = columnGroupStats;
+        this.equalities = equalities;
     }
 
     // Modifiers /////////////////////////////////////////////////////////////////
-    public void addRecord(Record record) {
+    /**
+     * Counts record, a record inserted into the table. If the table was
+     * analyzed, its values are also added to the histograms (see
+     * Histogram::addValue), so that they keep up with the table between
+     * analyses.
+     */
+    public synchronized void addRecord(Record record) {
         numRecords++;
+        numModifications++;
+        if (lastCollector != null) {
+            List<DataBox> values = record.getValues();
+            for (int i = 0; i < histograms.size(); ++i) {
+                histograms.get(i).addValue(Histogram.quantization(values.get(i)));
+            }
+        }
     }
 
+    /**
+     * Rebuilds the histograms of every column, exactly, in two passes over
+     * the records of tab (see StatisticsCollector).
+     */
     public void refreshHistograms(int buckets, Table tab) {
-        List<Histogram> newHistograms = new ArrayList<>();
-        int count = 0;
-        int totalRecords = 0;
-        for (Type t : tableSchema.getFieldTypes()) {
-            Histogram h = new Histogram(buckets);
-            h.buildHistogram(tab, count);
-            newHistograms.add(h);
-            totalRecords += h.getCount();
-            count++;
+        this.refreshHistograms(new StatisticsCollector(this.tableSchema, buckets), tab::pageRecordsIterator);
+    }
+
+    /**
+     * Rebuilds the histograms of every column with collector, from pages, the
+     * records of the table a page at a time (see Table::pageRecordsIterator),
+     * which are read once more if the collector needs a second pass (see
+     * StatisticsCollector::beginSecondPass). The new statistics replace the
+     * old ones all at once, so that queries planned meanwhile see one or the
+     * other.
+     */
+    public void refreshHistograms(StatisticsCollector collector, Iterable<List<Record>> pages) {
+        long numModifications = this.getNumModifications();
+        addPages(collector, pages);
+        if (collector.beginSecondPass()) {
+            addPages(collector, pages);
+        }
+        List<Histogram> histograms = collector.buildHistograms();
+        List<ColumnGroupStats> columnGroupStats = new ArrayList<>();
+        for (int[] columns : this.getColumnGroups()) {
+            columnGroupStats.add(collector.buildColumnGroup(columns[0], columns[1]));
         }
+        synchronized (this) {
+            this.histograms = histograms;
+            this.columnGroupStats = columnGroupStats;
+            this.numRecords = collector.getNumRecords();
+            this.lastCollector = collector;
+            this.numRecordsAnalyzed = this.numRecords;
+            ++this.numAnalyses;
+            // modifications made while the pages were read may be missing
+            // from the new statistics, so they still count
+            this.numModifications -= numModifications;
+        }
+    }
 
-        this.histograms = newHistograms;
-        this.numRecords = Math.round(((float)totalRecords) / count);
+    private static void addPages(StatisticsCollector collector, Iterable<List<Record>> pages) {
+        for (List<Record> page : pages) {
+            for (Record record : page) {
+                collector.add(record);
+            }
+        }
     }
 
-    public void removeRecord(Record record) {
+    /**
+     * Counts record, a record deleted from the table (see addRecord). An
+     * update is counted as the deletion of the old record and the insertion
+     * of the new one.
+     */
+    public synchronized void removeRecord(Record record) {
         numRecords = Math.max(numRecords - 1, 0);
+        numModifications++;
+        if (lastCollector != null) {
+            List<DataBox> values = record.getValues();
+            for (int i = 0; i < histograms.size(); ++i) {
+                histograms.get(i).removeValue(Histogram.quantization(values.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Registers firstColumn and secondColumn as a pair of correlated columns,
+     * whose joint statistics are built by the next analysis of the table
+     * (and the ones after it). Registering a pair twice has no effect.
+     */
+    public synchronized void addColumnGroup(int firstColumn, int secondColumn) {
+        int numColumns = tableSchema.getFieldNames().size();
+        if (firstColumn < 0 || firstColumn >= numColumns || secondColumn < 0 || secondColumn >= numColumns) {
+            throw new IllegalArgumentException("no such column");
+        }
+        if (firstColumn == secondColumn) {
+            throw new IllegalArgumentException("a column group needs two distinct columns");
+        }
+        for (int[] columns : columnGroups) {
+            if ((columns[0] == firstColumn && columns[1] == secondColumn) ||
+                    (columns[0] == secondColumn && columns[1] == firstColumn)) {
+                return;
+            }
+        }
+        columnGroups.add(new int[] {firstColumn, secondColumn});
+    }
+
+    private synchronized List<int[]> getColumnGroups() {
+        return new ArrayList<>(columnGroups);
+    }
+
+    /**
+     * Returns the number of records inserted, updated or deleted since the
+     * table was last analyzed (or created).
+     */
+    public synchronized long getNumModifications() {
+        return numModifications;
+    }
+
+    /**
+     * Returns the number of times the table was analyzed. Plans made before
+     * the last analysis were estimated with other histograms (see PlanCache).
+     */
+    public synchronized long getNumAnalyses() {
+        return numAnalyses;
+    }
+
+    /**
+     * Sets the fraction of the records of the table that must be modified
+     * for its statistics to go stale (DEFAULT_STALENESS_THRESHOLD by default).
+     */
+    public synchronized void setStalenessThreshold(float stalenessThreshold) {
+        if (stalenessThreshold < 0) {
+            throw new IllegalArgumentException("staleness threshold cannot be negative");
+        }
+        this.stalenessThreshold = stalenessThreshold;
+    }
+
+    /**
+     * Returns whether the table was analyzed, and enough of it has changed
+     * since for its statistics to be refreshed (see Table::refreshStatisticsIfStale).
+     * Tables that were never analyzed are never stale: their estimates do
+     * not rely on histograms to begin with.
+     */
+    public synchronized boolean isStale() {
+        return lastCollector != null &&
+               numModifications >= Math.max(MIN_STALE_MODIFICATIONS, stalenessThreshold * numRecordsAnalyzed);
+    }
+
+    /**
+     * Returns a collector with the settings of the last analysis, to analyze
+     * the table again, or null if it was never analyzed.
+     */
+    public synchronized StatisticsCollector newCollector() {
+        return lastCollector == null ? null : lastCollector.copySettings(tableSchema);
     }
 
     // Accessors /////////////////////////////////////////////////////////////////
@@ -100,26 +273,33 @@ public class TableStats {
         return tableSchema;
     }
 
-    public int getNumRecords() {
+    public synchronized long getNumRecords() {
         return numRecords;
     }
 
     /**
      * Calculates the number of data pages required to store `numRecords` records
      * assuming that all records are stored as densely as possible in the pages.
+     * A table cannot have more than Integer.MAX_VALUE pages, so neither can
+     * the (estimated) result of a query: the count saturates there.
      */
-    public int getNumPages() {
-        if (numRecords % numRecordsPerPage == 0) {
-            return numRecords / numRecordsPerPage;
-        } else {
-            return (numRecords / numRecordsPerPage) + 1;
-        }
+    public synchronized int getNumPages() {
+        long numPages = numRecords / numRecordsPerPage + (numRecords % numRecordsPerPage == 0 ? 0 : 1);
+        return (int) Math.min(numPages, Integer.MAX_VALUE);
     }
 
-    public List<Histogram> getHistograms() {
+    public synchronized List<Histogram> getHistograms() {
         return histograms;
     }
 
+    /**
+     * Returns the joint statistics of the registered pairs of columns (see
+     * addColumnGroup) as of the last analysis, if any.
+     */
+    public synchronized List<ColumnGroupStats> getColumnGroupStats() {
+        return columnGroupStats;
+    }
+
     // Copiers ///////////////////////////////////////////////////////////////////
     /**
      * Estimates the table statistics for the table that would be produced after
@@ -158,11 +338,30 @@ public class TableStats {
      *       ----------------------------        ----------------------------
      *        0    1    2    3    4    5          0    1    2    3    4    5
      *              0    0    0    0    0               0    0    0    0    0
+     *
+     * The exception is an equality predicate on a column of a registered
+     * pair (see addColumnGroup), when an equality predicate on the other
+     * column was applied already: its reduction factor is then that of the
+     * joint statistics of the pair, given the value of the other column.
+     *
+     * The histograms are read while holding the lock of these statistics,
+     * as records added to (or removed from) the table change them in place.
      */
-    public TableStats copyWithPredicate(int column,
-                                        PredicateOperator predicate,
-                                        DataBox d) {
-        float reductionFactor = histograms.get(column).computeReductionFactor(predicate, d);
+    public synchronized TableStats copyWithPredicate(int column,
+                                                     PredicateOperator predicate,
+                                                     DataBox d) {
+        Map<Integer, Float> copyEqualities = this.equalities;
+        float reductionFactor = -1;
+        if (predicate == PredicateOperator.EQUALS) {
+            float value = Histogram.quantization(d);
+            reductionFactor = this.computeJointReductionFactor(column, value);
+            copyEqualities = new HashMap<>(this.equalities);
+            copyEqualities.put(column, value);
+        }
+        boolean joint = reductionFactor >= 0;
+        if (!joint) {
+            reductionFactor = histograms.get(column).computeReductionFactor(predicate, d);
+        }
         List<Histogram> copyHistograms = new ArrayList<>();
         for (int j = 0; j < histograms.size(); ++j) {
             Histogram histogram = histograms.get(j);
@@ -173,14 +372,68 @@ public class TableStats {
             }
         }
 
-        Histogram qhistogram = histograms.get(column);
-        int numRecords = qhistogram.getCount();
-        return new TableStats(this.tableSchema, this.numRecordsPerPage, numRecords, copyHistograms);
+        Histogram qhistogram = copyHistograms.get(column);
+        long numRecords = joint ? Math.round(reductionFactor * this.numRecords) : qhistogram.getCount();
+        return new TableStats(this.tableSchema, this.numRecordsPerPage, numRecords, copyHistograms,
+                              this.columnGroupStats, copyEqualities);
+    }
+
+    /**
+     * Returns the reduction factor of column = value given the equality
+     * predicates applied already (see copyWithPredicate), or -1 if no
+     * registered pair relates column to one of them.
+     */
+    private float computeJointReductionFactor(int column, float value) {
+        for (ColumnGroupStats group : this.columnGroupStats) {
+            int other = group.getOtherColumn(column);
+            Float otherValue = this.equalities.get(other);
+            // a value that was not analyzed tells us nothing of the pair
+            if (otherValue != null && group.getFrequency(other, otherValue) > 0) {
+                return group.computeReductionFactor(column, value, otherValue);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Estimates the table statistics for the first `limit` records of the
+     * table, whose values are assumed to be spread like those of the whole
+     * table.
+     */
+    public synchronized TableStats copyWithLimit(int limit) {
+        long numRecords = Math.min(limit, this.numRecords);
+        float reductionFactor = this.numRecords == 0 ? 1 : (float) numRecords / this.numRecords;
+        return new TableStats(this.tableSchema, this.numRecordsPerPage, numRecords,
+                              this.copyHistogramsWithReduction(reductionFactor), this.columnGroupStats,
+                              this.equalities);
+    }
+
+    /**
+     * Estimates the table statistics for the groups of the table by column
+     * `column` (-1 for a single group): `numGroups` records of schema
+     * `groupedSchema`, the grouping column (if any) followed by the
+     * aggregates. The grouping column keeps its histogram, which has the
+     * distinct values of the groups; the aggregates have none, like the
+     * columns of a table that was never analyzed.
+     */
+    public synchronized TableStats copyWithGroupBy(int column, Schema groupedSchema, long numGroups) {
+        List<Histogram> copyHistograms = new ArrayList<>();
+        if (column != -1) {
+            copyHistograms.add(column < this.histograms.size() ? this.histograms.get(column).copyWithReduction(1)
+                               : new Histogram());
+        }
+        while (copyHistograms.size() < groupedSchema.getFieldNames().size()) {
+            copyHistograms.add(new Histogram());
+        }
+        int numRecordsPerPage = Table.computeNumRecordsPerPage(BufferManager.EFFECTIVE_PAGE_SIZE, groupedSchema);
+        return new TableStats(groupedSchema, Math.max(1, numRecordsPerPage), numGroups, copyHistograms);
     }
 
     /**
      * Creates a new TableStats which is the statistics for the table
      * that results from this TableStats joined with the given TableStats.
+     * Each side is read while holding its own lock only (see addRecord), so
+     * that two joins of the same tables in opposite orders cannot deadlock.
      *
      * @param leftIndex the index of the join column for this
      * @param rightStats the TableStats of the right table to be joined
@@ -201,30 +454,16 @@ public class TableStats {
 
         Schema joinedSchema = new Schema(joinedFieldNames, joinedFieldTypes);
 
-        //System.out.println(this.numRecords  + " " +rightStats.getNumRecords());
-
-        int inputSize = this.numRecords * rightStats.getNumRecords();
-
-        int leftNumDistinct;
-        if (this.histograms.size() > 0) {
-            leftNumDistinct = this.histograms.get(leftIndex).getNumDistinct() + 1;
-        } else {
-            leftNumDistinct = 1;
-        }
-
-        int rightNumDistinct;
-        if (rightStats.histograms.size() > 0) {
-            rightNumDistinct = rightStats.histograms.get(rightIndex).getNumDistinct() + 1;
-        } else {
-            rightNumDistinct = 1;
-        }
-
-        float reductionFactor = 1.0f / Math.max(leftNumDistinct, rightNumDistinct);
+        int leftNumDistinct = this.getJoinNumDistinct(leftIndex);
+        int rightNumDistinct = rightStats.getJoinNumDistinct(rightIndex);
+        long leftNumRecords = this.getNumRecords();
+        long rightNumRecords = rightStats.getNumRecords();
 
-        List<Histogram> copyHistograms = new ArrayList<>();
+        // the cross product of two tables of ~50k records each is already
+        // past Integer.MAX_VALUE, so sizes are computed in doubles
+        double inputSize = (double) leftNumRecords * rightNumRecords;
 
-        int leftNumRecords = this.numRecords;
-        int rightNumRecords = rightStats.getNumRecords();
+        double reductionFactor = 1.0 / Math.max(leftNumDistinct, rightNumDistinct);
 
         //todo fix
         float leftReductionFactor = leftNumDistinct / Math.max(leftNumDistinct, rightNumDistinct);
@@ -234,16 +473,27 @@ public class TableStats {
 
 //    Histogram joinHistogram = this.histograms.get(leftIndex);
 
-        for (Histogram leftHistogram : this.histograms) {
-            copyHistograms.add(leftHistogram.copyWithReduction(leftReductionFactor));
-        }
-
-        for (Histogram rightHistogram : rightStats.histograms) {
-            copyHistograms.add(rightHistogram.copyWithReduction(rightReductionFactor));
-        }
+        List<Histogram> copyHistograms = new ArrayList<>();
+        copyHistograms.addAll(this.copyHistogramsWithReduction(leftReductionFactor));
+        copyHistograms.addAll(rightStats.copyHistogramsWithReduction(rightReductionFactor));
 
-        int outputSize = (int)(reductionFactor * inputSize);
+        // (long) saturates at Long.MAX_VALUE
+        long outputSize = (long) (reductionFactor * inputSize);
 
         return new TableStats(joinedSchema, this.numRecordsPerPage, outputSize, copyHistograms);
     }
+
+    // The number of distinct values of column index, plus one, as counted by
+    // copyWithJoin (1 without histograms).
+    private synchronized int getJoinNumDistinct(int index) {
+        return this.histograms.size() > 0 ? this.histograms.get(index).getNumDistinct() + 1 : 1;
+    }
+
+    private synchronized List<Histogram> copyHistogramsWithReduction(float reductionFactor) {
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (Histogram histogram : this.histograms) {
+            copyHistograms.add(histogram.copyWithReduction(reductionFactor));
+        }
+        return copyHistograms;
+    }
 }
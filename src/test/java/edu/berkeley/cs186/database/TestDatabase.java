@@ -410,4 +410,37 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testBulkLoadIndex() {
+        String tableName = "testTable1";
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            // inserted out of order
+            for (int i = 0; i < 2000; ++i) {
+                t.insert(tableName, TestUtils.createRecordWithAllTypesWithValue((i * 7) % 2000).getValues());
+            }
+            t.createIndex(tableName, "int", true);
+        }
+
+        try (Transaction t = db.beginTransaction()) {
+            QueryPlan query = t.query(tableName);
+            query.select("int", PredicateOperator.EQUALS, new IntDataBox(1234));
+            Iterator<Record> records = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("INDEXSCAN"));
+            assertEquals(TestUtils.createRecordWithAllTypesWithValue(1234), records.next());
+            assertFalse(records.hasNext());
+
+            records = t.getTransactionContext().sortedScan(tableName, "int");
+            for (int i = 0; i < 2000; ++i) {
+                assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), records.next());
+            }
+            assertFalse(records.hasNext());
+
+            // an empty table has nothing to load
+            t.createTable(s, "testTable2");
+            t.createIndex("testTable2", "int", true);
+        }
+    }
 }
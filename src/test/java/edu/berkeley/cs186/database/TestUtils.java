@@ -8,6 +8,7 @@ import edu.berkeley.cs186.database.table.Schema;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 public class TestUtils {
@@ -140,4 +141,25 @@ public class TestUtils {
 
         return new TestSourceOperator(recordList, schema);
     }
+
+    // Creates each table with ids 0 to 999 (column <table>_id), each with a
+    // group of id % 10 (column <table>_group).
+    public static void createGroupedTables(Transaction transaction, String... tableNames) {
+        for (String tableName : tableNames) {
+            Schema schema = new Schema(Arrays.asList(tableName + "_id", tableName + "_group"),
+                                       Arrays.asList(Type.intType(), Type.intType()));
+            transaction.createTable(schema, tableName);
+            for (int i = 0; i < 1000; ++i) {
+                transaction.insert(tableName, Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10)));
+            }
+        }
+    }
+
+    public static int count(Iterator<Record> records) {
+        int count = 0;
+        for (; records.hasNext(); records.next()) {
+            ++count;
+        }
+        return count;
+    }
 }
@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database.concurrency;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 import edu.berkeley.cs186.database.AbstractTransactionContext;
@@ -10,7 +13,11 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.BloomFilter;
+import edu.berkeley.cs186.database.index.Index;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.query.PlanCache;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -77,6 +84,12 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public Iterator<RecordId> scanIndex(String tableName, String columnName,
+                                        PredicateOperator predicate, DataBox value) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public boolean contains(String tableName, String columnName, DataBox key) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -92,6 +105,21 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public int getDegreeOfParallelism() {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public void setDegreeOfParallelism(int degreeOfParallelism) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public <T> CompletableFuture<T> runWorker(Supplier<T> work) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public RecordId deleteRecord(String tableName, RecordId rid)  {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -152,6 +180,16 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public PlanCache getPlanCache() {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public BufferManager getBufferManager() {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public int getNumDataPages(String tableName) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -190,6 +228,16 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public Index.Kind getIndexKind(String tableName, String columnName) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public Optional<BloomFilter> getBloomFilter(String tableName, String columnName) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public Schema getSchema(String tableName) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -0,0 +1,185 @@
+package edu.berkeley.cs186.database.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestBloomFilter {
+    private BufferManager bufferManager;
+    private LockContext treeContext;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        this.bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        this.treeContext = new DummyLockContext();
+    }
+
+    @After
+    public void cleanup() {
+        this.bufferManager.close();
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+    @Test
+    public void testNoFalseNegativesAndFewFalsePositives() {
+        BloomFilter filter = BloomFilter.create(bufferManager, treeContext, 0, Type.intType(), 10000);
+        for (int i = 0; i < 10000; ++i) {
+            filter.add(new IntDataBox(2 * i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; ++i) {
+            assertTrue(filter.mightContain(new IntDataBox(2 * i)));
+            if (filter.mightContain(new IntDataBox(2 * i + 1))) {
+                ++falsePositives;
+            }
+        }
+        // about 1% are expected
+        assertTrue(falsePositives < 300);
+    }
+
+    @Test
+    public void testLoadFromDisk() {
+        BloomFilter filter = BloomFilter.create(bufferManager, treeContext, 0, Type.stringType(10), 100);
+        for (int i = 0; i < 100; ++i) {
+            filter.add(new StringDataBox("key " + i, 10));
+        }
+
+        bufferManager.evictAll();
+        BloomFilter fromDisk = BloomFilter.load(bufferManager, treeContext, Type.stringType(10),
+                                                filter.getHeaderPageNum());
+        assertEquals(filter.getNumBits(), fromDisk.getNumBits());
+        assertEquals(filter.getNumHashes(), fromDisk.getNumHashes());
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(fromDisk.mightContain(new StringDataBox("key " + i, 10)));
+        }
+
+        fromDisk.clear();
+        fromDisk = BloomFilter.load(bufferManager, treeContext, Type.stringType(10), filter.getHeaderPageNum());
+        assertFalse(fromDisk.mightContain(new StringDataBox("key 0", 10)));
+    }
+
+    @Test
+    public void testIndexLookupsSkipRuledOutKeys() {
+        BPlusTreeMetadata metadata = new BPlusTreeMetadata("test", "col", Type.intType(), 2, 0,
+                DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext);
+        for (int i = 0; i < 100; ++i) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        BloomFilter filter = tree.createBloomFilter(1000);
+        for (int i = 0; i < 100; ++i) {
+            filter.add(new IntDataBox(i));
+        }
+        tree.put(new IntDataBox(100), new RecordId(100, (short) 0));
+        assertEquals(filter.getHeaderPageNum(), metadata.getFilterPageNum());
+
+        // reloading the tree reloads its filter
+        tree = new BPlusTree(bufferManager, metadata, treeContext);
+        assertTrue(tree.getBloomFilter().isPresent());
+        for (int i = 0; i <= 100; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), tree.get(new IntDataBox(i)));
+        }
+
+        bufferManager.evictAll();
+        long before = bufferManager.getNumIOs();
+        int missesRead = 0;
+        for (int i = 1000; i < 1100; ++i) {
+            long ios = bufferManager.getNumIOs();
+            assertEquals(Optional.empty(), tree.get(new IntDataBox(i)));
+            if (bufferManager.getNumIOs() != ios) {
+                ++missesRead;
+            }
+        }
+        // only false positives descend the tree
+        assertTrue(missesRead < 10);
+        assertTrue(bufferManager.getNumIOs() - before < 10 * 4);
+    }
+
+    @Test
+    public void testDatabaseLookupsOfMissingKeysReadNoPages() throws IOException {
+        Database db = new Database(tempFolder.newFolder("bloomTest").getAbsolutePath(), 32);
+        db.setWorkMem(5);
+        db.waitSetupFinished();
+        try {
+            Schema schema = new Schema(Arrays.asList("id", "name"),
+                                       Arrays.asList(Type.intType(), Type.stringType(20)));
+            try (Transaction t = db.beginTransaction()) {
+                t.createTable(schema, "t");
+                t.createIndex("t", "id", false);
+                t.createHashIndex("t", "name");
+                for (int i = 0; i < 1000; ++i) {
+                    t.insert("t", Arrays.asList(new IntDataBox(i), new StringDataBox("name " + i, 20)));
+                }
+                t.createBloomFilter("t", "id");
+                t.createBloomFilter("t", "name");
+                // inserted after the filters were built
+                t.insert("t", Arrays.asList(new IntDataBox(1000), new StringDataBox("name 1000", 20)));
+            }
+            db.waitAllTransactions();
+
+            try (Transaction t = db.beginTransaction()) {
+                TransactionContext tc = t.getTransactionContext();
+                assertTrue(tc.getBloomFilter("t", "id").isPresent());
+                assertTrue(tc.contains("t", "id", new IntDataBox(1000)));
+                assertTrue(tc.lookupKey("t", "name", new StringDataBox("name 1000", 20)).hasNext());
+
+                int missesRead = 0;
+                for (int i = 2000; i < 2100; ++i) {
+                    db.getBufferManager().evictAll();
+                    long before = db.getBufferManager().getNumIOs();
+                    assertFalse(tc.contains("t", "id", new IntDataBox(i)));
+                    assertFalse(tc.lookupKey("t", "name", new StringDataBox("name " + i, 20)).hasNext());
+                    if (db.getBufferManager().getNumIOs() != before) {
+                        ++missesRead;
+                    }
+                }
+                assertTrue(missesRead < 10);
+            }
+        } finally {
+            db.waitAllTransactions();
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package edu.berkeley.cs186.database.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestHashIndex {
+    private BufferManager bufferManager;
+    private BPlusTreeMetadata metadata;
+    private LockContext treeContext;
+
+    // 10 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        this.bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        this.treeContext = new DummyLockContext();
+        this.metadata = null;
+    }
+
+    @After
+    public void cleanup() {
+        this.bufferManager.close();
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    private HashIndex getHashIndex(Type keySchema) {
+        metadata = new BPlusTreeMetadata("test", "col", keySchema, 0, 0,
+                                         DiskSpaceManager.INVALID_PAGE_NUM, 0, Index.Kind.HASH);
+        return new HashIndex(bufferManager, metadata, treeContext);
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+    @Test
+    public void testSimplePutAndGet() {
+        HashIndex index = getHashIndex(Type.intType());
+        assertEquals(Index.Kind.HASH, index.getKind());
+        assertTrue(metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM);
+
+        for (int i = 0; i < 10; ++i) {
+            index.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), index.get(new IntDataBox(i)));
+        }
+        assertEquals(Optional.empty(), index.get(new IntDataBox(10)));
+
+        Iterator<RecordId> iter = index.scanEqual(new IntDataBox(3));
+        assertEquals(new RecordId(3, (short) 3), iter.next());
+        assertFalse(iter.hasNext());
+        assertFalse(index.scanEqual(new IntDataBox(-1)).hasNext());
+    }
+
+    @Test(expected = HashIndexException.class)
+    public void testDuplicatePut() {
+        HashIndex index = getHashIndex(Type.intType());
+        index.put(new IntDataBox(0), new RecordId(0, (short) 0));
+        index.put(new IntDataBox(0), new RecordId(1, (short) 1));
+    }
+
+    @Test
+    public void testManyPutsSplitBuckets() {
+        // Enough keys to split buckets and double the directory several times.
+        HashIndex index = getHashIndex(Type.intType());
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 20000; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(42));
+        for (int i : keys) {
+            index.put(new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        for (int i = 0; i < 20000; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), index.get(new IntDataBox(i)));
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        HashIndex index = getHashIndex(Type.intType());
+        for (int i = 0; i < 5000; ++i) {
+            index.put(new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            index.remove(new IntDataBox(i));
+        }
+        for (int i = 0; i < 5000; ++i) {
+            assertEquals(i % 2 == 1, index.get(new IntDataBox(i)).isPresent());
+        }
+
+        // Removed keys can be put back.
+        index.put(new IntDataBox(0), new RecordId(42, (short) 0));
+        assertEquals(Optional.of(new RecordId(42, (short) 0)), index.get(new IntDataBox(0)));
+    }
+
+    @Test
+    public void testLoadFromDisk() {
+        HashIndex index = getHashIndex(Type.stringType(30));
+        for (int i = 0; i < 5000; ++i) {
+            index.put(new StringDataBox("key" + i, 30), new RecordId(i, (short) 0));
+        }
+
+        HashIndex fromDisk = new HashIndex(bufferManager, metadata, treeContext);
+        for (int i = 0; i < 5000; ++i) {
+            DataBox key = new StringDataBox("key" + i, 30);
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), fromDisk.get(key));
+        }
+        assertFalse(fromDisk.get(new StringDataBox("key5000", 30)).isPresent());
+    }
+
+    @Test
+    public void testLookupReadsOnePage() {
+        HashIndex index = getHashIndex(Type.intType());
+        for (int i = 0; i < 20000; ++i) {
+            index.put(new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        bufferManager.evictAll();
+
+        for (int i = 0; i < 20000; i += 1000) {
+            long before = bufferManager.getNumIOs();
+            assertTrue(index.get(new IntDataBox(i)).isPresent());
+            assertTrue(bufferManager.getNumIOs() - before <= 1);
+            bufferManager.evictAll();
+        }
+    }
+}
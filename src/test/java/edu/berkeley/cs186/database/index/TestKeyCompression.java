@@ -0,0 +1,221 @@
+package edu.berkeley.cs186.database.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestKeyCompression {
+    private BufferManager bufferManager;
+    private LockContext treeContext;
+
+    // 10 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        this.bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        this.treeContext = new DummyLockContext();
+    }
+
+    @After
+    public void cleanup() {
+        this.bufferManager.close();
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    private BPlusTreeMetadata getMetadata(Type keySchema, int order) {
+        return new BPlusTreeMetadata("test", "col", keySchema, order,
+                                     0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+    }
+
+    private static DataBox s(String s) {
+        return new StringDataBox(s, 20);
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+    @Test
+    public void testShortestSeparator() {
+        assertEquals(s("jon"), KeyCompression.shortestSeparator(s("johnson"), s("jones")));
+        assertEquals(s("b"), KeyCompression.shortestSeparator(s("apple"), s("banana")));
+        assertEquals(s("abc"), KeyCompression.shortestSeparator(s("ab"), s("abc")));
+
+        // Keys that are not compressible are never truncated.
+        DataBox right = new IntDataBox(42);
+        assertEquals(right, KeyCompression.shortestSeparator(new IntDataBox(7), right));
+    }
+
+    @Test
+    public void testLeafToAndFromBytes() {
+        BPlusTreeMetadata metadata = getMetadata(Type.stringType(20), 5);
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (String k : new String[] {"", "a", "aaa", "aab", "b", "bcd", "bcde"}) {
+            keys.add(s(k));
+            rids.add(new RecordId(keys.size(), (short) keys.size()));
+        }
+        LeafNode leaf = new LeafNode(metadata, bufferManager, keys, rids, Optional.of(42L), treeContext);
+        long pageNum = leaf.getPage().getPageNum();
+        assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
+
+        // "aab" only stores the "b" it does not share with "aaa", and no key
+        // stores its null padding.
+        int uncompressed = 1 + 8 + 4 + keys.size() * (20 + RecordId.getSizeInBytes());
+        assertTrue(leaf.toBytes().length < uncompressed);
+    }
+
+    @Test
+    public void testInnerToAndFromBytes() {
+        BPlusTreeMetadata metadata = getMetadata(Type.stringType(20), 5);
+        List<DataBox> keys = new ArrayList<>();
+        List<Long> children = new ArrayList<>();
+        children.add(0L);
+        for (String k : new String[] {"b", "jon", "zzz"}) {
+            keys.add(s(k));
+            children.add((long) keys.size());
+        }
+        InnerNode inner = new InnerNode(metadata, bufferManager, keys, children, treeContext);
+        long pageNum = inner.getPage().getPageNum();
+        assertEquals(inner, InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
+    }
+
+    @Test
+    public void testDynamicOrder() {
+        short pageSize = BufferManager.EFFECTIVE_PAGE_SIZE;
+        assertEquals(BPlusTree.maxOrder(pageSize, Type.intType()),
+                     BPlusTree.maxDynamicOrder(pageSize, Type.intType()));
+        assertTrue(BPlusTree.maxDynamicOrder(pageSize, Type.stringType(100)) >
+                   BPlusTree.maxOrder(pageSize, Type.stringType(100)));
+    }
+
+    @Test
+    public void testLeafSplitsByBytes() {
+        // With a dynamic order, a leaf of string keys splits once its
+        // compressed entries no longer fit on a page, long before it holds 2d
+        // of them, and the split key is truncated.
+        Type keySchema = Type.stringType(100);
+        int order = BPlusTree.maxDynamicOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema);
+        BPlusTreeMetadata metadata = getMetadata(keySchema, order);
+        LeafNode leaf = new LeafNode(metadata, bufferManager, new ArrayList<>(), new ArrayList<>(),
+                                     Optional.empty(), treeContext);
+
+        Optional<Pair<DataBox, Long>> split = Optional.empty();
+        int i = 0;
+        while (!split.isPresent()) {
+            split = leaf.put(new StringDataBox(email(i), 100), new RecordId(i, (short) 0));
+            ++i;
+        }
+        assertTrue(i < 2 * order);
+
+        LeafNode right = LeafNode.fromBytes(metadata, bufferManager, treeContext, split.get().getSecond());
+        DataBox leftMax = leaf.getKeys().get(leaf.getKeys().size() - 1);
+        DataBox rightMin = right.getKeys().get(0);
+        DataBox splitKey = split.get().getFirst();
+        assertTrue(leftMax.compareTo(splitKey) < 0);
+        assertTrue(splitKey.compareTo(rightMin) <= 0);
+        assertTrue(splitKey.getString().length() <= rightMin.getString().length());
+        assertEquals(i, leaf.getKeys().size() + right.getKeys().size());
+    }
+
+    @Test
+    public void testStringTreePutGetScan() {
+        Type keySchema = Type.stringType(100);
+        int order = BPlusTree.maxDynamicOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema);
+        BPlusTreeMetadata metadata = getMetadata(keySchema, order);
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext);
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(42));
+        for (int i : ids) {
+            tree.put(new StringDataBox(email(i), 100), new RecordId(i, (short) 0));
+        }
+
+        // Reload the tree from disk and check every key and the scan order.
+        tree = new BPlusTree(bufferManager, metadata, treeContext);
+        for (int i = 0; i < 5000; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)),
+                         tree.get(new StringDataBox(email(i), 100)));
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            expected.add(email(i));
+        }
+        Collections.sort(expected);
+        Iterator<RecordId> iter = tree.scanAll();
+        for (String e : expected) {
+            assertTrue(iter.hasNext());
+            assertEquals(e, email((int) iter.next().getPageNum()));
+        }
+        assertTrue(!iter.hasNext());
+    }
+
+    @Test
+    public void testStringTreeBulkLoad() {
+        Type keySchema = Type.stringType(100);
+        int order = BPlusTree.maxDynamicOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema);
+        BPlusTreeMetadata metadata = getMetadata(keySchema, order);
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext);
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            keys.add(email(i));
+        }
+        Collections.sort(keys);
+        List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            data.add(new Pair<>(new StringDataBox(keys.get(i), 100), new RecordId(i, (short) 0)));
+        }
+        tree.bulkLoad(data.iterator(), 0.75f);
+
+        for (int i = 0; i < keys.size(); ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)),
+                         tree.get(new StringDataBox(keys.get(i), 100)));
+        }
+        Iterator<RecordId> iter = tree.scanGreaterEqual(new StringDataBox(keys.get(2500), 100));
+        for (int i = 2500; i < keys.size(); ++i) {
+            assertEquals(new RecordId(i, (short) 0), iter.next());
+        }
+        assertTrue(!iter.hasNext());
+    }
+}
@@ -0,0 +1,113 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestAdaptiveJoins {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("adaptiveJoinsTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        // tables s and t of ids 0 to 999, each with a group of id % 10
+        try (Transaction t = this.db.beginTransaction()) {
+            TestUtils.createGroupedTables(t, "s", "t");
+        }
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private static QueryPlan groupJoin(Transaction transaction) {
+        QueryPlan query = transaction.query("s");
+        query.join("t", "s.s_id", "t.t_id");
+        query.select("s.s_group", PredicateOperator.EQUALS, new IntDataBox(1));
+        return query;
+    }
+
+    private static JoinOperator.JoinType joinType(QueryOperator plan) {
+        while (!plan.isJoin()) {
+            plan = plan.getSource();
+        }
+        return ((JoinOperator) plan).getJoinType();
+    }
+
+    @Test
+    public void testReplanAfterMisestimate() {
+        try (Transaction t = this.db.beginTransaction()) {
+            // without histograms, the selection is estimated to return no
+            // records, which makes a simple nested loop join look free
+            QueryPlan query = groupJoin(t);
+            assertEquals(100, TestUtils.count(query.execute()));
+            assertEquals(JoinOperator.JoinType.SNLJ, joinType(query.getFinalOperator()));
+
+            query = groupJoin(t);
+            query.setReplanThreshold(2);
+            assertEquals(100, TestUtils.count(query.execute()));
+            JoinOperator join = (JoinOperator) query.getFinalOperator();
+            assertTrue(join.getJoinType() != JoinOperator.JoinType.SNLJ);
+            QueryOperator temp = join.getLeftSource().getType() == QueryOperator.OperatorType.MATERIALIZE
+                                 ? join.getLeftSource() : join.getRightSource();
+            assertEquals(QueryOperator.OperatorType.MATERIALIZE, temp.getType());
+            assertEquals(100, temp.getStats().getNumRecords());
+            assertTrue(temp.getOutputSchema().getFieldNames().contains("s.s_group"));
+        }
+    }
+
+    @Test
+    public void testKeepPlanWithinThreshold() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.getTransactionContext().getTable("s").buildStatistics(10);
+            t.getTransactionContext().getTable("t").buildStatistics(10);
+            QueryPlan query = groupJoin(t);
+            assertEquals(100, TestUtils.count(query.execute()));
+            JoinOperator.JoinType expected = joinType(query.getFinalOperator());
+
+            // the same plan, over the records the selection returned
+            query = groupJoin(t);
+            query.setReplanThreshold(2);
+            assertEquals(100, TestUtils.count(query.execute()));
+            JoinOperator join = (JoinOperator) query.getFinalOperator();
+            assertEquals(expected, join.getJoinType());
+            assertTrue(join.getLeftSource().getType() == QueryOperator.OperatorType.MATERIALIZE
+                       || join.getRightSource().getType() == QueryOperator.OperatorType.MATERIALIZE);
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testThresholdBelowOne() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.query("s").setReplanThreshold(0.5);
+        }
+    }
+}
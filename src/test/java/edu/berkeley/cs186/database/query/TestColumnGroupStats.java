@@ -0,0 +1,151 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestColumnGroupStats {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("columnGroupTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        // table c of ids 0 to 999, with a city of id % 10 and a zip code
+        // that follows from it, and tables t and u of ids 0 to 999, each
+        // with a group of id % 10
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(new Schema(Arrays.asList("c_id", "c_city", "c_zip"),
+                                     Arrays.asList(Type.intType(), Type.intType(), Type.intType())), "c");
+            for (int i = 0; i < 1000; ++i) {
+                t.insert("c", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10),
+                                            new IntDataBox(94700 + i % 10)));
+            }
+            TestUtils.createGroupedTables(t, "t", "u");
+            for (String tableName : Arrays.asList("c", "t", "u")) {
+                t.getTransactionContext().getTable(tableName).buildStatistics(10);
+            }
+        }
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private static QueryPlan cityAndZip(Transaction transaction, String first, int firstValue,
+                                        String second, int secondValue) {
+        QueryPlan query = transaction.query("c");
+        query.select(first, PredicateOperator.EQUALS, new IntDataBox(firstValue));
+        query.select(second, PredicateOperator.EQUALS, new IntDataBox(secondValue));
+        return query;
+    }
+
+    private static long estimate(QueryPlan query) {
+        query.execute();
+        return query.getFinalOperator().getStats().getNumRecords();
+    }
+
+    @Test
+    public void testCorrelatedEqualities() {
+        try (Transaction t = this.db.beginTransaction()) {
+            Table c = t.getTransactionContext().getTable("c");
+            c.addColumnGroup("c_city", "c_zip");
+            c.buildStatistics(10);
+            assertEquals(100, TestUtils.count(cityAndZip(t, "c_city", 1, "c_zip", 94701).execute()));
+            assertEquals(100, estimate(cityAndZip(t, "c_city", 1, "c_zip", 94701)));
+            assertEquals(100, estimate(cityAndZip(t, "c_zip", 94701, "c_city", 1)));
+
+            // city 1 is never in zip code 94702
+            assertEquals(0, TestUtils.count(cityAndZip(t, "c_city", 1, "c_zip", 94702).execute()));
+            assertEquals(0, estimate(cityAndZip(t, "c_city", 1, "c_zip", 94702)));
+            assertEquals(0, estimate(cityAndZip(t, "c_zip", 94702, "c_city", 1)));
+        }
+    }
+
+    @Test
+    public void testUngroupedColumnsAreIndependent() {
+        try (Transaction t = this.db.beginTransaction()) {
+            assertTrue(estimate(cityAndZip(t, "c_city", 1, "c_zip", 94702)) > 0);
+            assertTrue(t.getTransactionContext().getStats("c").getColumnGroupStats().isEmpty());
+        }
+    }
+
+    @Test
+    public void testJoinOrder() {
+        try (Transaction t = this.db.beginTransaction()) {
+            // the records of c left by its selections are thought to join
+            // with many of t and u, which are hashed...
+            QueryPlan query = threeWayJoin(t);
+            assertEquals(0, TestUtils.count(query.execute()));
+            JoinOperator root = (JoinOperator) query.getFinalOperator();
+            assertEquals(JoinOperator.JoinType.GHJ, root.getJoinType());
+
+            // ...until the statistics of city and zip code show there are none,
+            // and t and u are only scanned for them by nested loops
+            Table c = t.getTransactionContext().getTable("c");
+            c.addColumnGroup("c_city", "c_zip");
+            c.buildStatistics(10);
+            query = threeWayJoin(t);
+            assertEquals(0, TestUtils.count(query.execute()));
+            root = (JoinOperator) query.getFinalOperator();
+            assertEquals(JoinOperator.JoinType.SNLJ, root.getJoinType());
+            JoinOperator first = (JoinOperator) root.getLeftSource();
+            assertEquals(JoinOperator.JoinType.SNLJ, first.getJoinType());
+            assertTrue(first.getLeftSource().isSelect());
+            assertEquals(0, first.getLeftSource().getStats().getNumRecords());
+        }
+    }
+
+    private static QueryPlan threeWayJoin(Transaction transaction) {
+        QueryPlan query = transaction.query("c");
+        query.join("t", "c.c_id", "t.t_id");
+        query.join("u", "t.t_id", "u.u_id");
+        query.select("c.c_city", PredicateOperator.EQUALS, new IntDataBox(1));
+        query.select("c.c_zip", PredicateOperator.EQUALS, new IntDataBox(94702));
+        query.select("u.u_group", PredicateOperator.LESS_THAN, new IntDataBox(3));
+        return query;
+    }
+
+    @Test(expected = DatabaseException.class)
+    public void testUnknownColumn() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.getTransactionContext().getTable("c").addColumnGroup("c_city", "c_state");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSameColumnTwice() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.getTransactionContext().getTable("c").addColumnGroup("c_city", "c_city");
+        }
+    }
+}
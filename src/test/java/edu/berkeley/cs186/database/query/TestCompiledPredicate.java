@@ -0,0 +1,148 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestCompiledPredicate {
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    // Checks that the compiled predicate `column 1 operator value` selects
+    // exactly the values that a SelectOperator always did (equals for
+    // EQUALS and NOT_EQUALS, and operator.evaluate otherwise), from records
+    // and from a batch of (i, value) records.
+    private static void checkAllOperators(Type type, List<DataBox> values) {
+        Schema schema = new Schema(Arrays.asList("i", "v"), Arrays.asList(Type.intType(), type));
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < values.size(); ++i) {
+            // a copy of the value, as read from a page
+            DataBox copy = DataBox.fromBytes(ByteBuffer.wrap(values.get(i).toBytes()), type);
+            records.add(new Record(Arrays.asList(new IntDataBox(i), copy)));
+        }
+        for (PredicateOperator operator : PredicateOperator.values()) {
+            for (DataBox value : values) {
+                CompiledPredicate predicate = CompiledPredicate.compile(1, operator, value);
+                Set<Integer> expected = new HashSet<>();
+                for (int i = 0; i < values.size(); ++i) {
+                    boolean satisfies;
+                    if (operator == PredicateOperator.EQUALS || operator == PredicateOperator.NOT_EQUALS) {
+                        satisfies = records.get(i).getValues().get(1).equals(value) ==
+                                    (operator == PredicateOperator.EQUALS);
+                    } else {
+                        satisfies = operator.evaluate(values.get(i), value);
+                    }
+                    assertEquals(operator + " " + value + " on " + values.get(i), satisfies,
+                                 predicate.test(records.get(i)));
+                    if (satisfies) {
+                        expected.add(i);
+                    }
+                }
+
+                Set<Integer> selected = new HashSet<>();
+                Iterator<RecordBatch> batches = RecordBatch.fromRecords(schema, records.iterator());
+                while (batches.hasNext()) {
+                    RecordBatch batch = predicate.select(batches.next());
+                    for (int i = 0; i < batch.size(); ++i) {
+                        selected.add(batch.getColumn(0).getInt(batch.getRow(i)));
+                    }
+                }
+                assertEquals(operator + " " + value, expected, selected);
+            }
+        }
+    }
+
+    @Test
+    public void testIntPredicates() {
+        List<DataBox> values = new ArrayList<>();
+        for (int v : new int[] {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -7, -1, 0, 1, 7, Integer.MAX_VALUE - 1,
+                                Integer.MAX_VALUE}) {
+            values.add(new IntDataBox(v));
+        }
+        checkAllOperators(Type.intType(), values);
+    }
+
+    @Test
+    public void testLongPredicates() {
+        List<DataBox> values = new ArrayList<>();
+        for (long v : new long[] {Long.MIN_VALUE, Long.MIN_VALUE + 1, Integer.MIN_VALUE - 1L, -1, 0, 1,
+                                  Integer.MAX_VALUE + 1L, Long.MAX_VALUE - 1, Long.MAX_VALUE}) {
+            values.add(new LongDataBox(v));
+        }
+        checkAllOperators(Type.longType(), values);
+    }
+
+    @Test
+    public void testFloatPredicates() {
+        List<DataBox> values = new ArrayList<>();
+        for (float v : new float[] {Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, -1.5f, -0f, 0f, Float.MIN_VALUE, 1.5f,
+                                    Float.POSITIVE_INFINITY, Float.NaN}) {
+            values.add(new FloatDataBox(v));
+        }
+        checkAllOperators(Type.floatType(), values);
+
+        // equality is ==, not Float.compare
+        Record zero = new Record(Arrays.asList(new IntDataBox(0), new FloatDataBox(0f)));
+        Record nan = new Record(Arrays.asList(new IntDataBox(0), new FloatDataBox(Float.NaN)));
+        assertTrue(CompiledPredicate.compile(1, PredicateOperator.EQUALS, new FloatDataBox(-0f)).test(zero));
+        assertFalse(CompiledPredicate.compile(1, PredicateOperator.NOT_EQUALS, new FloatDataBox(-0f)).test(zero));
+        assertFalse(CompiledPredicate.compile(1, PredicateOperator.EQUALS, new FloatDataBox(Float.NaN)).test(nan));
+        assertTrue(CompiledPredicate.compile(1, PredicateOperator.NOT_EQUALS, new FloatDataBox(Float.NaN)).test(nan));
+    }
+
+    @Test
+    public void testStringAndBoolPredicates() {
+        List<DataBox> strings = new ArrayList<>();
+        for (String s : new String[] {"", "a", "ab", "b", "ba"}) {
+            strings.add(new StringDataBox(s, 2));
+        }
+        checkAllOperators(Type.stringType(2), strings);
+        checkAllOperators(Type.boolType(), Arrays.asList(new BoolDataBox(false), new BoolDataBox(true)));
+    }
+
+    @Test
+    public void testMixedTypes() {
+        // a value of another type than the column is never equal to it...
+        Record record = new Record(Arrays.asList(new IntDataBox(0), new IntDataBox(5)));
+        assertFalse(CompiledPredicate.compile(1, PredicateOperator.EQUALS, new LongDataBox(5)).test(record));
+        assertTrue(CompiledPredicate.compile(1, PredicateOperator.NOT_EQUALS, new FloatDataBox(5)).test(record));
+        record = new Record(Arrays.asList(new IntDataBox(0), new LongDataBox(5)));
+        assertFalse(CompiledPredicate.compile(1, PredicateOperator.EQUALS, new IntDataBox(5)).test(record));
+
+        // ...and cannot be ordered against it
+        CompiledPredicate lessThan = CompiledPredicate.compile(1, PredicateOperator.LESS_THAN, new IntDataBox(5));
+        try {
+            lessThan.test(record);
+            fail();
+        } catch (DataBoxException e) {
+            /* do nothing */
+        }
+        Schema schema = new Schema(Arrays.asList("i", "v"), Arrays.asList(Type.intType(), Type.longType()));
+        RecordBatch batch = RecordBatch.fromRecords(schema, Collections.singletonList(record).iterator()).next();
+        try {
+            lessThan.select(batch);
+            fail();
+        } catch (DataBoxException e) {
+            /* do nothing */
+        }
+        assertEquals(0, CompiledPredicate.compile(1, PredicateOperator.EQUALS, new IntDataBox(5))
+                     .select(batch).size());
+    }
+}
@@ -0,0 +1,292 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestCost {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("costTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // statistics of a table of numRecords records of the schema of TestSourceOperator
+    private static TableStats stats(int numRecords) {
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        TableStats stats = new TableStats(schema, Table.computeNumRecordsPerPage(
+                                              BufferManager.EFFECTIVE_PAGE_SIZE, schema));
+        Record record = TestUtils.createRecordWithAllTypes();
+        for (int i = 0; i < numRecords; ++i) {
+            stats.addRecord(record);
+        }
+        return stats;
+    }
+
+    // a source of records of the schema of TestSourceOperator, with columns
+    // prefixed by prefix, estimated to have stats
+    private static TestSourceOperator source(String prefix, TableStats stats) {
+        TestSourceOperator source = new TestSourceOperator(Collections.emptyList(),
+                TestUtils.createSchemaWithAllTypes(prefix));
+        source.stats = stats;
+        return source;
+    }
+
+    @Test
+    public void testJoinCardinalityDoesNotOverflow() {
+        // without histograms, every pair of records is estimated to join
+        TableStats joined = stats(50000).copyWithJoin(1, stats(50000), 1);
+        assertEquals(2500000000L, joined.getNumRecords());
+        assertTrue(joined.getNumPages() > 0);
+
+        TableStats huge = joined.copyWithJoin(1, joined, 1);
+        assertEquals(6250000000000000000L, huge.getNumRecords());
+        huge = huge.copyWithJoin(1, stats(10), 1);
+        assertEquals(Long.MAX_VALUE, huge.getNumRecords());
+        assertEquals(Integer.MAX_VALUE, huge.getNumPages());
+    }
+
+    @Test
+    public void testJoinCostDoesNotOverflow() {
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext transaction = t.getTransactionContext();
+            TableStats joined = stats(50000).copyWithJoin(1, stats(50000), 1);
+            QueryOperator left = source("l_", joined);
+            QueryOperator right = source("r_", stats(50000));
+            long numLeftPages = joined.getNumPages();
+            long numRightPages = right.getStats().getNumPages();
+
+            JoinOperator snlj = new SNLJOperator(left, right, "l_int", "r_int", transaction);
+            assertEquals(2500000000L * numRightPages + numLeftPages, snlj.getIOCost());
+            // every pair of records is compared
+            assertEquals(2500000000.0 * 50000, snlj.estimateLocalCost().getCPURecords(), 0);
+
+            JoinOperator bnlj = new BNLJOperator(left, right, "l_int", "r_int", transaction);
+            assertTrue(bnlj.getIOCost() > numLeftPages * numRightPages / 3);
+            JoinOperator ghj = new GHJOperator(left, right, "l_int", "r_int", transaction, false);
+            assertTrue(ghj.getIOCost() >= 3 * (numLeftPages + numRightPages));
+            assertTrue(ghj.getIOCost() < bnlj.getIOCost());
+
+            // the costs of joining that again saturate instead of wrapping around
+            JoinOperator twice = new SNLJOperator(source("t_", joined.copyWithJoin(1, joined, 1)), snlj, "t_int",
+                                                  "l_int", transaction);
+            assertEquals(Long.MAX_VALUE, twice.getIOCost());
+            assertTrue(twice.getCost().total() > 0);
+        }
+    }
+
+    @Test
+    public void testCostSplit() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), "t");
+            t.createIndex("t", "int", false);
+            for (int i = 0; i < 2000; ++i) {
+                Record r = TestUtils.createRecordWithAllTypes();
+                r.getValues().set(1, new IntDataBox(i));
+                t.insert("t", r.getValues());
+            }
+            t.getTransactionContext().getTable("t").buildStatistics(10);
+            TransactionContext transaction = t.getTransactionContext();
+
+            // a scan reads every page in order, and looks at every record
+            QueryOperator scan = new SequentialScanOperator(transaction, "t");
+            assertEquals(new Cost(scan.getIOCost(), 0, 2000), scan.getCost());
+
+            // an index scan reads the index and the matching records at random
+            QueryOperator indexScan = new IndexScanOperator(transaction, "t", "int", PredicateOperator.EQUALS,
+                    new IntDataBox(9), false);
+            Cost indexCost = indexScan.getCost();
+            assertEquals(0, indexCost.getSeqIOs());
+            assertEquals(indexScan.getIOCost(), indexCost.getRandomIOs());
+
+            // a select does no IOs of its own, but looks at every record of its source
+            QueryOperator select = new SelectOperator(scan, "int", PredicateOperator.EQUALS, new IntDataBox(9));
+            assertEquals(new Cost(scan.getIOCost(), 0, 4000), select.getCost());
+
+            // an index nested loop join reads its left source in order, and
+            // probes the index at random; the right source is never executed
+            QueryOperator join = new INLJOperator(select, new SequentialScanOperator(transaction, "t"),
+                                                  "int", "int", transaction);
+            Cost joinCost = join.getCost();
+            assertEquals(join.getIOCost(), joinCost.getIOs() - scan.getIOCost());
+            assertTrue(joinCost.getRandomIOs() > 0);
+            assertEquals(scan.getIOCost() + select.getStats().getNumPages(), joinCost.getSeqIOs());
+
+            assertEquals(indexCost.getRandomIOs() * Cost.RANDOM_PAGE_COST + indexCost.getCPURecords() *
+                         Cost.CPU_RECORD_COST, indexCost.total(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testRandomPageCost() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), "t");
+            t.createIndex("t", "int", false);
+            for (int i = 0; i < 2000; ++i) {
+                Record r = TestUtils.createRecordWithAllTypes();
+                r.getValues().set(1, new IntDataBox(i));
+                t.insert("t", r.getValues());
+            }
+            t.getTransactionContext().getTable("t").buildStatistics(10);
+            TransactionContext transaction = t.getTransactionContext();
+            long scanIOs = new SequentialScanOperator(transaction, "t").getIOCost();
+            long indexIOs = new IndexScanOperator(transaction, "t", "int", PredicateOperator.EQUALS,
+                                                  new IntDataBox(9), false).getIOCost();
+            // an index scan does fewer IOs, but not several times fewer
+            assertTrue(indexIOs < scanIOs);
+            assertTrue(indexIOs * Cost.RANDOM_PAGE_COST > scanIOs);
+
+            // by default, every IO costs the same...
+            QueryPlan query = t.query("t");
+            query.select("int", PredicateOperator.EQUALS, new IntDataBox(9));
+            Iterator<Record> records = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("INDEXSCAN"));
+            assertTrue(records.hasNext());
+
+            // ...but on a spinning disk, the index scan loses to a sequential scan
+            query = t.query("t");
+            query.select("int", PredicateOperator.EQUALS, new IntDataBox(9));
+            query.setRandomPageCost(Cost.RANDOM_PAGE_COST);
+            records = query.execute();
+            assertFalse(query.getFinalOperator().toString().contains("INDEXSCAN"));
+            assertTrue(query.getFinalOperator().toString().contains("SEQSCAN"));
+            assertEquals(9, records.next().getValues().get(1).getInt());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    public void testOrdering() {
+        Comparator<Cost> ordering = Cost.ordering(Cost.RANDOM_PAGE_COST);
+        // 4 random IOs cost more than 15 sequential ones...
+        assertTrue(ordering.compare(new Cost(0, 4, 0), new Cost(15, 0, 0)) > 0);
+        assertEquals(0, Cost.ordering(Cost.SEQ_PAGE_COST).compare(new Cost(0, 4, 0), new Cost(4, 0, 0)));
+        // ...and any number of records processed less than one IO
+        assertTrue(ordering.compare(new Cost(10, 0, 1e9), new Cost(11, 0, 0)) < 0);
+        assertTrue(ordering.compare(new Cost(10, 0, 5), new Cost(10, 0, 6)) < 0);
+        assertEquals(new Cost(3, 5, 7), new Cost(1, 2, 3).plus(new Cost(2, 3, 4)));
+        assertEquals(Long.MAX_VALUE, new Cost(Long.MAX_VALUE, 0, 0).plus(new Cost(1, 0, 0)).getSeqIOs());
+    }
+
+    @Test
+    public void testSortMergeSkipsSortOfSortedInput() {
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext transaction = t.getTransactionContext();
+            QueryOperator left = source("l_", stats(2000));
+            QueryOperator right = source("r_", stats(3000));
+            QueryOperator third = source("t_", stats(4000));
+            int numLeftPages = left.getStats().getNumPages();
+            int numRightPages = right.getStats().getNumPages();
+            int numThirdPages = third.getStats().getNumPages();
+
+            JoinOperator join = new SortMergeOperator(left, right, "l_int", "r_int", transaction);
+            assertEquals(numLeftPages + numRightPages + SortOperator.estimateIOCost(numLeftPages, 5) +
+                         SortOperator.estimateIOCost(numRightPages, 5), join.getIOCost());
+            assertTrue(join.isSortedOn("l_int"));
+            assertTrue(join.isSortedOn("r_int"));
+
+            // the output of the first join is merged as it is
+            int numJoinPages = join.getStats().getNumPages();
+            JoinOperator twice = new SortMergeOperator(join, third, "r_int", "t_int", transaction);
+            assertEquals(numJoinPages + numThirdPages + SortOperator.estimateIOCost(numThirdPages, 5),
+                         twice.estimateLocalCost().getIOs());
+            JoinOperator other = new SortMergeOperator(join, third, "l_float", "t_float", transaction);
+            assertEquals(numJoinPages + numThirdPages + SortOperator.estimateIOCost(numJoinPages, 5) +
+                         SortOperator.estimateIOCost(numThirdPages, 5), other.estimateLocalCost().getIOs());
+        }
+    }
+
+    @Test
+    public void testSortMergeOfEmptyInput() {
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext transaction = t.getTransactionContext();
+            QueryOperator empty = new TestSourceOperator(Collections.emptyList(),
+                    TestUtils.createSchemaWithAllTypes("e_"));
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                records.add(TestUtils.createRecordWithAllTypes());
+            }
+            QueryOperator full = new TestSourceOperator(records, TestUtils.createSchemaWithAllTypes("f_"));
+
+            assertFalse(new SortMergeOperator(empty, full, "e_int", "f_int", transaction).iterator().hasNext());
+            assertFalse(new SortMergeOperator(full, empty, "f_int", "e_int", transaction).iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testInterestingOrderSharesSort() {
+        try (Transaction t = this.db.beginTransaction()) {
+            for (String table : Arrays.asList("a", "b")) {
+                t.createTable(TestUtils.createSchemaWithAllTypes(table + "_"), table);
+                for (int i = 0; i < 20000; ++i) {
+                    Record r = TestUtils.createRecordWithAllTypes();
+                    r.getValues().set(1, new IntDataBox(i));
+                    t.insert(table, r.getValues());
+                }
+                t.getTransactionContext().getTable(table).buildStatistics(10);
+            }
+
+            // on its own, the join is cheapest hashed...
+            QueryPlan query = t.query("a");
+            query.join("b", "a.a_int", "b.b_int");
+            query.execute();
+            assertFalse(query.getFinalOperator().toString().contains("SORTMERGE"));
+
+            // ...but its groups do not fit in memory, and the sort of a
+            // sort-merge join on the grouping column groups them for free
+            query = t.query("a");
+            query.join("b", "a.a_int", "b.b_int");
+            query.groupBy("a.a_int");
+            query.count();
+            Iterator<Record> records = query.execute();
+            String plan = query.getFinalOperator().toString();
+            assertTrue(plan.contains("SORTMERGE"));
+            assertTrue(plan.contains("method: sort"));
+            assertFalse(plan.contains("type: SORT\n"));
+
+            int count = 0;
+            while (records.hasNext()) {
+                assertEquals(1, records.next().getValues().get(0).getInt());
+                ++count;
+            }
+            assertEquals(20000, count);
+        }
+    }
+}
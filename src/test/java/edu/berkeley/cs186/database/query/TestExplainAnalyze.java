@@ -0,0 +1,133 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestExplainAnalyze {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("explainAnalyzeTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        // tables s and t of ids 0 to 999, each with a group of id % 10
+        try (Transaction t = this.db.beginTransaction()) {
+            for (String tableName : new String[] {"s", "t"}) {
+                Schema schema = new Schema(Arrays.asList(tableName + "_id", tableName + "_group"),
+                                           Arrays.asList(Type.intType(), Type.intType()));
+                t.createTable(schema, tableName);
+                for (int i = 0; i < 1000; ++i) {
+                    t.insert(tableName, Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10)));
+                }
+            }
+        }
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // the first operator of plan (in preorder) of the given type
+    private static QueryOperator find(QueryOperator plan, QueryOperator.OperatorType type) {
+        if (plan.getType() == type) {
+            return plan;
+        }
+        for (QueryOperator source : plan.getSources()) {
+            QueryOperator op = find(source, type);
+            if (op != null) {
+                return op;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testRowsOfJoin() {
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = t.query("s");
+            query.join("t", "s.s_id", "t.t_id");
+            query.select("s.s_group", PredicateOperator.EQUALS, new IntDataBox(1));
+            query.count();
+            String plan = query.explainAnalyze();
+
+            QueryOperator root = query.getFinalOperator();
+            assertTrue(plan.startsWith(root.str() + "\nestimated: rows="));
+            assertEquals(1, root.getMetrics().getRows());
+            assertEquals(1, root.getMetrics().getLoops());
+
+            QueryOperator join = find(root, QueryOperator.OperatorType.JOIN);
+            assertEquals(100, join.getMetrics().getRows());
+            QueryOperator select = find(root, QueryOperator.OperatorType.SELECT);
+            assertEquals(100, select.getMetrics().getRows());
+            // the pages of a table are fetched by the operator that reads them
+            assertTrue(join.getMetrics().getSelfPageFetches(join) > 0);
+            assertTrue(plan.contains("actual: rows=100, loops=1"));
+        }
+    }
+
+    @Test
+    public void testSortSpills() {
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = t.query("s");
+            query.orderBy("s_group");
+            String plan = query.explainAnalyze();
+
+            QueryOperator orderBy = query.getFinalOperator();
+            assertEquals(QueryOperator.OperatorType.SORT, orderBy.getType());
+            assertEquals(1000, orderBy.getMetrics().getRows());
+            // the table does not fit in memory, so the sort writes its runs
+            // out, and the scan below it does not
+            String[] lines = plan.split("\n");
+            List<String> actual = new ArrayList<>();
+            for (String line : lines) {
+                if (line.trim().startsWith("actual:")) {
+                    actual.add(line.trim());
+                }
+            }
+            assertEquals(2, actual.size());
+            assertTrue(actual.get(0).startsWith("actual: rows=1000, loops=1"));
+            assertFalse(actual.get(0).contains("temp pages=0,"));
+            assertTrue(actual.get(1).contains("temp pages=0,"));
+        }
+    }
+
+    @Test
+    public void testNoMetricsWithoutAnalyze() {
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = t.query("s");
+            query.select("s_id", PredicateOperator.LESS_THAN, new IntDataBox(10));
+            query.execute();
+            assertNull(query.getFinalOperator().getMetrics());
+            assertFalse(query.getFinalOperator().toString().contains("actual:"));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestGHJOperator {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("ghjTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // Creates a table of numRecords (id, key) records, where key is id % numKeys.
+    private void createTable(Transaction t, String tableName, int numRecords, int numKeys) {
+        Schema schema = new Schema(Arrays.asList("id", "key"), Arrays.asList(Type.intType(), Type.intType()));
+        t.createTable(schema, tableName);
+        for (int i = 0; i < numRecords; ++i) {
+            t.insert(tableName, Arrays.asList(new IntDataBox(i), new IntDataBox(i % numKeys)));
+        }
+        t.getTransactionContext().getTable(tableName).buildStatistics(10);
+    }
+
+    private static List<Record> sorted(Iterator<Record> records) {
+        List<Record> list = new ArrayList<>();
+        records.forEachRemaining(list::add);
+        list.sort(Comparator.comparing((Record r) -> r.getValues().get(0))
+                  .thenComparing(r -> r.getValues().get(2)));
+        return list;
+    }
+
+    @Test
+    public void testGHJMatchesBNLJ() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 3000, 1000);
+            createTable(t, "right", 2000, 1500);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator left = new SequentialScanOperator(tc, "left");
+            QueryOperator right = new SequentialScanOperator(tc, "right");
+            JoinOperator ghj = new GHJOperator(left, right, "key", "key", tc);
+            JoinOperator bnlj = new BNLJOperator(left, right, "key", "key", tc);
+
+            List<Record> expected = sorted(bnlj.iterator());
+            // keys below 500 occur 3 times on the left and twice on the right,
+            // keys 500-999 three times on the left and once on the right
+            assertEquals(500 * 3 * 2 + 500 * 3, expected.size());
+            assertEquals(expected, sorted(ghj.iterator()));
+        }
+    }
+
+    @Test
+    public void testGHJOnSkewedKeys() {
+        // every record has the same key, so no pass can split the partitions
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 1500, 1);
+            createTable(t, "right", 1200, 1);
+            TransactionContext tc = t.getTransactionContext();
+
+            JoinOperator ghj = new GHJOperator(new SequentialScanOperator(tc, "left"),
+                                               new SequentialScanOperator(tc, "right"), "key", "key", tc);
+            Iterator<Record> records = ghj.iterator();
+            int count = 0;
+            while (records.hasNext()) {
+                List<?> values = records.next().getValues();
+                assertEquals(values.get(1), values.get(3));
+                ++count;
+            }
+            assertEquals(1500 * 1200, count);
+        }
+    }
+
+    @Test
+    public void testOptimizerPicksGHJForLargeJoins() {
+        this.db.setWorkMem(10);
+        try (Transaction t = this.db.beginTransaction()) {
+            // about 50 pages each: one partitioning pass is enough, and BNLJ
+            // would scan right 7 times
+            createTable(t, "left", 25000, 25000);
+            createTable(t, "right", 25000, 25000);
+            QueryPlan query = t.query("left");
+            query.join("right", "left.id", "right.key");
+            Iterator<Record> records = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("GHJ"));
+
+            int count = 0;
+            while (records.hasNext()) {
+                List<?> values = records.next().getValues();
+                assertEquals(values.get(0), values.get(3));
+                ++count;
+            }
+            assertEquals(25000, count);
+        }
+    }
+
+    @Test
+    public void testHybridMatchesBNLJ() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 3000, 1000);
+            createTable(t, "right", 2000, 1500);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator left = new SequentialScanOperator(tc, "left");
+            QueryOperator right = new SequentialScanOperator(tc, "right");
+            JoinOperator hybrid = new GHJOperator(left, right, "key", "key", tc, true);
+            JoinOperator bnlj = new BNLJOperator(left, right, "key", "key", tc);
+            assertTrue(hybrid.toString().contains("hybrid: true"));
+            assertEquals(sorted(bnlj.iterator()), sorted(hybrid.iterator()));
+        }
+    }
+
+    @Test
+    public void testHybridCutsIOs() {
+        this.db.setWorkMem(10);
+        try (Transaction t = this.db.beginTransaction()) {
+            // the right side is about twice the size of memory
+            createTable(t, "left", 12000, 5000);
+            createTable(t, "right", 8000, 5000);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator left = new SequentialScanOperator(tc, "left");
+            QueryOperator right = new SequentialScanOperator(tc, "right");
+            JoinOperator grace = new GHJOperator(left, right, "key", "key", tc);
+            JoinOperator hybrid = new GHJOperator(left, right, "key", "key", tc, true);
+            assertTrue(hybrid.estimateIOCost() < grace.estimateIOCost());
+
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            List<Record> expected = sorted(grace.iterator());
+            long graceIOs = db.getBufferManager().getNumIOs() - before;
+
+            db.getBufferManager().evictAll();
+            before = db.getBufferManager().getNumIOs();
+            assertEquals(expected, sorted(hybrid.iterator()));
+            long hybridIOs = db.getBufferManager().getNumIOs() - before;
+
+            // keys below 2000 match 3 * 2 times, 2000-2999 2 * 2 times and the rest 2 * 1 times
+            assertEquals(2000 * 6 + 1000 * 4 + 2000 * 2, expected.size());
+            assertTrue(hybridIOs < graceIOs * 3 / 4);
+        }
+    }
+
+    @Test
+    public void testHybridWithUnderestimatedBuildSide() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 3000, 1000);
+            createTable(t, "right", 2000, 1500);
+            createTable(t, "tiny", 10, 10);
+            TransactionContext tc = t.getTransactionContext();
+
+            // the right side claims to fit in memory, so all of its buckets
+            // are resident and most of it overflows
+            TableStats tinyStats = tc.getStats("tiny");
+            QueryOperator left = new SequentialScanOperator(tc, "left");
+            QueryOperator right = new SequentialScanOperator(tc, "right") {
+                @Override
+                public TableStats getStats() {
+                    return tinyStats;
+                }
+            };
+            JoinOperator hybrid = new GHJOperator(left, right, "key", "key", tc, true);
+            JoinOperator bnlj = new BNLJOperator(left, new SequentialScanOperator(tc, "right"), "key", "key", tc);
+            assertEquals(sorted(bnlj.iterator()), sorted(hybrid.iterator()));
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestGroupByOperator {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("groupByTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(3); // B=3
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // Creates a table of numRecords (id, key) records, where key is id % numKeys.
+    private void createTable(Transaction t, int numRecords, int numKeys) {
+        Schema schema = new Schema(Arrays.asList("id", "key"), Arrays.asList(Type.intType(), Type.intType()));
+        t.createTable(schema, "t");
+        for (int i = 0; i < numRecords; ++i) {
+            t.insert("t", Arrays.asList(new IntDataBox(i), new IntDataBox(i % numKeys)));
+        }
+        t.getTransactionContext().getTable("t").buildStatistics(10);
+    }
+
+    // The expected (key, count, sum of ids, average id) records of createTable.
+    private static Set<List<DataBox>> expectedGroups(int numRecords, int numKeys) {
+        Set<List<DataBox>> groups = new HashSet<>();
+        for (int key = 0; key < numKeys && key < numRecords; ++key) {
+            int count = 0;
+            int sum = 0;
+            for (int id = key; id < numRecords; id += numKeys) {
+                ++count;
+                sum += id;
+            }
+            groups.add(Arrays.asList(new IntDataBox(key), new IntDataBox(count), new IntDataBox(sum),
+                                     new FloatDataBox((float) ((double) sum / count))));
+        }
+        return groups;
+    }
+
+    private static final List<AggregateFunction> COUNT_SUM_AVERAGE = Arrays.asList(
+                AggregateFunction.COUNT, AggregateFunction.SUM, AggregateFunction.AVERAGE);
+    private static final List<String> ID_COLUMNS = Arrays.asList(null, "id", "id");
+
+    private static Set<List<DataBox>> groups(Iterator<Record> records) {
+        Set<List<DataBox>> groups = new HashSet<>();
+        while (records.hasNext()) {
+            assertTrue(groups.add(records.next().getValues()));
+        }
+        return groups;
+    }
+
+    @Test
+    public void testHashAndSortGroupByWithSpills() {
+        try (Transaction t = this.db.beginTransaction()) {
+            // far more groups than fit in one page of memory
+            createTable(t, 5000, 2000);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(tc, "t");
+
+            GroupByOperator hash = new HashGroupByOperator(source, tc, "key", COUNT_SUM_AVERAGE, ID_COLUMNS);
+            GroupByOperator sort = new SortGroupByOperator(source, tc, "key", COUNT_SUM_AVERAGE, ID_COLUMNS);
+            assertTrue(hash.estimateNumGroups() > hash.groupCapacity());
+            assertEquals(Arrays.asList("t.key", "countAgg", "sumAgg", "averageAgg"),
+                         hash.getOutputSchema().getFieldNames());
+
+            Set<List<DataBox>> expected = expectedGroups(5000, 2000);
+            assertEquals(expected, groups(hash.iterator()));
+            assertEquals(expected, groups(sort.iterator()));
+        }
+    }
+
+    @Test
+    public void testSortGroupByOutputIsSorted() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 3000, 700);
+            TransactionContext tc = t.getTransactionContext();
+
+            GroupByOperator sort = new SortGroupByOperator(new SequentialScanOperator(tc, "t"), tc, "key",
+                    Collections.singletonList(AggregateFunction.COUNT), Collections.singletonList(null));
+            Iterator<Record> records = sort.iterator();
+            for (int key = 0; key < 700; ++key) {
+                assertEquals(Arrays.asList(new IntDataBox(key), new IntDataBox(key < 3000 % 700 ? 5 : 4)),
+                             records.next().getValues());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    public void testSortGroupByOnSortedInputSkipsSort() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 3000, 3000);
+            t.createIndex("t", "id", false);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator scan = new IndexScanOperator(tc, "t", "id", PredicateOperator.GREATER_THAN_EQUALS,
+                                                       new IntDataBox(0));
+            assertTrue(scan.isSortedOn("t.id"));
+            GroupByOperator sort = new SortGroupByOperator(scan, tc, "id",
+                    Collections.singletonList(AggregateFunction.COUNT), Collections.singletonList(null));
+            assertEquals(scan.getIOCost(), sort.getIOCost());
+
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            Iterator<Record> records = sort.iterator();
+            for (int id = 0; id < 3000; ++id) {
+                assertEquals(Arrays.asList(new IntDataBox(id), new IntDataBox(1)), records.next().getValues());
+            }
+            assertFalse(records.hasNext());
+            // nothing was written
+            assertTrue(db.getBufferManager().getNumIOs() - before <= scan.getIOCost());
+        }
+    }
+
+    @Test
+    public void testQueryPlanPicksGroupByMethod() {
+        this.db.setWorkMem(5);
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 5000, 10);
+
+            QueryPlan query = t.query("t");
+            query.groupBy("key");
+            query.project(Collections.singletonList("key"));
+            query.count();
+            Set<List<DataBox>> groups = groups(query.execute());
+            assertTrue(query.getFinalOperator().toString().contains("method: hash"));
+            assertEquals(10, groups.size());
+            for (List<DataBox> group : groups) {
+                assertEquals(new IntDataBox(500), group.get(1));
+            }
+
+            // an equality index scan on the grouping column is sorted on it
+            t.createIndex("t", "id", false);
+            query = t.query("t");
+            query.select("id", PredicateOperator.EQUALS, new IntDataBox(4327));
+            query.groupBy("id");
+            query.sum("key");
+            Iterator<Record> records = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("method: sort"));
+            assertEquals(Collections.singletonList(new IntDataBox(7)), records.next().getValues());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    public void testAllAggregatesInOnePass() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 3000, 100);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(tc, "t");
+
+            List<AggregateFunction> functions = Arrays.asList(AggregateFunction.MIN, AggregateFunction.MAX,
+                    AggregateFunction.COUNT_DISTINCT, AggregateFunction.COUNT_DISTINCT, AggregateFunction.SUM,
+                    AggregateFunction.SUM);
+            List<String> columns = Arrays.asList("id", "id", "id", "key", "id", "key");
+            GroupByOperator hash = new HashGroupByOperator(source, tc, "key", functions, columns);
+            GroupByOperator sort = new SortGroupByOperator(source, tc, "key", functions, columns);
+            assertEquals(Arrays.asList("minAgg", "maxAgg", "countDistinctAgg", "countDistinctAgg2", "sumAgg",
+                                       "sumAgg2"), hash.getAggregateColumnNames());
+
+            Set<List<DataBox>> expected = new HashSet<>();
+            for (int key = 0; key < 100; ++key) {
+                // ids key, key + 100, ..., key + 2900
+                expected.add(Arrays.asList(new IntDataBox(key), new IntDataBox(key), new IntDataBox(key + 2900),
+                                           new IntDataBox(30), new IntDataBox(1),
+                                           new IntDataBox(30 * key + 100 * 29 * 30 / 2), new IntDataBox(30 * key)));
+            }
+            int numPages = tc.getStats("t").getNumPages();
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            assertEquals(expected, groups(hash.iterator()));
+            // every aggregate is computed in the one scan of t
+            assertTrue(db.getBufferManager().getNumIOs() - before < 2 * numPages);
+            assertEquals(expected, groups(sort.iterator()));
+        }
+    }
+
+    @Test
+    public void testEstimatedStats() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 3000, 100);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(tc, "t");
+
+            // one record per group, not per record of the source
+            GroupByOperator hash = new HashGroupByOperator(source, tc, "key", COUNT_SUM_AVERAGE, ID_COLUMNS);
+            assertEquals(hash.estimateNumGroups(), hash.getStats().getNumRecords());
+            assertTrue(hash.getStats().getNumRecords() <= 110);
+            assertEquals(hash.getOutputSchema(), hash.getStats().getSchema());
+            assertEquals(4, hash.getStats().getHistograms().size());
+            assertEquals(1, hash.getStats().getNumPages());
+
+            GroupByOperator single = new SortGroupByOperator(source, tc, null, COUNT_SUM_AVERAGE, ID_COLUMNS);
+            assertEquals(1, single.getStats().getNumRecords());
+            assertEquals(3, single.getStats().getHistograms().size());
+        }
+    }
+
+    @Test
+    public void testQueryPlanAggregatesWithoutGroupBy() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 1000, 7);
+
+            QueryPlan query = t.query("t");
+            query.count();
+            query.min("key");
+            query.max("id");
+            query.countDistinct("key");
+            query.average("key");
+            query.sum("id");
+            Iterator<Record> records = query.execute();
+            assertEquals(Arrays.asList(new IntDataBox(1000), new IntDataBox(0), new IntDataBox(999),
+                                       new IntDataBox(7), new FloatDataBox(2997f / 1000), new IntDataBox(999 * 1000 / 2)),
+                         records.next().getValues());
+            assertFalse(records.hasNext());
+
+            // no records, no aggregates
+            query = t.query("t");
+            query.select("id", PredicateOperator.LESS_THAN, new IntDataBox(0));
+            query.max("id");
+            assertFalse(query.execute().hasNext());
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testIntegerSumOverflow() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(new Schema(Collections.singletonList("id"), Collections.singletonList(Type.intType())),
+                          "big");
+            t.insert("big", Collections.singletonList(new IntDataBox(Integer.MAX_VALUE)));
+            t.insert("big", Collections.singletonList(new IntDataBox(1)));
+            QueryPlan query = t.query("big");
+            query.sum("id");
+            query.execute().next();
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testAverageOfNonNumericColumn() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(new Schema(Collections.singletonList("name"), Collections.singletonList(Type.stringType(5))),
+                          "names");
+            QueryPlan query = t.query("names");
+            query.average("name");
+            query.execute();
+        }
+    }
+}
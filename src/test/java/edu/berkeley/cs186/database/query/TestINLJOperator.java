@@ -0,0 +1,172 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestINLJOperator {
+    private static final int NUM_STUDENTS = 500;
+    private static final int NUM_ENROLLMENTS = 10000;
+
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 20 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                20000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("inljTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        Schema students = new Schema(Arrays.asList("sid", "name"),
+                                     Arrays.asList(Type.intType(), Type.stringType(20)));
+        Schema enrollments = new Schema(Arrays.asList("eid", "cid"),
+                                        Arrays.asList(Type.intType(), Type.intType()));
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(students, "students");
+            t.createTable(enrollments, "enrollments");
+            for (int i = 0; i < NUM_STUDENTS; ++i) {
+                t.insert("students", Arrays.asList(new IntDataBox(i), new StringDataBox("student " + i, 20)));
+            }
+            for (int i = 0; i < NUM_ENROLLMENTS; ++i) {
+                t.insert("enrollments", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 7)));
+            }
+        }
+        this.db.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private void buildStatistics(Transaction t) {
+        t.getTransactionContext().getTable("students").buildStatistics(10);
+        t.getTransactionContext().getTable("enrollments").buildStatistics(10);
+    }
+
+    // Joins the students with sid < limit to their enrollment with eid = sid
+    // that is not in course 3, and returns the sids of the joined records.
+    private List<Integer> runQuery(QueryPlan query, int limit) {
+        query.join("enrollments", "students.sid", "enrollments.eid");
+        query.select("students.sid", PredicateOperator.LESS_THAN, new IntDataBox(limit));
+        query.select("enrollments.cid", PredicateOperator.NOT_EQUALS, new IntDataBox(3));
+
+        List<Integer> sids = new ArrayList<>();
+        Iterator<Record> records = query.execute();
+        while (records.hasNext()) {
+            List<?> values = records.next().getValues();
+            assertEquals(values.get(0), values.get(2));
+            sids.add(((IntDataBox) values.get(0)).getInt());
+        }
+        Collections.sort(sids);
+        return sids;
+    }
+
+    private static List<Integer> expectedSids(int limit) {
+        List<Integer> sids = new ArrayList<>();
+        for (int i = 0; i < limit; ++i) {
+            if (i % 7 != 3) {
+                sids.add(i);
+            }
+        }
+        return sids;
+    }
+
+    @Test
+    public void testINLJMatchesSNLJ() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createIndex("enrollments", "eid", false);
+            buildStatistics(t);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator students = new SelectOperator(new SequentialScanOperator(tc, "students"),
+                    "sid", PredicateOperator.LESS_THAN, new IntDataBox(50));
+            QueryOperator enrollments = new SelectOperator(new SequentialScanOperator(tc, "enrollments"),
+                    "cid", PredicateOperator.NOT_EQUALS, new IntDataBox(3));
+            assertTrue(INLJOperator.canProbe(tc, students, "sid", enrollments, "eid"));
+            assertFalse(INLJOperator.canProbe(tc, enrollments, "eid", students, "sid"));
+
+            JoinOperator inlj = new INLJOperator(students, enrollments, "sid", "eid", tc);
+            JoinOperator snlj = new SNLJOperator(students, enrollments, "sid", "eid", tc);
+            List<Record> expected = new ArrayList<>();
+            snlj.iterator().forEachRemaining(expected::add);
+            List<Record> actual = new ArrayList<>();
+            inlj.iterator().forEachRemaining(actual::add);
+
+            Comparator<Record> bySid = Comparator.comparing((Record r) -> r.getValues().get(0));
+            expected.sort(bySid);
+            actual.sort(bySid);
+            assertEquals(expected, actual);
+            assertEquals(expectedSids(50).size(), actual.size());
+        }
+    }
+
+    @Test
+    public void testOptimizerPicksINLJ() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createIndex("enrollments", "eid", false);
+            buildStatistics(t);
+            int enrollmentPages = t.getTransactionContext().getStats("enrollments").getNumPages();
+
+            QueryPlan query = t.query("students");
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            assertEquals(expectedSids(5), runQuery(query, 5));
+            long ios = db.getBufferManager().getNumIOs() - before;
+
+            assertTrue(query.getFinalOperator().toString().contains("INLJ"));
+            // enrollments is never scanned
+            assertTrue(ios < enrollmentPages);
+        }
+    }
+
+    @Test
+    public void testOptimizerPicksINLJOnHashIndex() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createHashIndex("enrollments", "eid");
+            buildStatistics(t);
+
+            QueryPlan query = t.query("students");
+            assertEquals(expectedSids(5), runQuery(query, 5));
+            assertTrue(query.getFinalOperator().toString().contains("INLJ"));
+        }
+    }
+
+    @Test
+    public void testNoINLJWithoutIndex() {
+        try (Transaction t = this.db.beginTransaction()) {
+            buildStatistics(t);
+
+            QueryPlan query = t.query("students");
+            assertEquals(expectedSids(5), runQuery(query, 5));
+            assertFalse(query.getFinalOperator().toString().contains("INLJ"));
+        }
+    }
+}
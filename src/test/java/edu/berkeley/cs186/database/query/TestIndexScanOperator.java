@@ -0,0 +1,158 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestIndexScanOperator {
+    private static final int NUM_RECORDS = 4000;
+
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 20 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                20000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("indexScanTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(3); // B=3
+        this.db.waitSetupFinished();
+
+        // Insert the keys in a random order, so that records that are adjacent
+        // in the index are scattered across the heap.
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(186));
+
+        Schema schema = new Schema(Arrays.asList("id", "pad"),
+                                   Arrays.asList(Type.intType(), Type.stringType(60)));
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(schema, "t");
+            t.createIndex("t", "id", false);
+            for (int key : keys) {
+                t.insert("t", Arrays.asList(new IntDataBox(key), new StringDataBox("record " + key, 60)));
+            }
+            t.getTransactionContext().getTable("t").buildStatistics(10);
+        }
+        this.db.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private List<Integer> scan(IndexScanOperator op) {
+        List<Integer> keys = new ArrayList<>();
+        Iterator<Record> iter = op.iterator();
+        while (iter.hasNext()) {
+            keys.add(iter.next().getValues().get(0).getInt());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testAllPredicates() {
+        int value = NUM_RECORDS / 3;
+        PredicateOperator[] predicates = {
+            PredicateOperator.EQUALS, PredicateOperator.LESS_THAN, PredicateOperator.LESS_THAN_EQUALS,
+            PredicateOperator.GREATER_THAN, PredicateOperator.GREATER_THAN_EQUALS
+        };
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            for (PredicateOperator predicate : predicates) {
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < NUM_RECORDS; ++i) {
+                    if (predicate.evaluate(new IntDataBox(i), new IntDataBox(value))) {
+                        expected.add(i);
+                    }
+                }
+
+                List<Integer> ordered = scan(new IndexScanOperator(tc, "t", "id", predicate,
+                                             new IntDataBox(value), true));
+                assertEquals(predicate.toString(), expected, ordered);
+
+                List<Integer> unordered = scan(new IndexScanOperator(tc, "t", "id", predicate,
+                                               new IntDataBox(value), false));
+                Collections.sort(unordered);
+                assertEquals(predicate.toString(), expected, unordered);
+            }
+        }
+    }
+
+    @Test
+    public void testUnorderedScanReadsHeapPagesInBatches() {
+        IntDataBox value = new IntDataBox(NUM_RECORDS / 2);
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            int numPages = tc.getStats("t").getNumPages();
+
+            IndexScanOperator ordered = new IndexScanOperator(tc, "t", "id", PredicateOperator.LESS_THAN,
+                    value, true);
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            assertEquals(NUM_RECORDS / 2, scan(ordered).size());
+            long orderedIOs = db.getBufferManager().getNumIOs() - before;
+
+            IndexScanOperator unordered = new IndexScanOperator(tc, "t", "id", PredicateOperator.LESS_THAN,
+                    value, false);
+            db.getBufferManager().evictAll();
+            before = db.getBufferManager().getNumIOs();
+            assertEquals(NUM_RECORDS / 2, scan(unordered).size());
+            long unorderedIOs = db.getBufferManager().getNumIOs() - before;
+
+            // 3 pages of work memory hold every record id we match in two
+            // batches, and each batch reads a heap page at most once.
+            assertTrue(unorderedIOs < orderedIOs);
+            assertTrue(unorderedIOs <= 2 * numPages + 20);
+            assertTrue(unordered.estimateIOCost() < ordered.estimateIOCost());
+        }
+    }
+
+    @Test
+    public void testQueryPlanUsesUnorderedScan() {
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = t.query("t");
+            query.select("id", PredicateOperator.LESS_THAN, new IntDataBox(100));
+            Iterator<Record> records = query.execute();
+
+            QueryOperator op = query.getFinalOperator();
+            assertTrue(op.isIndexScan());
+            assertTrue(op.str().contains("ordered: false"));
+
+            int count = 0;
+            while (records.hasNext()) {
+                assertTrue(records.next().getValues().get(0).getInt() < 100);
+                ++count;
+            }
+            assertEquals(100, count);
+        }
+    }
+}
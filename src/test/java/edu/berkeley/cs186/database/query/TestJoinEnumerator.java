@@ -0,0 +1,171 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestJoinEnumerator {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("joinEnumeratorTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // a source of numRecords records of the schema of TestSourceOperator, with
+    // columns prefixed by prefix; without histograms, every pair of records of
+    // two sources is estimated to join
+    private static TestSourceOperator source(String prefix, int numRecords) {
+        Schema schema = TestUtils.createSchemaWithAllTypes(prefix);
+        TableStats stats = new TableStats(schema, Table.computeNumRecordsPerPage(
+                                              BufferManager.EFFECTIVE_PAGE_SIZE, schema));
+        Record record = TestUtils.createRecordWithAllTypes();
+        for (int i = 0; i < numRecords; ++i) {
+            stats.addRecord(record);
+        }
+        TestSourceOperator source = new TestSourceOperator(Collections.emptyList(), schema);
+        source.stats = stats;
+        return source;
+    }
+
+    // an enumerator of the joins of numTables sources t0, t1, ... of
+    // numRecords records each, where t0 is joined to every other table if
+    // star, and ti to ti+1 otherwise
+    private static JoinEnumerator enumerator(TransactionContext transaction, int numTables, int numRecords,
+                                             boolean star) {
+        JoinEnumerator enumerator = new JoinEnumerator(transaction, Cost.ordering(Cost.SEQ_PAGE_COST),
+                Collections.emptyList());
+        for (int i = 0; i < numTables; ++i) {
+            enumerator.addTable("t" + i, source("t" + i + "_", numRecords), Collections.emptyList());
+        }
+        for (int i = 1; i < numTables; ++i) {
+            int left = star ? 0 : i - 1;
+            enumerator.addJoin("t" + left, "t" + left + "_int", "t" + i, "t" + i + "_int");
+        }
+        return enumerator;
+    }
+
+    private static int numTables(QueryOperator op) {
+        if (op.isJoin()) {
+            JoinOperator join = (JoinOperator) op;
+            return numTables(join.getLeftSource()) + numTables(join.getRightSource());
+        }
+        return 1;
+    }
+
+    @Test
+    public void testBushyPlan() {
+        try (Transaction t = this.db.beginTransaction()) {
+            // any three of the tables join to 100^3 records, but the last join
+            // of two pairs only reads the 100^2 records of each
+            QueryOperator plan = enumerator(t.getTransactionContext(), 4, 100, false)
+                                 .enumerate(JoinEnumerator.DEFAULT_GREEDY_THRESHOLD).get(0);
+            assertEquals(4, numTables(plan));
+            JoinOperator join = (JoinOperator) plan;
+            assertEquals(2, numTables(join.getLeftSource()));
+            assertEquals(2, numTables(join.getRightSource()));
+
+            // greedily, the cheapest join of two tables comes first, and then
+            // the cheapest join of the rest
+            plan = enumerator(t.getTransactionContext(), 4, 100, false).enumerate(0).get(0);
+            join = (JoinOperator) plan;
+            assertEquals(2, numTables(join.getLeftSource()));
+            assertEquals(2, numTables(join.getRightSource()));
+        }
+    }
+
+    @Test
+    public void testManyTables() {
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext transaction = t.getTransactionContext();
+            // a star of 9 tables has 9 * 2^7 pairs of connected sets to join
+            QueryOperator plan = enumerator(transaction, 9, 10, true).enumerate(9).get(0);
+            assertEquals(9, numTables(plan));
+            assertEquals(9 * 4, plan.getOutputSchema().getFieldNames().size());
+
+            plan = enumerator(transaction, 16, 10, false)
+                   .enumerate(JoinEnumerator.DEFAULT_GREEDY_THRESHOLD).get(0);
+            assertEquals(16, numTables(plan));
+            plan = enumerator(transaction, 16, 10, true)
+                   .enumerate(JoinEnumerator.DEFAULT_GREEDY_THRESHOLD).get(0);
+            assertEquals(16, numTables(plan));
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testDisconnectedTables() {
+        try (Transaction t = this.db.beginTransaction()) {
+            JoinEnumerator enumerator = enumerator(t.getTransactionContext(), 2, 10, false);
+            enumerator.addTable("t2", source("t2_", 10), Collections.emptyList());
+            enumerator.enumerate(JoinEnumerator.DEFAULT_GREEDY_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void testExecuteChainOfJoins() {
+        try (Transaction t = this.db.beginTransaction()) {
+            // tables t0 to t7, where ti has 10 * (i + 1) records, with ints
+            // 0 to 9 each (i + 1) times
+            for (int i = 0; i < 8; ++i) {
+                t.createTable(TestUtils.createSchemaWithAllTypes("t" + i + "_"), "t" + i);
+                for (int j = 0; j < 10 * (i + 1); ++j) {
+                    Record r = TestUtils.createRecordWithAllTypes();
+                    r.getValues().set(1, new IntDataBox(j % 10));
+                    t.insert("t" + i, r.getValues());
+                }
+                t.getTransactionContext().getTable("t" + i).buildStatistics(10);
+            }
+
+            long expected = 10;
+            for (int i = 1; i <= 8; ++i) {
+                expected *= i;
+            }
+            for (int threshold : new int[] {JoinEnumerator.DEFAULT_GREEDY_THRESHOLD, 0}) {
+                QueryPlan query = t.query("t0");
+                for (int i = 1; i < 8; ++i) {
+                    query.join("t" + i, "t" + (i - 1) + ".t" + (i - 1) + "_int", "t" + i + ".t" + i + "_int");
+                }
+                query.count();
+                query.setGreedyThreshold(threshold);
+                Iterator<Record> records = query.execute();
+                assertEquals(expected, records.next().getValues().get(0).getInt());
+                assertFalse(records.hasNext());
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestJoinFilters {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("joinFiltersTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        // students of ids 0 to 999, each with a group of id % 10, courses of
+        // ids 0 to 49, each in a department of id % 5, and 2000 enrollments,
+        // enrollment i of student i % 1000 in course i % 50
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(new Schema(Arrays.asList("s_id", "s_group"),
+                                     Arrays.asList(Type.intType(), Type.intType())), "students");
+            t.createTable(new Schema(Arrays.asList("c_id", "c_dept"),
+                                     Arrays.asList(Type.intType(), Type.intType())), "courses");
+            t.createTable(new Schema(Arrays.asList("e_id", "e_student", "e_course"),
+                                     Arrays.asList(Type.intType(), Type.intType(), Type.intType())), "enrollments");
+            for (int i = 0; i < 1000; ++i) {
+                t.insert("students", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10)));
+            }
+            for (int i = 0; i < 50; ++i) {
+                t.insert("courses", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 5)));
+            }
+            for (int i = 0; i < 2000; ++i) {
+                t.insert("enrollments", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 1000),
+                                                      new IntDataBox(i % 50)));
+            }
+            for (String tableName : Arrays.asList("students", "courses", "enrollments")) {
+                t.getTransactionContext().getTable(tableName).buildStatistics(10);
+            }
+        }
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // the operators of plan (in preorder) of the given type
+    private static List<QueryOperator> find(QueryOperator plan, QueryOperator.OperatorType type) {
+        List<QueryOperator> found = new ArrayList<>();
+        if (plan.getType() == type) {
+            found.add(plan);
+        }
+        for (QueryOperator source : plan.getSources()) {
+            found.addAll(find(source, type));
+        }
+        return found;
+    }
+
+    private static QueryPlan groupEnrollments(Transaction transaction) {
+        QueryPlan query = transaction.query("students");
+        query.join("enrollments", "students.s_id", "enrollments.e_student");
+        query.select("students.s_group", PredicateOperator.EQUALS, new IntDataBox(3));
+        return query;
+    }
+
+    private static QueryPlan starQuery(Transaction transaction) {
+        QueryPlan query = transaction.query("enrollments");
+        query.join("students", "enrollments.e_student", "students.s_id");
+        query.join("courses", "enrollments.e_course", "courses.c_id");
+        query.select("students.s_group", PredicateOperator.EQUALS, new IntDataBox(3));
+        query.select("courses.c_dept", PredicateOperator.EQUALS, new IntDataBox(3));
+        return query;
+    }
+
+    @Test
+    public void testFilterLargerInput() {
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = groupEnrollments(t);
+            query.setJoinFilterPushdown(true);
+            query.explainAnalyze();
+
+            JoinOperator join = (JoinOperator) query.getFinalOperator();
+            assertEquals(200, join.getMetrics().getRows());
+            List<QueryOperator> filters = find(join, QueryOperator.OperatorType.JOIN_FILTER);
+            assertEquals(1, filters.size());
+            // only the enrollments of the 100 students of the group are left
+            QueryOperator filter = filters.get(0);
+            assertEquals(200, filter.getMetrics().getRows());
+            assertTrue(filter.getSource().isSequentialScan());
+            assertEquals("enrollments", ((SequentialScanOperator) filter.getSource()).getTableName());
+            assertTrue(filter.str().contains("keys: exact"));
+        }
+    }
+
+    @Test
+    public void testFiltersPushedBelowJoins() {
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = starQuery(t);
+            int expected = TestUtils.count(query.execute());
+            // enrollments i with i % 10 == 3 and i % 50 in {3, 8, ..., 48}
+            assertEquals(200, expected);
+            assertTrue(find(query.getFinalOperator(), QueryOperator.OperatorType.JOIN_FILTER).isEmpty());
+
+            query = starQuery(t);
+            query.setJoinFilterPushdown(true);
+            query.explainAnalyze();
+            assertEquals(expected, query.getFinalOperator().getMetrics().getRows());
+
+            // the filters of both joins are applied to the scan of the
+            // enrollments, below both joins, which are left with only the
+            // enrollments in the result
+            List<QueryOperator> filters = find(query.getFinalOperator(), QueryOperator.OperatorType.JOIN_FILTER);
+            assertEquals(2, filters.size());
+            assertTrue(filters.get(0).getSource() == filters.get(1));
+            assertTrue(filters.get(1).getSource().isSequentialScan());
+            assertEquals("enrollments", ((SequentialScanOperator) filters.get(1).getSource()).getTableName());
+            assertEquals(expected, filters.get(0).getMetrics().getRows());
+        }
+    }
+
+    @Test
+    public void testSameResults() {
+        try (Transaction t = this.db.beginTransaction()) {
+            for (int group = 1; group < 4; ++group) {
+                QueryPlan query = t.query("enrollments");
+                query.join("students", "enrollments.e_student", "students.s_id");
+                query.select("students.s_group", PredicateOperator.LESS_THAN, new IntDataBox(group));
+                query.count();
+                int expected = query.execute().next().getValues().get(0).getInt();
+
+                query = t.query("enrollments");
+                query.join("students", "enrollments.e_student", "students.s_id");
+                query.select("students.s_group", PredicateOperator.LESS_THAN, new IntDataBox(group));
+                query.count();
+                query.setJoinFilterPushdown(true);
+                assertEquals(group * 200, expected);
+                assertEquals(expected, query.execute().next().getValues().get(0).getInt());
+            }
+        }
+    }
+
+    @Test
+    public void testBloomFilter() {
+        int numKeys = JoinKeyFilter.MAX_EXACT_KEYS * 2;
+        JoinKeyFilter filter = new JoinKeyFilter(numKeys);
+        assertTrue(filter.isExact());
+        for (int i = 0; i < numKeys; ++i) {
+            filter.add(new IntDataBox(i * 2));
+            assertEquals(i < JoinKeyFilter.MAX_EXACT_KEYS, filter.isExact());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < numKeys; ++i) {
+            assertTrue(filter.mightContain(new IntDataBox(i * 2)));
+            if (filter.mightContain(new IntDataBox(i * 2 + 1))) {
+                ++falsePositives;
+            }
+        }
+        // about 1% of the keys that were not added
+        assertTrue(falsePositives < numKeys / 20);
+
+        filter = new JoinKeyFilter(10);
+        assertTrue(filter.isExact());
+        filter.add(new IntDataBox(1));
+        assertTrue(filter.mightContain(new IntDataBox(1)));
+        assertFalse(filter.mightContain(new IntDataBox(2)));
+    }
+
+    @Test
+    public void testUnderestimatedKeys() {
+        // the same key added many times is held exactly...
+        JoinKeyFilter filter = new JoinKeyFilter(10);
+        for (int i = 0; i < JoinKeyFilter.MAX_EXACT_KEYS * 2; ++i) {
+            filter.add(new IntDataBox(7));
+        }
+        assertTrue(filter.isExact());
+
+        // ...but many more distinct keys than expected turn it into a Bloom
+        // filter, which still finds every key added
+        int numKeys = JoinKeyFilter.MAX_EXACT_KEYS * 4;
+        for (int i = 0; i < numKeys; ++i) {
+            filter.add(new IntDataBox(i));
+        }
+        assertFalse(filter.isExact());
+        for (int i = 0; i < numKeys; ++i) {
+            assertTrue(filter.mightContain(new IntDataBox(i)));
+        }
+    }
+}
@@ -161,7 +161,9 @@ public class TestOptimizationJoins {
 
             assertTrue(finalOperator.toString().contains("INDEXSCAN"));
 
-            assertTrue(finalOperator.toString().contains("SNLJ"));
+            // probing the index of t2 for the one record of t1 costs less
+            // than scanning t2 for it
+            assertTrue(finalOperator.toString().contains("INLJ"));
         }
     }
 
@@ -197,9 +199,11 @@ public class TestOptimizationJoins {
             query.execute();
 
             QueryOperator finalOperator = query.getFinalOperator();
-            //inner most joins are the largest tables
+            //inner most join is of the smallest tables, whose result is
+            //smaller than the largest table
+            assertTrue(finalOperator.toString().contains("\t\ttable: To1"));
             assertTrue(finalOperator.toString().contains("\t\ttable: To2"));
-            assertTrue(finalOperator.toString().contains("\t\ttable: To3"));
+            assertFalse(finalOperator.toString().contains("\t\ttable: To3"));
         }
     }
 
@@ -240,10 +244,12 @@ public class TestOptimizationJoins {
             QueryOperator finalOperator = query.getFinalOperator();
 
             //smallest to largest order
+            assertTrue(finalOperator.toString().contains("\t\t\ttable: To1"));
             assertTrue(finalOperator.toString().contains("\t\t\ttable: To2"));
-            assertTrue(finalOperator.toString().contains("\t\t\ttable: To3"));
-            assertTrue(finalOperator.toString().contains("\t\ttable: To1"));
+            assertTrue(finalOperator.toString().contains("\t\ttable: To3"));
+            assertFalse(finalOperator.toString().contains("\t\t\ttable: To3"));
             assertTrue(finalOperator.toString().contains("\ttable: To4"));
+            assertFalse(finalOperator.toString().contains("\t\ttable: To4"));
         }
     }
 
@@ -0,0 +1,266 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestParallelExecution {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("parallelTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(10); // B=10
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // Creates a table of numRecords (id, key) records, where key is id % numKeys.
+    private void createTable(Transaction t, String tableName, int numRecords, int numKeys) {
+        Schema schema = new Schema(Arrays.asList("id", "key"), Arrays.asList(Type.intType(), Type.intType()));
+        t.createTable(schema, tableName);
+        for (int i = 0; i < numRecords; ++i) {
+            t.insert(tableName, Arrays.asList(new IntDataBox(i), new IntDataBox(i % numKeys)));
+        }
+        t.getTransactionContext().getTable(tableName).buildStatistics(10);
+    }
+
+    private static List<List<DataBox>> list(Iterator<Record> records) {
+        List<List<DataBox>> list = new ArrayList<>();
+        records.forEachRemaining(r -> list.add(r.getValues()));
+        return list;
+    }
+
+    // the records of records, in a canonical order
+    private static List<List<DataBox>> sorted(Iterator<Record> records) {
+        List<List<DataBox>> list = list(records);
+        list.sort(Comparator.comparing(Object::toString));
+        return list;
+    }
+
+    @Test
+    public void testExchangeScanKeepsSerialOrder() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 20000, 7);
+            // leave holes in the pages
+            t.delete("t", "key", PredicateOperator.EQUALS, new IntDataBox(3));
+            TransactionContext tc = t.getTransactionContext();
+            assertTrue(tc.getNumDataPages("t") > 4 * ExchangeOperator.MORSEL_PAGES);
+
+            QueryOperator select = new SelectOperator(new SequentialScanOperator(tc, "t"), "id",
+                    PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(1000));
+            QueryOperator project = new ProjectOperator(select, Collections.singletonList("id"));
+            assertTrue(ExchangeOperator.isParallelScan(project));
+            ExchangeOperator exchange = new ExchangeOperator(project, tc, 4);
+            assertEquals(project.getIOCost(), exchange.getIOCost());
+            assertTrue(exchange.toString().contains("workers: 4"));
+
+            List<List<DataBox>> serial = list(project.execute());
+            assertEquals(20000 - 1000 - (20000 - 1000) / 7, serial.size());
+            assertEquals(serial, list(exchange.execute()));
+            assertEquals(serial, list(exchange.iterator()));
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testExchangeNeedsParallelScan() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 100, 7);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator groupBy = new HashGroupByOperator(new SequentialScanOperator(tc, "t"), tc, "key",
+                    Collections.singletonList(AggregateFunction.COUNT), Collections.singletonList(null));
+            new ExchangeOperator(groupBy, tc, 4);
+        }
+    }
+
+    @Test
+    public void testLimitStopsWorkers() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 20000, 7);
+            TransactionContext tc = t.getTransactionContext();
+            LimitOperator limit = new LimitOperator(new ExchangeOperator(new SequentialScanOperator(tc, "t"), tc, 2),
+                                                    10);
+
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            assertEquals(10, list(limit.execute()).size());
+            // only the first morsels were read, and nothing more is read later
+            long numIOs = db.getBufferManager().getNumIOs() - before;
+            assertTrue(numIOs <= 3 * ExchangeOperator.MORSEL_PAGES + 2);
+            assertTrue(numIOs < tc.getNumDataPages("t"));
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForWorkers() throws InterruptedException {
+        Transaction t = this.db.beginTransaction();
+        TransactionContext tc = t.getTransactionContext();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> worker = tc.runWorker(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return 1;
+        });
+        running.await();
+
+        Thread commit = new Thread(t::commit);
+        commit.start();
+        commit.join(200);
+        // the transaction keeps its locks until the worker is done
+        assertTrue(commit.isAlive());
+        release.countDown();
+        commit.join();
+        assertEquals(1, (int) worker.join());
+
+        // workers started after the transaction closed never run
+        assertTrue(tc.runWorker(() -> 2).handle((result, exception) -> exception)
+                   .join() instanceof CancellationException);
+    }
+
+    @Test
+    public void testParallelHashGroupBy() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 20000, 50);
+            TransactionContext tc = t.getTransactionContext();
+            List<AggregateFunction> functions = Arrays.asList(AggregateFunction.COUNT, AggregateFunction.SUM,
+                                                              AggregateFunction.MAX);
+            List<String> columns = Arrays.asList(null, "id", "id");
+
+            HashGroupByOperator serial = new HashGroupByOperator(new SequentialScanOperator(tc, "t"), tc, "key",
+                    functions, columns);
+            assertFalse(serial.runsInParallel());
+            List<List<DataBox>> expected = sorted(serial.execute());
+            assertEquals(50, expected.size());
+
+            tc.setDegreeOfParallelism(4);
+            HashGroupByOperator parallel = new HashGroupByOperator(
+                new ExchangeOperator(new SequentialScanOperator(tc, "t"), tc, 4), tc, "key", functions, columns);
+            assertTrue(parallel.runsInParallel());
+            assertTrue(parallel.toString().contains("workers: 4"));
+            assertEquals(expected, sorted(parallel.execute()));
+
+            // a source that cannot be scanned in parallel is repartitioned on this thread
+            t.createIndex("t", "id", false);
+            QueryOperator indexScan = new IndexScanOperator(tc, "t", "id", PredicateOperator.GREATER_THAN_EQUALS,
+                                                            new IntDataBox(0));
+            assertFalse(ExchangeOperator.isParallelScan(indexScan));
+            parallel = new HashGroupByOperator(indexScan, tc, "key", functions, columns);
+            assertTrue(parallel.runsInParallel());
+            assertEquals(expected, sorted(parallel.execute()));
+        }
+    }
+
+    @Test
+    public void testParallelHashJoin() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 20000, 2000);
+            createTable(t, "right", 1000, 1000);
+            TransactionContext tc = t.getTransactionContext();
+
+            GHJOperator serial = new GHJOperator(new SequentialScanOperator(tc, "left"),
+                    new SequentialScanOperator(tc, "right"), "key", "id", tc, true);
+            assertTrue(serial.isVectorized());
+            assertFalse(serial.runsInParallel());
+            List<List<DataBox>> expected = sorted(serial.execute());
+            // keys 0 to 999 of left, 10 records each
+            assertEquals(10000, expected.size());
+
+            tc.setDegreeOfParallelism(4);
+            for (boolean buildRight : new boolean[] {true, false}) {
+                QueryOperator left = new SelectOperator(new SequentialScanOperator(tc, "left"), "id",
+                        PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0));
+                QueryOperator right = new SequentialScanOperator(tc, "right");
+                GHJOperator parallel = buildRight ? new GHJOperator(left, right, "key", "id", tc, true)
+                                       : new GHJOperator(right, left, "id", "key", tc, true);
+                assertTrue(parallel.runsInParallel());
+                List<List<DataBox>> joined = sorted(parallel.execute());
+                if (!buildRight) {
+                    // the columns of right come first
+                    for (List<DataBox> values : joined) {
+                        values.addAll(values.subList(0, 2));
+                        values.subList(0, 2).clear();
+                    }
+                    joined.sort(Comparator.comparing(Object::toString));
+                }
+                assertEquals(expected, joined);
+            }
+        }
+    }
+
+    @Test
+    public void testQueryPlanWithDegreeOfParallelism() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 20000, 10);
+
+            t.setDegreeOfParallelism(3);
+            QueryPlan query = t.query("t");
+            query.select("id", PredicateOperator.LESS_THAN, new IntDataBox(15000));
+            query.groupBy("key");
+            query.project(Collections.singletonList("key"));
+            query.count();
+            List<List<DataBox>> groups = sorted(query.execute());
+            QueryOperator groupBy = query.getFinalOperator().getSource();
+            assertTrue(groupBy instanceof HashGroupByOperator);
+            assertTrue(((HashGroupByOperator) groupBy).runsInParallel());
+            assertEquals(QueryOperator.OperatorType.EXCHANGE, groupBy.getSource().getType());
+            assertEquals(10, groups.size());
+            for (List<DataBox> group : groups) {
+                assertEquals(new IntDataBox(1500), group.get(1));
+            }
+
+            // a serial transaction plans no exchange
+            t.setDegreeOfParallelism(1);
+            query = t.query("t");
+            query.select("id", PredicateOperator.LESS_THAN, new IntDataBox(15000));
+            assertEquals(15000, list(query.execute()).size());
+            assertFalse(query.getFinalOperator().toString().contains("EXCHANGE"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDegreeOfParallelismMustBePositive() {
+        try (Transaction t = this.db.beginTransaction()) {
+            t.setDegreeOfParallelism(0);
+        }
+    }
+}
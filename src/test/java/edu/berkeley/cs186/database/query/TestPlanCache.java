@@ -0,0 +1,186 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Record;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPlanCache {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("planCacheTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        // tables s and t of ids 0 to 999, each with a group of id % 10
+        try (Transaction t = this.db.beginTransaction()) {
+            TestUtils.createGroupedTables(t, "s", "t");
+            t.createIndex("t", "t_id", false);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private static QueryPlan lookup(Transaction transaction) {
+        QueryPlan query = transaction.query("t");
+        query.selectParameter("t_id", PredicateOperator.EQUALS);
+        return query;
+    }
+
+    private static List<Record> collect(Iterator<Record> records) {
+        List<Record> result = new ArrayList<>();
+        records.forEachRemaining(result::add);
+        return result;
+    }
+
+    private PlanCache planCache(Transaction transaction) {
+        return transaction.getTransactionContext().getPlanCache();
+    }
+
+    @Test
+    public void testPreparedLookupReusesPlan() {
+        for (int i = 0; i < 3; ++i) {
+            try (Transaction t = this.db.beginTransaction()) {
+                QueryPlan query = lookup(t);
+                List<Record> records = collect(query.execute(Collections.singletonList(new IntDataBox(i * 7))));
+                assertEquals(1, records.size());
+                assertEquals(i * 7, records.get(0).getValues().get(0).getInt());
+                assertTrue(query.getFinalOperator().isIndexScan());
+
+                PlanCache cache = planCache(t);
+                assertEquals(i, cache.getNumHits());
+                assertEquals(1, cache.getNumMisses());
+                assertEquals(1, cache.size());
+            }
+        }
+    }
+
+    @Test
+    public void testPreparedJoin() {
+        try (Transaction t = this.db.beginTransaction()) {
+            for (int group = 0; group < 3; ++group) {
+                QueryPlan query = t.query("s");
+                query.join("t", "s.s_id", "t.t_id");
+                query.selectParameter("s.s_group", PredicateOperator.EQUALS);
+                query.selectParameter("t.t_id", PredicateOperator.LESS_THAN);
+                query.count();
+                List<DataBox> parameters = Arrays.asList(new IntDataBox(group), new IntDataBox(500));
+                Iterator<Record> records = query.execute(parameters);
+                assertEquals(50, records.next().getValues().get(0).getInt());
+                assertFalse(records.hasNext());
+            }
+            // constants are part of the shape of a query, unlike parameters
+            QueryPlan query = t.query("s");
+            query.join("t", "s.s_id", "t.t_id");
+            query.select("s.s_group", PredicateOperator.EQUALS, new IntDataBox(1));
+            query.selectParameter("t.t_id", PredicateOperator.LESS_THAN);
+            query.execute(Collections.singletonList(new IntDataBox(10)));
+
+            assertEquals(2, planCache(t).getNumHits());
+            assertEquals(2, planCache(t).getNumMisses());
+            assertEquals(2, planCache(t).size());
+        }
+    }
+
+    @Test
+    public void testInvalidation() {
+        try (Transaction t = this.db.beginTransaction()) {
+            PlanCache cache = planCache(t);
+            QueryPlan query = t.query("s");
+            query.selectParameter("s_id", PredicateOperator.EQUALS);
+            List<DataBox> parameters = Collections.singletonList(new IntDataBox(3));
+            query.execute(parameters);
+            assertTrue(query.getFinalOperator().isSelect());
+
+            // a new index may make a better plan
+            t.createIndex("s", "s_id", false);
+            query.execute(parameters);
+            assertTrue(query.getFinalOperator().isIndexScan());
+            assertEquals(0, cache.getNumHits());
+
+            // and so may new statistics
+            query.execute(parameters);
+            assertEquals(1, cache.getNumHits());
+            t.getTransactionContext().getTable("s").buildStatistics(10);
+            query.execute(parameters);
+            assertEquals(1, cache.getNumHits());
+            assertEquals(3, cache.getNumMisses());
+
+            // or a table that grew by more than a fifth
+            for (int i = 1000; i < 1100; ++i) {
+                t.insert("s", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10)));
+            }
+            query.execute(parameters);
+            assertEquals(2, cache.getNumHits());
+            for (int i = 1100; i < 1300; ++i) {
+                t.insert("s", Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10)));
+            }
+            assertEquals(1, collect(query.execute(parameters)).size());
+            assertEquals(2, cache.getNumHits());
+            assertEquals(4, cache.getNumMisses());
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPlanIsEvicted() {
+        PlanCache cache = new PlanCache(2);
+        try (Transaction t = this.db.beginTransaction()) {
+            TransactionContext transaction = t.getTransactionContext();
+            QueryOperator plan = new SequentialScanOperator(transaction, "s");
+            for (String shape : new String[] {"a", "b", "c"}) {
+                cache.put(shape, new PlanCache.CachedPlan(plan, Collections.emptyMap(),
+                          Collections.singletonList("s"), transaction));
+            }
+            assertEquals(2, cache.size());
+            assertNull(cache.get("a", transaction));
+            assertNotNull(cache.get("b", transaction));
+            cache.put("d", new PlanCache.CachedPlan(plan, Collections.emptyMap(),
+                      Collections.singletonList("s"), transaction));
+            assertNull(cache.get("c", transaction));
+            assertNotNull(cache.get("b", transaction));
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testMissingParameters() {
+        try (Transaction t = this.db.beginTransaction()) {
+            lookup(t).execute();
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testTooManyParameters() {
+        try (Transaction t = this.db.beginTransaction()) {
+            lookup(t).execute(Arrays.asList(new IntDataBox(1), new IntDataBox(2)));
+        }
+    }
+}
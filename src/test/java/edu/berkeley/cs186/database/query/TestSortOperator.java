@@ -390,4 +390,99 @@ public class TestSortOperator {
         }
     }
 
+    @Test
+    public void testMergeManyRunsWithDuplicates() {
+        try(Transaction transaction = d.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "table");
+            SortOperator s = new SortOperator(transaction.getTransactionContext(), "table",
+                                              new SortRecordComparator(1));
+            List<SortOperator.Run> runs = new ArrayList<>();
+            for (int i = 0; i < 13; i++) {
+                runs.add(s.createRun());
+            }
+            // every value appears twice, in two different runs
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 400 * 3; i++) {
+                Record r = TestUtils.createRecordWithAllTypesWithValue(i / 2);
+                records.add(r);
+                runs.get(i % 13).addRecord(r.getValues());
+            }
+
+            Iterator<Record> iter = s.mergeSortedRuns(runs).iterator();
+            int i = 0;
+            while (iter.hasNext() && i < 400 * 3) {
+                assertEquals("mismatch at record " + i, records.get(i), iter.next());
+                i++;
+            }
+            assertFalse("too many records", iter.hasNext());
+            assertEquals("too few records", 400 * 3, i);
+        }
+    }
+
+    @Test
+    public void testSortEmptyTable() {
+        try(Transaction transaction = d.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "table");
+            SortOperator s = new SortOperator(transaction.getTransactionContext(), "table",
+                                              new SortRecordComparator(1));
+            assertFalse(s.iterator().hasNext());
+        }
+    }
+
+    // Sorts table, which holds records (of value i) for every i in values, and checks the result.
+    private SortOperator checkSort(Transaction transaction, List<Integer> values,
+                                   boolean replacementSelection) {
+        SortOperator s = new SortOperator(transaction.getTransactionContext(), "table",
+                                          new SortRecordComparator(1), replacementSelection);
+        Iterator<Record> iter = s.iterator();
+        List<Integer> sortedValues = new ArrayList<>(values);
+        Collections.sort(sortedValues);
+        for (int value : sortedValues) {
+            assertEquals(TestUtils.createRecordWithAllTypesWithValue(value), iter.next());
+        }
+        assertFalse("too many records", iter.hasNext());
+        return s;
+    }
+
+    @Test
+    public void testReplacementSelectionRandomInput() {
+        try(Transaction transaction = d.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "table");
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < 400 * 24; i++) {
+                values.add(i);
+            }
+            Collections.shuffle(values, new Random(42));
+            for (int value : values) {
+                transaction.getTransactionContext().addRecord("table",
+                        TestUtils.createRecordWithAllTypesWithValue(value).getValues());
+            }
+
+            SortOperator selection = checkSort(transaction, values, true);
+            // runs of about 2 * 2 pages, vs the 8 runs of 3 pages of sortRun
+            assertTrue(selection.getNumRuns() < 8);
+        }
+    }
+
+    @Test
+    public void testReplacementSelectionNearlySortedInput() {
+        try(Transaction transaction = d.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "table");
+            // sorted, except that every pair of neighbouring records is swapped
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < 400 * 12; i++) {
+                values.add(i ^ 1);
+            }
+            for (int value : values) {
+                transaction.getTransactionContext().addRecord("table",
+                        TestUtils.createRecordWithAllTypesWithValue(value).getValues());
+            }
+
+            SortOperator blocks = checkSort(transaction, values, false);
+            SortOperator selection = checkSort(transaction, values, true);
+            assertEquals(2, blocks.getNumMergePasses());
+            assertEquals(1, selection.getNumRuns());
+            assertEquals(0, selection.getNumMergePasses());
+        }
+    }
 }
@@ -87,7 +87,7 @@ public class TestSourceOperator extends QueryOperator {
     }
 
     @Override
-    public int estimateIOCost() {
+    public long estimateIOCost() {
         return 1;
     }
 }
@@ -0,0 +1,218 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestTopNOperator {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("topNTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(3); // B=3
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // Creates a table of numRecords (id, course) records, where the ids are
+    // shuffled and course is id % numCourses.
+    private void createTable(Transaction t, int numRecords, int numCourses) {
+        Schema schema = new Schema(Arrays.asList("id", "course"), Arrays.asList(Type.intType(), Type.intType()));
+        t.createTable(schema, "t");
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(186));
+        for (int id : ids) {
+            t.insert("t", Arrays.asList(new IntDataBox(id), new IntDataBox(id % numCourses)));
+        }
+        t.getTransactionContext().getTable("t").buildStatistics(10);
+    }
+
+    private static List<Integer> column(Iterator<Record> records, int index) {
+        List<Integer> values = new ArrayList<>();
+        while (records.hasNext()) {
+            values.add(records.next().getValues().get(index).getInt());
+        }
+        return values;
+    }
+
+    @Test
+    public void testTopNMatchesSort() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 5000, 100);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(tc, "t");
+
+            TopNOperator top = new TopNOperator(source, tc, "id", false, 10);
+            assertTrue(top.fitsInMemory());
+            assertEquals(source.getIOCost(), top.getIOCost());
+            assertEquals(Arrays.asList(4999, 4998, 4997, 4996, 4995, 4994, 4993, 4992, 4991, 4990),
+                         column(top.iterator(), 0));
+
+            // ties keep the order of the source
+            top = new TopNOperator(source, tc, "course", true, 120);
+            OrderByOperator sort = new OrderByOperator(source, tc, "course", true);
+            List<Record> expected = new ArrayList<>();
+            Iterator<Record> sorted = sort.iterator();
+            for (int i = 0; i < 120; ++i) {
+                expected.add(sorted.next());
+            }
+            List<Record> actual = new ArrayList<>();
+            top.iterator().forEachRemaining(actual::add);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testTopNInOnePass() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 5000, 100);
+            TransactionContext tc = t.getTransactionContext();
+            int numPages = tc.getStats("t").getNumPages();
+
+            TopNOperator top = new TopNOperator(new SequentialScanOperator(tc, "t"), tc, "id", true, 50);
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            List<Integer> ids = column(top.iterator(), 0);
+            // one scan of t, and nothing written
+            assertTrue(db.getBufferManager().getNumIOs() - before < 2 * numPages);
+            assertEquals(50, ids.size());
+            for (int i = 0; i < 50; ++i) {
+                assertEquals(i, (int) ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testTopNSpillsWhenLimitDoesNotFit() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 5000, 100);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(tc, "t");
+
+            TopNOperator top = new TopNOperator(source, tc, "id", false, 4000);
+            assertFalse(top.fitsInMemory());
+            assertEquals(new OrderByOperator(source, tc, "id", false).getIOCost(), top.getIOCost());
+            List<Integer> ids = column(top.iterator(), 0);
+            assertEquals(4000, ids.size());
+            for (int i = 0; i < 4000; ++i) {
+                assertEquals(4999 - i, (int) ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLimitStopsScanEarly() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 5000, 100);
+            TransactionContext tc = t.getTransactionContext();
+            int numPages = tc.getStats("t").getNumPages();
+
+            LimitOperator limit = new LimitOperator(new SequentialScanOperator(tc, "t"), 10);
+            assertEquals(10, limit.getStats().getNumRecords());
+            db.getBufferManager().evictAll();
+            long before = db.getBufferManager().getNumIOs();
+            assertEquals(10, column(limit.iterator(), 0).size());
+            assertTrue(db.getBufferManager().getNumIOs() - before < numPages);
+
+            assertFalse(new LimitOperator(new SequentialScanOperator(tc, "t"), 0).iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testQueryPlanTopCoursesByEnrollment() {
+        try (Transaction t = this.db.beginTransaction()) {
+            // course c has 3000 / 50 + c records
+            createTable(t, 3000, 50);
+            for (int course = 0; course < 50; ++course) {
+                for (int i = 0; i < course; ++i) {
+                    t.insert("t", Arrays.asList(new IntDataBox(-1), new IntDataBox(course)));
+                }
+            }
+
+            QueryPlan query = t.query("t");
+            query.groupBy("course");
+            query.project(Collections.singletonList("course"));
+            query.count();
+            query.orderBy("countAgg", false);
+            query.limit(3);
+            Iterator<Record> records = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("limit: 3"));
+            assertEquals(Arrays.asList(new IntDataBox(49), new IntDataBox(60 + 49)), records.next().getValues());
+            assertEquals(Arrays.asList(new IntDataBox(48), new IntDataBox(60 + 48)), records.next().getValues());
+            assertEquals(Arrays.asList(new IntDataBox(47), new IntDataBox(60 + 47)), records.next().getValues());
+            assertFalse(records.hasNext());
+
+            query = t.query("t");
+            query.groupBy("course");
+            query.project(Collections.singletonList("course"));
+            query.count();
+            query.orderBy("course");
+            query.limit(2);
+            List<List<DataBox>> groups = new ArrayList<>();
+            query.execute().forEachRemaining(r -> groups.add(r.getValues()));
+            assertEquals(Arrays.asList(Arrays.asList(new IntDataBox(0), new IntDataBox(60)),
+                                       Arrays.asList(new IntDataBox(1), new IntDataBox(61))), groups);
+        }
+    }
+
+    @Test
+    public void testLimitOnSortedInputNeedsNoSort() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 3000, 50);
+            TransactionContext tc = t.getTransactionContext();
+
+            // sort aggregation returns its groups in order
+            GroupByOperator groupBy = new SortGroupByOperator(new SequentialScanOperator(tc, "t"), tc, "course",
+                    Collections.singletonList(AggregateFunction.COUNT), Collections.singletonList(null));
+            assertTrue(groupBy.isSortedOn("course"));
+            OrderByOperator orderBy = new OrderByOperator(groupBy, tc, "course", true);
+            assertFalse(orderBy.needsSort());
+            assertEquals(groupBy.getIOCost(), orderBy.getIOCost());
+            assertTrue(new OrderByOperator(groupBy, tc, "course", false).needsSort());
+            assertEquals(Arrays.asList(0, 1, 2), column(new LimitOperator(orderBy, 3).iterator(), 0));
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    public void testNegativeLimit() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, 10, 1);
+            t.query("t").limit(-1);
+        }
+    }
+}
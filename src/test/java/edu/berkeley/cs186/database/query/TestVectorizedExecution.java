@@ -0,0 +1,207 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestVectorizedExecution {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("vectorizedTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    // Creates a table of numRecords (id, key, score, name) records, where key
+    // is id % numKeys, score is id / 4 and name is the last digit of id.
+    private void createTable(Transaction t, String tableName, int numRecords, int numKeys) {
+        Schema schema = new Schema(Arrays.asList("id", "key", "score", "name"),
+                                   Arrays.asList(Type.intType(), Type.intType(), Type.floatType(),
+                                                 Type.stringType(1)));
+        t.createTable(schema, tableName);
+        for (int i = 0; i < numRecords; ++i) {
+            t.insert(tableName, Arrays.asList(new IntDataBox(i), new IntDataBox(i % numKeys),
+                                              new FloatDataBox(i / 4f), new StringDataBox("" + i % 10, 1)));
+        }
+        t.getTransactionContext().getTable(tableName).buildStatistics(10);
+    }
+
+    private static List<Record> list(Iterator<Record> records) {
+        List<Record> list = new ArrayList<>();
+        records.forEachRemaining(list::add);
+        return list;
+    }
+
+    @Test
+    public void testScanBatches() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 3000, 10);
+            // leave holes in the pages
+            t.delete("t", "key", PredicateOperator.EQUALS, new IntDataBox(3));
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator scan = new SequentialScanOperator(tc, "t");
+            Iterator<RecordBatch> batches = scan.batchIterator();
+            assertEquals(RecordBatch.CAPACITY, batches.next().size());
+            assertEquals(list(scan.iterator()), list(RecordBatch.toRecords(scan.batchIterator())));
+            assertEquals(2700, list(scan.execute()).size());
+        }
+    }
+
+    @Test
+    public void testSelectBatchesMatchRows() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 3000, 10);
+            TransactionContext tc = t.getTransactionContext();
+            QueryOperator scan = new SequentialScanOperator(tc, "t");
+
+            List<DataBox> values = Arrays.asList(new IntDataBox(1234), new IntDataBox(7),
+                                                 new FloatDataBox(100.25f), new StringDataBox("5", 1));
+            List<String> columns = Arrays.asList("id", "key", "score", "name");
+            for (int i = 0; i < columns.size(); ++i) {
+                for (PredicateOperator operator : PredicateOperator.values()) {
+                    SelectOperator select = new SelectOperator(scan, columns.get(i), operator, values.get(i));
+                    assertEquals(columns.get(i) + " " + operator, list(select.iterator()),
+                                 list(RecordBatch.toRecords(select.batchIterator())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testProjectOverSelect() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 3000, 10);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator select = new SelectOperator(new SequentialScanOperator(tc, "t"), "key",
+                    PredicateOperator.EQUALS, new IntDataBox(4));
+            select = new SelectOperator(select, "score", PredicateOperator.LESS_THAN, new FloatDataBox(500f));
+            ProjectOperator project = new ProjectOperator(select, Arrays.asList("name", "id"));
+            assertTrue(project.isVectorized());
+
+            List<Record> expected = new ArrayList<>();
+            for (int id = 4; id < 2000; id += 10) {
+                expected.add(new Record(Arrays.asList(new StringDataBox("4", 1), new IntDataBox(id))));
+            }
+            assertEquals(expected, list(project.execute()));
+            assertEquals(expected, list(project.iterator()));
+        }
+    }
+
+    @Test
+    public void testHashGroupByOverBatches() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 3000, 10);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryPlan query = t.query("t");
+            query.select("id", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(1000));
+            query.groupBy("key");
+            query.project(Collections.singletonList("key"));
+            query.count();
+            query.sum("id");
+            query.average("score");
+            Set<List<DataBox>> groups = new HashSet<>();
+            query.execute().forEachRemaining(r -> groups.add(r.getValues()));
+
+            Set<List<DataBox>> expected = new HashSet<>();
+            for (int key = 0; key < 10; ++key) {
+                int sum = 0;
+                double scores = 0;
+                for (int id = 1000 + key; id < 3000; id += 10) {
+                    sum += id;
+                    scores += id / 4f;
+                }
+                expected.add(Arrays.asList(new IntDataBox(key), new IntDataBox(200), new IntDataBox(sum),
+                                           new FloatDataBox((float) (scores / 200))));
+            }
+            assertEquals(expected, groups);
+        }
+    }
+
+    @Test
+    public void testHashJoinProbesBatches() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 3000, 100);
+            createTable(t, "right", 200, 100);
+            TransactionContext tc = t.getTransactionContext();
+
+            QueryOperator left = new SequentialScanOperator(tc, "left");
+            QueryOperator right = new SequentialScanOperator(tc, "right");
+            GHJOperator hybrid = new GHJOperator(left, right, "key", "key", tc, true);
+            assertTrue(hybrid.isVectorized());
+            assertFalse(new GHJOperator(left, right, "key", "key", tc).isVectorized());
+
+            List<Record> rows = list(hybrid.iterator());
+            assertEquals(6000, rows.size());
+            assertEquals(rows, list(hybrid.execute()));
+        }
+    }
+
+    @Test
+    public void testHashJoinBatchesWithUnderestimatedBuildSide() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "left", 3000, 1000);
+            createTable(t, "right", 2000, 1500);
+            createTable(t, "tiny", 10, 10);
+            TransactionContext tc = t.getTransactionContext();
+
+            TableStats tinyStats = tc.getStats("tiny");
+            QueryOperator left = new SequentialScanOperator(tc, "left");
+            QueryOperator right = new SequentialScanOperator(tc, "right") {
+                @Override
+                public TableStats getStats() {
+                    return tinyStats;
+                }
+            };
+            GHJOperator hybrid = new GHJOperator(left, right, "key", "key", tc, true);
+            assertTrue(hybrid.isVectorized());
+            Comparator<Record> order = Comparator.comparing((Record r) -> r.getValues().get(0))
+                                       .thenComparing(r -> r.getValues().get(4));
+            List<Record> expected = list(hybrid.iterator());
+            List<Record> actual = list(hybrid.execute());
+            expected.sort(order);
+            actual.sort(order);
+            assertEquals(expected, actual);
+        }
+    }
+}
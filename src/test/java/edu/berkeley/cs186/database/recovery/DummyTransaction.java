@@ -7,7 +7,11 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.BloomFilter;
+import edu.berkeley.cs186.database.index.Index;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.query.PlanCache;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -19,6 +23,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 /**
@@ -78,6 +85,12 @@ class DummyTransaction extends AbstractTransaction {
     @Override
     public void createIndex(String tableName, String columnName, boolean bulkLoad) {}
 
+    @Override
+    public void createHashIndex(String tableName, String columnName) {}
+
+    @Override
+    public void createBloomFilter(String tableName, String columnName) {}
+
     @Override
     public void dropIndex(String tableName, String columnName) {}
 
@@ -159,6 +172,9 @@ class DummyTransaction extends AbstractTransaction {
         return 0;
     }
 
+    @Override
+    public void setDegreeOfParallelism(int degreeOfParallelism) {}
+
     @Override
     public TransactionContext getTransactionContext() {
         return new DummyTransactionContext();
@@ -175,6 +191,19 @@ class DummyTransaction extends AbstractTransaction {
             return 0;
         }
 
+        @Override
+        public int getDegreeOfParallelism() {
+            return 1;
+        }
+
+        @Override
+        public void setDegreeOfParallelism(int degreeOfParallelism) {}
+
+        @Override
+        public <T> CompletableFuture<T> runWorker(Supplier<T> work) {
+            return null;
+        }
+
         @Override
         public void close() {}
 
@@ -215,6 +244,12 @@ class DummyTransaction extends AbstractTransaction {
             return null;
         }
 
+        @Override
+        public Iterator<RecordId> scanIndex(String tableName, String columnName,
+                                            PredicateOperator predicate, DataBox value) {
+            return null;
+        }
+
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
             return null;
@@ -285,6 +320,16 @@ class DummyTransaction extends AbstractTransaction {
             return null;
         }
 
+        @Override
+        public PlanCache getPlanCache() {
+            return null;
+        }
+
+        @Override
+        public BufferManager getBufferManager() {
+            return null;
+        }
+
         @Override
         public int getNumDataPages(String tableName) {
             return 0;
@@ -314,5 +359,15 @@ class DummyTransaction extends AbstractTransaction {
         public int getTreeHeight(String tableName, String columnName) {
             return 0;
         }
+
+        @Override
+        public Index.Kind getIndexKind(String tableName, String columnName) {
+            return Index.Kind.BPLUS_TREE;
+        }
+
+        @Override
+        public Optional<BloomFilter> getBloomFilter(String tableName, String columnName) {
+            return Optional.empty();
+        }
     }
 }
@@ -86,6 +86,17 @@ public class MemoryHeapFile implements HeapFile, AutoCloseable {
         return new PageIterator();
     }
 
+    @Override
+    public List<Long> getDataPageNums() {
+        List<Long> dataPageNums = new ArrayList<>();
+        for (long pageNum : pageNums) {
+            if (pages.get(pageNum) != null) {
+                dataPageNums.add(pageNum);
+            }
+        }
+        return dataPageNums;
+    }
+
     @Override
     public int getNumDataPages() {
         return numDataPages;
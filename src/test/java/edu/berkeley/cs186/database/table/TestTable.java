@@ -446,4 +446,34 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    /**
+     * Pages of records with every other record missing, read a page at a
+     * time.
+     */
+    @Test
+    public void testPageRecordsIteratorWithGaps() {
+        int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = createRecordWithAllTypes(i);
+            rids.add(table.addRecord(r.getValues()));
+        }
+        for (int i = 0; i < numRecords; i += 2) {
+            table.deleteRecord(rids.get(i));
+        }
+
+        Iterator<List<Record>> pages = table.pageRecordsIterator();
+        List<Record> records = new ArrayList<>();
+        int numPages = 0;
+        while (pages.hasNext()) {
+            records.addAll(pages.next());
+            ++numPages;
+        }
+        assertEquals(3, numPages);
+        assertEquals(numRecords / 2, records.size());
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(createRecordWithAllTypes(2 * i + 1), records.get(i));
+        }
+    }
 }
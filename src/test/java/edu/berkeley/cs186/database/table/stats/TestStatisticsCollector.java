@@ -0,0 +1,375 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestStatisticsCollector {
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 30 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                30000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("statsTest");
+        this.db = new Database(tempDir.getAbsolutePath(), 32);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+    }
+
+    @After
+    public void cleanup() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private static final Schema SCHEMA = new Schema(Arrays.asList("id", "skewed", "name"),
+            Arrays.asList(Type.intType(), Type.intType(), Type.stringType(4)));
+
+    // record i of a table of SCHEMA: skewed is 0 for 90% of the records, and
+    // name is one of 100 strings
+    private static List<DataBox> values(int i) {
+        return Arrays.asList(new IntDataBox(i), new IntDataBox(i % 10 == 0 ? i : 0),
+                             new StringDataBox("n" + i % 100, 4));
+    }
+
+    private void createTable(Transaction t, String tableName, int numRecords) {
+        t.createTable(SCHEMA, tableName);
+        for (int i = 0; i < numRecords; ++i) {
+            t.insert(tableName, values(i));
+        }
+    }
+
+    private static List<Bucket<Float>> buckets(Histogram histogram, int numBuckets) {
+        List<Bucket<Float>> buckets = new ArrayList<>();
+        for (int i = 0; i < numBuckets; ++i) {
+            buckets.add(histogram.get(i));
+        }
+        return buckets;
+    }
+
+    @Test
+    public void testExactCollectorMatchesBuildHistogram() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 2000);
+            Table table = t.getTransactionContext().getTable("t");
+            table.buildStatistics(10);
+            List<Histogram> histograms = table.getStats().getHistograms();
+            assertEquals(2000, table.getStats().getNumRecords());
+            for (int i = 0; i < SCHEMA.getFieldNames().size(); ++i) {
+                Histogram expected = new Histogram(10);
+                expected.buildHistogram(table, i);
+                assertEquals(buckets(expected, 10), buckets(histograms.get(i), 10));
+                assertEquals(expected.getNumDistinct(), histograms.get(i).getNumDistinct());
+            }
+        }
+    }
+
+    @Test
+    public void testExactCollectorTakesTwoPasses() {
+        StatisticsCollector collector = new StatisticsCollector(SCHEMA, 10);
+        for (int i = 0; i < 20000; ++i) {
+            collector.add(new Record(values(i)));
+        }
+        // only the range of every column is known after the first pass
+        try {
+            collector.getNumDistinct(0);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(collector.beginSecondPass());
+        assertFalse(collector.beginSecondPass());
+        for (int i = 0; i < 20000; ++i) {
+            collector.add(new Record(values(i)));
+        }
+        assertEquals(20000, collector.getNumRecords());
+        assertEquals(StatisticsCollector.GROUP_SAMPLE_SIZE, collector.getNumSampled());
+        assertEquals(20000, collector.getNumDistinct(0));
+        assertEquals(100, collector.getNumDistinct(2));
+        List<Histogram> histograms = collector.buildHistograms();
+        assertEquals(20000, histograms.get(0).getCount());
+        assertEquals(2000, histograms.get(0).get(0).getCount());
+        // 90% of the records, and a tenth of the other ones, are in the first bucket
+        assertEquals(18200, histograms.get(1).get(0).getCount());
+
+        // a sampling collector takes a single pass
+        assertFalse(new StatisticsCollector(SCHEMA, 10, 500, new Random(0)).beginSecondPass());
+    }
+
+    @Test
+    public void testHyperLogLog() {
+        for (int n : new int[] {10, 1000, 100000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            HyperLogLog half = new HyperLogLog();
+            for (int i = 0; i < n; ++i) {
+                // every value twice
+                sketch.add(new IntDataBox(i));
+                sketch.add(new IntDataBox(i));
+                if (i % 2 == 0) {
+                    half.add(new LongDataBox(i));
+                }
+            }
+            assertEquals(n, sketch.estimate(), n * 0.05 + 1);
+            HyperLogLog other = new HyperLogLog();
+            for (int i = 1; i < n; i += 2) {
+                other.add(new LongDataBox(i));
+            }
+            half.merge(other);
+            assertEquals(n, half.estimate(), n * 0.05 + 1);
+        }
+    }
+
+    @Test
+    public void testEquiDepthBuckets() {
+        StatisticsCollector collector = new StatisticsCollector(SCHEMA, 5, 10000, new Random(0));
+        for (int i = 0; i < 1000; ++i) {
+            collector.add(new Record(values(i)));
+        }
+        // the sample holds every record, so the histograms are exact
+        List<Histogram> histograms = collector.buildHistograms();
+        Histogram id = histograms.get(0);
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(200, id.get(i).getCount());
+            assertEquals(200, id.get(i).getDistinctCount());
+        }
+        assertEquals(0.5, id.computeReductionFactor(PredicateOperator.LESS_THAN, new IntDataBox(500)), 0.01);
+        assertEquals(1000, id.copyWithPredicate(PredicateOperator.GREATER_THAN_EQUALS,
+                                                new IntDataBox(0)).getCount());
+
+        // the 901 zeros of skewed get a bucket of their own, and the other 99
+        // values are spread over the rest
+        Histogram skewed = histograms.get(1);
+        assertEquals(1000, skewed.getCount());
+        assertEquals(100, skewed.getNumDistinct());
+        assertEquals(901, skewed.get(0).getCount());
+        assertEquals(1, skewed.get(0).getDistinctCount());
+        assertEquals(901, skewed.copyWithPredicate(PredicateOperator.EQUALS, new IntDataBox(0)).getCount());
+        assertEquals(0, skewed.copyWithPredicate(PredicateOperator.GREATER_THAN, new IntDataBox(990)).getCount());
+    }
+
+    @Test
+    public void testSampledStatistics() {
+        StatisticsCollector collector = new StatisticsCollector(SCHEMA, 10, 500, new Random(0));
+        for (int i = 0; i < 20000; ++i) {
+            collector.add(new Record(values(i)));
+        }
+        assertEquals(20000, collector.getNumRecords());
+        assertEquals(500, collector.getNumSampled());
+        assertEquals(20000, collector.getNumDistinct(0), 20000 * 0.05);
+        assertEquals(100, collector.getNumDistinct(2), 5);
+
+        List<Histogram> histograms = collector.buildHistograms();
+        for (Histogram histogram : histograms) {
+            assertEquals(20000, histogram.getCount(), 10);
+        }
+        assertEquals(20000, histograms.get(0).getNumDistinct(), 20000 * 0.05);
+        assertEquals(100, histograms.get(2).getNumDistinct(), 10);
+        assertEquals(0.25, histograms.get(0).computeReductionFactor(PredicateOperator.LESS_THAN,
+                     new IntDataBox(5000)), 0.05);
+    }
+
+    @Test
+    public void testBuildStatisticsInBackground() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 3000);
+            Table table = t.getTransactionContext().getTable("t");
+            table.buildStatistics(10, 1000);
+            TableStats stats = table.getStats();
+            assertEquals(3000, stats.getNumRecords());
+            assertEquals(3000, stats.getHistograms().get(0).getCount(), 10);
+
+            for (int i = 3000; i < 4000; ++i) {
+                t.insert("t", values(i));
+            }
+            CompletableFuture<Void> future = table.buildStatisticsInBackground(10, 1000);
+            future.join();
+            assertEquals(4000, stats.getNumRecords());
+            assertEquals(4000, stats.getHistograms().get(0).getCount(), 10);
+            assertEquals(4000, stats.getHistograms().get(0).getNumDistinct(), 4000 * 0.05);
+        }
+    }
+
+    @Test
+    public void testIncrementalMaintenance() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 1000);
+            Table table = t.getTransactionContext().getTable("t");
+            TableStats stats = table.getStats();
+            // histograms that were never built are left alone
+            assertEquals(1000, stats.getNumModifications());
+            assertEquals(0, stats.getHistograms().get(0).getCount());
+            assertFalse(stats.isStale());
+
+            table.buildStatistics(10);
+            assertEquals(0, stats.getNumModifications());
+            Histogram id = stats.getHistograms().get(0);
+            assertEquals(100, id.get(0).getCount());
+
+            // ids 0 to 49 again, and one past the last bucket
+            for (int i = 0; i < 50; ++i) {
+                t.insert("t", values(i));
+            }
+            t.insert("t", values(5000));
+            assertEquals(150, id.get(0).getCount());
+            assertEquals(100, id.get(0).getDistinctCount());
+            assertEquals(101, id.get(9).getCount());
+            assertEquals(101, id.get(9).getDistinctCount());
+            assertEquals(1051, id.getCount());
+
+            t.delete("t", "id", PredicateOperator.LESS_THAN, new IntDataBox(10));
+            assertEquals(130, id.get(0).getCount());
+            assertEquals(1031, stats.getNumRecords());
+            assertEquals(71, stats.getNumModifications());
+            // 20% of 1000 records
+            assertFalse(stats.isStale());
+            stats.setStalenessThreshold(0.05f);
+            assertTrue(stats.isStale());
+        }
+    }
+
+    @Test
+    public void testQueryRefreshesStaleStatistics() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 1000);
+            Table table = t.getTransactionContext().getTable("t");
+            table.buildStatistics(10, 500);
+            TableStats stats = table.getStats();
+            for (int i = 1000; i < 1100; ++i) {
+                t.insert("t", values(i));
+            }
+            assertFalse(stats.isStale());
+            assertTrue(table.refreshStatisticsIfStale().isDone());
+
+            for (int i = 1100; i < 1300; ++i) {
+                t.insert("t", values(i));
+            }
+            assertTrue(stats.isStale());
+            QueryPlan query = t.query("t");
+            query.select("id", PredicateOperator.LESS_THAN, new IntDataBox(100));
+            Iterator<Record> records = query.execute();
+            table.awaitStatistics();
+            assertFalse(stats.isStale());
+            assertEquals(0, stats.getNumModifications());
+            assertEquals(1300, stats.getNumRecords());
+            // re-analyzed with the same settings: equi-depth, from a sample
+            assertEquals(1300, stats.getHistograms().get(0).getCount(), 10);
+            assertEquals(0.1f, stats.getHistograms().get(0).get(0).getCount() / 1300f, 0.01f);
+
+            int count = 0;
+            for (; records.hasNext(); records.next()) {
+                ++count;
+            }
+            assertEquals(100, count);
+        }
+    }
+
+    @Test
+    public void testReanalysisRunsOnExecutor() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 1000);
+            Table table = t.getTransactionContext().getTable("t");
+            table.buildStatistics(10);
+            TableStats stats = table.getStats();
+            List<Runnable> tasks = new ArrayList<>();
+            table.setStatisticsExecutor(tasks::add);
+            t.delete("t", "id", PredicateOperator.LESS_THAN, new IntDataBox(500));
+            assertTrue(stats.isStale());
+
+            // the query only submits the re-analysis, and runs without it
+            QueryPlan query = t.query("t");
+            query.select("id", PredicateOperator.EQUALS, new IntDataBox(700));
+            Iterator<Record> records = query.execute();
+            assertEquals(1, tasks.size());
+            assertEquals(1, stats.getNumAnalyses());
+            assertTrue(stats.isStale());
+            assertEquals(700, records.next().getValues().get(0).getInt());
+            assertFalse(records.hasNext());
+
+            tasks.get(0).run();
+            assertTrue(table.refreshStatisticsIfStale().isDone());
+            assertEquals(2, stats.getNumAnalyses());
+            assertFalse(stats.isStale());
+            assertEquals(500, stats.getNumRecords());
+        }
+    }
+
+    @Test
+    public void testWritesWaitForReanalysis() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 5000);
+            Table table = t.getTransactionContext().getTable("t");
+            table.buildStatistics(10);
+            TableStats stats = table.getStats();
+            t.delete("t", "id", PredicateOperator.LESS_THAN, new IntDataBox(2000));
+            assertTrue(stats.isStale());
+
+            // the insert only writes the table once the re-analysis read it
+            CompletableFuture<Void> future = table.refreshStatisticsIfStale();
+            t.insert("t", values(0));
+            assertTrue(future.isDone());
+            assertEquals(1, stats.getNumModifications());
+            assertEquals(3001, stats.getNumRecords());
+            // the ids left, and the one inserted after the re-analysis
+            assertEquals(3001, stats.getHistograms().get(0).getNumDistinct());
+        }
+    }
+
+    @Test
+    public void testEstimatesLeaveStatisticsAlone() {
+        try (Transaction t = this.db.beginTransaction()) {
+            createTable(t, "t", 1000);
+            Table table = t.getTransactionContext().getTable("t");
+            table.buildStatistics(10);
+            TableStats stats = table.getStats();
+
+            // every query is estimated from the same analysis, whatever was
+            // estimated before it
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(100, estimate(t, PredicateOperator.LESS_THAN, 100));
+                assertEquals(100, estimate(t, PredicateOperator.GREATER_THAN_EQUALS, 900), 1);
+            }
+            assertEquals(1000, stats.getHistograms().get(0).getCount());
+            assertEquals(100, stats.getHistograms().get(0).get(0).getCount());
+            assertEquals(0, stats.getNumModifications());
+        }
+    }
+
+    // the estimated number of records of t whose id satisfies predicate
+    private static long estimate(Transaction t, PredicateOperator predicate, int value) {
+        QueryPlan query = t.query("t");
+        query.select("id", predicate, new IntDataBox(value));
+        query.execute();
+        return query.getFinalOperator().getStats().getNumRecords();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampleSizeMustBePositive() {
+        new StatisticsCollector(SCHEMA, 10, 0, new Random());
+    }
+}